@@ -17,6 +17,7 @@ import org.cds.main.blockchain.datasource.DbSource;
 import org.cds.main.blockchain.datasource.MemSizeEstimator;
 import org.cds.main.blockchain.datasource.NodeKeyCompositor;
 import org.cds.main.blockchain.datasource.PrefixLookupSource;
+import org.cds.main.blockchain.datasource.ReadTrackingSource;
 import org.cds.main.blockchain.datasource.Serializer;
 import org.cds.main.blockchain.datasource.Source;
 import org.cds.main.blockchain.datasource.SourceCodec;
@@ -31,6 +32,8 @@ import org.cds.main.blockchain.db.HeaderStore;
 import org.cds.main.blockchain.db.PeerSource;
 import org.cds.main.blockchain.db.RepositoryRoot;
 import org.cds.main.blockchain.db.RepositoryWrapper;
+import org.cds.main.blockchain.db.StateSnapshot;
+import org.cds.main.blockchain.db.StateSnapshotFile;
 import org.cds.main.blockchain.db.StateSource;
 import org.cds.main.blockchain.listener.CompositeEthereumListener;
 import org.cds.main.blockchain.listener.EthereumListener;
@@ -103,12 +106,12 @@ public class CommonConfig {
 
     @Bean
     public Repository defaultRepository() {
-        return new RepositoryRoot(stateSource(), null);
+        return new RepositoryRoot(stateSource(), null, stateSnapshot());
     }
 
     @Bean @Scope("prototype")
     public Repository repository(byte[] stateRoot) {
-        return new RepositoryRoot(stateSource(), stateRoot);
+        return new RepositoryRoot(stateSource(), stateRoot, stateSnapshot());
     }
 
     /**
@@ -143,6 +146,27 @@ public class CommonConfig {
         return stateSource;
     }
 
+    /**
+     * Flat copy of the state at the latest imported block for O(1) account and storage reads,
+     * disabled unless turned on in the config
+     *
+     * @see StateSnapshot
+     */
+    @Bean
+    public StateSnapshot stateSnapshot() {
+        if (!systemProperties().isStateSnapshotEnabled()) {
+            return new StateSnapshot();
+        }
+
+        DbSource<byte[]> dataSource = keyValueDataSource("snapshot");
+        WriteCache.BytesKey<byte[]> cache = new WriteCache.BytesKey<>(
+                new ReadTrackingSource<>(new BatchSourceWriter<>(dataSource)), WriteCache.CacheType.SIMPLE);
+        cache.setFlushSource(true);
+        dbFlushManager().addCache(cache);
+
+        return new StateSnapshot(dataSource, cache, stateSource());
+    }
+
     @Bean
     @Scope("prototype")
     public Source<byte[], byte[]> cachedDbSource(String name) {
@@ -226,6 +250,12 @@ public class CommonConfig {
             // - if we now want to do regular sync
             // - if the first fastsync stage was not complete (thus DBs are not in consistent state)
 
+            if (systemProperties().isFastSyncEnabled() && blockchainDB().get(StateSnapshotFile.SNAPSHOT_PIVOT_KEY) != null) {
+                // the state at the pivot was imported and verified by StateSnapshotFile, the first stage is resumed
+                logger.warn("Last fastsync from the imported state snapshot was interrupted. Resuming...");
+                return;
+            }
+
             logger.warn("Last fastsync was interrupted. Removing inconsistent DBs...");
 
             DbSource bcSource = blockchainDB();
@@ -386,6 +386,16 @@ public class SystemProperties {
         return config.getInt("peer.discovery.touchMaxNodes");
     }
 
+    @ValidateMe
+    public int peerDiscoveryVerifyThreads() {
+        return config.hasPath("peer.discovery.verifyThreads") ? config.getInt("peer.discovery.verifyThreads") : 2;
+    }
+
+    @ValidateMe
+    public int peerDiscoveryMaxPacketsPerIp() {
+        return config.hasPath("peer.discovery.maxPacketsPerIp") ? config.getInt("peer.discovery.maxPacketsPerIp") : 500;
+    }
+
     @ValidateMe
     public int peerConnectionTimeout() {
         return config.getInt("peer.connection.timeout") * 1000;
@@ -401,6 +411,52 @@ public class SystemProperties {
         return config.hasPath("peer.p2p.framing.maxSize") ? config.getInt("peer.p2p.framing.maxSize") : MessageCodec.NO_FRAMING;
     }
 
+    @ValidateMe
+    public boolean peerNettyEpoll() {
+        return config.hasPath("peer.netty.epoll") ? config.getBoolean("peer.netty.epoll") : true;
+    }
+
+    @ValidateMe
+    public boolean peerNettySharedEventLoop() {
+        return config.hasPath("peer.netty.sharedEventLoop") ? config.getBoolean("peer.netty.sharedEventLoop") : true;
+    }
+
+    /**
+     * @return number of the peer event loop threads, 0 for the Netty default (2 * CPU cores)
+     */
+    @ValidateMe
+    public int peerNettyThreads() {
+        return config.hasPath("peer.netty.threads") ? config.getInt("peer.netty.threads") : 0;
+    }
+
+    @ValidateMe
+    public boolean peerNettyTcpNoDelay() {
+        return config.hasPath("peer.netty.tcpNoDelay") ? config.getBoolean("peer.netty.tcpNoDelay") : true;
+    }
+
+    @ValidateMe
+    public int peerNettyWriteBufferLowWaterMark() {
+        return config.hasPath("peer.netty.writeBuffer.lowWaterMark") ? config.getInt("peer.netty.writeBuffer.lowWaterMark") : 32 * 1024;
+    }
+
+    @ValidateMe
+    public int peerNettyWriteBufferHighWaterMark() {
+        return config.hasPath("peer.netty.writeBuffer.highWaterMark") ? config.getInt("peer.netty.writeBuffer.highWaterMark") : 64 * 1024;
+    }
+
+    /**
+     * @return socket send buffer size, 0 for the OS default
+     */
+    @ValidateMe
+    public int peerNettySendBuffer() {
+        return config.hasPath("peer.netty.socketBuffer.send") ? config.getInt("peer.netty.socketBuffer.send") : 0;
+    }
+
+    @ValidateMe
+    public int peerNettyReceiveBuffer() {
+        return config.hasPath("peer.netty.socketBuffer.receive") ? config.getInt("peer.netty.socketBuffer.receive") : 256 * 1024;
+    }
+
 
     @ValidateMe
     public int transactionApproveTimeout() {
@@ -436,6 +492,27 @@ public class SystemProperties {
         return config.getBoolean("database.prune.enabled") ? config.getInt("database.prune.maxDepth") : -1;
     }
 
+    @ValidateMe
+    public boolean isDatabasePruneBackground() {
+        return config.hasPath("database.prune.background.enabled") && config.getBoolean("database.prune.background.enabled");
+    }
+
+    @ValidateMe
+    public int databasePruneMaxBacklog() {
+        return config.hasPath("database.prune.background.maxBacklog") ? config.getInt("database.prune.background.maxBacklog") : 64;
+    }
+
+    @ValidateMe
+    public int databasePruneMaxDeletesPerSecond() {
+        return config.hasPath("database.prune.background.maxDeletesPerSecond") ?
+                config.getInt("database.prune.background.maxDeletesPerSecond") : 0;
+    }
+
+    @ValidateMe
+    public boolean isStateSnapshotEnabled() {
+        return config.hasPath("database.snapshot.enabled") && config.getBoolean("database.snapshot.enabled");
+    }
+
     @ValidateMe
     public List<Node> peerActive() {
         if (!config.hasPath("peer.active")) {
@@ -794,6 +871,17 @@ public class SystemProperties {
         return config.getInt("sync.makeDoneByTimeout");
     }
 
+    @ValidateMe
+    public int syncImportVerifyThreads() {
+        int threads = config.hasPath("sync.import.verifyThreads") ? config.getInt("sync.import.verifyThreads") : 0;
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @ValidateMe
+    public boolean syncImportAsyncReceipts() {
+        return config.hasPath("sync.import.asyncReceipts") ? config.getBoolean("sync.import.asyncReceipts") : true;
+    }
+
 
     @ValidateMe
     public boolean isPublicHomeNode() { return config.getBoolean("peer.discovery.public.home.node");}
@@ -887,6 +975,11 @@ public class SystemProperties {
         return config.getString("crypto.providerName");
     }
 
+    @ValidateMe
+    public String getSignatureBackend() {
+        return config.hasPath("crypto.signature.backend") ? config.getString("crypto.signature.backend") : "spongycastle";
+    }
+
     @ValidateMe
     public boolean recordInternalTransactionsData() {
         if (recordInternalTransactionsData == null) {
@@ -899,6 +992,31 @@ public class SystemProperties {
         this.recordInternalTransactionsData = recordInternalTransactionsData;
     }
 
+    @ValidateMe
+    public boolean recordStateAccess() {
+        return config.hasPath("record.state.access") && config.getBoolean("record.state.access");
+    }
+
+    @ValidateMe
+    public int getLocalCallThreads() {
+        return config.hasPath("modules.rpc.call.threads") ? config.getInt("modules.rpc.call.threads") : 4;
+    }
+
+    @ValidateMe
+    public int getLocalCallQueueSize() {
+        return config.hasPath("modules.rpc.call.queueSize") ? config.getInt("modules.rpc.call.queueSize") : 64;
+    }
+
+    @ValidateMe
+    public long getLocalCallGasLimit() {
+        return config.hasPath("modules.rpc.call.gasLimit") ? config.getLong("modules.rpc.call.gasLimit") : 50_000_000L;
+    }
+
+    @ValidateMe
+    public long getLocalCallTimeout() {
+        return config.hasPath("modules.rpc.call.timeout") ? config.getLong("modules.rpc.call.timeout") : 5000;
+    }
+
     @ValidateMe
     public String getHash256AlgName() {
         return config.getString("crypto.hash.alg256");
@@ -43,6 +43,8 @@ public class Block {
 
     private byte[] rlpEncoded;
     private boolean parsed = false;
+    // transactions are known to match the header tx trie root
+    private volatile boolean txTrieRootVerified = false;
 
     /* Constructors */
 
@@ -122,23 +124,19 @@ public class Block {
     private synchronized void parseRLP() {
         if (parsed) return;
 
-        RLPList params = RLP.decode2(rlpEncoded);
-        RLPList block = (RLPList) params.get(0);
+        RLPReader block = new RLPReader(rlpEncoded).nextList();
 
         // Parse Header
-        RLPList header = (RLPList) block.get(0);
-        this.header = new BlockHeader(header);
+        this.header = new BlockHeader(block.nextList());
 
         // Parse Transactions
-        RLPList txTransactions = (RLPList) block.get(1);
-        this.parseTxs(this.header.getTxTrieRoot(), txTransactions, false);
+        RLPReader txTransactions = block.nextList();
+        this.txTrieRootVerified = this.parseTxs(this.header.getTxTrieRoot(), txTransactions, false);
 
         // Parse Uncles
-        RLPList uncleBlocks = (RLPList) block.get(2);
-        for (RLPElement rawUncle : uncleBlocks) {
-
-            RLPList uncleHeader = (RLPList) rawUncle;
-            BlockHeader blockData = new BlockHeader(uncleHeader);
+        RLPReader uncleBlocks = block.nextList();
+        while (uncleBlocks.hasNext()) {
+            BlockHeader blockData = new BlockHeader(uncleBlocks.nextList());
             this.uncleList.add(blockData);
         }
         this.parsed = true;
@@ -179,6 +177,19 @@ public class Block {
         this.header.setStateRoot(stateRoot);
     }
 
+    /**
+     * Checks the transactions against the header tx trie root.
+     * The root is calculated once, blocks parsed from RLP are checked while parsing
+     */
+    public boolean verifyTxTrieRoot() {
+        parseRLP();
+        if (!txTrieRootVerified) {
+            txTrieRootVerified = FastByteComparisons.equal(
+                    BlockchainImpl.calcTxTrie(transactionsList), header.getTxTrieRoot());
+        }
+        return txTrieRootVerified;
+    }
+
     public byte[] getTxTrieRoot() {
         parseRLP();
         return this.header.getTxTrieRoot();
@@ -348,21 +359,21 @@ public class Block {
         return toStringBuff.toString();
     }
 
-    private byte[] parseTxs(RLPList txTransactions, boolean validate) {
+    private byte[] parseTxs(RLPReader txTransactions, boolean validate) {
 
         Trie<byte[]> txsState = new TrieImpl();
-        for (int i = 0; i < txTransactions.size(); i++) {
-            RLPElement transactionRaw = txTransactions.get(i);
-            Transaction tx = new Transaction(transactionRaw.getRLPData());
+        for (int i = 0; txTransactions.hasNext(); i++) {
+            byte[] transactionRaw = txTransactions.nextEncoded();
+            Transaction tx = new Transaction(transactionRaw);
             if (validate) tx.verify();
             this.transactionsList.add(tx);
-            txsState.put(RLP.encodeInt(i), transactionRaw.getRLPData());
+            txsState.put(RLP.encodeInt(i), transactionRaw);
         }
         return txsState.getRootHash();
     }
 
 
-    private boolean parseTxs(byte[] expectedRoot, RLPList txTransactions, boolean validate) {
+    private boolean parseTxs(byte[] expectedRoot, RLPReader txTransactions, boolean validate) {
 
         byte[] rootHash = parseTxs(txTransactions, validate);
         String calculatedRoot = Hex.toHexString(rootHash);
@@ -492,24 +503,25 @@ public class Block {
             block.header = header;
             block.parsed = true;
 
-            RLPList items = (RLPList) RLP.decode2(body).get(0);
+            RLPReader items = new RLPReader(body).nextList();
 
-            RLPList transactions = (RLPList) items.get(0);
-            RLPList uncles = (RLPList) items.get(1);
+            RLPReader transactions = items.nextList();
+            int unclesStart = items.position();
+            RLPReader uncles = items.nextList();
+            int unclesEnd = items.position();
 
             if (!block.parseTxs(header.getTxTrieRoot(), transactions, false)) {
                 return null;
             }
+            block.txTrieRootVerified = true;
 
-            byte[] unclesHash = HashUtil.sha3(uncles.getRLPData());
+            byte[] unclesHash = HashUtil.sha3(body, unclesStart, unclesEnd - unclesStart);
             if (!java.util.Arrays.equals(header.getUnclesHash(), unclesHash)) {
                 return null;
             }
 
-            for (RLPElement rawUncle : uncles) {
-
-                RLPList uncleHeader = (RLPList) rawUncle;
-                BlockHeader blockData = new BlockHeader(uncleHeader);
+            while (uncles.hasNext()) {
+                BlockHeader blockData = new BlockHeader(uncles.nextList());
                 block.uncleList.add(blockData);
             }
 
@@ -525,6 +537,7 @@ public class Block {
                 txSize +
                 ByteArrayEstimator.estimateSize(block.rlpEncoded) +
                 1 + // parsed flag
+                1 + // tx trie root verified flag
                 16; // Object header + ref
     };
 }
@@ -10,7 +10,9 @@ import org.cds.main.blockchain.crypto.HashUtil;
 import org.cds.main.blockchain.util.ByteUtil;
 import org.cds.main.blockchain.util.FastByteComparisons;
 import org.cds.main.blockchain.util.RLP;
+import org.cds.main.blockchain.util.RLPReader;
 import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPWriter;
 import org.cds.main.blockchain.util.Utils;
 import org.spongycastle.util.Arrays;
 import org.spongycastle.util.encoders.Hex;
@@ -121,6 +123,35 @@ public class BlockHeader {
         this.deadLine = rlpHeader.get(16).getRLPData();
     }
 
+    public BlockHeader(RLPReader rlpHeader) {
+        this.parentHash = rlpHeader.nextBytes();
+        this.unclesHash = rlpHeader.nextBytes();
+        this.coinbase = rlpHeader.nextBytes();
+        this.stateRoot = rlpHeader.nextBytes();
+
+        this.txTrieRoot = rlpHeader.nextBytes();
+        if (this.txTrieRoot == null)
+            this.txTrieRoot = EMPTY_TRIE_HASH;
+
+        this.receiptTrieRoot = rlpHeader.nextBytes();
+        if (this.receiptTrieRoot == null)
+            this.receiptTrieRoot = EMPTY_TRIE_HASH;
+
+        this.logsBloom = rlpHeader.nextBytes();
+        this.difficulty = rlpHeader.nextBytes();
+
+        this.number = rlpHeader.nextLong();
+        this.gasLimit = rlpHeader.nextBytes();
+        this.gasUsed = rlpHeader.nextLong();
+        this.timestamp = rlpHeader.nextLong();
+
+        this.extraData = rlpHeader.nextBytes();
+        this.genSign = rlpHeader.nextBytes();
+        this.baseTarget = rlpHeader.nextLong();
+        this.nonce = rlpHeader.nextLong();
+        this.deadLine = rlpHeader.nextBytes();
+    }
+
     public BlockHeader(byte[] parentHash, byte[] unclesHash, byte[] coinbase,
                        byte[] logsBloom, byte[] difficulty, long number,
                        byte[] gasLimit, long gasUsed, long timestamp,
@@ -320,40 +351,43 @@ public class BlockHeader {
 	}
 
     public byte[] getEncoded(boolean withNonce) {
-        byte[] parentHash = RLP.encodeElement(this.parentHash);
-
-        byte[] unclesHash = RLP.encodeElement(this.unclesHash);
-        byte[] coinbase = RLP.encodeElement(this.coinbase);
-
-        byte[] stateRoot = RLP.encodeElement(this.stateRoot);
-
         if (txTrieRoot == null) this.txTrieRoot = EMPTY_TRIE_HASH;
-        byte[] txTrieRoot = RLP.encodeElement(this.txTrieRoot);
-
         if (receiptTrieRoot == null) this.receiptTrieRoot = EMPTY_TRIE_HASH;
-        byte[] receiptTrieRoot = RLP.encodeElement(this.receiptTrieRoot);
-
-        byte[] logsBloom = RLP.encodeElement(this.logsBloom);
-        byte[] difficulty = RLP.encodeBigInteger(new BigInteger(1, this.difficulty));
-        byte[] number = RLP.encodeBigInteger(BigInteger.valueOf(this.number));
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] gasUsed = RLP.encodeBigInteger(BigInteger.valueOf(this.gasUsed));
-        byte[] timestamp = RLP.encodeBigInteger(BigInteger.valueOf(this.timestamp));
-        byte[] extraData = RLP.encodeElement(this.extraData);
-        
+        BigInteger difficulty = new BigInteger(1, this.difficulty);
+
+        int size = RLPWriter.sizeOfBytes(parentHash) + RLPWriter.sizeOfBytes(unclesHash) +
+                RLPWriter.sizeOfBytes(coinbase) + RLPWriter.sizeOfBytes(stateRoot) +
+                RLPWriter.sizeOfBytes(txTrieRoot) + RLPWriter.sizeOfBytes(receiptTrieRoot) +
+                RLPWriter.sizeOfBytes(logsBloom) + RLPWriter.sizeOfBigInteger(difficulty) +
+                RLPWriter.sizeOfLong(number) + RLPWriter.sizeOfBytes(gasLimit) +
+                RLPWriter.sizeOfLong(gasUsed) + RLPWriter.sizeOfLong(timestamp) +
+                RLPWriter.sizeOfBytes(extraData);
+        if (withNonce) {
+            size += RLPWriter.sizeOfBytes(genSign) + RLPWriter.sizeOfLong(baseTarget) +
+                    RLPWriter.sizeOfLong(nonce) + RLPWriter.sizeOfBytes(deadLine);
+        }
+
+        RLPWriter writer = RLPWriter.list(size)
+                .writeBytes(parentHash)
+                .writeBytes(unclesHash)
+                .writeBytes(coinbase)
+                .writeBytes(stateRoot)
+                .writeBytes(txTrieRoot)
+                .writeBytes(receiptTrieRoot)
+                .writeBytes(logsBloom)
+                .writeBigInteger(difficulty)
+                .writeLong(number)
+                .writeBytes(gasLimit)
+                .writeLong(gasUsed)
+                .writeLong(timestamp)
+                .writeBytes(extraData);
         if (withNonce) {
-            byte[] genSign = RLP.encodeElement(this.genSign);
-            byte[] baseTarget = RLP.encodeBigInteger(BigInteger.valueOf(this.baseTarget));
-            byte[] nonce = RLP.encodeBigInteger(BigInteger.valueOf(this.nonce));
-            byte[] deadLine = RLP.encodeElement(this.deadLine);
-            return RLP.encodeList(parentHash, unclesHash, coinbase,
-                    stateRoot, txTrieRoot, receiptTrieRoot, logsBloom, difficulty, number,
-                    gasLimit, gasUsed, timestamp, extraData, genSign, baseTarget, nonce,deadLine);
-        } else {
-            return RLP.encodeList(parentHash, unclesHash, coinbase,
-                    stateRoot, txTrieRoot, receiptTrieRoot, logsBloom, difficulty, number,
-                    gasLimit, gasUsed, timestamp, extraData);
+            writer.writeBytes(genSign)
+                    .writeLong(baseTarget)
+                    .writeLong(nonce)
+                    .writeBytes(deadLine);
         }
+        return writer.toByteArray();
     }
 
     public byte[] getUnclesEncoded(List<BlockHeader> uncleList) {
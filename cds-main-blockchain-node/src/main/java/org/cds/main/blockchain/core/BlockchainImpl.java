@@ -30,7 +30,15 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Stack;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.cds.main.blockchain.config.BlockchainConfig;
 import org.cds.main.blockchain.config.CommonConfig;
 import org.cds.main.blockchain.config.SystemProperties;
@@ -77,6 +85,8 @@ public class BlockchainImpl implements Blockchain, org.cds.main.blockchain.facad
     private static final int MAGIC_REWARD_OFFSET = 8;
     public static final byte[] EMPTY_LIST_HASH = sha3(RLP.encodeList(new byte[0]));
 
+    private static final int RECEIPTS_QUEUE_SIZE = 64;
+
     @Autowired @Qualifier("defaultRepository")
     private Repository repository;
 
@@ -122,9 +132,13 @@ public class BlockchainImpl implements Blockchain, org.cds.main.blockchain.facad
     @Autowired
     StateSource stateDataSource;
 
-    @Autowired
     DbFlushManager dbFlushManager;
 
+    // stores the receipts of the imported block while the next one is executed
+    private ExecutorService receiptsExecutor;
+    // the failure of the asynchronous receipts write, fails the subsequent imports and DB flushes
+    private final AtomicReference<Throwable> receiptsFailure = new AtomicReference<>();
+
     SystemProperties config = SystemProperties.getDefault();
 
     private List<Chain> altChains = new ArrayList<>();
@@ -147,6 +161,27 @@ public class BlockchainImpl implements Blockchain, org.cds.main.blockchain.facad
     public BlockchainImpl(final SystemProperties config) {
         this.config = config;
         initConst(config);
+        if (config.syncImportAsyncReceipts()) {
+            receiptsExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(RECEIPTS_QUEUE_SIZE),
+                    new ThreadFactoryBuilder().setNameFormat("ReceiptsStoreThread-%d").build(),
+                    (task, executor) -> {
+                        // blocks the importing thread when the receipts store is behind
+                        try {
+                            executor.getQueue().put(task);
+                        } catch (InterruptedException e) {
+                            // the receipts are never dropped, the interrupted thread stores them itself
+                            Thread.currentThread().interrupt();
+                            task.run();
+                        }
+                    });
+        }
+    }
+
+    @Autowired
+    public void setDbFlushManager(DbFlushManager dbFlushManager) {
+        this.dbFlushManager = dbFlushManager;
+        dbFlushManager.addFlushBarrier(this::awaitReceipts);
     }
 
     //todo: autowire over constructor
@@ -688,12 +723,9 @@ public class BlockchainImpl implements Blockchain, org.cds.main.blockchain.facad
             isValid = isValid(block.getHeader());
 
             // Sanity checks
-            String trieHash = toHexString(block.getTxTrieRoot());
-            String trieListHash = toHexString(calcTxTrie(block.getTransactionsList()));
-
-
-            if (!trieHash.equals(trieListHash)) {
-                logger.warn("Block's given Trie Hash doesn't match: {} != {}", trieHash, trieListHash);
+            if (!block.verifyTxTrieRoot()) {
+                logger.warn("Block's given Trie Hash doesn't match: {} != {}", toHexString(block.getTxTrieRoot()),
+                        toHexString(calcTxTrie(block.getTransactionsList())));
                 return false;
             }
 
@@ -944,14 +976,31 @@ public class BlockchainImpl implements Blockchain, org.cds.main.blockchain.facad
 
     @Override
     public synchronized void storeBlock(Block block, List<TransactionReceipt> receipts) {
+        checkReceiptsFailure();
 
         if (fork)
             blockStore.saveBlock(block, totalDifficulty, false);
         else
             blockStore.saveBlock(block, totalDifficulty, true);
 
+        List<TransactionInfo> infos = new ArrayList<>(receipts.size());
         for (int i = 0; i < receipts.size(); i++) {
-            transactionStore.put(new TransactionInfo(receipts.get(i), block.getHash(), i));
+            infos.add(new TransactionInfo(receipts.get(i), block.getHash(), i));
+        }
+        if (receiptsExecutor != null) {
+            transactionStore.addPending(infos);
+            receiptsExecutor.execute(() -> {
+                try {
+                    storeReceipts(infos);
+                } catch (Throwable t) {
+                    logger.error("Error storing receipts of block " + block.getShortDescr(), t);
+                    receiptsFailure.compareAndSet(null, t);
+                } finally {
+                    transactionStore.removePending(infos);
+                }
+            });
+        } else {
+            storeReceipts(infos);
         }
 
         if (pruneManager != null) {
@@ -971,6 +1020,33 @@ public class BlockchainImpl implements Blockchain, org.cds.main.blockchain.facad
     }
 
 
+    private void storeReceipts(List<TransactionInfo> infos) {
+        for (TransactionInfo info : infos) {
+            transactionStore.put(info);
+        }
+    }
+
+    /**
+     * Waits until the receipts of the imported blocks are stored
+     * @throws RuntimeException if any of them has failed to be stored
+     */
+    private void awaitReceipts() {
+        if (receiptsExecutor == null || receiptsExecutor.isShutdown()) return;
+        try {
+            Uninterruptibles.getUninterruptibly(receiptsExecutor.submit(() -> {}));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        checkReceiptsFailure();
+    }
+
+    private void checkReceiptsFailure() {
+        Throwable failure = receiptsFailure.get();
+        if (failure != null) {
+            throw new RuntimeException("Storing receipts of the imported block has failed", failure);
+        }
+    }
+
     public boolean hasParentOnTheChain(Block block) {
         return getParent(block.getHeader()) != null;
     }
@@ -1004,6 +1080,17 @@ public class BlockchainImpl implements Blockchain, org.cds.main.blockchain.facad
 
     @Override
     public synchronized void close() {
+        if (receiptsExecutor != null) {
+            try {
+                awaitReceipts();
+            } catch (RuntimeException e) {
+                logger.error("Receipts of the imported blocks are not stored", e);
+            }
+            receiptsExecutor.shutdown();
+        }
+        if (pruneManager != null) {
+            pruneManager.close();
+        }
         blockStore.close();
     }
 
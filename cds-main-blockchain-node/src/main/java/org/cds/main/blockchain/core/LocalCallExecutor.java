@@ -0,0 +1,155 @@
+package org.cds.main.blockchain.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.cds.main.blockchain.config.CommonConfig;
+import org.cds.main.blockchain.config.SystemProperties;
+import org.cds.main.blockchain.db.BlockStore;
+import org.cds.main.blockchain.db.RepositoryRoot;
+import org.cds.main.blockchain.listener.EthereumListenerAdapter;
+import org.cds.main.blockchain.util.ByteUtil;
+import org.cds.main.blockchain.vm.program.invoke.ProgramInvokeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.math.BigInteger;
+import java.util.concurrent.*;
+
+import static org.cds.main.blockchain.util.BIUtil.toBI;
+
+/**
+ * Executes local (constant) calls like eth_call and eth_estimateGas.
+ *
+ * Calls run in a dedicated bounded pool so the RPC load can't starve the block import,
+ * each call is limited in wall clock time and its gas limit is capped (like RPCGasCap in geth). Unless the caller supplies the state
+ * to run on, a call gets a read-only snapshot of the block state which caches
+ * everything it reads privately and doesn't contend with the import for the shared caches
+ */
+@Component
+public class LocalCallExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger("execute");
+
+    @Autowired
+    CommonConfig commonConfig = CommonConfig.getDefault();
+
+    @Autowired
+    BlockchainImpl blockchain;
+
+    @Autowired
+    BlockStore blockStore;
+
+    @Autowired
+    ProgramInvokeFactory programInvokeFactory;
+
+    private final BigInteger gasLimit;
+    private final long timeout;
+    private final ThreadPoolExecutor executor;
+
+    @Autowired
+    public LocalCallExecutor(SystemProperties config) {
+        this.gasLimit = BigInteger.valueOf(config.getLocalCallGasLimit());
+        this.timeout = config.getLocalCallTimeout();
+        int threads = config.getLocalCallThreads();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getLocalCallQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("local-call-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @return max gas a single call may use, a call with the higher gas limit is executed with this one
+     */
+    public BigInteger getGasLimit() {
+        return gasLimit;
+    }
+
+    /**
+     * Executes the transaction on top of the read-only snapshot of the block state
+     */
+    public TransactionExecutor execute(Transaction tx, Block block) {
+        return execute(tx, block, null);
+    }
+
+    /**
+     * Executes the transaction on top of the supplied state, all the changes are discarded
+     * @param repository the state to execute on or null to take the read-only snapshot of the block state
+     */
+    public TransactionExecutor execute(final Transaction tx, final Block block, final Repository repository) {
+        final Transaction callTx = toBI(tx.getGasLimit()).compareTo(gasLimit) > 0 ? capGasLimit(tx) : tx;
+        final long deadline = System.currentTimeMillis() + timeout;
+        Future<TransactionExecutor> future;
+        try {
+            future = executor.submit(() -> executeImpl(callTx, block, repository, deadline));
+        } catch (RejectedExecutionException e) {
+            throw new RuntimeException("Too many calls in progress, try again later");
+        }
+
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RuntimeException("Call execution time limit exceeded: " + timeout + "ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return copy of the transaction from the same sender with the gas limit lowered to the cap
+     */
+    private Transaction capGasLimit(Transaction tx) {
+        Transaction ret = new Transaction(tx.getNonce(), tx.getGasPrice(), ByteUtil.bigIntegerToBytes(gasLimit),
+                tx.getReceiveAddress(), tx.getValue(), tx.getData(), tx.getChainId());
+        // the copy isn't signed, the sender is taken from the original
+        ret.sendAddress = tx.getSender();
+        return ret;
+    }
+
+    private TransactionExecutor executeImpl(Transaction tx, Block block, Repository repository, long deadline) {
+        if (System.currentTimeMillis() > deadline) {
+            // the caller has already given up while the call was queued
+            throw new RuntimeException("Call execution time limit exceeded while waiting in the queue");
+        }
+
+        Repository track = (repository == null ? snapshotTo(block.getStateRoot()) : repository).startTracking();
+        try {
+            TransactionExecutor executor = new TransactionExecutor
+                    (tx, block.getCoinbase(), track, blockStore,
+                            programInvokeFactory, block, new EthereumListenerAdapter(), 0)
+                    .withCommonConfig(commonConfig)
+                    .setLocalCall(true)
+                    .setDeadline(deadline);
+
+            executor.init();
+            executor.execute();
+            executor.go();
+            executor.finalization();
+
+            return executor;
+        } finally {
+            track.rollback();
+        }
+    }
+
+    private Repository snapshotTo(byte[] root) {
+        Repository repository = blockchain.getRepository();
+        if (repository instanceof RepositoryRoot) {
+            return ((RepositoryRoot) repository).getReadOnlySnapshotTo(root);
+        } else {
+            return repository.getSnapshotTo(root);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        logger.info("Shutting down local call executor");
+        executor.shutdownNow();
+    }
+}
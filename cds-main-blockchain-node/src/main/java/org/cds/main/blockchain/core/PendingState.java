@@ -2,6 +2,8 @@ package org.cds.main.blockchain.core;
 
 import java.util.List;
 
+import org.cds.main.blockchain.db.ByteArrayWrapper;
+
 public interface PendingState extends org.cds.main.blockchain.facade.PendingState {
 
     /**
@@ -22,6 +24,11 @@ public interface PendingState extends org.cds.main.blockchain.facade.PendingStat
      */
     void addPendingTransaction(Transaction tx);
 
+    /**
+     * @return true if the tx has been received and wasn't rejected as invalid
+     */
+    boolean isTxreceived(ByteArrayWrapper txHash);
+
     /**
      * It should be called on each block imported as <b>BEST</b> <br>
      * Does several things:
@@ -134,6 +134,7 @@ public class PendingStateImpl implements PendingState {
     	receivedTxs.remove(new ByteArrayWrapper(tx.getHash()));
     }
     
+    @Override
     public boolean isTxreceived(ByteArrayWrapper txHash) {
     	return receivedTxs.get(txHash) != null;
     }
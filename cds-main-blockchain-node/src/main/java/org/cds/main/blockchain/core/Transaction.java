@@ -16,10 +16,8 @@ import org.cds.main.blockchain.crypto.ECKey.ECDSASignature;
 import org.cds.main.blockchain.crypto.ECKey.MissingPrivateKeyException;
 import org.cds.main.blockchain.datasource.MemSizeEstimator;
 import org.cds.main.blockchain.util.ByteUtil;
-import org.cds.main.blockchain.util.RLP;
-import org.cds.main.blockchain.util.RLPElement;
-import org.cds.main.blockchain.util.RLPItem;
-import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPReader;
+import org.cds.main.blockchain.util.RLPWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.BigIntegers;
@@ -176,28 +174,31 @@ public class Transaction {
     public synchronized void rlpParse() {
         if (parsed) return;
         try {
-            RLPList decodedTxList = RLP.decode2(rlpEncoded);
-            RLPList transaction = (RLPList) decodedTxList.get(0);
+            RLPReader transaction = new RLPReader(rlpEncoded).nextList();
 
             // Basic verification
-            if (transaction.size() > 9 ) throw new RuntimeException("Too many RLP elements");
-            for (RLPElement rlpElement : transaction) {
-                if (!(rlpElement instanceof RLPItem))
+            byte[][] fields = new byte[9][];
+            int size = 0;
+            while (transaction.hasNext()) {
+                if (size == fields.length) throw new RuntimeException("Too many RLP elements");
+                if (transaction.isList())
                     throw new RuntimeException("Transaction RLP elements shouldn't be lists");
+                fields[size++] = transaction.nextBytes();
             }
-
-            this.nonce = transaction.get(0).getRLPData();
-            this.gasPrice = transaction.get(1).getRLPData();
-            this.gasLimit = transaction.get(2).getRLPData();
-            this.receiveAddress = transaction.get(3).getRLPData();
-            this.value = transaction.get(4).getRLPData();
-            this.data = transaction.get(5).getRLPData();
+            if (size < 7 || (fields[6] != null && size < 9)) throw new RuntimeException("Too few RLP elements");
+
+            this.nonce = fields[0];
+            this.gasPrice = fields[1];
+            this.gasLimit = fields[2];
+            this.receiveAddress = fields[3];
+            this.value = fields[4];
+            this.data = fields[5];
             // only parse signature in case tx is signed
-            if (transaction.get(6).getRLPData() != null) {
-                byte[] vData =  transaction.get(6).getRLPData();
+            if (fields[6] != null) {
+                byte[] vData =  fields[6];
                 BigInteger v = ByteUtil.bytesToBigInteger(vData);
-                byte[] r = transaction.get(7).getRLPData();
-                byte[] s = transaction.get(8).getRLPData();
+                byte[] r = fields[7];
+                byte[] s = fields[8];
                 this.chainId = extractChainIdFromRawSignature(v, r, s);
                 if (r != null && s != null) {
                     this.signature = ECDSASignature.fromComponents(r, s, getRealV(v));
@@ -426,55 +427,19 @@ public class Transaction {
     public byte[] getEncodedRaw() {
 
         rlpParse();
-        byte[] rlpRaw;
-
-        // parse null as 0 for nonce
-        byte[] nonce = null;
-        if (this.nonce == null || this.nonce.length == 1 && this.nonce[0] == 0) {
-            nonce = RLP.encodeElement(null);
-        } else {
-            nonce = RLP.encodeElement(this.nonce);
-        }
-        byte[] gasPrice = RLP.encodeElement(this.gasPrice);
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] receiveAddress = RLP.encodeElement(this.receiveAddress);
-        byte[] value = RLP.encodeElement(this.value);
-        byte[] data = RLP.encodeElement(this.data);
 
         // Since EIP-155 use chainId for v
         if (chainId == null) {
-            rlpRaw = RLP.encodeList(nonce, gasPrice, gasLimit, receiveAddress,
-                    value, data);
+            return encodeFields(null, null, null);
         } else {
-            byte[] v, r, s;
-            v = RLP.encodeInt(chainId);
-            r = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            s = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            rlpRaw = RLP.encodeList(nonce, gasPrice, gasLimit, receiveAddress,
-                    value, data, v, r, s);
+            return encodeFields(chainId, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY);
         }
-        return rlpRaw;
     }
 
     public byte[] getEncoded() {
 
         if (rlpEncoded != null) return rlpEncoded;
 
-        // parse null as 0 for nonce
-        byte[] nonce = null;
-        if (this.nonce == null || this.nonce.length == 1 && this.nonce[0] == 0) {
-            nonce = RLP.encodeElement(null);
-        } else {
-            nonce = RLP.encodeElement(this.nonce);
-        }
-        byte[] gasPrice = RLP.encodeElement(this.gasPrice);
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] receiveAddress = RLP.encodeElement(this.receiveAddress);
-        byte[] value = RLP.encodeElement(this.value);
-        byte[] data = RLP.encodeElement(this.data);
-
-        byte[] v, r, s;
-
         if (signature != null) {
             int encodeV;
             if (chainId == null) {
@@ -483,24 +448,47 @@ public class Transaction {
                 encodeV = signature.v - LOWER_REAL_V;
                 encodeV += chainId * 2 + CHAIN_ID_INC;
             }
-            v = RLP.encodeInt(encodeV);
-            r = RLP.encodeElement(BigIntegers.asUnsignedByteArray(signature.r));
-            s = RLP.encodeElement(BigIntegers.asUnsignedByteArray(signature.s));
+            this.rlpEncoded = encodeFields(encodeV, BigIntegers.asUnsignedByteArray(signature.r),
+                    BigIntegers.asUnsignedByteArray(signature.s));
         } else {
-            // Since EIP-155 use chainId for v
-            v = chainId == null ? RLP.encodeElement(EMPTY_BYTE_ARRAY) : RLP.encodeInt(chainId);
-            r = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            s = RLP.encodeElement(EMPTY_BYTE_ARRAY);
+            // Since EIP-155 use chainId for v, empty v is encoded the same as 0
+            this.rlpEncoded = encodeFields(chainId == null ? 0 : chainId, EMPTY_BYTE_ARRAY, EMPTY_BYTE_ARRAY);
         }
 
-        this.rlpEncoded = RLP.encodeList(nonce, gasPrice, gasLimit,
-                receiveAddress, value, data, v, r, s);
-
         this.hash = HashUtil.sha3(rlpEncoded);
 
         return rlpEncoded;
     }
 
+    /**
+     * Encodes the transaction fields followed by v, r, s unless v is null
+     */
+    private byte[] encodeFields(Integer v, byte[] r, byte[] s) {
+        // parse null as 0 for nonce
+        byte[] nonce = this.nonce == null || this.nonce.length == 1 && this.nonce[0] == 0 ? null : this.nonce;
+
+        int size = RLPWriter.sizeOfBytes(nonce) + RLPWriter.sizeOfBytes(gasPrice) +
+                RLPWriter.sizeOfBytes(gasLimit) + RLPWriter.sizeOfBytes(receiveAddress) +
+                RLPWriter.sizeOfBytes(value) + RLPWriter.sizeOfBytes(data);
+        if (v != null) {
+            size += RLPWriter.sizeOfInt(v) + RLPWriter.sizeOfBytes(r) + RLPWriter.sizeOfBytes(s);
+        }
+
+        RLPWriter writer = RLPWriter.list(size)
+                .writeBytes(nonce)
+                .writeBytes(gasPrice)
+                .writeBytes(gasLimit)
+                .writeBytes(receiveAddress)
+                .writeBytes(value)
+                .writeBytes(data);
+        if (v != null) {
+            writer.writeInt(v)
+                    .writeBytes(r)
+                    .writeBytes(s);
+        }
+        return writer.toByteArray();
+    }
+
     @Override
     public int hashCode() {
 
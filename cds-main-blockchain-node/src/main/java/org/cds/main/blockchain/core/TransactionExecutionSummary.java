@@ -30,6 +30,8 @@ public class TransactionExecutionSummary {
     private List<InternalTransaction> internalTransactions = emptyList();
     private Map<DataWord, DataWord> storageDiff = emptyMap();
     private TransactionTouchedStorage touchedStorage = new TransactionTouchedStorage();
+    // profiling data, not a part of the encoded summary
+    private TransactionStateAccess stateAccess;
 
 
     private byte[] result;
@@ -304,6 +306,14 @@ public class TransactionExecutionSummary {
         return touchedStorage;
     }
 
+    /**
+     * @return accounts and storage slots accessed by the transaction
+     *         or null if 'record.state.access' is off or the summary was decoded from RLP
+     */
+    public TransactionStateAccess getStateAccess() {
+        return stateAccess;
+    }
+
     public static Builder builderFor(Transaction transaction) {
         return new Builder(transaction);
     }
@@ -356,6 +366,11 @@ public class TransactionExecutionSummary {
             return this;
         }
 
+        public Builder stateAccess(TransactionStateAccess stateAccess) {
+            summary.stateAccess = stateAccess;
+            return this;
+        }
+
         public Builder markAsFailed() {
             summary.failed = true;
             return this;
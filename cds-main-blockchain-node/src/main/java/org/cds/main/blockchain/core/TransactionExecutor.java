@@ -65,7 +65,10 @@ public class TransactionExecutor {
 
     private ByteArraySet touchedAccounts = new ByteArraySet();
 
+    private TransactionStateAccess stateAccess;
+
     boolean localCall = false;
+    long deadline = 0;
 
     public TransactionExecutor(Transaction tx, byte[] coinbase, Repository track, BlockStore blockStore,
                                ProgramInvokeFactory programInvokeFactory, Block currentBlock) {
@@ -108,6 +111,18 @@ public class TransactionExecutor {
      * set readyToExecute = true
      */
     public void init() {
+        if (config.recordStateAccess()) {
+            stateAccess = new TransactionStateAccess();
+        }
+        TransactionStateAccess prev = TransactionStateAccess.bind(stateAccess);
+        try {
+            doInit();
+        } finally {
+            TransactionStateAccess.bind(prev);
+        }
+    }
+
+    private void doInit() {
         basicTxCost = tx.transactionCost(config.getBlockchainConfig(), currentBlock);
 
         if (localCall) {
@@ -164,6 +179,15 @@ public class TransactionExecutor {
 
         if (!readyToExecute) return;
 
+        TransactionStateAccess prev = TransactionStateAccess.bind(stateAccess);
+        try {
+            doExecute();
+        } finally {
+            TransactionStateAccess.bind(prev);
+        }
+    }
+
+    private void doExecute() {
         if (!localCall) {
             track.increaseNonce(tx.getSender());
 
@@ -225,7 +249,8 @@ public class TransactionExecutor {
                         programInvokeFactory.createProgramInvoke(tx, currentBlock, cacheTrack, blockStore);
 
                 this.vm = new VM(config);
-                this.program = new Program(track.getCodeHash(targetAddress), code, programInvoke, tx, config).withCommonConfig(commonConfig);
+                this.program = new Program(track.getCodeHash(targetAddress), code, programInvoke, tx, config).withCommonConfig(commonConfig)
+                        .withDeadline(deadline);
             }
         }
 
@@ -260,7 +285,8 @@ public class TransactionExecutor {
             ProgramInvoke programInvoke = programInvokeFactory.createProgramInvoke(tx, currentBlock, cacheTrack, blockStore);
 
             this.vm = new VM(config);
-            this.program = new Program(tx.getData(), programInvoke, tx, config).withCommonConfig(commonConfig);
+            this.program = new Program(tx.getData(), programInvoke, tx, config).withCommonConfig(commonConfig)
+                    .withDeadline(deadline);
 
             // reset storage if the contract with the same address already exists
             // TCK test case only - normally this is near-impossible situation in the real network
@@ -280,6 +306,15 @@ public class TransactionExecutor {
     public void go() {
         if (!readyToExecute) return;
 
+        TransactionStateAccess prev = TransactionStateAccess.bind(stateAccess);
+        try {
+            doGo();
+        } finally {
+            TransactionStateAccess.bind(prev);
+        }
+    }
+
+    private void doGo() {
         try {
 
             if (vm != null) {
@@ -366,10 +401,20 @@ public class TransactionExecutor {
     public TransactionExecutionSummary finalization() {
         if (!readyToExecute) return null;
 
+        TransactionStateAccess prev = TransactionStateAccess.bind(stateAccess);
+        try {
+            return doFinalization();
+        } finally {
+            TransactionStateAccess.bind(prev);
+        }
+    }
+
+    private TransactionExecutionSummary doFinalization() {
         TransactionExecutionSummary.Builder summaryBuilder = TransactionExecutionSummary.builderFor(tx)
                 .gasLeftover(m_endGas)
                 .logs(result.getLogInfoList())
-                .result(result.getHReturn());
+                .result(result.getHReturn())
+                .stateAccess(stateAccess);
 
         if (result != null) {
             // Accumulate refunds for suicides
@@ -454,6 +499,15 @@ public class TransactionExecutor {
         return this;
     }
 
+    /**
+     * Limits the wall clock time of the VM execution, intended for local calls only
+     * @param deadline time in millis as {@link System#currentTimeMillis()} or 0 to not limit
+     */
+    public TransactionExecutor setDeadline(long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
 
     public TransactionReceipt getReceipt() {
         if (receipt == null) {
@@ -470,6 +524,14 @@ public class TransactionExecutor {
         return receipt;
     }
 
+    /**
+     * @return accounts and storage slots accessed by the transaction
+     *         or null if 'record.state.access' is off
+     */
+    public TransactionStateAccess getStateAccess() {
+        return stateAccess;
+    }
+
     public List<LogInfo> getVMLogs() {
         return logs;
     }
@@ -6,6 +6,7 @@ import org.cds.main.blockchain.util.RLP;
 import org.cds.main.blockchain.util.RLPElement;
 import org.cds.main.blockchain.util.RLPItem;
 import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPWriter;
 import org.cds.main.blockchain.vm.LogInfo;
 import org.spongycastle.util.BigIntegers;
 
@@ -162,29 +163,36 @@ public class TransactionReceipt {
 
     public byte[] getEncoded(boolean receiptTrie) {
 
-        byte[] postTxStateRLP = RLP.encodeElement(this.postTxState);
-        byte[] cumulativeGasRLP = RLP.encodeElement(this.cumulativeGas);
-        byte[] bloomRLP = RLP.encodeElement(this.bloomFilter.data);
-
-        final byte[] logInfoListRLP;
-        if (logInfoList != null) {
-            byte[][] logInfoListE = new byte[logInfoList.size()][];
-
-            int i = 0;
-            for (LogInfo logInfo : logInfoList) {
-                logInfoListE[i] = logInfo.getEncoded();
-                ++i;
-            }
-            logInfoListRLP = RLP.encodeList(logInfoListE);
-        } else {
-            logInfoListRLP = RLP.encodeList();
+        byte[][] logInfoListE = new byte[logInfoList == null ? 0 : logInfoList.size()][];
+        int logsSize = 0;
+        for (int i = 0; i < logInfoListE.length; i++) {
+            logInfoListE[i] = logInfoList.get(i).getEncoded();
+            logsSize += logInfoListE[i].length;
         }
 
-        return receiptTrie ?
-                RLP.encodeList(postTxStateRLP, cumulativeGasRLP, bloomRLP, logInfoListRLP):
-                RLP.encodeList(postTxStateRLP, cumulativeGasRLP, bloomRLP, logInfoListRLP,
-                        RLP.encodeElement(gasUsed), RLP.encodeElement(executionResult),
-                        RLP.encodeElement(error.getBytes(StandardCharsets.UTF_8)));
+        int size = RLPWriter.sizeOfBytes(postTxState) + RLPWriter.sizeOfBytes(cumulativeGas) +
+                RLPWriter.sizeOfBytes(bloomFilter.data) + RLPWriter.sizeOfList(logsSize);
+        byte[] errorBytes = null;
+        if (!receiptTrie) {
+            errorBytes = error.getBytes(StandardCharsets.UTF_8);
+            size += RLPWriter.sizeOfBytes(gasUsed) + RLPWriter.sizeOfBytes(executionResult) +
+                    RLPWriter.sizeOfBytes(errorBytes);
+        }
+
+        RLPWriter writer = RLPWriter.list(size)
+                .writeBytes(postTxState)
+                .writeBytes(cumulativeGas)
+                .writeBytes(bloomFilter.data)
+                .writeListHeader(logsSize);
+        for (byte[] logInfoEncoded : logInfoListE) {
+            writer.writeEncoded(logInfoEncoded);
+        }
+        if (!receiptTrie) {
+            writer.writeBytes(gasUsed)
+                    .writeBytes(executionResult)
+                    .writeBytes(errorBytes);
+        }
+        return writer.toByteArray();
 
     }
 
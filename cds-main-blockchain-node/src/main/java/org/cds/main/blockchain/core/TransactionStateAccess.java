@@ -0,0 +1,242 @@
+package org.cds.main.blockchain.core;
+
+import org.cds.main.blockchain.db.ByteArrayWrapper;
+import org.cds.main.blockchain.vm.DataWord;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read/write set of a single transaction: which accounts and storage slots were
+ * read and written, how many times, and how long the reads took.
+ *
+ * A read is cold when it has missed all the state caches and went to the DB,
+ * see {@link #onDbRead()}, otherwise it is warm (served from the caches)
+ *
+ * Recording is bound to the executing thread by {@link TransactionExecutor}
+ * and done by {@link org.cds.main.blockchain.db.RepositoryImpl}
+ */
+public class TransactionStateAccess {
+
+    private static final ThreadLocal<TransactionStateAccess> current = new ThreadLocal<>();
+
+    public static class Counter {
+        private int reads;
+        private int writes;
+        private int coldReads;
+        private long coldReadNanos;
+        private long warmReadNanos;
+
+        void read(long nanos, boolean cold) {
+            if (cold) {
+                coldReads++;
+                coldReadNanos += nanos;
+            } else {
+                warmReadNanos += nanos;
+            }
+            reads++;
+        }
+
+        void write() {
+            writes++;
+        }
+
+        public int getReads() {
+            return reads;
+        }
+
+        public int getWrites() {
+            return writes;
+        }
+
+        public int getColdReads() {
+            return coldReads;
+        }
+
+        public long getColdReadNanos() {
+            return coldReadNanos;
+        }
+
+        public long getWarmReadNanos() {
+            return warmReadNanos;
+        }
+
+        public boolean isRead() {
+            return reads > 0;
+        }
+
+        public boolean isWritten() {
+            return writes > 0;
+        }
+    }
+
+    public static class AccountAccess extends Counter {
+        private final byte[] address;
+        private final Map<DataWord, Counter> slots = new LinkedHashMap<>();
+
+        AccountAccess(byte[] address) {
+            this.address = address;
+        }
+
+        Counter slot(DataWord key) {
+            Counter ret = slots.get(key);
+            if (ret == null) {
+                ret = new Counter();
+                slots.put(key, ret);
+            }
+            return ret;
+        }
+
+        public byte[] getAddress() {
+            return address;
+        }
+
+        public Map<DataWord, Counter> getSlots() {
+            return slots;
+        }
+
+        public long getStorageColdReadNanos() {
+            long ret = 0;
+            for (Counter slot : slots.values()) {
+                ret += slot.getColdReadNanos();
+            }
+            return ret;
+        }
+    }
+
+    private final Map<ByteArrayWrapper, AccountAccess> accounts = new LinkedHashMap<>();
+
+    // DB reads done on behalf of the transaction
+    private int dbReads;
+
+    /**
+     * @return recorder bound to the current thread or null if recording is off
+     */
+    public static TransactionStateAccess current() {
+        return current.get();
+    }
+
+    /**
+     * Called by {@link org.cds.main.blockchain.datasource.ReadTrackingSource} below the state caches on every read,
+     * counts the read to the recorder bound to the current thread if any
+     */
+    public static void onDbRead() {
+        TransactionStateAccess access = current.get();
+        if (access != null) access.dbReads++;
+    }
+
+    /**
+     * @return number of DB reads done so far, a state read which has increased it missed the caches
+     */
+    public int getDbReads() {
+        return dbReads;
+    }
+
+    /**
+     * Binds the recorder to the current thread
+     * @return previously bound recorder to be restored when done
+     */
+    static TransactionStateAccess bind(TransactionStateAccess access) {
+        TransactionStateAccess prev = current.get();
+        if (access == null) {
+            current.remove();
+        } else {
+            current.set(access);
+        }
+        return prev;
+    }
+
+    private AccountAccess account(byte[] addr) {
+        ByteArrayWrapper key = new ByteArrayWrapper(addr);
+        AccountAccess ret = accounts.get(key);
+        if (ret == null) {
+            ret = new AccountAccess(addr);
+            accounts.put(key, ret);
+        }
+        return ret;
+    }
+
+    public void accountRead(byte[] addr, long nanos, boolean cold) {
+        account(addr).read(nanos, cold);
+    }
+
+    public void accountWrite(byte[] addr) {
+        account(addr).write();
+    }
+
+    public void storageRead(byte[] addr, DataWord key, long nanos, boolean cold) {
+        account(addr).slot(key).read(nanos, cold);
+    }
+
+    public void storageWrite(byte[] addr, DataWord key) {
+        account(addr).slot(key).write();
+    }
+
+    public Collection<AccountAccess> getAccounts() {
+        return accounts.values();
+    }
+
+    public AccountAccess getAccount(byte[] addr) {
+        return accounts.get(new ByteArrayWrapper(addr));
+    }
+
+    /**
+     * @return addresses of accounts whose state was read, including via storage reads
+     */
+    public Set<ByteArrayWrapper> getReadAccounts() {
+        Set<ByteArrayWrapper> ret = new HashSet<>();
+        for (Map.Entry<ByteArrayWrapper, AccountAccess> entry : accounts.entrySet()) {
+            if (entry.getValue().isRead()) ret.add(entry.getKey());
+        }
+        return ret;
+    }
+
+    /**
+     * @return addresses of accounts whose state was modified (storage writes excluded)
+     */
+    public Set<ByteArrayWrapper> getWrittenAccounts() {
+        Set<ByteArrayWrapper> ret = new HashSet<>();
+        for (Map.Entry<ByteArrayWrapper, AccountAccess> entry : accounts.entrySet()) {
+            if (entry.getValue().isWritten()) ret.add(entry.getKey());
+        }
+        return ret;
+    }
+
+    /**
+     * Checks whether this transaction read or wrote anything the other one wrote
+     * or wrote anything the other one read, i.e. they can't be run concurrently
+     */
+    public boolean conflictsWith(TransactionStateAccess other) {
+        for (Map.Entry<ByteArrayWrapper, AccountAccess> entry : accounts.entrySet()) {
+            AccountAccess mine = entry.getValue();
+            AccountAccess theirs = other.accounts.get(entry.getKey());
+            if (theirs == null) continue;
+            if ((mine.isWritten() && (theirs.isRead() || theirs.isWritten())) || (mine.isRead() && theirs.isWritten())) {
+                return true;
+            }
+            for (Map.Entry<DataWord, Counter> slot : mine.getSlots().entrySet()) {
+                Counter theirSlot = theirs.getSlots().get(slot.getKey());
+                if (theirSlot == null) continue;
+                if (slot.getValue().isWritten() || theirSlot.isWritten()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public long getColdReadNanos() {
+        long ret = 0;
+        for (AccountAccess account : accounts.values()) {
+            ret += account.getColdReadNanos() + account.getStorageColdReadNanos();
+        }
+        return ret;
+    }
+
+    public boolean isEmpty() {
+        return accounts.isEmpty();
+    }
+}
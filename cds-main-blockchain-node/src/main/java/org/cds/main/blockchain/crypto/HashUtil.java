@@ -10,6 +10,7 @@ import org.spongycastle.crypto.Digest;
 import org.spongycastle.crypto.digests.RIPEMD160Digest;
 import org.spongycastle.util.encoders.Hex;
 import java.math.BigInteger;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
@@ -32,6 +33,15 @@ public class HashUtil {
     private static final String HASH_256_ALGORITHM_NAME;
     private static final String HASH_512_ALGORITHM_NAME;
 
+    /**
+     * Digest instances are reset on every call and reused by the owning thread,
+     * which saves the provider lookup and engine allocation per hash
+     */
+    private static final ThreadLocal<MessageDigest> HASH_256_DIGEST =
+            ThreadLocal.withInitial(() -> newDigest(HASH_256_ALGORITHM_NAME));
+    private static final ThreadLocal<MessageDigest> HASH_512_DIGEST =
+            ThreadLocal.withInitial(() -> newDigest(HASH_512_ALGORITHM_NAME));
+
     static {
         SystemProperties props = SystemProperties.getDefault();
         Security.addProvider(SpongyCastleProvider.getInstance());
@@ -59,29 +69,16 @@ public class HashUtil {
     }
 
     public static byte[] sha3(byte[] input) {
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance(HASH_256_ALGORITHM_NAME, CRYPTO_PROVIDER);
-            digest.update(input);
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Can't find such algorithm", e);
-            throw new RuntimeException(e);
-        }
-
+        MessageDigest digest = hash256Digest();
+        digest.update(input);
+        return digest.digest();
     }
 
     public static byte[] sha3(byte[] input1, byte[] input2) {
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance(HASH_256_ALGORITHM_NAME, CRYPTO_PROVIDER);
-            digest.update(input1, 0, input1.length);
-            digest.update(input2, 0, input2.length);
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Can't find such algorithm", e);
-            throw new RuntimeException(e);
-        }
+        MessageDigest digest = hash256Digest();
+        digest.update(input1, 0, input1.length);
+        digest.update(input2, 0, input2.length);
+        return digest.digest();
     }
 
     /**
@@ -96,23 +93,95 @@ public class HashUtil {
      * @return - keccak hash of the chunk
      */
     public static byte[] sha3(byte[] input, int start, int length) {
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance(HASH_256_ALGORITHM_NAME, CRYPTO_PROVIDER);
-            digest.update(input, start, length);
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("Can't find such algorithm", e);
-            throw new RuntimeException(e);
+        MessageDigest digest = hash256Digest();
+        digest.update(input, start, length);
+        return digest.digest();
+    }
+
+    /**
+     * hashing chunk of the data directly into the caller supplied buffer
+     *
+     * @param input
+     *            - data for hash
+     * @param start
+     *            - start of hashing chunk
+     * @param length
+     *            - length of hashing chunk
+     * @param out
+     *            - destination buffer, must have at least 32 bytes from outOffset
+     * @param outOffset
+     *            - offset of the hash in the destination buffer
+     */
+    public static void sha3(byte[] input, int start, int length, byte[] out, int outOffset) {
+        MessageDigest digest = hash256Digest();
+        digest.update(input, start, length);
+        finish(digest, out, outOffset);
+    }
+
+    /**
+     * Hashes a number of (usually small) inputs in one call
+     * reusing the same digest instance for all of them
+     *
+     * @param inputs
+     *            - data for hashing
+     * @return - keccak hashes in the order of inputs
+     */
+    public static byte[][] sha3Batch(byte[][] inputs) {
+        MessageDigest digest = hash256Digest();
+        byte[][] ret = new byte[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            digest.update(inputs[i]);
+            ret[i] = digest.digest();
+        }
+        return ret;
+    }
+
+    /**
+     * Hashes a number of (usually small) inputs in one call, writing
+     * the hashes one after another into the caller supplied buffer
+     *
+     * @param inputs
+     *            - data for hashing
+     * @param out
+     *            - destination buffer, must have at least 32 * inputs.length bytes from outOffset
+     * @param outOffset
+     *            - offset of the first hash in the destination buffer
+     */
+    public static void sha3Batch(byte[][] inputs, byte[] out, int outOffset) {
+        MessageDigest digest = hash256Digest();
+        int len = digest.getDigestLength();
+        for (int i = 0; i < inputs.length; i++) {
+            digest.update(inputs[i]);
+            finish(digest, out, outOffset + i * len);
         }
     }
 
     public static byte[] sha512(byte[] input) {
-        MessageDigest digest;
+        MessageDigest digest = HASH_512_DIGEST.get();
+        digest.reset();
+        digest.update(input);
+        return digest.digest();
+    }
+
+    private static MessageDigest hash256Digest() {
+        MessageDigest digest = HASH_256_DIGEST.get();
+        // previous caller could have failed in the middle of update
+        digest.reset();
+        return digest;
+    }
+
+    private static void finish(MessageDigest digest, byte[] out, int outOffset) {
+        try {
+            digest.digest(out, outOffset, digest.getDigestLength());
+        } catch (DigestException e) {
+            digest.reset();
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
         try {
-            digest = MessageDigest.getInstance(HASH_512_ALGORITHM_NAME, CRYPTO_PROVIDER);
-            digest.update(input);
-            return digest.digest();
+            return MessageDigest.getInstance(algorithm, CRYPTO_PROVIDER);
         } catch (NoSuchAlgorithmException e) {
             LOG.error("Can't find such algorithm", e);
             throw new RuntimeException(e);
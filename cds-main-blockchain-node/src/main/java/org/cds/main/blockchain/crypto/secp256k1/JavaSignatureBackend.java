@@ -0,0 +1,128 @@
+package org.cds.main.blockchain.crypto.secp256k1;
+
+import org.cds.main.blockchain.crypto.secp256k1.Secp256k1.Affine;
+
+import java.math.BigInteger;
+
+import static org.cds.main.blockchain.crypto.secp256k1.Secp256k1.N;
+import static org.cds.main.blockchain.crypto.secp256k1.Secp256k1.PRIME;
+
+/**
+ * Pure Java secp256k1 implementation specialized for the curve: fixed width field arithmetic,
+ * precomputed generator tables and GLV endomorphism, see {@link Secp256k1} <br/>
+ *
+ * Behaves exactly as {@link SpongyCastleSignatureBackend} including the corner cases
+ * (invalid R point, scalars out of range, malformed public keys)
+ */
+public class JavaSignatureBackend implements SignatureBackend {
+
+    public static final String NAME = "java";
+
+    @Override
+    public byte[] recoverPubBytes(int recId, BigInteger r, BigInteger s, byte[] messageHash) {
+        BigInteger x = r.add(BigInteger.valueOf((long) recId / 2).multiply(N));
+        if (x.compareTo(PRIME) >= 0) {
+            return null;
+        }
+
+        Affine R = Secp256k1.decompress(Secp256k1.fromBigInteger(x), (recId & 1) == 1);
+        if (R == null) {
+            throw new IllegalArgumentException("Invalid point compression");
+        }
+
+        BigInteger e = new BigInteger(1, messageHash);
+        BigInteger eInv = BigInteger.ZERO.subtract(e).mod(N);
+        BigInteger rInv = r.modInverse(N);
+        BigInteger srInv = rInv.multiply(s).mod(N);
+        BigInteger eInvrInv = rInv.multiply(eInv).mod(N);
+
+        Affine q = Secp256k1.mulAdd(eInvrInv, R, srInv).toAffine();
+        if (q == null) {
+            return null;
+        }
+        byte[] ret = new byte[65];
+        ret[0] = 0x04;
+        Secp256k1Field.toBytes(q.x, ret, 1);
+        Secp256k1Field.toBytes(q.y, ret, 33);
+        return ret;
+    }
+
+    @Override
+    public boolean verify(byte[] data, BigInteger r, BigInteger s, byte[] pub) {
+        Affine q = decodePoint(pub);
+
+        BigInteger e = calculateE(data);
+        if (r.signum() <= 0 || r.compareTo(N) >= 0) return false;
+        if (s.signum() <= 0 || s.compareTo(N) >= 0) return false;
+
+        BigInteger c = s.modInverse(N);
+        BigInteger u1 = e.multiply(c).mod(N);
+        BigInteger u2 = r.multiply(c).mod(N);
+
+        return Secp256k1.xModNEquals(Secp256k1.mulAdd(u1, q, u2), r);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    private static BigInteger calculateE(byte[] message) {
+        int log2n = N.bitLength();
+        int messageBitLength = message.length * 8;
+        BigInteger e = new BigInteger(1, message);
+        if (log2n < messageBitLength) {
+            e = e.shiftRight(messageBitLength - log2n);
+        }
+        return e;
+    }
+
+    /**
+     * SEC1 point decoding, compressed (0x02, 0x03), uncompressed (0x04) and hybrid (0x06, 0x07) forms
+     */
+    private static Affine decodePoint(byte[] encoded) {
+        if (encoded.length == 0) {
+            throw new IllegalArgumentException("Invalid point encoding");
+        }
+        int type = encoded[0];
+        int[] x = Secp256k1Field.create();
+        switch (type) {
+            case 0x02:
+            case 0x03: {
+                if (encoded.length != 33) {
+                    throw new IllegalArgumentException("Incorrect length for compressed encoding");
+                }
+                if (!Secp256k1Field.fromBytes(encoded, 1, x)) {
+                    throw new IllegalArgumentException("x value invalid in field element");
+                }
+                Affine ret = Secp256k1.decompress(x, type == 0x03);
+                if (ret == null) {
+                    throw new IllegalArgumentException("Invalid point compression");
+                }
+                return ret;
+            }
+            case 0x04:
+            case 0x06:
+            case 0x07: {
+                if (encoded.length != 65) {
+                    throw new IllegalArgumentException("Incorrect length for uncompressed/hybrid encoding");
+                }
+                int[] y = Secp256k1Field.create();
+                if (!Secp256k1Field.fromBytes(encoded, 1, x) || !Secp256k1Field.fromBytes(encoded, 33, y)) {
+                    throw new IllegalArgumentException("Coordinate value invalid in field element");
+                }
+                if (type != 0x04 && Secp256k1Field.isOdd(y) != (type == 0x07)) {
+                    throw new IllegalArgumentException("Inconsistent Y coordinate in hybrid encoding");
+                }
+                if (!Secp256k1.isOnCurve(x, y)) {
+                    throw new IllegalArgumentException("Invalid point coordinates");
+                }
+                return new Affine(x, y);
+            }
+            case 0x00:
+                throw new IllegalArgumentException("point at infinity");
+            default:
+                throw new IllegalArgumentException("Invalid point encoding 0x" + Integer.toString(type & 0xFF, 16));
+        }
+    }
+}
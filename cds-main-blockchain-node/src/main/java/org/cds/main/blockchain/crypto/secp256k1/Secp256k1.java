@@ -0,0 +1,463 @@
+package org.cds.main.blockchain.crypto.secp256k1;
+
+import java.math.BigInteger;
+
+import static org.cds.main.blockchain.crypto.secp256k1.Secp256k1Field.*;
+
+/**
+ * Arithmetic on secp256k1 curve: y^2 = x^3 + 7 over {@link Secp256k1Field} <br/>
+ * <br/>
+ *
+ * Points are kept in Jacobian coordinates (x = X / Z^2, y = Y / Z^3) while multiplying,
+ * precomputed tables are normalized to affine form so that every addition in the main loop is a mixed one <br/>
+ * <br/>
+ *
+ * Double scalar multiplication {@code u1 * G + u2 * P} is done with a single doubling chain (Shamir's trick)
+ * over four wNAF scalars: both scalars are split with the GLV endomorphism
+ * {@code lambda * (x, y) = (beta * x, y)} into halves of ~128 bits,
+ * odd multiples of G (and of lambda * G) are precomputed once with a wide window,
+ * odd multiples of P are computed per call with a narrow one <br/>
+ *
+ * Scalar (mod n) operations are rare comparing to field ones and stay on {@link BigInteger}
+ */
+final class Secp256k1 {
+
+    static final BigInteger N = new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", 16);
+
+    static final BigInteger PRIME = new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC2F", 16);
+
+    private static final BigInteger HALF_N = N.shiftRight(1);
+
+    // lattice basis used to split scalar k into k1 + k2 * lambda,
+    // lambda = 0x5363AD4CC05C30E0A5261C028812645A122E22EA20816678DF02967C1B23BD72
+    private static final BigInteger A1 = new BigInteger("3086D221A7D46BCDE86C90E49284EB15", 16);
+    private static final BigInteger B1 = new BigInteger("-E4437ED6010E88286F547FA90ABFE4C3", 16);
+    private static final BigInteger A2 = new BigInteger("114CA50F7A8E2F3F657C1108D9D44CFD8", 16);
+    private static final BigInteger B2 = A1;
+
+    static final int[] B = {7, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    static final int[] BETA = fromHex("7AE96A2B657C07106E64479EAC3434E99CF0497512F58995C1396C28719501EE");
+
+    static final int[] GX = fromHex("79BE667EF9DCBBAC55A06295CE870B07029BFCDB2DCE28D959F2815B16F81798");
+    static final int[] GY = fromHex("483ADA7726A3C4655DA4FBFC0E1108A8FD17B448A68554199C47D08FFB10D4B8");
+
+    /**
+     * wNAF window for the generator, table holds 2^(WINDOW_G - 2) odd multiples
+     */
+    private static final int WINDOW_G = 12;
+
+    /**
+     * wNAF window for arbitrary point, table is computed for every multiplication
+     */
+    private static final int WINDOW_P = 5;
+
+    private static final class GTable {
+        static final Affine[] G = oddMultiples(new Affine(GX, GY), WINDOW_G);
+        static final Affine[] G_LAMBDA = endomorphism(G);
+    }
+
+    private Secp256k1() {}
+
+    /**
+     * Point in affine coordinates
+     */
+    static final class Affine {
+        final int[] x;
+        final int[] y;
+
+        Affine(int[] x, int[] y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * Mutable point in Jacobian coordinates
+     */
+    static final class Jacobian {
+        final int[] x = create();
+        final int[] y = create();
+        final int[] z = create();
+        boolean infinity = true;
+
+        // scratch space of the point operations, saves allocations in the main loop
+        private final int[][] t = new int[11][SIZE];
+
+        void set(Affine a) {
+            copy(a.x, x);
+            copy(a.y, y);
+            copy(one(), z);
+            infinity = false;
+        }
+
+        void set(Jacobian p) {
+            copy(p.x, x);
+            copy(p.y, y);
+            copy(p.z, z);
+            infinity = p.infinity;
+        }
+
+        Affine toAffine() {
+            if (infinity) return null;
+            int[] zInv = create(), zInv2 = create(), ax = create(), ay = create();
+            inv(z, zInv);
+            sqr(zInv, zInv2);
+            mul(x, zInv2, ax);
+            mul(zInv2, zInv, zInv2);
+            mul(y, zInv2, ay);
+            return new Affine(ax, ay);
+        }
+    }
+
+    static boolean isOnCurve(int[] x, int[] y) {
+        int[] lhs = create(), rhs = create();
+        sqr(y, lhs);
+        sqr(x, rhs);
+        mul(rhs, x, rhs);
+        add(rhs, B, rhs);
+        return eq(lhs, rhs);
+    }
+
+    /**
+     * Checks whether x coordinate of the point reduced mod n equals r
+     * without normalizing the point: r * Z^2 == X, r + n is also tried since x might be above n
+     */
+    static boolean xModNEquals(Jacobian p, BigInteger r) {
+        if (p.infinity) return false;
+        int[] zz = create(), rx = create();
+        sqr(p.z, zz);
+        mul(fromBigInteger(r), zz, rx);
+        if (eq(rx, p.x)) return true;
+        BigInteger rn = r.add(N);
+        if (rn.compareTo(PRIME) >= 0) return false;
+        mul(fromBigInteger(rn), zz, rx);
+        return eq(rx, p.x);
+    }
+
+    /**
+     * @param v value in [0, p)
+     */
+    static int[] fromBigInteger(BigInteger v) {
+        byte[] bytes = v.toByteArray();
+        byte[] padded = new byte[32];
+        int len = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - len, padded, 32 - len, len);
+        int[] ret = create();
+        fromBytes(padded, 0, ret);
+        return ret;
+    }
+
+    /**
+     * Restores y from x and its parity
+     *
+     * @return null if x is not a coordinate of any curve point
+     */
+    static Affine decompress(int[] x, boolean yOdd) {
+        int[] y = create();
+        sqr(x, y);
+        mul(y, x, y);
+        add(y, B, y);
+        if (!sqrt(y, y)) return null;
+        if (isOdd(y) != yOdd) {
+            negate(y, y);
+        }
+        return new Affine(copy(x), y);
+    }
+
+    /**
+     * r = 2 * p, dbl-2009-l formula for a = 0; r may be the same instance as p
+     */
+    static void dbl(Jacobian p, Jacobian r) {
+        if (p.infinity || isZero(p.y)) {
+            r.infinity = true;
+            return;
+        }
+        int[][] t = r.t;
+        int[] a = t[0], b = t[1], c = t[2], d = t[3], e = t[4], f = t[5];
+
+        sqr(p.x, a);
+        sqr(p.y, b);
+        sqr(b, c);
+
+        add(p.x, b, d);
+        sqr(d, d);
+        sub(d, a, d);
+        sub(d, c, d);
+        twice(d, d);
+
+        twice(a, e);
+        add(e, a, e);
+        sqr(e, f);
+
+        mul(p.y, p.z, r.z);
+        twice(r.z, r.z);
+
+        twice(d, r.x);
+        sub(f, r.x, r.x);
+
+        sub(d, r.x, r.y);
+        mul(e, r.y, r.y);
+        twice(c, c);
+        twice(c, c);
+        twice(c, c);
+        sub(r.y, c, r.y);
+        r.infinity = false;
+    }
+
+    /**
+     * p += (qx, negate ? -qy : qy), mixed Jacobian-affine addition
+     */
+    static void addAffine(Jacobian p, int[] qx, int[] qy, boolean negate) {
+        if (p.infinity) {
+            copy(qx, p.x);
+            if (negate) Secp256k1Field.negate(qy, p.y); else copy(qy, p.y);
+            copy(one(), p.z);
+            p.infinity = false;
+            return;
+        }
+        int[][] t = p.t;
+        int[] z1z1 = t[0], u2 = t[1], s2 = t[2], h = t[3], r = t[4], hh = t[5], hhh = t[6], v = t[7];
+
+        sqr(p.z, z1z1);
+        mul(qx, z1z1, u2);
+        mul(p.z, z1z1, s2);
+        mul(qy, s2, s2);
+        if (negate) Secp256k1Field.negate(s2, s2);
+
+        sub(u2, p.x, h);
+        sub(s2, p.y, r);
+        if (isZero(h)) {
+            if (isZero(r)) {
+                dbl(p, p);
+            } else {
+                p.infinity = true;
+            }
+            return;
+        }
+
+        sqr(h, hh);
+        mul(h, hh, hhh);
+        mul(p.x, hh, v);
+
+        mul(p.z, h, p.z);
+
+        sqr(r, p.x);
+        sub(p.x, hhh, p.x);
+        sub(p.x, v, p.x);
+        sub(p.x, v, p.x);
+
+        sub(v, p.x, v);
+        mul(r, v, v);
+        mul(p.y, hhh, hhh);
+        sub(v, hhh, p.y);
+    }
+
+    /**
+     * p += q, general Jacobian addition
+     */
+    static void addJacobian(Jacobian p, Jacobian q) {
+        if (q.infinity) return;
+        if (p.infinity) {
+            p.set(q);
+            return;
+        }
+        int[][] t = p.t;
+        int[] z1z1 = t[0], z2z2 = t[1], u1 = t[2], u2 = t[3], s1 = t[4], s2 = t[5],
+                h = t[6], r = t[7], hh = t[8], hhh = t[9], v = t[10];
+
+        sqr(p.z, z1z1);
+        sqr(q.z, z2z2);
+        mul(p.x, z2z2, u1);
+        mul(q.x, z1z1, u2);
+        mul(q.z, z2z2, s1);
+        mul(p.y, s1, s1);
+        mul(p.z, z1z1, s2);
+        mul(q.y, s2, s2);
+
+        sub(u2, u1, h);
+        sub(s2, s1, r);
+        if (isZero(h)) {
+            if (isZero(r)) {
+                dbl(p, p);
+            } else {
+                p.infinity = true;
+            }
+            return;
+        }
+
+        sqr(h, hh);
+        mul(h, hh, hhh);
+        mul(u1, hh, v);
+
+        mul(p.z, q.z, p.z);
+        mul(p.z, h, p.z);
+
+        sqr(r, p.x);
+        sub(p.x, hhh, p.x);
+        sub(p.x, v, p.x);
+        sub(p.x, v, p.x);
+
+        sub(v, p.x, v);
+        mul(r, v, v);
+        mul(s1, hhh, hhh);
+        sub(v, hhh, p.y);
+    }
+
+    /**
+     * Computes u1 * G + u2 * p
+     *
+     * @return point in Jacobian coordinates, might be infinity
+     */
+    static Jacobian mulAdd(BigInteger u1, Affine p, BigInteger u2) {
+        Affine[] pTable = oddMultiples(p, WINDOW_P);
+        Affine[] pLambdaTable = endomorphism(pTable);
+
+        BigInteger[] g = split(u1.mod(N));
+        BigInteger[] q = split(u2.mod(N));
+
+        int[][] wnafs = new int[4][];
+        int[] lens = new int[4];
+        int[] signs = new int[4];
+        Affine[][] tables = {GTable.G, GTable.G_LAMBDA, pTable, pLambdaTable};
+        int[] windows = {WINDOW_G, WINDOW_G, WINDOW_P, WINDOW_P};
+        BigInteger[] scalars = {g[0], g[1], q[0], q[1]};
+
+        int maxLen = 0;
+        for (int i = 0; i < 4; i++) {
+            signs[i] = scalars[i].signum() < 0 ? -1 : 1;
+            BigInteger k = scalars[i].abs();
+            wnafs[i] = new int[k.bitLength() + windows[i] + 1];
+            lens[i] = wnaf(k, windows[i], wnafs[i]);
+            maxLen = Math.max(maxLen, lens[i]);
+        }
+
+        Jacobian r = new Jacobian();
+        for (int bit = maxLen - 1; bit >= 0; bit--) {
+            dbl(r, r);
+            for (int i = 0; i < 4; i++) {
+                if (bit >= lens[i]) continue;
+                int d = wnafs[i][bit];
+                if (d == 0) continue;
+                Affine a = tables[i][(Math.abs(d) - 1) >> 1];
+                addAffine(r, a.x, a.y, (d < 0) != (signs[i] < 0));
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Splits k into (k1, k2) so that k = k1 + k2 * lambda (mod n), |k1|, |k2| ~ sqrt(n)
+     */
+    static BigInteger[] split(BigInteger k) {
+        BigInteger c1 = roundDiv(B2.multiply(k));
+        BigInteger c2 = roundDiv(B1.negate().multiply(k));
+        BigInteger k1 = k.subtract(c1.multiply(A1)).subtract(c2.multiply(A2));
+        BigInteger k2 = c1.multiply(B1).add(c2.multiply(B2)).negate();
+        return new BigInteger[] {k1, k2};
+    }
+
+    private static BigInteger roundDiv(BigInteger a) {
+        return a.add(HALF_N).divide(N);
+    }
+
+    /**
+     * Width-w non-adjacent form of non-negative k, digits are odd and lie in (-2^(w-1), 2^(w-1))
+     *
+     * @return number of significant digits written to out
+     */
+    static int wnaf(BigInteger k, int w, int[] out) {
+        int len = out.length;
+        int carry = 0, bit = 0, last = -1;
+        while (bit < len) {
+            if ((k.testBit(bit) ? 1 : 0) == carry) {
+                bit++;
+                continue;
+            }
+            int now = Math.min(w, len - bit);
+            int word = carry;
+            for (int i = 0; i < now; i++) {
+                if (k.testBit(bit + i)) word += 1 << i;
+            }
+            carry = (word >> (w - 1)) & 1;
+            word -= carry << w;
+            out[bit] = word;
+            last = bit;
+            bit += now;
+        }
+        return last + 1;
+    }
+
+    /**
+     * p, 3p, 5p, ... (2^(w - 1) - 1)p in affine coordinates
+     */
+    static Affine[] oddMultiples(Affine p, int w) {
+        int size = 1 << (w - 2);
+        Jacobian[] points = new Jacobian[size];
+        Jacobian p2 = new Jacobian();
+        p2.set(p);
+        dbl(p2, p2);
+        points[0] = new Jacobian();
+        points[0].set(p);
+        for (int i = 1; i < size; i++) {
+            points[i] = new Jacobian();
+            points[i].set(points[i - 1]);
+            addJacobian(points[i], p2);
+        }
+        return toAffine(points);
+    }
+
+    /**
+     * Normalizes points with a single field inversion (Montgomery's trick),
+     * none of the points may be infinity
+     */
+    static Affine[] toAffine(Jacobian[] points) {
+        int n = points.length;
+        int[][] acc = new int[n][];
+        acc[0] = copy(points[0].z);
+        for (int i = 1; i < n; i++) {
+            acc[i] = create();
+            mul(acc[i - 1], points[i].z, acc[i]);
+        }
+        int[] inv = create();
+        Secp256k1Field.inv(acc[n - 1], inv);
+
+        Affine[] ret = new Affine[n];
+        int[] zInv = create(), zInv2 = create();
+        for (int i = n - 1; i >= 0; i--) {
+            if (i > 0) {
+                mul(inv, acc[i - 1], zInv);
+                mul(inv, points[i].z, inv);
+            } else {
+                copy(inv, zInv);
+            }
+            int[] x = create(), y = create();
+            sqr(zInv, zInv2);
+            mul(points[i].x, zInv2, x);
+            mul(zInv2, zInv, zInv2);
+            mul(points[i].y, zInv2, y);
+            ret[i] = new Affine(x, y);
+        }
+        return ret;
+    }
+
+    private static Affine[] endomorphism(Affine[] points) {
+        Affine[] ret = new Affine[points.length];
+        for (int i = 0; i < points.length; i++) {
+            int[] x = create();
+            mul(points[i].x, BETA, x);
+            ret[i] = new Affine(x, points[i].y);
+        }
+        return ret;
+    }
+
+    private static int[] fromHex(String hex) {
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        int[] ret = create();
+        fromBytes(bytes, 0, ret);
+        return ret;
+    }
+}
@@ -0,0 +1,437 @@
+package org.cds.main.blockchain.crypto.secp256k1;
+
+/**
+ * Fixed width arithmetic in F_p, p = 2^256 - 2^32 - 977 (the secp256k1 field prime) <br/>
+ * <br/>
+ *
+ * Field elements are represented as ten 26-bit little-endian limbs (the top one is 22-bit) packed into {@code int[10]},
+ * so that a column of limb products fits {@code long} without intermediate carries.
+ * Every operation writes a fully reduced result (< p) into the caller supplied output array,
+ * output may alias any of the inputs <br/>
+ * <br/>
+ *
+ * Reduction relies on the special form of p: 2^256 = 2^32 + 977 (mod p),
+ * so the high half of a product is folded back with a couple of small multiplications
+ */
+final class Secp256k1Field {
+
+    static final int SIZE = 10;
+
+    private static final int M26 = 0x3FFFFFF;
+    private static final int M22 = 0x3FFFFF;
+
+    /** 2^260 = R1 * 2^26 + R0 (mod p) */
+    private static final long R0 = 0x3D10;
+    private static final long R1 = 0x400;
+
+    static final int[] P = {
+            0x3FFFC2F, 0x3FFFFBF, M26, M26, M26,
+            M26, M26, M26, M26, M22
+    };
+
+    private static final int[] ZERO = new int[SIZE];
+
+    private Secp256k1Field() {}
+
+    static int[] create() {
+        return new int[SIZE];
+    }
+
+    static int[] one() {
+        int[] z = create();
+        z[0] = 1;
+        return z;
+    }
+
+    static int[] copy(int[] x) {
+        return x.clone();
+    }
+
+    static void copy(int[] x, int[] z) {
+        System.arraycopy(x, 0, z, 0, SIZE);
+    }
+
+    /**
+     * Decodes 32 big-endian bytes starting at {@code off}
+     *
+     * @return false if the value is not less than p
+     */
+    static boolean fromBytes(byte[] b, int off, int[] z) {
+        int w0 = word(b, off + 28), w1 = word(b, off + 24), w2 = word(b, off + 20), w3 = word(b, off + 16),
+            w4 = word(b, off + 12), w5 = word(b, off + 8), w6 = word(b, off + 4), w7 = word(b, off);
+
+        z[0] = w0 & M26;
+        z[1] = (w0 >>> 26 | w1 << 6) & M26;
+        z[2] = (w1 >>> 20 | w2 << 12) & M26;
+        z[3] = (w2 >>> 14 | w3 << 18) & M26;
+        z[4] = (w3 >>> 8 | w4 << 24) & M26;
+        z[5] = (w4 >>> 2) & M26;
+        z[6] = (w4 >>> 28 | w5 << 4) & M26;
+        z[7] = (w5 >>> 22 | w6 << 10) & M26;
+        z[8] = (w6 >>> 16 | w7 << 16) & M26;
+        z[9] = w7 >>> 10;
+        return !gteP(z);
+    }
+
+    /**
+     * Encodes element as 32 big-endian bytes starting at {@code off}
+     */
+    static void toBytes(int[] x, byte[] b, int off) {
+        putWord(x[0] | x[1] << 26, b, off + 28);
+        putWord(x[1] >>> 6 | x[2] << 20, b, off + 24);
+        putWord(x[2] >>> 12 | x[3] << 14, b, off + 20);
+        putWord(x[3] >>> 18 | x[4] << 8, b, off + 16);
+        putWord(x[4] >>> 24 | x[5] << 2 | x[6] << 28, b, off + 12);
+        putWord(x[6] >>> 4 | x[7] << 22, b, off + 8);
+        putWord(x[7] >>> 10 | x[8] << 16, b, off + 4);
+        putWord(x[8] >>> 16 | x[9] << 10, b, off);
+    }
+
+    static boolean isZero(int[] x) {
+        int d = 0;
+        for (int i = 0; i < SIZE; i++) d |= x[i];
+        return d == 0;
+    }
+
+    static boolean isOdd(int[] x) {
+        return (x[0] & 1) != 0;
+    }
+
+    static boolean eq(int[] x, int[] y) {
+        int d = 0;
+        for (int i = 0; i < SIZE; i++) d |= x[i] ^ y[i];
+        return d == 0;
+    }
+
+    static void add(int[] x, int[] y, int[] z) {
+        for (int i = 0; i < SIZE; i++) {
+            z[i] = x[i] + y[i];
+        }
+        normalize(z);
+    }
+
+    /**
+     * z = x + 2p - y, every limb of 2p is not less than a limb of reduced y
+     */
+    static void sub(int[] x, int[] y, int[] z) {
+        for (int i = 0; i < SIZE; i++) {
+            z[i] = x[i] + (P[i] << 1) - y[i];
+        }
+        normalize(z);
+    }
+
+    static void twice(int[] x, int[] z) {
+        add(x, x, z);
+    }
+
+    static void negate(int[] x, int[] z) {
+        sub(ZERO, x, z);
+    }
+
+    static void mul(int[] x, int[] y, int[] z) {
+        long a0 = x[0], a1 = x[1], a2 = x[2], a3 = x[3], a4 = x[4],
+             a5 = x[5], a6 = x[6], a7 = x[7], a8 = x[8], a9 = x[9];
+        long b0 = y[0], b1 = y[1], b2 = y[2], b3 = y[3], b4 = y[4],
+             b5 = y[5], b6 = y[6], b7 = y[7], b8 = y[8], b9 = y[9];
+
+        // 19 columns of the 520-bit product, carried to 26-bit digits
+        long c = a0 * b0;
+        long r0 = c & M26; c >>>= 26;
+        c += a0 * b1 + a1 * b0;
+        long r1 = c & M26; c >>>= 26;
+        c += a0 * b2 + a1 * b1 + a2 * b0;
+        long r2 = c & M26; c >>>= 26;
+        c += a0 * b3 + a1 * b2 + a2 * b1 + a3 * b0;
+        long r3 = c & M26; c >>>= 26;
+        c += a0 * b4 + a1 * b3 + a2 * b2 + a3 * b1 + a4 * b0;
+        long r4 = c & M26; c >>>= 26;
+        c += a0 * b5 + a1 * b4 + a2 * b3 + a3 * b2 + a4 * b1 + a5 * b0;
+        long r5 = c & M26; c >>>= 26;
+        c += a0 * b6 + a1 * b5 + a2 * b4 + a3 * b3 + a4 * b2 + a5 * b1 + a6 * b0;
+        long r6 = c & M26; c >>>= 26;
+        c += a0 * b7 + a1 * b6 + a2 * b5 + a3 * b4 + a4 * b3 + a5 * b2 + a6 * b1 + a7 * b0;
+        long r7 = c & M26; c >>>= 26;
+        c += a0 * b8 + a1 * b7 + a2 * b6 + a3 * b5 + a4 * b4 + a5 * b3 + a6 * b2 + a7 * b1 + a8 * b0;
+        long r8 = c & M26; c >>>= 26;
+        c += a0 * b9 + a1 * b8 + a2 * b7 + a3 * b6 + a4 * b5 + a5 * b4 + a6 * b3 + a7 * b2 + a8 * b1 + a9 * b0;
+        long r9 = c & M26; c >>>= 26;
+        c += a1 * b9 + a2 * b8 + a3 * b7 + a4 * b6 + a5 * b5 + a6 * b4 + a7 * b3 + a8 * b2 + a9 * b1;
+        long r10 = c & M26; c >>>= 26;
+        c += a2 * b9 + a3 * b8 + a4 * b7 + a5 * b6 + a6 * b5 + a7 * b4 + a8 * b3 + a9 * b2;
+        long r11 = c & M26; c >>>= 26;
+        c += a3 * b9 + a4 * b8 + a5 * b7 + a6 * b6 + a7 * b5 + a8 * b4 + a9 * b3;
+        long r12 = c & M26; c >>>= 26;
+        c += a4 * b9 + a5 * b8 + a6 * b7 + a7 * b6 + a8 * b5 + a9 * b4;
+        long r13 = c & M26; c >>>= 26;
+        c += a5 * b9 + a6 * b8 + a7 * b7 + a8 * b6 + a9 * b5;
+        long r14 = c & M26; c >>>= 26;
+        c += a6 * b9 + a7 * b8 + a8 * b7 + a9 * b6;
+        long r15 = c & M26; c >>>= 26;
+        c += a7 * b9 + a8 * b8 + a9 * b7;
+        long r16 = c & M26; c >>>= 26;
+        c += a8 * b9 + a9 * b8;
+        long r17 = c & M26; c >>>= 26;
+        c += a9 * b9;
+        long r18 = c & M26; c >>>= 26;
+        long r19 = c;
+
+        // 2^260 = 2^36 + 15632 (mod p), fold digits 10..19 onto 0..10
+        long t0 = r0 + r10 * R0;
+        long t1 = r1 + r10 * R1 + r11 * R0;
+        long t2 = r2 + r11 * R1 + r12 * R0;
+        long t3 = r3 + r12 * R1 + r13 * R0;
+        long t4 = r4 + r13 * R1 + r14 * R0;
+        long t5 = r5 + r14 * R1 + r15 * R0;
+        long t6 = r6 + r15 * R1 + r16 * R0;
+        long t7 = r7 + r16 * R1 + r17 * R0;
+        long t8 = r8 + r17 * R1 + r18 * R0;
+        long t9 = r9 + r18 * R1 + r19 * R0;
+        long t10 = r19 * R1;
+
+        t1 += t0 >>> 26; t0 &= M26;
+        t2 += t1 >>> 26; t1 &= M26;
+        t3 += t2 >>> 26; t2 &= M26;
+        t4 += t3 >>> 26; t3 &= M26;
+        t5 += t4 >>> 26; t4 &= M26;
+        t6 += t5 >>> 26; t5 &= M26;
+        t7 += t6 >>> 26; t6 &= M26;
+        t8 += t7 >>> 26; t7 &= M26;
+        t9 += t8 >>> 26; t8 &= M26;
+        t10 += t9 >>> 26; t9 &= M26;
+
+        t0 += t10 * R0;
+        t1 += t10 * R1;
+        t1 += t0 >>> 26; t0 &= M26;
+        t2 += t1 >>> 26; t1 &= M26;
+        t3 += t2 >>> 26; t2 &= M26;
+        t4 += t3 >>> 26; t3 &= M26;
+        t5 += t4 >>> 26; t4 &= M26;
+        t6 += t5 >>> 26; t5 &= M26;
+        t7 += t6 >>> 26; t6 &= M26;
+        t8 += t7 >>> 26; t7 &= M26;
+        t9 += t8 >>> 26; t8 &= M26;
+
+        z[0] = (int) t0; z[1] = (int) t1; z[2] = (int) t2; z[3] = (int) t3; z[4] = (int) t4;
+        z[5] = (int) t5; z[6] = (int) t6; z[7] = (int) t7; z[8] = (int) t8; z[9] = (int) t9;
+        normalize(z);
+    }
+
+    static void sqr(int[] x, int[] z) {
+        long a0 = x[0], a1 = x[1], a2 = x[2], a3 = x[3], a4 = x[4],
+             a5 = x[5], a6 = x[6], a7 = x[7], a8 = x[8], a9 = x[9];
+
+        // 19 columns of the 520-bit product, carried to 26-bit digits
+        long c = a0 * a0;
+        long r0 = c & M26; c >>>= 26;
+        c += a0 * a1 * 2;
+        long r1 = c & M26; c >>>= 26;
+        c += a0 * a2 * 2 + a1 * a1;
+        long r2 = c & M26; c >>>= 26;
+        c += a0 * a3 * 2 + a1 * a2 * 2;
+        long r3 = c & M26; c >>>= 26;
+        c += a0 * a4 * 2 + a1 * a3 * 2 + a2 * a2;
+        long r4 = c & M26; c >>>= 26;
+        c += a0 * a5 * 2 + a1 * a4 * 2 + a2 * a3 * 2;
+        long r5 = c & M26; c >>>= 26;
+        c += a0 * a6 * 2 + a1 * a5 * 2 + a2 * a4 * 2 + a3 * a3;
+        long r6 = c & M26; c >>>= 26;
+        c += a0 * a7 * 2 + a1 * a6 * 2 + a2 * a5 * 2 + a3 * a4 * 2;
+        long r7 = c & M26; c >>>= 26;
+        c += a0 * a8 * 2 + a1 * a7 * 2 + a2 * a6 * 2 + a3 * a5 * 2 + a4 * a4;
+        long r8 = c & M26; c >>>= 26;
+        c += a0 * a9 * 2 + a1 * a8 * 2 + a2 * a7 * 2 + a3 * a6 * 2 + a4 * a5 * 2;
+        long r9 = c & M26; c >>>= 26;
+        c += a1 * a9 * 2 + a2 * a8 * 2 + a3 * a7 * 2 + a4 * a6 * 2 + a5 * a5;
+        long r10 = c & M26; c >>>= 26;
+        c += a2 * a9 * 2 + a3 * a8 * 2 + a4 * a7 * 2 + a5 * a6 * 2;
+        long r11 = c & M26; c >>>= 26;
+        c += a3 * a9 * 2 + a4 * a8 * 2 + a5 * a7 * 2 + a6 * a6;
+        long r12 = c & M26; c >>>= 26;
+        c += a4 * a9 * 2 + a5 * a8 * 2 + a6 * a7 * 2;
+        long r13 = c & M26; c >>>= 26;
+        c += a5 * a9 * 2 + a6 * a8 * 2 + a7 * a7;
+        long r14 = c & M26; c >>>= 26;
+        c += a6 * a9 * 2 + a7 * a8 * 2;
+        long r15 = c & M26; c >>>= 26;
+        c += a7 * a9 * 2 + a8 * a8;
+        long r16 = c & M26; c >>>= 26;
+        c += a8 * a9 * 2;
+        long r17 = c & M26; c >>>= 26;
+        c += a9 * a9;
+        long r18 = c & M26; c >>>= 26;
+        long r19 = c;
+
+        // 2^260 = 2^36 + 15632 (mod p), fold digits 10..19 onto 0..10
+        long t0 = r0 + r10 * R0;
+        long t1 = r1 + r10 * R1 + r11 * R0;
+        long t2 = r2 + r11 * R1 + r12 * R0;
+        long t3 = r3 + r12 * R1 + r13 * R0;
+        long t4 = r4 + r13 * R1 + r14 * R0;
+        long t5 = r5 + r14 * R1 + r15 * R0;
+        long t6 = r6 + r15 * R1 + r16 * R0;
+        long t7 = r7 + r16 * R1 + r17 * R0;
+        long t8 = r8 + r17 * R1 + r18 * R0;
+        long t9 = r9 + r18 * R1 + r19 * R0;
+        long t10 = r19 * R1;
+
+        t1 += t0 >>> 26; t0 &= M26;
+        t2 += t1 >>> 26; t1 &= M26;
+        t3 += t2 >>> 26; t2 &= M26;
+        t4 += t3 >>> 26; t3 &= M26;
+        t5 += t4 >>> 26; t4 &= M26;
+        t6 += t5 >>> 26; t5 &= M26;
+        t7 += t6 >>> 26; t6 &= M26;
+        t8 += t7 >>> 26; t7 &= M26;
+        t9 += t8 >>> 26; t8 &= M26;
+        t10 += t9 >>> 26; t9 &= M26;
+
+        t0 += t10 * R0;
+        t1 += t10 * R1;
+        t1 += t0 >>> 26; t0 &= M26;
+        t2 += t1 >>> 26; t1 &= M26;
+        t3 += t2 >>> 26; t2 &= M26;
+        t4 += t3 >>> 26; t3 &= M26;
+        t5 += t4 >>> 26; t4 &= M26;
+        t6 += t5 >>> 26; t5 &= M26;
+        t7 += t6 >>> 26; t6 &= M26;
+        t8 += t7 >>> 26; t7 &= M26;
+        t9 += t8 >>> 26; t8 &= M26;
+
+        z[0] = (int) t0; z[1] = (int) t1; z[2] = (int) t2; z[3] = (int) t3; z[4] = (int) t4;
+        z[5] = (int) t5; z[6] = (int) t6; z[7] = (int) t7; z[8] = (int) t8; z[9] = (int) t9;
+        normalize(z);
+    }
+
+    static void sqrN(int[] x, int n, int[] z) {
+        sqr(x, z);
+        while (--n > 0) {
+            sqr(z, z);
+        }
+    }
+
+    /**
+     * Modular inverse via Fermat's little theorem, x^(p - 2),
+     * using the same addition chain as libsecp256k1
+     */
+    static void inv(int[] x, int[] z) {
+        int[] x2 = create(), x3 = create(), x6 = create(), x9 = create(), x11 = create(),
+                x22 = create(), x44 = create(), x88 = create(), x176 = create(),
+                x220 = create(), x223 = create(), t = create();
+
+        sqr(x, x2); mul(x2, x, x2);
+        sqr(x2, x3); mul(x3, x, x3);
+        sqrN(x3, 3, x6); mul(x6, x3, x6);
+        sqrN(x6, 3, x9); mul(x9, x3, x9);
+        sqrN(x9, 2, x11); mul(x11, x2, x11);
+        sqrN(x11, 11, x22); mul(x22, x11, x22);
+        sqrN(x22, 22, x44); mul(x44, x22, x44);
+        sqrN(x44, 44, x88); mul(x88, x44, x88);
+        sqrN(x88, 88, x176); mul(x176, x88, x176);
+        sqrN(x176, 44, x220); mul(x220, x44, x220);
+        sqrN(x220, 3, x223); mul(x223, x3, x223);
+
+        sqrN(x223, 23, t); mul(t, x22, t);
+        sqrN(t, 5, t); mul(t, x, t);
+        sqrN(t, 3, t); mul(t, x2, t);
+        sqrN(t, 2, t); mul(t, x, z);
+    }
+
+    /**
+     * Square root x^((p + 1) / 4), valid since p = 3 (mod 4)
+     *
+     * @return false if x is not a quadratic residue, the content of z is undefined then
+     */
+    static boolean sqrt(int[] x, int[] z) {
+        int[] x2 = create(), x3 = create(), x6 = create(), x9 = create(), x11 = create(),
+                x22 = create(), x44 = create(), x88 = create(), x176 = create(),
+                x220 = create(), x223 = create(), t = create();
+
+        sqr(x, x2); mul(x2, x, x2);
+        sqr(x2, x3); mul(x3, x, x3);
+        sqrN(x3, 3, x6); mul(x6, x3, x6);
+        sqrN(x6, 3, x9); mul(x9, x3, x9);
+        sqrN(x9, 2, x11); mul(x11, x2, x11);
+        sqrN(x11, 11, x22); mul(x22, x11, x22);
+        sqrN(x22, 22, x44); mul(x44, x22, x44);
+        sqrN(x44, 44, x88); mul(x88, x44, x88);
+        sqrN(x88, 88, x176); mul(x176, x88, x176);
+        sqrN(x176, 44, x220); mul(x220, x44, x220);
+        sqrN(x220, 3, x223); mul(x223, x3, x223);
+
+        sqrN(x223, 23, t); mul(t, x22, t);
+        sqrN(t, 6, t); mul(t, x2, t);
+        sqrN(t, 2, t);
+
+        sqr(t, x2);
+        boolean ok = eq(x2, x);
+        copy(t, z);
+        return ok;
+    }
+
+    /**
+     * Carries limbs (each non-negative and below 2^30) to 26 bits,
+     * folds bits above 2^256 back and makes the value less than p
+     */
+    private static void normalize(int[] z) {
+        int t0 = z[0], t1 = z[1], t2 = z[2], t3 = z[3], t4 = z[4],
+            t5 = z[5], t6 = z[6], t7 = z[7], t8 = z[8], t9 = z[9];
+
+        while (true) {
+            t1 += t0 >>> 26; t0 &= M26;
+            t2 += t1 >>> 26; t1 &= M26;
+            t3 += t2 >>> 26; t2 &= M26;
+            t4 += t3 >>> 26; t3 &= M26;
+            t5 += t4 >>> 26; t4 &= M26;
+            t6 += t5 >>> 26; t5 &= M26;
+            t7 += t6 >>> 26; t6 &= M26;
+            t8 += t7 >>> 26; t7 &= M26;
+            t9 += t8 >>> 26; t8 &= M26;
+
+            int top = t9 >>> 22;
+            if (top == 0) break;
+            t9 &= M22;
+            // 2^256 = 2^32 + 977 (mod p)
+            t0 += top * 0x3D1;
+            t1 += top << 6;
+        }
+
+        z[0] = t0; z[1] = t1; z[2] = t2; z[3] = t3; z[4] = t4;
+        z[5] = t5; z[6] = t6; z[7] = t7; z[8] = t8; z[9] = t9;
+
+        if (gteP(z)) {
+            // z - p = z + (2^32 + 977) - 2^256
+            t0 += 0x3D1;
+            t1 += 0x40 + (t0 >>> 26); t0 &= M26;
+            t2 += t1 >>> 26; t1 &= M26;
+            t3 += t2 >>> 26; t2 &= M26;
+            t4 += t3 >>> 26; t3 &= M26;
+            t5 += t4 >>> 26; t4 &= M26;
+            t6 += t5 >>> 26; t5 &= M26;
+            t7 += t6 >>> 26; t6 &= M26;
+            t8 += t7 >>> 26; t7 &= M26;
+            t9 += t8 >>> 26; t8 &= M26;
+            t9 &= M22;
+
+            z[0] = t0; z[1] = t1; z[2] = t2; z[3] = t3; z[4] = t4;
+            z[5] = t5; z[6] = t6; z[7] = t7; z[8] = t8; z[9] = t9;
+        }
+    }
+
+    private static boolean gteP(int[] x) {
+        if (x[9] != M22 || (x[8] & x[7] & x[6] & x[5] & x[4] & x[3] & x[2]) != M26) {
+            return false;
+        }
+        return x[1] > P[1] || (x[1] == P[1] && x[0] >= P[0]);
+    }
+
+    private static int word(byte[] b, int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+    }
+
+    private static void putWord(int v, byte[] b, int off) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,40 @@
+package org.cds.main.blockchain.crypto.secp256k1;
+
+import java.math.BigInteger;
+
+/**
+ * Implementation of secp256k1 signature recovery and verification. <br/>
+ *
+ * Both operations dominate the cost of transaction and discovery message processing,
+ * so the implementation is pluggable and selected by {@code crypto.signature.backend} option
+ * (see {@link SignatureBackends}) <br/>
+ *
+ * Implementations must be thread safe and produce identical results
+ */
+public interface SignatureBackend {
+
+    /**
+     * Recovers public key from the signature according to SEC1v2 section 4.1.6
+     *
+     * @param recId which of possible keys to recover [0..3]
+     * @param r signature R component
+     * @param s signature S component
+     * @param messageHash hash of signed data
+     * @return 65-byte uncompressed public key or null if recovery is not possible
+     * @throws IllegalArgumentException if R doesn't correspond to a curve point
+     */
+    byte[] recoverPubBytes(int recId, BigInteger r, BigInteger s, byte[] messageHash);
+
+    /**
+     * Verifies ECDSA signature against the hash using encoded public key
+     *
+     * @param data hash of the data to verify
+     * @param r signature R component
+     * @param s signature S component
+     * @param pub encoded public key, either compressed or not
+     * @throws IllegalArgumentException if public key is not a valid encoded curve point
+     */
+    boolean verify(byte[] data, BigInteger r, BigInteger s, byte[] pub);
+
+    String getName();
+}
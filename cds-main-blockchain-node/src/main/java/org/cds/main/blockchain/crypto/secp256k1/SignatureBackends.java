@@ -0,0 +1,40 @@
+package org.cds.main.blockchain.crypto.secp256k1;
+
+import org.cds.main.blockchain.config.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link SignatureBackend} by its name
+ * and holds the one chosen by {@code crypto.signature.backend} config option
+ */
+public class SignatureBackends {
+
+    private static final Logger logger = LoggerFactory.getLogger("crypto");
+
+    // lazily initialized since config itself depends on ECKey
+    private static class Holder {
+        static final SignatureBackend INSTANCE;
+
+        static {
+            SystemProperties props = SystemProperties.getDefault();
+            INSTANCE = create(props != null ? props.getSignatureBackend() : SpongyCastleSignatureBackend.NAME);
+            logger.info("Using '{}' signature backend", INSTANCE.getName());
+        }
+    }
+
+    public static SignatureBackend getDefault() {
+        return Holder.INSTANCE;
+    }
+
+    public static SignatureBackend create(String name) {
+        switch (name) {
+            case SpongyCastleSignatureBackend.NAME:
+                return new SpongyCastleSignatureBackend();
+            case JavaSignatureBackend.NAME:
+                return new JavaSignatureBackend();
+            default:
+                throw new IllegalArgumentException("Unknown signature backend: " + name);
+        }
+    }
+}
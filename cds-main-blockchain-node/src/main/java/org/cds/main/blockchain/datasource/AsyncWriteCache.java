@@ -72,6 +72,13 @@ public abstract class AsyncWriteCache<Key, Value> extends AbstractCachedSource<K
         }
     }
 
+    @Override
+    public List<Value> getBatch(List<Key> keys) {
+        try (ALock l = rLock.lock()) {
+            return curCache.getBatch(keys);
+        }
+    }
+
     @Override
     public synchronized boolean flush() {
         try {
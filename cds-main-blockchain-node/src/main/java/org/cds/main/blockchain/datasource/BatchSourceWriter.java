@@ -1,6 +1,7 @@
 package org.cds.main.blockchain.datasource;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -34,6 +35,11 @@ public class BatchSourceWriter<Key, Value> extends AbstractChainedSource<Key, Va
         return getSource().get(key);
     }
 
+    @Override
+    public List<Value> getBatch(List<Key> keys) {
+        return getSource().getBatch(keys);
+    }
+
     @Override
     public synchronized boolean flushImpl() {
         if (!buf.isEmpty()) {
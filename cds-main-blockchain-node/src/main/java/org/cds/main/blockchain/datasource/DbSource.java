@@ -1,6 +1,7 @@
 package org.cds.main.blockchain.datasource;
 
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Interface represents DB source which is normally the final Source in the chain
@@ -46,6 +47,16 @@ public interface DbSource<V> extends BatchSource<byte[], V> {
      */
     Set<byte[]> keys() throws RuntimeException;
 
+    /**
+     * Passes all the DB entries to the action, the default implementation loads all the keys first
+     * @throws RuntimeException if the method is not supported
+     */
+    default void forEachEntry(BiConsumer<byte[], V> action) {
+        for (byte[] key : keys()) {
+            action.accept(key, get(key));
+        }
+    }
+
     /**
      * Closes database, destroys its data and finally runs init()
      */
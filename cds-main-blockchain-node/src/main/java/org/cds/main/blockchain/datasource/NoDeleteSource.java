@@ -1,5 +1,7 @@
 package org.cds.main.blockchain.datasource;
 
+import java.util.List;
+
 /**
  * Just ignores deletes from the backing Source
  * Normally used for testing for Trie backing Sources to
@@ -26,6 +28,11 @@ public class NoDeleteSource<Key, Value> extends AbstractChainedSource<Key, Value
         return getSource().get(key);
     }
 
+    @Override
+    public List<Value> getBatch(List<Key> keys) {
+        return getSource().getBatch(keys);
+    }
+
     @Override
     protected boolean flushImpl() {
         return false;
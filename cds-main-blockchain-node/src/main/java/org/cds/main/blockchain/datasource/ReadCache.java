@@ -4,9 +4,11 @@ import org.apache.commons.collections4.map.LRUMap;
 import org.cds.main.blockchain.db.ByteArrayWrapper;
 import org.cds.main.blockchain.util.ByteArrayMap;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -96,6 +98,32 @@ public class ReadCache<Key, Value> extends AbstractCachedSource<Key, Value> {
         return ret;
     }
 
+    @Override
+    public List<Value> getBatch(List<Key> keys) {
+        List<Value> ret = new ArrayList<>(keys.size());
+        List<Key> missing = new ArrayList<>();
+        List<Integer> missingIdx = new ArrayList<>();
+        for (Key key : keys) {
+            checkByteArrKey(key);
+            Value value = cache.get(key);
+            if (value == null) {
+                missing.add(key);
+                missingIdx.add(ret.size());
+            }
+            ret.add(value == NULL ? null : value);
+        }
+        if (!missing.isEmpty()) {
+            List<Value> values = getSource().getBatch(missing);
+            for (int i = 0; i < missing.size(); i++) {
+                Value value = values.get(i);
+                cache.put(missing.get(i), value == null ? NULL : value);
+                cacheAdded(missing.get(i), value);
+                ret.set(missingIdx.get(i), value);
+            }
+        }
+        return ret;
+    }
+
     @Override
     public void delete(Key key) {
         checkByteArrKey(key);
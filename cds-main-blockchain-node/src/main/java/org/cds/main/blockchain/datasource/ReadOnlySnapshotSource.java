@@ -0,0 +1,83 @@
+package org.cds.main.blockchain.datasource;
+
+import org.cds.main.blockchain.util.ByteArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only view of a hash keyed Source (like the state trie nodes storage)
+ * intended to be used by a single thread, e.g. for the duration of a local call.
+ *
+ * Values are content addressed so once read they can't change: every value read
+ * from the shared backing Source is kept in the private cache generation of this
+ * instance and the subsequent reads don't touch shared caches and their locks.
+ *
+ * Any attempt to modify the Source results in {@link UnsupportedOperationException}
+ */
+public class ReadOnlySnapshotSource<Value> extends AbstractChainedSource<byte[], Value, byte[], Value> {
+
+    private static final Object NULL = new Object();
+
+    private final Map<byte[], Object> cache = new ByteArrayMap<>();
+
+    public ReadOnlySnapshotSource(Source<byte[], Value> src) {
+        super(src);
+    }
+
+    @Override
+    public Value get(byte[] key) {
+        Object ret = cache.get(key);
+        if (ret == null) {
+            Value val = getSource().get(key);
+            cache.put(key, val == null ? NULL : val);
+            return val;
+        }
+        return ret == NULL ? null : (Value) ret;
+    }
+
+    @Override
+    public List<Value> getBatch(List<byte[]> keys) {
+        List<Value> ret = new ArrayList<>(keys.size());
+        List<byte[]> missing = new ArrayList<>();
+        List<Integer> missingIdx = new ArrayList<>();
+        for (byte[] key : keys) {
+            Object val = cache.get(key);
+            if (val == null) {
+                missing.add(key);
+                missingIdx.add(ret.size());
+            }
+            ret.add(val == null || val == NULL ? null : (Value) val);
+        }
+        if (!missing.isEmpty()) {
+            List<Value> values = getSource().getBatch(missing);
+            for (int i = 0; i < missing.size(); i++) {
+                Value val = values.get(i);
+                cache.put(missing.get(i), val == null ? NULL : val);
+                ret.set(missingIdx.get(i), val);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public void put(byte[] key, Value val) {
+        throw new UnsupportedOperationException("Read-only snapshot");
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        throw new UnsupportedOperationException("Read-only snapshot");
+    }
+
+    @Override
+    public boolean flush() {
+        return false;
+    }
+
+    @Override
+    protected boolean flushImpl() {
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package org.cds.main.blockchain.datasource;
+
+import org.cds.main.blockchain.core.TransactionStateAccess;
+
+import java.util.List;
+
+/**
+ * Reports every read reaching the backing Source to the {@link TransactionStateAccess}
+ * recorder of the current thread, so a state read which has got here is counted as cold.
+ * Should sit right below the state caches
+ */
+public class ReadTrackingSource<Key, Value> extends AbstractChainedSource<Key, Value, Key, Value> {
+
+    public ReadTrackingSource(Source<Key, Value> src) {
+        super(src);
+        setFlushSource(true);
+    }
+
+    @Override
+    public void delete(Key key) {
+        getSource().delete(key);
+    }
+
+    @Override
+    public void put(Key key, Value val) {
+        getSource().put(key, val);
+    }
+
+    @Override
+    public Value get(Key key) {
+        TransactionStateAccess.onDbRead();
+        return getSource().get(key);
+    }
+
+    @Override
+    public List<Value> getBatch(List<Key> keys) {
+        TransactionStateAccess.onDbRead();
+        return getSource().getBatch(keys);
+    }
+
+    @Override
+    protected boolean flushImpl() {
+        return false;
+    }
+}
@@ -1,5 +1,8 @@
 package org.cds.main.blockchain.datasource;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Base interface for all data source classes
  *
@@ -17,6 +20,21 @@ public interface Source<K, V> {
      */
     V get(K key);
 
+    /**
+     * Gets values for a number of keys at once.
+     * Sources backed by a storage which serves several keys with a single request
+     * (like RocksDB multiGet), and the Sources on the way to it, pass the whole batch down,
+     * the default implementation gets the keys one by one
+     * @return values in the order of the keys, <null/> for the keys which are not in the source
+     */
+    default List<V> getBatch(List<K> keys) {
+        List<V> ret = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            ret.add(get(key));
+        }
+        return ret;
+    }
+
     /**
      * Deletes the key-value pair from the source
      */
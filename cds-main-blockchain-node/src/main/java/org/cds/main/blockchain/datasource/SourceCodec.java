@@ -1,5 +1,8 @@
 package org.cds.main.blockchain.datasource;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Source for converting between different key/value types
  * Has no own state and immediately propagate all changes
@@ -35,6 +38,20 @@ public class SourceCodec<Key, Value, SourceKey, SourceValue>
         return valSerializer.deserialize(getSource().get(keySerializer.serialize(key)));
     }
 
+    @Override
+    public List<Value> getBatch(List<Key> keys) {
+        List<SourceKey> sourceKeys = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            sourceKeys.add(keySerializer.serialize(key));
+        }
+        List<SourceValue> sourceValues = getSource().getBatch(sourceKeys);
+        List<Value> ret = new ArrayList<>(sourceValues.size());
+        for (SourceValue value : sourceValues) {
+            ret.add(valSerializer.deserialize(value));
+        }
+        return ret;
+    }
+
     @Override
     public void delete(Key key) {
         getSource().delete(keySerializer.serialize(key));
@@ -3,8 +3,10 @@ package org.cds.main.blockchain.datasource;
 import com.googlecode.concurentlocks.ReadWriteUpdateLock;
 import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.cds.main.blockchain.util.ALock;
@@ -197,6 +199,33 @@ public class WriteCache<Key, Value> extends AbstractCachedSource<Key, Value> {
         }
     }
 
+    @Override
+    public List<Value> getBatch(List<Key> keys) {
+        try (ALock l = readLock.lock()){
+            List<Value> ret = new ArrayList<>(keys.size());
+            List<Key> missing = new ArrayList<>();
+            List<Integer> missingIdx = new ArrayList<>();
+            for (Key key : keys) {
+                checkByteArrKey(key);
+                CacheEntry<Value> curVal = cache.get(key);
+                Value value = curVal == null ? unknownValue() : curVal.getValue();
+                if (value == unknownValue()) {
+                    missing.add(key);
+                    missingIdx.add(ret.size());
+                    value = null;
+                }
+                ret.add(value);
+            }
+            if (!missing.isEmpty() && getSource() != null) {
+                List<Value> values = getSource().getBatch(missing);
+                for (int i = 0; i < missing.size(); i++) {
+                    ret.set(missingIdx.get(i), values.get(i));
+                }
+            }
+            return ret;
+        }
+    }
+
     @Override
     public void delete(Key key) {
         checkByteArrKey(key);
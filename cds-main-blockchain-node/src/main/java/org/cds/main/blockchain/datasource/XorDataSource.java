@@ -2,6 +2,9 @@ package org.cds.main.blockchain.datasource;
 
 import org.cds.main.blockchain.util.ByteUtil;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * When propagating changes to the backing Source XORs keys
  * with the specified value
@@ -29,6 +32,15 @@ public class XorDataSource<V> extends AbstractChainedSource<byte[], V, byte[], V
         return getSource().get(convertKey(key));
     }
 
+    @Override
+    public List<V> getBatch(List<byte[]> keys) {
+        List<byte[]> converted = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            converted.add(convertKey(key));
+        }
+        return getSource().getBatch(converted);
+    }
+
     @Override
     public void put(byte[] key, V value) {
         getSource().put(convertKey(key), value);
@@ -18,6 +18,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -222,6 +223,25 @@ public class RocksDbDataSource implements DbSource<byte[]> {
         }
     }
 
+    @Override
+    public void forEachEntry(BiConsumer<byte[], byte[]> action) {
+        resetDbLock.readLock().lock();
+        try {
+            if (logger.isTraceEnabled()) logger.trace("~> RocksDbDataSource.forEachEntry(): " + name);
+            try (RocksIterator iterator = db.newIterator()) {
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                    action.accept(iterator.key(), iterator.value());
+                }
+            } catch (Exception e) {
+                logger.error("Error iterating db '{}'", name, e);
+                hintOnTooManyOpenFiles(e);
+                throw new RuntimeException(e);
+            }
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
     @Override
     public void reset() {
         close();
@@ -300,6 +320,28 @@ public class RocksDbDataSource implements DbSource<byte[]> {
         }
     }
 
+    @Override
+    public List<byte[]> getBatch(List<byte[]> keys) {
+        resetDbLock.readLock().lock();
+        try {
+            if (logger.isTraceEnabled()) logger.trace("~> RocksDbDataSource.getBatch(): " + name + ", keys: " + keys.size());
+            // the returned map is keyed by the very same key instances
+            Map<byte[], byte[]> values = db.multiGet(readOpts, keys);
+            List<byte[]> ret = new ArrayList<>(keys.size());
+            for (byte[] key : keys) {
+                ret.add(values.get(key));
+            }
+            if (logger.isTraceEnabled()) logger.trace("<~ RocksDbDataSource.getBatch(): " + name + ", keys: " + keys.size() + ", found: " + values.size());
+            return ret;
+        } catch (RocksDBException e) {
+            logger.error("Failed to multi get from db '{}'", name, e);
+            hintOnTooManyOpenFiles(e);
+            throw new RuntimeException(e);
+        } finally {
+            resetDbLock.readLock().unlock();
+        }
+    }
+
     @Override
     public void delete(byte[] key) {
         resetDbLock.readLock().lock();
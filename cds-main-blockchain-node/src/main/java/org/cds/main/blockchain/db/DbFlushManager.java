@@ -25,6 +25,7 @@ public class DbFlushManager {
 
     List<AbstractCachedSource<byte[], ?>> writeCaches = new CopyOnWriteArrayList<>();
     List<Source<byte[], ?>> sources = new CopyOnWriteArrayList<>();
+    List<Runnable> flushBarriers = new CopyOnWriteArrayList<>();
     Set<DbSource> dbSources = new HashSet<>();
     AbstractCachedSource<byte[], byte[]> stateDbCache;
 
@@ -77,6 +78,14 @@ public class DbFlushManager {
         sources.add(src);
     }
 
+    /**
+     * Adds the task run before each flush, e.g. to complete the writes
+     * which are performed asynchronously and should get to the same flush
+     */
+    public void addFlushBarrier(Runnable barrier) {
+        flushBarriers.add(barrier);
+    }
+
     public long getCacheSize() {
         long ret = 0;
         for (AbstractCachedSource<byte[], ?> writeCache : writeCaches) {
@@ -123,6 +132,8 @@ public class DbFlushManager {
                 logger.error("Error during last flush", e);
             }
         }
+        flushBarriers.forEach(Runnable::run);
+
         logger.debug("Flipping async storages");
         for (AbstractCachedSource<byte[], ?> writeCache : writeCaches) {
             try {
@@ -1,5 +1,7 @@
 package org.cds.main.blockchain.db;
 
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.cds.main.blockchain.config.SystemProperties;
 import org.cds.main.blockchain.core.Block;
 import org.cds.main.blockchain.core.BlockHeader;
@@ -7,10 +9,27 @@ import org.cds.main.blockchain.datasource.JournalSource;
 import org.cds.main.blockchain.datasource.Source;
 import org.cds.main.blockchain.db.prune.Pruner;
 import org.cds.main.blockchain.db.prune.Segment;
+import org.cds.main.blockchain.util.ByteArrayMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -19,6 +38,15 @@ import java.util.stream.Collectors;
  * <p>
  *     Constructs chain segments and prune them when they are complete
  *
+ * <p>
+ *     With background pruning enabled the pruner runs in a separate thread and
+ *     instead of deleting nodes and journal entries it collects them. The deletions are applied within the
+ *     import thread on the next block commit except the nodes inserted again by the blocks
+ *     the pruner hasn't processed yet. The journal entries are deleted along with the nodes,
+ *     so the blocks whose results haven't been applied by the shutdown are pruned again after the restart.
+ *     When the pruner falls behind for more than the max backlog the import waits for it
+ *     and prunes the block itself.
+ *
  * Created by Anton Nashatyrev on 10.11.2016.
  *
  * @see Segment
@@ -26,9 +54,14 @@ import java.util.stream.Collectors;
  */
 public class PruneManager {
 
+    private static final Logger logger = LoggerFactory.getLogger("prune");
+
     private static final int LONGEST_CHAIN = 192;
+    // the time the shutdown waits for the background pruner to complete its backlog, seconds
+    private static final int CLOSE_TIMEOUT = 10;
 
     private JournalSource<?> journalSource;
+    private Source<byte[], ?> pruneStorage;
 
     @Autowired
     private IndexedBlockStore blockStore;
@@ -38,6 +71,25 @@ public class PruneManager {
     private Segment segment;
     private Pruner pruner;
 
+    // background pruning state, the executor is null when pruning is done within the import
+    private boolean background;
+    private int maxBacklog;
+    private RateLimiter deletesLimiter;
+    private ExecutorService pruneExecutor;
+    private Future<?> lastTask;
+    private final DeletedKeys deletedKeys = new DeletedKeys();
+    private DeferredJournal deferredJournal;
+    private final Queue<PruneResult> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    // keys inserted by the blocks the background pruner hasn't been fed with yet
+    private final Deque<JournalSource.Update> pendingUpdates = new ArrayDeque<>();
+    private final Map<byte[], Integer> pendingInserts = new ByteArrayMap<>();
+
+    private volatile long prunedBlockNumber = -1;
+    private long nodesDeleted;
+    private long nodesKept;
+    private int syncFallbacks;
+
     @Autowired
     private PruneManager(SystemProperties config) {
         pruneBlocksCnt = config.databasePruneDepth();
@@ -47,23 +99,205 @@ public class PruneManager {
                         Source<byte[], ?> pruneStorage, int pruneBlocksCnt) {
         this.blockStore = blockStore;
         this.journalSource = journalSource;
+        this.pruneStorage = pruneStorage;
         this.pruneBlocksCnt = pruneBlocksCnt;
-
-        if (journalSource != null && pruneStorage != null)
-            this.pruner = new Pruner(journalSource.getJournal(), pruneStorage);
+        initPruner();
     }
 
     @Autowired
     public void setStateSource(StateSource stateSource) {
         journalSource = stateSource.getJournalSource();
-        if (journalSource != null)
-            pruner = new Pruner(journalSource.getJournal(), stateSource.getNoJournalSource());
+        pruneStorage = stateSource.getNoJournalSource();
+        initPruner();
+    }
+
+    @Autowired
+    public void setConfig(SystemProperties config) {
+        background = config.isDatabasePruneBackground();
+        maxBacklog = config.databasePruneMaxBacklog();
+        int maxDeletes = config.databasePruneMaxDeletesPerSecond();
+        deletesLimiter = maxDeletes > 0 ? RateLimiter.create(maxDeletes) : null;
+        initPruner();
+    }
+
+    private void initPruner() {
+        if (journalSource == null || pruneStorage == null) return;
+
+        if (background && pruneBlocksCnt >= 0) {
+            deferredJournal = new DeferredJournal(journalSource.getJournal());
+            pruner = new Pruner(deferredJournal, deletedKeys);
+            if (pruneExecutor == null) {
+                pruneExecutor = Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("prune-thread-%d").setDaemon(true).build());
+            }
+        } else {
+            pruner = new Pruner(journalSource.getJournal(), pruneStorage);
+        }
     }
 
     public void blockCommitted(BlockHeader block) {
         if (pruneBlocksCnt < 0) return; // pruning disabled
 
         JournalSource.Update update = journalSource.commitUpdates(block.getHash());
+        if (pruneExecutor == null) {
+            pruneBlock(block, update, blockStore.getMaxNumber());
+            prunedBlockNumber = block.getNumber();
+            return;
+        }
+
+        addPending(update);
+        long maxNumber = blockStore.getMaxNumber();
+        if (backlog.get() >= maxBacklog) {
+            // the pruner can't keep up, wait for it and prune this block within the import
+            ++syncFallbacks;
+            logger.debug("prune backlog of {} blocks exceeded, pruning block #{} within the import",
+                    maxBacklog, block.getNumber());
+            awaitBackground();
+            applyResults();
+            applyResult(pruneInBackgroundMode(block, update, maxNumber));
+        } else {
+            backlog.incrementAndGet();
+            lastTask = pruneExecutor.submit(() -> {
+                try {
+                    PruneResult result = pruneInBackgroundMode(block, update, maxNumber);
+                    if (deletesLimiter != null && !result.deleted.isEmpty()) {
+                        deletesLimiter.acquire(result.deleted.size());
+                    }
+                    results.add(result);
+                } finally {
+                    backlog.decrementAndGet();
+                }
+            });
+            applyResults();
+        }
+    }
+
+    /**
+     * Runs pruning collecting the deleted keys instead of deleting them, never throws
+     * since there is the result expected for every block fed to the pruner,
+     * the failure is passed with the result and is thrown when the result is applied
+     */
+    private PruneResult pruneInBackgroundMode(BlockHeader block, JournalSource.Update update, long maxNumber) {
+        Exception error = null;
+        try {
+            pruneBlock(block, update, maxNumber);
+        } catch (Exception e) {
+            logger.error("Background pruning of block #" + block.getNumber() + " failed", e);
+            error = e;
+        }
+        return new PruneResult(block.getNumber(), deletedKeys.drain(), deferredJournal.drain(), error);
+    }
+
+    private void addPending(JournalSource.Update update) {
+        pendingUpdates.add(update);
+        for (byte[] key : update.getInsertedKeys()) {
+            pendingInserts.merge(key, 1, Integer::sum);
+        }
+    }
+
+    private void applyResults() {
+        PruneResult result;
+        while ((result = results.poll()) != null) {
+            applyResult(result);
+        }
+    }
+
+    /**
+     * Deletes the nodes found by the pruner unless they were inserted again
+     * by the blocks the pruner hadn't been fed with at the moment
+     */
+    private void applyResult(PruneResult result) {
+        // the update was fed to the pruner filter before its result got ready
+        JournalSource.Update fed = pendingUpdates.poll();
+        for (byte[] key : fed.getInsertedKeys()) {
+            pendingInserts.computeIfPresent(key, (k, cnt) -> cnt > 1 ? cnt - 1 : null);
+        }
+
+        if (result.error != null) {
+            // the nodes and the journal entries the failed run has collected are kept
+            deferredJournal.discard(result.journalDeleted);
+            throw new RuntimeException("Background pruning of block #" + result.blockNumber + " failed", result.error);
+        }
+
+        for (byte[] key : result.deleted) {
+            if (pendingInserts.containsKey(key)) {
+                ++nodesKept;
+            } else {
+                pruneStorage.delete(key);
+                ++nodesDeleted;
+            }
+        }
+        deferredJournal.apply(result.journalDeleted);
+        prunedBlockNumber = result.blockNumber;
+
+        if (logger.isDebugEnabled() && result.blockNumber % 100 == 0) {
+            logger.debug("pruned up to #{}, backlog: {} blocks, nodes deleted: {}, kept as reinserted: {}, sync fallbacks: {}",
+                    result.blockNumber, backlog.get(), nodesDeleted, nodesKept, syncFallbacks);
+        }
+    }
+
+    private void awaitBackground() {
+        if (lastTask == null) return;
+        try {
+            lastTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return number of committed blocks waiting for the background pruner
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * @return the number of the last block whose pruning was applied
+     */
+    public long getPrunedBlockNumber() {
+        return prunedBlockNumber;
+    }
+
+    public long getNodesDeleted() {
+        return nodesDeleted;
+    }
+
+    /**
+     * @return number of times the import had to prune the block itself due to the backlog overflow
+     */
+    public int getSyncFallbacks() {
+        return syncFallbacks;
+    }
+
+    /**
+     * Waits for the background pruner to complete its backlog and applies the results,
+     * should be called before the DB is flushed on shutdown
+     */
+    public void close() {
+        if (pruneExecutor == null) return;
+
+        logger.info("Shutting down background pruner, backlog: {} blocks", backlog.get());
+        pruneExecutor.shutdown();
+        try {
+            if (!pruneExecutor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+                logger.warn("Background pruner hasn't completed in {} sec, backlog: {} blocks", CLOSE_TIMEOUT, backlog.get());
+                pruneExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            applyResults();
+        } catch (RuntimeException e) {
+            logger.error("Failed to apply background pruning results on shutdown", e);
+        }
+    }
+
+    private void pruneBlock(BlockHeader block, JournalSource.Update update, long maxNumber) {
         pruner.feed(update);
 
         long forkBlockNum = block.getNumber() - getForkBlocksCnt();
@@ -92,7 +326,7 @@ public class PruneManager {
 
         if (segment.isComplete()) {
             if (!pruner.isReady()) {
-                List<byte[]> forkWindow = getAllChainsHashes(segment.getRootNumber() + 1, blockStore.getMaxNumber());
+                List<byte[]> forkWindow = getAllChainsHashes(segment.getRootNumber() + 1, maxNumber);
                 pruner.init(forkWindow, getForkBlocksCnt());
 
                 int mainChainWindowSize = pruneBlocksCnt - getForkBlocksCnt();
@@ -143,4 +377,108 @@ public class PruneManager {
         }
         return ret;
     }
+
+    private static class PruneResult {
+        final long blockNumber;
+        final List<byte[]> deleted;
+        final List<byte[]> journalDeleted;
+        final Exception error;
+
+        PruneResult(long blockNumber, List<byte[]> deleted, List<byte[]> journalDeleted, Exception error) {
+            this.blockNumber = blockNumber;
+            this.deleted = deleted;
+            this.journalDeleted = journalDeleted;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Pruner journal in the background mode: the deleted entries are collected
+     * and removed from the journal when the pruning result is applied,
+     * until then they are hidden from the pruner
+     */
+    private static class DeferredJournal implements Source<byte[], JournalSource.Update> {
+        private final Source<byte[], JournalSource.Update> journal;
+        private final Set<ByteArrayWrapper> deferred = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private List<byte[]> keys = new ArrayList<>();
+
+        DeferredJournal(Source<byte[], JournalSource.Update> journal) {
+            this.journal = journal;
+        }
+
+        List<byte[]> drain() {
+            if (keys.isEmpty()) return Collections.emptyList();
+            List<byte[]> ret = keys;
+            keys = new ArrayList<>();
+            return ret;
+        }
+
+        void apply(List<byte[]> deleted) {
+            for (byte[] key : deleted) {
+                journal.delete(key);
+                deferred.remove(new ByteArrayWrapper(key));
+            }
+        }
+
+        void discard(List<byte[]> deleted) {
+            for (byte[] key : deleted) {
+                deferred.remove(new ByteArrayWrapper(key));
+            }
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            keys.add(key);
+            deferred.add(new ByteArrayWrapper(key));
+        }
+
+        @Override
+        public void put(byte[] key, JournalSource.Update val) {
+            journal.put(key, val);
+        }
+
+        @Override
+        public JournalSource.Update get(byte[] key) {
+            return deferred.contains(new ByteArrayWrapper(key)) ? null : journal.get(key);
+        }
+
+        @Override
+        public boolean flush() {
+            return false;
+        }
+    }
+
+    /**
+     * Pruner storage in the background mode: collects the deleted keys
+     */
+    private static class DeletedKeys implements Source<byte[], byte[]> {
+        private List<byte[]> keys = new ArrayList<>();
+
+        List<byte[]> drain() {
+            if (keys.isEmpty()) return Collections.emptyList();
+            List<byte[]> ret = keys;
+            keys = new ArrayList<>();
+            return ret;
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            keys.add(key);
+        }
+
+        @Override
+        public void put(byte[] key, byte[] val) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean flush() {
+            return false;
+        }
+    }
 }
@@ -4,6 +4,7 @@ import org.cds.main.blockchain.config.SystemProperties;
 import org.cds.main.blockchain.core.AccountState;
 import org.cds.main.blockchain.core.Block;
 import org.cds.main.blockchain.core.Repository;
+import org.cds.main.blockchain.core.TransactionStateAccess;
 import org.cds.main.blockchain.crypto.HashUtil;
 import org.cds.main.blockchain.datasource.*;
 import org.cds.main.blockchain.util.ByteUtil;
@@ -46,6 +47,7 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
         AccountState state = new AccountState(config.getBlockchainConfig().getCommonConstants().getInitialNonce(),
                 BigInteger.ZERO);
         accountStateCache.put(addr, state);
+        recordWrite(addr);
         return state;
     }
 
@@ -56,11 +58,18 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
 
     @Override
     public synchronized AccountState getAccountState(byte[] addr) {
-        return accountStateCache.get(addr);
+        TransactionStateAccess access = TransactionStateAccess.current();
+        if (access == null) return accountStateCache.get(addr);
+
+        int dbReads = access.getDbReads();
+        long start = System.nanoTime();
+        AccountState ret = accountStateCache.get(addr);
+        access.accountRead(addr, System.nanoTime() - start, access.getDbReads() > dbReads);
+        return ret;
     }
 
     synchronized AccountState getOrCreateAccountState(byte[] addr) {
-        AccountState ret = accountStateCache.get(addr);
+        AccountState ret = getAccountState(addr);
         if (ret == null) {
             ret = createAccount(addr);
         }
@@ -71,12 +80,14 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
     public synchronized void delete(byte[] addr) {
         accountStateCache.delete(addr);
         storageCache.delete(addr);
+        recordWrite(addr);
     }
 
     @Override
     public synchronized BigInteger increaseNonce(byte[] addr) {
         AccountState accountState = getOrCreateAccountState(addr);
         accountStateCache.put(addr, accountState.withIncrementedNonce());
+        recordWrite(addr);
         return accountState.getNonce();
     }
 
@@ -84,6 +95,7 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
     public synchronized BigInteger setNonce(byte[] addr, BigInteger nonce) {
         AccountState accountState = getOrCreateAccountState(addr);
         accountStateCache.put(addr, accountState.withNonce(nonce));
+        recordWrite(addr);
         return accountState.getNonce();
     }
 
@@ -110,6 +122,7 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
         codeCache.put(codeKey(codeHash, addr), code);
         AccountState accountState = getOrCreateAccountState(addr);
         accountStateCache.put(addr, accountState.withCodeHash(codeHash));
+        recordWrite(addr);
     }
 
     @Override
@@ -119,6 +132,11 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
                 ByteUtil.EMPTY_BYTE_ARRAY : codeCache.get(codeKey(codeHash, addr));
     }
 
+    private void recordWrite(byte[] addr) {
+        TransactionStateAccess access = TransactionStateAccess.current();
+        if (access != null) access.accountWrite(addr);
+    }
+
     // composing a key as there can be several contracts with the same code
     private byte[] codeKey(byte[] codeHash, byte[] addr) {
         return NodeKeyCompositor.compose(codeHash, addr);
@@ -136,12 +154,24 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
 
         Source<DataWord, DataWord> contractStorage = storageCache.get(addr);
         contractStorage.put(key, value.isZero() ? null : value);
+
+        TransactionStateAccess access = TransactionStateAccess.current();
+        if (access != null) access.storageWrite(addr, key);
     }
 
     @Override
     public synchronized DataWord getStorageValue(byte[] addr, DataWord key) {
         AccountState accountState = getAccountState(addr);
-        return accountState == null ? null : storageCache.get(addr).get(key);
+        if (accountState == null) return null;
+
+        TransactionStateAccess access = TransactionStateAccess.current();
+        if (access == null) return storageCache.get(addr).get(key);
+
+        int dbReads = access.getDbReads();
+        long start = System.nanoTime();
+        DataWord ret = storageCache.get(addr).get(key);
+        access.storageRead(addr, key, System.nanoTime() - start, access.getDbReads() > dbReads);
+        return ret;
     }
 
     @Override
@@ -154,6 +184,7 @@ public class RepositoryImpl implements Repository, org.cds.main.blockchain.facad
     public synchronized BigInteger addBalance(byte[] addr, BigInteger value) {
         AccountState accountState = getOrCreateAccountState(addr);
         accountStateCache.put(addr, accountState.withBalanceIncrement(value));
+        recordWrite(addr);
         return accountState.getBalance();
     }
 
@@ -2,21 +2,127 @@ package org.cds.main.blockchain.db;
 
 import org.cds.main.blockchain.core.AccountState;
 import org.cds.main.blockchain.core.Repository;
+import org.cds.main.blockchain.crypto.HashUtil;
 import org.cds.main.blockchain.datasource.*;
 import org.cds.main.blockchain.trie.*;
+import org.cds.main.blockchain.util.ByteArraySet;
 import org.cds.main.blockchain.vm.DataWord;
 
+import java.util.*;
+
+import static org.cds.main.blockchain.crypto.HashUtil.sha3;
+
 public class RepositoryRoot extends RepositoryImpl {
 
     private static class StorageCache extends ReadWriteCache<DataWord, DataWord> {
         Trie<byte[]> trie;
 
         public StorageCache(Trie<byte[]> trie) {
-            super(new SourceCodec<>(trie, Serializers.StorageKeySerializer, Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
+            this(trie, trie);
+        }
+
+        public StorageCache(Trie<byte[]> trie, Source<byte[], byte[]> trieSource) {
+            super(new SourceCodec<>(trieSource, Serializers.StorageKeySerializer, Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
             this.trie = trie;
         }
     }
 
+    /**
+     * Serves reads from the flat {@link StateSnapshot} when it is at the state root
+     * this repository started from (or was last committed to) and the key
+     * wasn't modified since then, otherwise reads go to the trie.
+     * All the writes go to the trie, modified keys are remembered
+     * to build the snapshot diff on commit
+     */
+    private abstract class FlatSnapshotSource extends AbstractChainedSource<byte[], byte[], byte[], byte[]> {
+        final ByteArraySet dirty = new ByteArraySet();
+
+        FlatSnapshotSource(Source<byte[], byte[]> trie) {
+            super(trie);
+        }
+
+        @Override
+        public synchronized byte[] get(byte[] key) {
+            if (!dirty.contains(key)) {
+                byte[] ret = getFlat(key);
+                if (ret != StateSnapshot.UNAVAILABLE) return ret;
+            }
+            return getSource().get(key);
+        }
+
+        @Override
+        public synchronized void put(byte[] key, byte[] val) {
+            dirty.add(key);
+            getSource().put(key, val);
+        }
+
+        @Override
+        public synchronized void delete(byte[] key) {
+            dirty.add(key);
+            getSource().delete(key);
+        }
+
+        @Override
+        protected boolean flushImpl() {
+            return false;
+        }
+
+        protected abstract byte[] getFlat(byte[] key);
+    }
+
+    private class FlatAccountSource extends FlatSnapshotSource {
+        FlatAccountSource(Source<byte[], byte[]> trie) {
+            super(trie);
+        }
+
+        @Override
+        protected byte[] getFlat(byte[] address) {
+            byte[] record = flatState.getAccountRecord(flatRoot, sha3(address));
+            return record == StateSnapshot.UNAVAILABLE ? record : StateSnapshot.accountRlp(record);
+        }
+    }
+
+    private class FlatStorageSource extends FlatSnapshotSource {
+        final ByteArrayWrapper address;
+        final byte[] addrHash;
+        final TrieImpl trie;
+        // incarnation of the account storage in the snapshot at the flatRoot,
+        // -1 if the snapshot doesn't hold the storage this trie was started from
+        int incarnation;
+        int resolvedEpoch = -1;
+
+        FlatStorageSource(byte[] address, TrieImpl trie) {
+            super(trie);
+            this.address = new ByteArrayWrapper(address);
+            this.addrHash = sha3(address);
+            this.trie = trie;
+        }
+
+        @Override
+        protected byte[] getFlat(byte[] key) {
+            if (resolvedEpoch != flatEpoch) {
+                resolve();
+            }
+            if (incarnation < 0) return StateSnapshot.UNAVAILABLE;
+            return flatState.getSlot(flatRoot, addrHash, incarnation, key);
+        }
+
+        private void resolve() {
+            resolvedEpoch = flatEpoch;
+            incarnation = -1;
+            // the storage of the deleted account is dropped from the snapshot on the next commit only
+            if (deletedAccounts.contains(address)) return;
+            byte[] record = flatState.getAccountRecord(flatRoot, addrHash);
+            if (record == StateSnapshot.UNAVAILABLE) return;
+            byte[] accountRlp = StateSnapshot.accountRlp(record);
+            byte[] storageRoot = accountRlp == null ? HashUtil.EMPTY_TRIE_HASH : new AccountState(accountRlp).getStateRoot();
+            // nothing has been written to the trie since the flatRoot, so their storage roots should match
+            if (dirty.isEmpty() && Arrays.equals(storageRoot, trie.getRootHash())) {
+                incarnation = record == null ? 0 : StateSnapshot.incarnation(record);
+            }
+        }
+    }
+
     private class MultiStorageCache extends MultiCache<StorageCache> {
         public MultiStorageCache() {
             super(null);
@@ -27,7 +133,27 @@ public class RepositoryRoot extends RepositoryImpl {
             Serializer<byte[], byte[]> keyCompositor = new NodeKeyCompositor(key);
             Source<byte[], byte[]> composingSrc = new SourceCodec.KeyOnly<>(trieCache, keyCompositor);
             TrieImpl storageTrie = createTrie(composingSrc, accountState == null ? null : accountState.getStateRoot());
-            return new StorageCache(storageTrie);
+            if (flatState == null) {
+                return new StorageCache(storageTrie);
+            }
+            FlatStorageSource flatStorage = new FlatStorageSource(key, storageTrie);
+            flatStorages.put(new ByteArrayWrapper(key), flatStorage);
+            return new StorageCache(storageTrie, flatStorage);
+        }
+
+        /**
+         * The storage of a deleted account is recreated empty by {@link #create} once the account
+         * is touched again, so the deletion is recorded here and not when the deleted entry is flushed
+         * which doesn't happen if the account is recreated before the flush
+         */
+        @Override
+        public synchronized void delete(byte[] key) {
+            super.delete(key);
+            if (flatState != null) {
+                ByteArrayWrapper addr = new ByteArrayWrapper(key);
+                flatStorages.remove(addr);
+                deletedAccounts.add(addr);
+            }
         }
 
         @Override
@@ -41,7 +167,7 @@ public class RepositoryRoot extends RepositoryImpl {
                     accountStateCache.put(key, storageOwnerAcct.withStateRoot(rootHash));
                     return true;
                 } else {
-                    // account was deleted
+                    // account was deleted, see delete()
                     return true;
                 }
             } else {
@@ -55,10 +181,23 @@ public class RepositoryRoot extends RepositoryImpl {
     private CachedSource.BytesKey<byte[]> trieCache;
     private Trie<byte[]> stateTrie;
 
+    private StateSnapshot flatState;
+    // state root the flat reads are done at: the initial root or the last committed one
+    private byte[] flatRoot;
+    // bumped whenever the flatRoot changes
+    private int flatEpoch;
+    private FlatAccountSource flatAccounts;
+    private final Map<ByteArrayWrapper, FlatStorageSource> flatStorages = new HashMap<>();
+    private final Set<ByteArrayWrapper> deletedAccounts = new HashSet<>();
+
     public RepositoryRoot(Source<byte[], byte[]> stateDS) {
         this(stateDS, null);
     }
 
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+        this(stateDS, root, null);
+    }
+
     /**
      * Building the following structure for snapshot Repository:
      *
@@ -68,16 +207,28 @@ public class RepositoryRoot extends RepositoryImpl {
      *    \--> codeCache
      *
      *
+     * When the flat state snapshot is enabled it is put in between the stateTrie and accountStateCodec
+     * and in between the contractStorageTrie and storageCodec
+     *
      * @param stateDS
      * @param root
+     * @param flatState flat state snapshot to read from or null
      */
-    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root, StateSnapshot flatState) {
         this.stateDS = stateDS;
 
         trieCache = new WriteCache.BytesKey<>(stateDS, WriteCache.CacheType.COUNTING);
         stateTrie = new SecureTrie(trieCache, root);
 
-        SourceCodec.BytesKey<AccountState, byte[]> accountStateCodec = new SourceCodec.BytesKey<>(stateTrie, Serializers.AccountStateSerializer);
+        Source<byte[], byte[]> accountSource = stateTrie;
+        if (flatState != null && flatState.isEnabled()) {
+            this.flatState = flatState;
+            this.flatRoot = stateTrie.getRootHash();
+            this.flatAccounts = new FlatAccountSource(stateTrie);
+            accountSource = flatAccounts;
+        }
+
+        SourceCodec.BytesKey<AccountState, byte[]> accountStateCodec = new SourceCodec.BytesKey<>(accountSource, Serializers.AccountStateSerializer);
         final ReadWriteCache.BytesKey<AccountState> accountStateCache = new ReadWriteCache.BytesKey<>(accountStateCodec, WriteCache.CacheType.SIMPLE);
 
         final MultiCache<StorageCache> storageCache = new MultiStorageCache();
@@ -94,6 +245,44 @@ public class RepositoryRoot extends RepositoryImpl {
 
         stateTrie.flush();
         trieCache.flush();
+
+        if (flatState != null) {
+            updateFlatState();
+        }
+    }
+
+    /**
+     * Passes the changes made since the last commit to the flat state snapshot
+     */
+    private void updateFlatState() {
+        byte[] newRoot = stateTrie.getRootHash();
+
+        Map<ByteArrayWrapper, byte[]> accounts = new HashMap<>();
+        for (byte[] address : flatAccounts.dirty) {
+            byte[] accountRlp = stateTrie.get(address);
+            accounts.put(new ByteArrayWrapper(address), accountRlp == null || accountRlp.length == 0 ? null : accountRlp);
+        }
+        Map<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> storage = new HashMap<>();
+        for (Map.Entry<ByteArrayWrapper, FlatStorageSource> entry : flatStorages.entrySet()) {
+            FlatStorageSource flatStorage = entry.getValue();
+            if (flatStorage.dirty.isEmpty()) continue;
+            Map<ByteArrayWrapper, byte[]> slots = new HashMap<>();
+            for (byte[] slot : flatStorage.dirty) {
+                byte[] value = flatStorage.trie.get(slot);
+                slots.put(new ByteArrayWrapper(slot), value == null || value.length == 0 ? null : value);
+            }
+            storage.put(entry.getKey(), slots);
+            flatStorage.dirty.clear();
+        }
+
+        if (flatRoot != null && !Arrays.equals(flatRoot, newRoot)) {
+            flatState.update(flatRoot, newRoot, accounts, deletedAccounts, storage);
+        }
+
+        flatAccounts.dirty.clear();
+        deletedAccounts.clear();
+        flatRoot = newRoot;
+        flatEpoch++;
     }
 
     @Override
@@ -111,7 +300,16 @@ public class RepositoryRoot extends RepositoryImpl {
 
     @Override
     public Repository getSnapshotTo(byte[] root) {
-        return new RepositoryRoot(stateDS, root);
+        return new RepositoryRoot(stateDS, root, flatState);
+    }
+
+    /**
+     * Creates the snapshot which can't be modified and which caches the state
+     * it reads privately, so it doesn't contend for the shared state caches with
+     * the block import. Intended to be used by a single thread, e.g. for local calls
+     */
+    public Repository getReadOnlySnapshotTo(byte[] root) {
+        return new RepositoryRoot(new ReadOnlySnapshotSource<>(stateDS), root, flatState);
     }
 
     @Override
@@ -122,6 +320,17 @@ public class RepositoryRoot extends RepositoryImpl {
     @Override
     public synchronized void syncToRoot(byte[] root) {
         stateTrie.setRoot(root);
+        if (flatState != null) {
+            // the caches may hold the state which is not at the new root,
+            // flat reads are off and no diff is produced until the next commit
+            flatAccounts.dirty.clear();
+            for (FlatStorageSource flatStorage : flatStorages.values()) {
+                flatStorage.dirty.clear();
+            }
+            deletedAccounts.clear();
+            flatRoot = null;
+            flatEpoch++;
+        }
     }
 
     protected TrieImpl createTrie(Source<byte[], byte[]> trieCache, byte[] root) {
@@ -0,0 +1,275 @@
+package org.cds.main.blockchain.db;
+
+import org.cds.main.blockchain.config.CommonConfig;
+import org.cds.main.blockchain.config.SystemProperties;
+import org.cds.main.blockchain.core.AccountState;
+import org.cds.main.blockchain.core.Block;
+import org.cds.main.blockchain.datasource.DbSettings;
+import org.cds.main.blockchain.datasource.DbSource;
+import org.cds.main.blockchain.datasource.NodeKeyCompositor;
+import org.cds.main.blockchain.datasource.Source;
+import org.cds.main.blockchain.datasource.SourceCodec;
+import org.cds.main.blockchain.datasource.XorDataSource;
+import org.cds.main.blockchain.trie.SecureTrie;
+import org.cds.main.blockchain.trie.TrieImpl;
+import org.cds.main.blockchain.util.ByteArrayMap;
+import org.cds.main.blockchain.util.ByteUtil;
+import org.cds.main.blockchain.util.FastByteComparisons;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cds.main.blockchain.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.cds.main.blockchain.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.cds.main.blockchain.crypto.HashUtil.sha3;
+import static org.cds.main.blockchain.util.ByteUtil.toHexString;
+
+/**
+ * Offline tool which shrinks the blockchain DB down to the state that is actually in use.
+ *
+ * State trie nodes and contract code are kept in the blockchain DB along with the blocks,
+ * indexes and the other data, and without pruning every historical state node stays there forever.
+ * The tool creates a fresh DB, copies there everything but the state entries, then copies only
+ * the state reachable from the latest N main chain blocks and replaces the original DB with the new one.
+ * The original DB is moved aside to be removed manually once the node is verified to start fine.
+ *
+ * State entries are recognized by the content: the key starts with the prefix of the value hash
+ * (see {@link NodeKeyCompositor}). The account trie is copied by subtrees concurrently,
+ * the nodes already copied for a newer state are skipped along with their subtrees.
+ *
+ * The node must be stopped. Usage:
+ * <pre>
+ *     java -cp cds-node.jar org.cds.main.blockchain.db.StateCompactor [number of latest states to keep]
+ * </pre>
+ */
+public class StateCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    public static final int DEFAULT_STATES = 192;
+
+    private static final byte[] STATE_MASK = sha3("state".getBytes());
+    private static final int BATCH_SIZE = 10_000;
+    private static final long LOG_ENTRIES = 1_000_000;
+    // the account trie subtrees down to that depth are copied concurrently
+    private static final int PARALLEL_DEPTH = 2;
+    private static final String COMPACT_SUFFIX = "-compact";
+    private static final String BACKUP_SUFFIX = "-precompact";
+
+    private final DbSource<byte[]> src;
+    private final BatchWriter writer;
+    private final Source<byte[], byte[]> srcState;
+    private final Source<byte[], byte[]> dstState;
+
+    // whether the new DB may already have the nodes of the state being copied
+    private volatile boolean dedup = false;
+
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong codes = new AtomicLong();
+
+    public StateCompactor(DbSource<byte[]> src, DbSource<byte[]> dst) {
+        this.src = src;
+        this.writer = new BatchWriter(dst);
+        this.srcState = new XorDataSource<>(src, STATE_MASK);
+        this.dstState = new XorDataSource<>(writer, STATE_MASK);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int states = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_STATES;
+
+        SystemProperties config = SystemProperties.getDefault();
+        if ("inmem".equals(config.getKeyValueDataSource())) {
+            throw new RuntimeException("In-memory DB can't be compacted");
+        }
+
+        CommonConfig commonConfig = CommonConfig.getDefault();
+        DbSource<byte[]> src = commonConfig.blockchainDB();
+        String name = src.getName();
+        Path backup = Paths.get(config.databaseDir(), name + BACKUP_SUFFIX);
+        if (Files.exists(backup)) {
+            src.close();
+            throw new RuntimeException("Remove the DB left by the previous compaction first: " + backup);
+        }
+
+        DbSettings settings = DbSettings.newInstance()
+                .withMaxOpenFiles(config.getConfig().getInt("database.maxOpenFiles"))
+                .withMaxThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        DbSource<byte[]> dst = commonConfig.keyValueDataSource(name + COMPACT_SUFFIX, settings);
+        try {
+            dst.reset(); // leftovers of an interrupted run
+            new StateCompactor(src, dst).compact(states);
+        } finally {
+            src.close();
+            dst.close();
+        }
+
+        Path original = Paths.get(config.databaseDir(), name);
+        Files.move(original, backup);
+        Files.move(Paths.get(config.databaseDir(), name + COMPACT_SUFFIX), original);
+        logger.info("Compacted DB is in place, the original DB is moved to {}, remove it once the node starts fine", backup);
+    }
+
+    /**
+     * Copies the non-state data and the states of the latest main chain blocks
+     * @param states number of the latest blocks whose states are copied
+     */
+    public void compact(int states) {
+        long s = System.currentTimeMillis();
+
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new XorDataSource<>(src, sha3("index".getBytes())),
+                new XorDataSource<>(src, sha3("block".getBytes())));
+        Block best = blockStore.getBestBlock();
+        logger.info("Compacting DB '{}', best block #{}, keeping {} latest states", src.getName(), best.getNumber(), states);
+
+        copyNonState();
+
+        // newest states first, so an incomplete older state can't leave newer ones incomplete
+        long copied = 0;
+        for (long num = best.getNumber(); num >= 0 && copied < states; num--, copied++) {
+            Block block = blockStore.getChainBlockByNumber(num);
+            try {
+                copyState(block.getStateRoot());
+            } catch (RuntimeException e) {
+                if (num == best.getNumber()) throw e;
+                logger.warn("State of block #{} is incomplete (pruned?), the older states are not copied: {}", num, e.getMessage());
+                break;
+            }
+            writer.flush();
+            dedup = true;
+            logger.info("State of block #{} copied, {} nodes, {} codes total", num, nodes.get(), codes.get());
+        }
+        writer.flush();
+
+        logger.info("DB compacted in {} s: states of {} blocks, {} nodes, {} codes",
+                (System.currentTimeMillis() - s) / 1000, copied, nodes.get(), codes.get());
+    }
+
+    private void copyNonState() {
+        final long[] counters = new long[2];
+        src.forEachEntry((key, value) -> {
+            if (isStateEntry(key, value)) {
+                counters[1]++;
+            } else {
+                writer.put(key, value);
+                counters[0]++;
+            }
+            if ((counters[0] + counters[1]) % LOG_ENTRIES == 0) {
+                logger.info("Scanned {} entries: {} copied, {} state entries skipped", counters[0] + counters[1], counters[0], counters[1]);
+            }
+        });
+        writer.flush();
+        logger.info("Non-state data copied: {} entries, {} state entries skipped", counters[0], counters[1]);
+    }
+
+    private static boolean isStateEntry(byte[] key, byte[] value) {
+        if (key.length != NodeKeyCompositor.HASH_LEN || value == null) return false;
+        byte[] stateKey = ByteUtil.xorAlignRight(key, STATE_MASK);
+        return FastByteComparisons.compareTo(stateKey, 0, NodeKeyCompositor.PREFIX_BYTES,
+                sha3(value), 0, NodeKeyCompositor.PREFIX_BYTES) == 0;
+    }
+
+    private void copyState(byte[] stateRoot) {
+        new SecureTrie(srcState, stateRoot).scanTreeParallel(new TrieImpl.ScanAction() {
+            @Override
+            public boolean enterNode(byte[] hash) {
+                return !dedup || dstState.get(hash) == null;
+            }
+
+            @Override
+            public void doOnNode(byte[] hash, TrieImpl.Node node) {
+                dstState.put(hash, node.getRlp());
+                nodes.incrementAndGet();
+            }
+
+            @Override
+            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] addrHash, byte[] value) {
+                copyAccount(addrHash, new AccountState(value));
+            }
+        }, PARALLEL_DEPTH);
+    }
+
+    private void copyAccount(byte[] addrHash, AccountState account) {
+        if (!Arrays.equals(account.getCodeHash(), EMPTY_DATA_HASH)) {
+            byte[] codeKey = NodeKeyCompositor.compose(account.getCodeHash(), addrHash);
+            if (!dedup || dstState.get(codeKey) == null) {
+                byte[] code = srcState.get(codeKey);
+                if (code == null) {
+                    throw new RuntimeException("Code " + toHexString(account.getCodeHash()) +
+                            " of account " + toHexString(addrHash) + " not found");
+                }
+                dstState.put(codeKey, code);
+                codes.incrementAndGet();
+            }
+        }
+
+        if (!Arrays.equals(account.getStateRoot(), EMPTY_TRIE_HASH)) {
+            NodeKeyCompositor compositor = new NodeKeyCompositor(addrHash);
+            final Source<byte[], byte[]> storageDst = new SourceCodec.KeyOnly<>(dstState, compositor);
+            new SecureTrie(new SourceCodec.KeyOnly<>(srcState, compositor), account.getStateRoot()).scanTree(new TrieImpl.ScanAction() {
+                @Override
+                public boolean enterNode(byte[] hash) {
+                    return !dedup || storageDst.get(hash) == null;
+                }
+
+                @Override
+                public void doOnNode(byte[] hash, TrieImpl.Node node) {
+                    storageDst.put(hash, node.getRlp());
+                    nodes.incrementAndGet();
+                }
+
+                @Override
+                public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {}
+            });
+        }
+    }
+
+    /**
+     * Thread safe writer accumulating puts to the DB batches
+     */
+    static class BatchWriter implements Source<byte[], byte[]> {
+        private final DbSource<byte[]> db;
+        private Map<byte[], byte[]> batch = new ByteArrayMap<>();
+
+        BatchWriter(DbSource<byte[]> db) {
+            this.db = db;
+        }
+
+        @Override
+        public synchronized void put(byte[] key, byte[] val) {
+            batch.put(key, val);
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            synchronized (this) {
+                byte[] ret = batch.get(key);
+                if (ret != null) return ret;
+            }
+            return db.get(key);
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized boolean flush() {
+            if (batch.isEmpty()) return false;
+            db.updateBatch(batch);
+            batch = new ByteArrayMap<>();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package org.cds.main.blockchain.db;
+
+import org.cds.main.blockchain.core.AccountState;
+import org.cds.main.blockchain.datasource.DbSource;
+import org.cds.main.blockchain.datasource.NodeKeyCompositor;
+import org.cds.main.blockchain.datasource.Source;
+import org.cds.main.blockchain.datasource.SourceCodec;
+import org.cds.main.blockchain.trie.SecureTrie;
+import org.cds.main.blockchain.trie.TrieImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.cds.main.blockchain.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.cds.main.blockchain.crypto.HashUtil.sha3;
+import static org.cds.main.blockchain.crypto.HashUtil.sha3Batch;
+import static org.cds.main.blockchain.util.ByteUtil.toHexString;
+
+/**
+ * Flat key-value copy of the world state at a single state root
+ * which allows reading an account or a storage slot with a single DB lookup
+ * instead of walking the trie from its root.
+ *
+ * Keys are the hashed ones, exactly like in the secure tries, so the snapshot
+ * can always be regenerated from the state trie:
+ *
+ *  sha3(address) --> [incarnation (4 bytes) : account RLP (empty when there is no account)]
+ *  sha3(address) : incarnation (4 bytes) : sha3(slot) --> storage value RLP
+ *
+ * Incarnation is bumped whenever an account is deleted, so its storage is dropped
+ * with a single write instead of enumerating all the slots.
+ *
+ * The snapshot follows the state trie with the per-block diffs supplied by {@link RepositoryRoot#commit()}.
+ * The last {@link #MAX_DIFFS} diffs are kept in memory to move the snapshot across the forks,
+ * a deeper reorg makes the snapshot unavailable until it is regenerated.
+ * Readers always pass the state root they are reading at and get {@link #UNAVAILABLE}
+ * when the snapshot is not at that root, in that case they should fall back to the trie.
+ *
+ * The regeneration doesn't block the readers and the block import: the snapshot is unavailable
+ * while the trie is walked and the diffs arriving meanwhile are applied on top once the walk is complete
+ */
+public class StateSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    /**
+     * Returned when the snapshot can't answer for the requested state root
+     */
+    public static final byte[] UNAVAILABLE = new byte[0];
+
+    static final int MAX_DIFFS = 128;
+
+    private static final int REGENERATE_FLUSH_ENTRIES = 100_000;
+
+    private static final byte[] ROOT_KEY = "stateSnapshotRoot".getBytes();
+
+    private static class Update {
+        final byte[] parentRoot;
+        final byte[] newRoot;
+        final Map<ByteArrayWrapper, byte[]> accounts;
+        final Set<ByteArrayWrapper> deleted;
+        final Map<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> storage;
+
+        Update(byte[] parentRoot, byte[] newRoot, Map<ByteArrayWrapper, byte[]> accounts,
+               Set<ByteArrayWrapper> deleted, Map<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> storage) {
+            this.parentRoot = parentRoot;
+            this.newRoot = newRoot;
+            this.accounts = accounts;
+            this.deleted = deleted;
+            this.storage = storage;
+        }
+    }
+
+    private static class Diff {
+        final byte[] parentRoot;
+        final byte[] root;
+        final byte[][] keys;
+        final byte[][] oldValues;
+        final byte[][] newValues;
+
+        Diff(byte[] parentRoot, byte[] root, int size) {
+            this.parentRoot = parentRoot;
+            this.root = root;
+            this.keys = new byte[size][];
+            this.oldValues = new byte[size][];
+            this.newValues = new byte[size][];
+        }
+    }
+
+    private final DbSource<byte[]> db;
+    private final Source<byte[], byte[]> cache;
+    private final Source<byte[], byte[]> trieSource;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<ByteArrayWrapper, Diff> diffs = new LinkedHashMap<ByteArrayWrapper, Diff>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, Diff> eldest) {
+            return size() > MAX_DIFFS;
+        }
+    };
+
+    // state root the snapshot is at, null if the snapshot is unavailable
+    private byte[] root;
+
+    // updates received while the snapshot is regenerated, null if there is no regeneration in progress
+    private List<Update> pending;
+
+    /**
+     * Creates disabled snapshot
+     */
+    public StateSnapshot() {
+        this(null, null, null);
+    }
+
+    /**
+     * @param db flat snapshot storage
+     * @param cache write cache over the db which is flushed along with the other DB caches
+     * @param trieSource source of the state trie nodes to regenerate the snapshot from
+     */
+    public StateSnapshot(DbSource<byte[]> db, Source<byte[], byte[]> cache, Source<byte[], byte[]> trieSource) {
+        this.db = db;
+        this.cache = cache;
+        this.trieSource = trieSource;
+        this.root = cache == null ? null : cache.get(ROOT_KEY);
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    public byte[] getRoot() {
+        lock.readLock().lock();
+        try {
+            return root;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return account record, null if the account has never existed
+     *          or {@link #UNAVAILABLE} if the snapshot is not at the stateRoot
+     */
+    public byte[] getAccountRecord(byte[] stateRoot, byte[] addrHash) {
+        return get(stateRoot, addrHash);
+    }
+
+    /**
+     * @return storage value RLP, null if the slot is empty
+     *          or {@link #UNAVAILABLE} if the snapshot is not at the stateRoot
+     */
+    public byte[] getStorage(byte[] stateRoot, byte[] addrHash, int incarnation, byte[] slotHash) {
+        return get(stateRoot, storageKey(addrHash, incarnation, slotHash));
+    }
+
+    /**
+     * Same as {@link #getStorage(byte[], byte[], int, byte[])} but takes the raw slot key
+     */
+    public byte[] getSlot(byte[] stateRoot, byte[] addrHash, int incarnation, byte[] slot) {
+        return get(stateRoot, slotKey(addrHash, incarnation, slot));
+    }
+
+    private byte[] get(byte[] stateRoot, byte[] key) {
+        if (stateRoot == null || cache == null) return UNAVAILABLE;
+        lock.readLock().lock();
+        try {
+            if (root == null || !Arrays.equals(root, stateRoot)) return UNAVAILABLE;
+            return cache.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies changes of the state transition parentRoot -> newRoot
+     *
+     * @param accounts changed accounts: address -> account RLP or null if the account was removed
+     * @param deleted addresses of accounts which were deleted (their storage is cleared)
+     *                during the transition even if they were created again afterwards
+     * @param storage changed storage slots: address -> (slot -> value RLP or null if the slot was cleared)
+     */
+    public void update(byte[] parentRoot, byte[] newRoot, Map<ByteArrayWrapper, byte[]> accounts,
+                       Set<ByteArrayWrapper> deleted, Map<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> storage) {
+        if (cache == null) return;
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                // the caller reuses the deleted set
+                pending.add(new Update(parentRoot, newRoot, accounts, new HashSet<>(deleted), storage));
+                return;
+            }
+            applyUpdate(parentRoot, newRoot, accounts, deleted, storage);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void applyUpdate(byte[] parentRoot, byte[] newRoot, Map<ByteArrayWrapper, byte[]> accounts,
+                             Set<ByteArrayWrapper> deleted, Map<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> storage) {
+        if (root == null) return;
+        if (Arrays.equals(root, newRoot)) return;
+        if (!Arrays.equals(root, parentRoot) && !moveTo(parentRoot)) {
+            logger.warn("State snapshot is at {} and can't be moved to {}, it is unavailable until regenerated",
+                    toHexString(root), toHexString(parentRoot));
+            root = null;
+            diffs.clear();
+            cache.delete(ROOT_KEY);
+            return;
+        }
+
+        Set<ByteArrayWrapper> addresses = new HashSet<>(accounts.keySet());
+        addresses.addAll(deleted);
+        addresses.addAll(storage.keySet());
+
+        byte[][] rawAddresses = new byte[addresses.size()][];
+        int idx = 0;
+        for (ByteArrayWrapper address : addresses) rawAddresses[idx++] = address.getData();
+        byte[][] addrHashes = sha3Batch(rawAddresses);
+
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        idx = 0;
+        for (ByteArrayWrapper address : addresses) {
+            byte[] addrHash = addrHashes[idx++];
+            byte[] record = cache.get(addrHash);
+            int incarnation = record == null ? 0 : incarnation(record);
+            boolean reset = deleted.contains(address);
+            if (reset) incarnation++;
+            if (reset || accounts.containsKey(address)) {
+                byte[] accountRlp = accounts.containsKey(address) ? accounts.get(address) : accountRlp(record);
+                keys.add(addrHash);
+                values.add(accountRecord(incarnation, accountRlp));
+            }
+            Map<ByteArrayWrapper, byte[]> slots = storage.get(address);
+            if (slots != null) {
+                for (Map.Entry<ByteArrayWrapper, byte[]> slot : slots.entrySet()) {
+                    keys.add(slotKey(addrHash, incarnation, slot.getKey().getData()));
+                    values.add(slot.getValue());
+                }
+            }
+        }
+
+        Diff diff = new Diff(parentRoot, newRoot, keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            diff.keys[i] = keys.get(i);
+            diff.oldValues[i] = cache.get(keys.get(i));
+            diff.newValues[i] = values.get(i);
+        }
+        apply(diff.keys, diff.newValues);
+        diffs.put(new ByteArrayWrapper(newRoot), diff);
+        root = newRoot;
+        cache.put(ROOT_KEY, root);
+    }
+
+    /**
+     * Moves the snapshot from the current root to the target one by reverting
+     * the recorded diffs down to the common ancestor and applying the diffs up to the target
+     */
+    private boolean moveTo(byte[] target) {
+        Set<ByteArrayWrapper> ancestors = new HashSet<>();
+        Diff diff;
+        for (byte[] r = root; r != null && ancestors.add(new ByteArrayWrapper(r)); r = diff == null ? null : diff.parentRoot) {
+            diff = diffs.get(new ByteArrayWrapper(r));
+        }
+
+        LinkedList<Diff> forward = new LinkedList<>();
+        ByteArrayWrapper common = new ByteArrayWrapper(target);
+        while (!ancestors.contains(common)) {
+            diff = diffs.get(common);
+            if (diff == null || forward.size() > diffs.size()) return false;
+            forward.addFirst(diff);
+            common = new ByteArrayWrapper(diff.parentRoot);
+        }
+
+        while (!Arrays.equals(root, common.getData())) {
+            diff = diffs.get(new ByteArrayWrapper(root));
+            apply(diff.keys, diff.oldValues);
+            root = diff.parentRoot;
+        }
+        for (Diff d : forward) {
+            apply(d.keys, d.newValues);
+            root = d.root;
+        }
+        cache.put(ROOT_KEY, root);
+        return true;
+    }
+
+    private void apply(byte[][] keys, byte[][] values) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null) {
+                cache.delete(keys[i]);
+            } else {
+                cache.put(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Regenerates the snapshot from the state trie unless it is already at the stateRoot
+     */
+    public void syncTo(byte[] stateRoot) {
+        if (cache == null) return;
+        if (Arrays.equals(getRoot(), stateRoot)) {
+            logger.info("State snapshot is at the state root {}", toHexString(stateRoot));
+            return;
+        }
+        try {
+            regenerate(stateRoot);
+        } catch (RuntimeException e) {
+            // e.g. the state is incomplete while the fast sync is in progress
+            logger.warn("Couldn't regenerate state snapshot, it is unavailable until the next start", e);
+        }
+    }
+
+    /**
+     * Drops the snapshot content and rebuilds it by walking the state trie and all contract storage tries.
+     * The snapshot is unavailable during the walk, the updates received meanwhile are applied after it
+     */
+    public void regenerate(byte[] stateRoot) {
+        if (cache == null) return;
+        lock.writeLock().lock();
+        try {
+            if (pending != null) throw new IllegalStateException("State snapshot regeneration is already in progress");
+            root = null;
+            pending = new ArrayList<>();
+            diffs.clear();
+            cache.delete(ROOT_KEY);
+            cache.flush();
+            db.reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            logger.info("Regenerating state snapshot at the state root {}...", toHexString(stateRoot));
+            long s = System.currentTimeMillis();
+
+            final long[] counters = new long[2];
+            new SecureTrie(trieSource, stateRoot).scanTree(new TrieImpl.ScanAction() {
+                @Override
+                public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+                @Override
+                public void doOnValue(byte[] nodeHash, TrieImpl.Node node, final byte[] addrHash, byte[] value) {
+                    put(addrHash, accountRecord(0, value));
+                    counters[0]++;
+
+                    byte[] storageRoot = new AccountState(value).getStateRoot();
+                    if (Arrays.equals(storageRoot, EMPTY_TRIE_HASH)) return;
+
+                    Source<byte[], byte[]> storageSource = new SourceCodec.KeyOnly<>(trieSource, new NodeKeyCompositor(addrHash));
+                    new SecureTrie(storageSource, storageRoot).scanTree(new TrieImpl.ScanAction() {
+                        @Override
+                        public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+                        @Override
+                        public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] slotHash, byte[] value) {
+                            put(storageKey(addrHash, 0, slotHash), value);
+                            counters[1]++;
+                        }
+                    });
+                }
+
+                private void put(byte[] key, byte[] value) {
+                    cache.put(key, value);
+                    if ((counters[0] + counters[1]) % REGENERATE_FLUSH_ENTRIES == 0) {
+                        cache.flush();
+                        logger.info("State snapshot regeneration: {} accounts, {} storage slots", counters[0], counters[1]);
+                    }
+                }
+            });
+
+            lock.writeLock().lock();
+            try {
+                root = stateRoot;
+                cache.put(ROOT_KEY, root);
+                for (Update u : pending) {
+                    applyUpdate(u.parentRoot, u.newRoot, u.accounts, u.deleted, u.storage);
+                }
+                logger.info("State snapshot regenerated in {} ms: {} accounts, {} storage slots, {} blocks applied after",
+                        System.currentTimeMillis() - s, counters[0], counters[1], pending.size());
+                pending = null;
+                cache.flush();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                // the snapshot stays unavailable
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+    }
+
+    public static byte[] storageKey(byte[] addrHash, int incarnation, byte[] slotHash) {
+        byte[] ret = new byte[addrHash.length + 4 + slotHash.length];
+        System.arraycopy(addrHash, 0, ret, 0, addrHash.length);
+        writeInt(incarnation, ret, addrHash.length);
+        System.arraycopy(slotHash, 0, ret, addrHash.length + 4, slotHash.length);
+        return ret;
+    }
+
+    /**
+     * Builds the storage key hashing the slot right into its tail
+     */
+    public static byte[] slotKey(byte[] addrHash, int incarnation, byte[] slot) {
+        byte[] ret = new byte[addrHash.length + 4 + 32];
+        System.arraycopy(addrHash, 0, ret, 0, addrHash.length);
+        writeInt(incarnation, ret, addrHash.length);
+        sha3(slot, 0, slot.length, ret, addrHash.length + 4);
+        return ret;
+    }
+
+    public static byte[] accountRecord(int incarnation, byte[] accountRlp) {
+        byte[] ret = new byte[4 + (accountRlp == null ? 0 : accountRlp.length)];
+        writeInt(incarnation, ret, 0);
+        if (accountRlp != null) System.arraycopy(accountRlp, 0, ret, 4, accountRlp.length);
+        return ret;
+    }
+
+    public static int incarnation(byte[] record) {
+        return ((record[0] & 0xFF) << 24) | ((record[1] & 0xFF) << 16) | ((record[2] & 0xFF) << 8) | (record[3] & 0xFF);
+    }
+
+    /**
+     * @return account RLP or null if the account doesn't exist
+     */
+    public static byte[] accountRlp(byte[] record) {
+        if (record == null || record.length <= 4) return null;
+        return Arrays.copyOfRange(record, 4, record.length);
+    }
+
+    private static void writeInt(int val, byte[] out, int off) {
+        out[off] = (byte) (val >>> 24);
+        out[off + 1] = (byte) (val >>> 16);
+        out[off + 2] = (byte) (val >>> 8);
+        out[off + 3] = (byte) val;
+    }
+}
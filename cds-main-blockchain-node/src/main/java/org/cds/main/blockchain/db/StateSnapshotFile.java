@@ -0,0 +1,489 @@
+package org.cds.main.blockchain.db;
+
+import org.cds.main.blockchain.config.CommonConfig;
+import org.cds.main.blockchain.core.AccountState;
+import org.cds.main.blockchain.core.Block;
+import org.cds.main.blockchain.core.BlockHeader;
+import org.cds.main.blockchain.datasource.DbSource;
+import org.cds.main.blockchain.datasource.NodeKeyCompositor;
+import org.cds.main.blockchain.datasource.Source;
+import org.cds.main.blockchain.datasource.SourceCodec;
+import org.cds.main.blockchain.datasource.XorDataSource;
+import org.cds.main.blockchain.sync.FastSyncManager;
+import org.cds.main.blockchain.trie.SecureTrie;
+import org.cds.main.blockchain.trie.TrieImpl;
+import org.cds.main.blockchain.util.FastByteComparisons;
+import org.cds.main.blockchain.util.RLPReader;
+import org.cds.main.blockchain.util.RLPWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.cds.main.blockchain.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.cds.main.blockchain.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.cds.main.blockchain.crypto.HashUtil.sha3;
+import static org.cds.main.blockchain.util.ByteUtil.toHexString;
+
+/**
+ * Portable snapshot of the world state at a single block which lets a new node
+ * start from a local file instead of downloading the state trie node by node with the fast sync.
+ *
+ * The snapshot is a directory with the manifest and the chunk files:
+ * <pre>
+ *     manifest.rlp:   [version, block header, [[chunk file name, records count, sha3(chunk file)], ...]]
+ *     chunk-NNNNNN.rlp: sequence of the records in the account trie order
+ *         [0, sha3(address), account RLP, code]   account, code is empty for non-contract accounts
+ *         [1, sha3(slot), value RLP]               storage slot of the preceding account
+ * </pre>
+ * Chunks are about {@link #CHUNK_SIZE} bytes and are split at any record boundary,
+ * so the storage of a large contract may span several chunks.
+ *
+ * Import doesn't trust the snapshot: the chunks are loaded and checked against their checksums concurrently,
+ * the storage tries are rebuilt concurrently and each one is verified against the storage root of its account,
+ * the code is verified against the code hash and finally the rebuilt account trie is verified against
+ * the state root of the snapshot block header. Only then the block header is stored as the snapshot pivot
+ * (see {@link #SNAPSHOT_PIVOT_KEY}) and the fast sync proceeds from it without downloading the state.
+ *
+ * The node must be stopped and the import target DB must be empty, the failed import resets the DB. Usage:
+ * <pre>
+ *     java -cp cds-node.jar org.cds.main.blockchain.db.StateSnapshotFile export [dir] [block number]
+ *     java -cp cds-node.jar org.cds.main.blockchain.db.StateSnapshotFile import [dir]
+ * </pre>
+ */
+public class StateSnapshotFile {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    /**
+     * Key in the blockchain DB with the encoded header of the block whose state is imported from the snapshot
+     */
+    public static final byte[] SNAPSHOT_PIVOT_KEY = sha3("Key in state DB with the pivot block of imported state snapshot".getBytes());
+
+    public static final int VERSION = 1;
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    static final String MANIFEST_FILE = "manifest.rlp";
+
+    private static final int ACCOUNT_RECORD = 0;
+    private static final int STORAGE_RECORD = 1;
+
+    private static final byte[] STATE_MASK = sha3("state".getBytes());
+    // trie nodes are released to the DB each time that many entries are inserted
+    private static final int TRIE_FLUSH_ENTRIES = 100_000;
+    // storage slots kept in memory by the pending storage tries
+    private static final int MAX_PENDING_SLOTS = 1_000_000;
+    private static final long LOG_ACCOUNTS = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !("export".equals(args[0]) || "import".equals(args[0]))) {
+            logger.error("Usage: StateSnapshotFile export|import <dir> [block number]");
+            return;
+        }
+        Path dir = Paths.get(args[1]);
+
+        DbSource<byte[]> db = CommonConfig.getDefault().blockchainDB();
+        try {
+            IndexedBlockStore blockStore = new IndexedBlockStore();
+            blockStore.init(new XorDataSource<>(db, sha3("index".getBytes())),
+                    new XorDataSource<>(db, sha3("block".getBytes())));
+            if ("export".equals(args[0])) {
+                Block block = args.length > 2 ? blockStore.getChainBlockByNumber(Long.parseLong(args[2])) :
+                        blockStore.getBestBlock();
+                if (block == null) {
+                    throw new RuntimeException("Block #" + args[2] + " not found");
+                }
+                export(db, block.getHeader(), dir);
+            } else {
+                if (blockStore.getMaxNumber() >= 0 || db.get(SNAPSHOT_PIVOT_KEY) != null ||
+                        db.get(FastSyncManager.FASTSYNC_DB_KEY_SYNC_STAGE) != null) {
+                    throw new RuntimeException("Blockchain DB " + db.getName() + " is not empty, the snapshot can only be imported to an empty DB");
+                }
+                BlockHeader header;
+                try {
+                    header = importSnapshot(db, dir);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("State snapshot import failed, resetting the blockchain DB");
+                    db.reset();
+                    throw e;
+                }
+                db.put(SNAPSHOT_PIVOT_KEY, header.getEncoded());
+                logger.info("State snapshot of block {} is imported, fast sync will proceed from it", header.getShortDescr());
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Writes the snapshot of the state at the given block to the dir
+     * @param db blockchain DB
+     */
+    public static void export(DbSource<byte[]> db, BlockHeader header, Path dir) throws IOException {
+        long s = System.currentTimeMillis();
+        Files.createDirectories(dir);
+        if (Files.exists(dir.resolve(MANIFEST_FILE))) {
+            throw new RuntimeException("Snapshot already exists in " + dir);
+        }
+        logger.info("Exporting state snapshot of block {} to {}", header.getShortDescr(), dir);
+
+        final Source<byte[], byte[]> state = new XorDataSource<>(db, STATE_MASK);
+        final ChunkWriter writer = new ChunkWriter(dir);
+        final long[] accounts = new long[1];
+
+        new SecureTrie(state, header.getStateRoot()).scanTree(new TrieImpl.ScanAction() {
+            @Override
+            public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+            @Override
+            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] addrHash, byte[] value) {
+                AccountState account = new AccountState(value);
+                byte[] code = null;
+                if (!Arrays.equals(account.getCodeHash(), EMPTY_DATA_HASH)) {
+                    code = state.get(NodeKeyCompositor.compose(account.getCodeHash(), addrHash));
+                    if (code == null) {
+                        throw new RuntimeException("Code " + toHexString(account.getCodeHash()) +
+                                " of account " + toHexString(addrHash) + " not found");
+                    }
+                }
+                writer.write(ACCOUNT_RECORD, addrHash, value, code);
+
+                if (!Arrays.equals(account.getStateRoot(), EMPTY_TRIE_HASH)) {
+                    Source<byte[], byte[]> storage = new SourceCodec.KeyOnly<>(state, new NodeKeyCompositor(addrHash));
+                    new TrieImpl(storage, account.getStateRoot()).scanTree(new TrieImpl.ScanAction() {
+                        @Override
+                        public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+                        @Override
+                        public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] slotHash, byte[] slotValue) {
+                            writer.write(STORAGE_RECORD, slotHash, slotValue, null);
+                        }
+                    });
+                }
+
+                if (++accounts[0] % LOG_ACCOUNTS == 0) {
+                    logger.info("Exported {} accounts, {} chunks", accounts[0], writer.chunks.size());
+                }
+            }
+        });
+        writer.finish();
+
+        List<byte[]> chunks = writer.chunks;
+        int size = RLPWriter.sizeOfLong(VERSION);
+        byte[] headerRlp = header.getEncoded();
+        size += headerRlp.length;
+        int chunksSize = 0;
+        for (byte[] chunk : chunks) chunksSize += chunk.length;
+        size += RLPWriter.sizeOfList(chunksSize);
+        RLPWriter manifest = RLPWriter.list(size)
+                .writeLong(VERSION)
+                .writeEncoded(headerRlp)
+                .writeListHeader(chunksSize);
+        for (byte[] chunk : chunks) manifest.writeEncoded(chunk);
+        // manifest goes last, its presence marks the complete snapshot
+        Files.write(dir.resolve(MANIFEST_FILE), manifest.toByteArray());
+
+        logger.info("State snapshot exported in {} s: {} accounts, {} records, {} chunks",
+                (System.currentTimeMillis() - s) / 1000, accounts[0], writer.totalRecords, chunks.size());
+    }
+
+    /**
+     * Imports the state from the snapshot in the dir to the blockchain DB and verifies it
+     * @return header of the snapshot block
+     * @throws RuntimeException if the snapshot is malformed or doesn't match the block state root
+     */
+    public static BlockHeader importSnapshot(DbSource<byte[]> db, Path dir) throws IOException {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return new Importer(db, dir, executor, threads).run();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Importer {
+        private final Path dir;
+        private final ExecutorService executor;
+        private final int lookahead;
+        private final StateCompactor.BatchWriter writer;
+        private final Source<byte[], byte[]> state;
+
+        private final Semaphore pendingSlots = new Semaphore(MAX_PENDING_SLOTS);
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+        private TrieImpl accountTrie;
+        private long accounts = 0;
+        private long slots = 0;
+
+        // the account whose storage slots are being read
+        private byte[] addrHash;
+        private byte[] storageRoot;
+        private List<byte[][]> storage;
+
+        Importer(DbSource<byte[]> db, Path dir, ExecutorService executor, int threads) {
+            this.dir = dir;
+            this.executor = executor;
+            this.lookahead = threads * 2;
+            this.writer = new StateCompactor.BatchWriter(db);
+            this.state = new XorDataSource<>(writer, STATE_MASK);
+            this.accountTrie = new TrieImpl(state);
+        }
+
+        BlockHeader run() throws IOException {
+            long s = System.currentTimeMillis();
+
+            RLPReader manifest = new RLPReader(Files.readAllBytes(dir.resolve(MANIFEST_FILE))).nextList();
+            long version = manifest.nextLong();
+            if (version != VERSION) {
+                throw new RuntimeException("Unsupported snapshot version " + version);
+            }
+            BlockHeader header = new BlockHeader(manifest.nextEncoded());
+            RLPReader chunks = manifest.nextList();
+            logger.info("Importing state snapshot of block {} from {}, {} chunks", header.getShortDescr(), dir, chunks.count());
+
+            // chunks are loaded and checked ahead of the reader
+            Deque<Future<ChunkData>> loading = new ArrayDeque<>();
+            while (chunks.hasNext() || !loading.isEmpty()) {
+                while (chunks.hasNext() && loading.size() < lookahead) {
+                    final RLPReader chunk = chunks.nextList();
+                    final String name = new String(chunk.nextBytes());
+                    final long records = chunk.nextLong();
+                    final byte[] checksum = chunk.nextBytes();
+                    loading.add(executor.submit(() -> loadChunk(name, records, checksum)));
+                }
+                readChunk(get(loading.poll()));
+                checkError();
+            }
+            finishAccount();
+
+            // waiting for the pending storage tries
+            pendingSlots.acquireUninterruptibly(MAX_PENDING_SLOTS);
+            checkError();
+
+            byte[] root = accountTrie.getRootHash();
+            if (!FastByteComparisons.equal(root, header.getStateRoot())) {
+                throw new RuntimeException("Snapshot state root " + toHexString(root) +
+                        " doesn't match the block " + header.getShortDescr() + " state root " + toHexString(header.getStateRoot()));
+            }
+            accountTrie.flush();
+            writer.flush();
+
+            logger.info("State snapshot imported and verified in {} s: {} accounts, {} storage slots",
+                    (System.currentTimeMillis() - s) / 1000, accounts, slots);
+            return header;
+        }
+
+        private ChunkData loadChunk(String name, long records, byte[] checksum) throws IOException {
+            if (name.contains("/") || name.contains("\\")) {
+                throw new RuntimeException("Invalid chunk file name: " + name);
+            }
+            byte[] data = Files.readAllBytes(dir.resolve(name));
+            if (!FastByteComparisons.equal(sha3(data), checksum)) {
+                throw new RuntimeException("Chunk " + name + " checksum mismatch");
+            }
+            return new ChunkData(name, records, data);
+        }
+
+        private void readChunk(ChunkData chunk) {
+            RLPReader reader = new RLPReader(chunk.data);
+            long records = 0;
+            while (reader.hasNext()) {
+                RLPReader record = reader.nextList();
+                int type = record.nextInt();
+                byte[] key = record.nextBytes();
+                byte[] value = record.nextBytes();
+                if (key == null || key.length != NodeKeyCompositor.HASH_LEN || value == null) {
+                    throw new RuntimeException("Malformed record #" + records + " in chunk " + chunk.name);
+                }
+                if (type == ACCOUNT_RECORD) {
+                    readAccount(key, value, record.nextBytes());
+                } else if (type == STORAGE_RECORD) {
+                    readSlot(key, value);
+                } else {
+                    throw new RuntimeException("Unknown record type " + type + " in chunk " + chunk.name);
+                }
+                records++;
+            }
+            if (records != chunk.records) {
+                throw new RuntimeException("Chunk " + chunk.name + " has " + records + " records, " + chunk.records + " expected");
+            }
+        }
+
+        private void readAccount(byte[] key, byte[] value, byte[] code) {
+            if (addrHash != null && FastByteComparisons.compareTo(key, 0, key.length, addrHash, 0, addrHash.length) <= 0) {
+                throw new RuntimeException("Accounts are out of order: " + toHexString(key));
+            }
+            finishAccount();
+
+            AccountState account = new AccountState(value);
+            if (!Arrays.equals(account.getCodeHash(), EMPTY_DATA_HASH)) {
+                if (code == null || !FastByteComparisons.equal(sha3(code), account.getCodeHash())) {
+                    throw new RuntimeException("Code of account " + toHexString(key) + " doesn't match its code hash");
+                }
+                state.put(NodeKeyCompositor.compose(account.getCodeHash(), key), code);
+            }
+
+            accountTrie.put(key, value);
+            if (++accounts % TRIE_FLUSH_ENTRIES == 0) {
+                accountTrie.flush();
+            }
+            if (accounts % LOG_ACCOUNTS == 0) {
+                logger.info("Imported {} accounts, {} storage slots", accounts, slots);
+            }
+
+            addrHash = key;
+            storageRoot = account.getStateRoot();
+            storage = new ArrayList<>();
+        }
+
+        private void readSlot(byte[] key, byte[] value) {
+            if (addrHash == null) {
+                throw new RuntimeException("Storage slot " + toHexString(key) + " doesn't follow an account");
+            }
+            if (!storage.isEmpty()) {
+                byte[] prev = storage.get(storage.size() - 1)[0];
+                if (FastByteComparisons.compareTo(key, 0, key.length, prev, 0, prev.length) <= 0) {
+                    throw new RuntimeException("Storage slots of account " + toHexString(addrHash) + " are out of order");
+                }
+            }
+            storage.add(new byte[][]{key, value});
+            slots++;
+        }
+
+        private void finishAccount() {
+            if (addrHash == null || (storage.isEmpty() && Arrays.equals(storageRoot, EMPTY_TRIE_HASH))) return;
+
+            final byte[] addr = addrHash;
+            final byte[] root = storageRoot;
+            final List<byte[][]> accountStorage = storage;
+            final int permits = Math.max(1, Math.min(accountStorage.size(), MAX_PENDING_SLOTS));
+            pendingSlots.acquireUninterruptibly(permits);
+            executor.submit(() -> {
+                try {
+                    buildStorage(addr, root, accountStorage);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    pendingSlots.release(permits);
+                }
+            });
+            storage = null;
+        }
+
+        private void buildStorage(byte[] addr, byte[] expectedRoot, List<byte[][]> accountStorage) {
+            TrieImpl trie = new TrieImpl(new SourceCodec.KeyOnly<>(state, new NodeKeyCompositor(addr)));
+            for (int i = 0; i < accountStorage.size(); i++) {
+                trie.put(accountStorage.get(i)[0], accountStorage.get(i)[1]);
+                if ((i + 1) % TRIE_FLUSH_ENTRIES == 0) {
+                    trie.flush();
+                }
+            }
+            byte[] root = trie.getRootHash();
+            if (!FastByteComparisons.equal(root, expectedRoot)) {
+                throw new RuntimeException("Storage root " + toHexString(root) + " of account " + toHexString(addr) +
+                        " doesn't match the account storage root " + toHexString(expectedRoot));
+            }
+            trie.flush();
+        }
+
+        private void checkError() {
+            RuntimeException e = error.get();
+            if (e != null) throw e;
+        }
+
+        private static <T> T get(Future<T> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private static class ChunkData {
+        final String name;
+        final long records;
+        final byte[] data;
+
+        ChunkData(String name, long records, byte[] data) {
+            this.name = name;
+            this.records = records;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Splits the records into the chunk files and collects the manifest entries
+     */
+    private static class ChunkWriter {
+        private final Path dir;
+        private final List<byte[]> chunks = new ArrayList<>();
+        private ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_SIZE + CHUNK_SIZE / 4);
+        private long records = 0;
+        private long totalRecords = 0;
+
+        ChunkWriter(Path dir) {
+            this.dir = dir;
+        }
+
+        void write(int type, byte[] key, byte[] value, byte[] code) {
+            int size = RLPWriter.sizeOfInt(type) + RLPWriter.sizeOfBytes(key) + RLPWriter.sizeOfBytes(value);
+            if (type == ACCOUNT_RECORD) size += RLPWriter.sizeOfBytes(code);
+            RLPWriter record = RLPWriter.list(size)
+                    .writeInt(type)
+                    .writeBytes(key)
+                    .writeBytes(value);
+            if (type == ACCOUNT_RECORD) record.writeBytes(code);
+            byte[] encoded = record.toByteArray();
+            out.write(encoded, 0, encoded.length);
+            records++;
+            totalRecords++;
+            if (out.size() >= CHUNK_SIZE) {
+                writeChunk();
+            }
+        }
+
+        void finish() {
+            if (records > 0) writeChunk();
+        }
+
+        private void writeChunk() {
+            String name = String.format("chunk-%06d.rlp", chunks.size());
+            byte[] data = out.toByteArray();
+            try {
+                Files.write(dir.resolve(name), data);
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing snapshot chunk " + name, e);
+            }
+            byte[] nameBytes = name.getBytes();
+            byte[] checksum = sha3(data);
+            chunks.add(RLPWriter.list(RLPWriter.sizeOfBytes(nameBytes) + RLPWriter.sizeOfLong(records) + RLPWriter.sizeOfBytes(checksum))
+                    .writeBytes(nameBytes)
+                    .writeLong(records)
+                    .writeBytes(checksum)
+                    .toByteArray());
+            out.reset();
+            records = 0;
+        }
+    }
+}
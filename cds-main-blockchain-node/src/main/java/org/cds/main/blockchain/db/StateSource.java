@@ -20,7 +20,10 @@ public class StateSource extends SourceChainBox<byte[], byte[], byte[], byte[]>
     public StateSource(Source<byte[], byte[]> src, boolean pruningEnabled) {
         super(src);
         INST = this;
-        add(readCache = new ReadCache.BytesKey<>(src).withMaxCapacity(16 * 1024 * 1024 / 512)); // 512 - approx size of a node
+        // the reads which missed the state caches are counted as cold by the transaction recorder
+        ReadTrackingSource<byte[], byte[]> dbReads = new ReadTrackingSource<>(src);
+        add(dbReads);
+        add(readCache = new ReadCache.BytesKey<>(dbReads).withMaxCapacity(16 * 1024 * 1024 / 512)); // 512 - approx size of a node
         readCache.setFlushSource(true);
         writeCache = new AsyncWriteCache<byte[], byte[]>(readCache) {
             @Override
@@ -14,6 +14,8 @@ import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Storage (tx hash) => List of (block idx, tx idx, TransactionReceipt)
@@ -25,6 +27,9 @@ import java.util.List;
  * has no initialized Transaction object. If needed use BlockStore to retrieve and setup
  * Transaction instance
  *
+ * The receipts which are being written asynchronously are registered as pending
+ * and are returned by {@link #get(byte[])} along with the stored ones until they are written
+ *
  */
 @Component
 public class TransactionStore extends ObjectDataSource<List<TransactionInfo>> {
@@ -32,6 +37,8 @@ public class TransactionStore extends ObjectDataSource<List<TransactionInfo>> {
 
     private final LRUMap<ByteArrayWrapper, Object> lastSavedTxHash = new LRUMap<>(5000);
     private final Object object = new Object();
+    // copy on write lists of the infos not written yet
+    private final Map<ByteArrayWrapper, List<TransactionInfo>> pending = new ConcurrentHashMap<>();
 
     private final static Serializer<List<TransactionInfo>, byte[]> serializer =
             new Serializer<List<TransactionInfo>, byte[]>() {
@@ -73,7 +80,7 @@ public class TransactionStore extends ObjectDataSource<List<TransactionInfo>> {
         List<TransactionInfo> existingInfos = null;
         synchronized (lastSavedTxHash) {
             if (lastSavedTxHash.put(new ByteArrayWrapper(txHash), object) != null || !lastSavedTxHash.isFull()) {
-                existingInfos = get(txHash);
+                existingInfos = super.get(txHash);
             }
         }
         // else it is highly unlikely that the transaction was included into another block
@@ -94,6 +101,48 @@ public class TransactionStore extends ObjectDataSource<List<TransactionInfo>> {
         return true;
     }
 
+    /**
+     * @return the stored infos of the transaction along with the pending ones
+     */
+    @Override
+    public List<TransactionInfo> get(byte[] txHash) {
+        List<TransactionInfo> stored = super.get(txHash);
+        List<TransactionInfo> pendingInfos = pending.get(new ByteArrayWrapper(txHash));
+        if (pendingInfos == null) return stored;
+
+        List<TransactionInfo> ret = stored == null ? new ArrayList<>() : new ArrayList<>(stored);
+        for (TransactionInfo info : pendingInfos) {
+            if (ret.stream().noneMatch(i -> FastByteComparisons.equal(i.getBlockHash(), info.getBlockHash()))) {
+                ret.add(info);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Makes the infos readable until they are written with {@link #put(TransactionInfo)}
+     * and removed with {@link #removePending(List)}
+     */
+    public void addPending(List<TransactionInfo> infos) {
+        for (TransactionInfo info : infos) {
+            pending.compute(new ByteArrayWrapper(info.getReceipt().getTransaction().getHash()), (k, list) -> {
+                List<TransactionInfo> ret = list == null ? new ArrayList<>() : new ArrayList<>(list);
+                ret.add(info);
+                return ret;
+            });
+        }
+    }
+
+    public void removePending(List<TransactionInfo> infos) {
+        for (TransactionInfo info : infos) {
+            pending.computeIfPresent(new ByteArrayWrapper(info.getReceipt().getTransaction().getHash()), (k, list) -> {
+                List<TransactionInfo> ret = new ArrayList<>(list);
+                ret.remove(info);
+                return ret.isEmpty() ? null : ret;
+            });
+        }
+    }
+
     public TransactionInfo get(byte[] txHash, byte[] blockHash) {
         List<TransactionInfo> existingInfos = get(txHash);
         for (TransactionInfo info : existingInfos) {
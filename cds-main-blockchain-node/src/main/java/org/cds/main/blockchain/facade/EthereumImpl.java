@@ -17,6 +17,7 @@ import org.cds.main.blockchain.core.Block;
 import org.cds.main.blockchain.core.BlockSummary;
 import org.cds.main.blockchain.core.CallTransaction;
 import org.cds.main.blockchain.core.ImportResult;
+import org.cds.main.blockchain.core.LocalCallExecutor;
 import org.cds.main.blockchain.core.PendingState;
 import org.cds.main.blockchain.core.Repository;
 import org.cds.main.blockchain.core.Transaction;
@@ -25,7 +26,6 @@ import org.cds.main.blockchain.core.TransactionReceipt;
 import org.cds.main.blockchain.crypto.ECKey;
 import org.cds.main.blockchain.listener.CompositeEthereumListener;
 import org.cds.main.blockchain.listener.EthereumListener;
-import org.cds.main.blockchain.listener.EthereumListenerAdapter;
 import org.cds.main.blockchain.listener.GasPriceTracker;
 import org.cds.main.blockchain.manager.AdminInfo;
 import org.cds.main.blockchain.manager.BlockLoader;
@@ -86,6 +86,9 @@ public class EthereumImpl implements Ethereum, SmartLifecycle {
     @Autowired
     CommonConfig commonConfig = CommonConfig.getDefault();
 
+    @Autowired
+    LocalCallExecutor localCallExecutor;
+
     private SystemProperties config;
 
     private CompositeEthereumListener compositeEthereumListener;
@@ -260,27 +263,7 @@ public class EthereumImpl implements Ethereum, SmartLifecycle {
     }
 
     private org.cds.main.blockchain.core.TransactionExecutor callConstantImpl(Transaction tx, Block block) {
-
-        Repository repository = ((Repository) worldManager.getRepository())
-                .getSnapshotTo(block.getStateRoot())
-                .startTracking();
-
-        try {
-            org.cds.main.blockchain.core.TransactionExecutor executor = new org.cds.main.blockchain.core.TransactionExecutor
-                    (tx, block.getCoinbase(), repository, worldManager.getBlockStore(),
-                            programInvokeFactory, block, new EthereumListenerAdapter(), 0)
-                    .withCommonConfig(commonConfig)
-                    .setLocalCall(true);
-
-            executor.init();
-            executor.execute();
-            executor.go();
-            executor.finalization();
-
-            return executor;
-        } finally {
-            repository.rollback();
-        }
+        return localCallExecutor.execute(tx, block);
     }
 
     @Override
@@ -292,7 +275,7 @@ public class EthereumImpl implements Ethereum, SmartLifecycle {
     @Override
     public ProgramResult callConstantFunction(String receiveAddress, ECKey senderPrivateKey,
                                               CallTransaction.Function function, Object... funcArgs) {
-        Transaction tx = CallTransaction.createCallTransaction(0, 0, 100000000000000L,
+        Transaction tx = CallTransaction.createCallTransaction(0, 0, localCallExecutor.getGasLimit().longValue(),
                 receiveAddress, 0, function, funcArgs);
         tx.sign(senderPrivateKey);
         Block bestBlock = worldManager.getBlockchain().getBestBlock();
@@ -5,6 +5,7 @@ import org.cds.main.blockchain.core.*;
 import org.cds.main.blockchain.db.BlockStore;
 import org.cds.main.blockchain.db.DbFlushManager;
 import org.cds.main.blockchain.db.HeaderStore;
+import org.cds.main.blockchain.db.StateSnapshot;
 import org.cds.main.blockchain.db.migrate.MigrateHeaderSourceTotalDiff;
 import org.cds.main.blockchain.listener.CompositeEthereumListener;
 import org.cds.main.blockchain.listener.EthereumListener;
@@ -75,6 +76,9 @@ public class WorldManager {
     @Autowired
     private ApplicationContext ctx;
 
+    @Autowired
+    private StateSnapshot stateSnapshot;
+
     private SystemProperties config;
 
     private EthereumListener listener;
@@ -100,6 +104,11 @@ public class WorldManager {
     @PostConstruct
     private void init() {
         fastSyncDbJobs();
+        // the state is read from the trie until the snapshot is regenerated
+        final byte[] bestStateRoot = blockchain.getBestBlock().getStateRoot();
+        Thread snapshotThread = new Thread(() -> stateSnapshot.syncTo(bestStateRoot), "StateSnapshotThread");
+        snapshotThread.setDaemon(true);
+        snapshotThread.start();
         syncManager.init(channelManager, pool);
     }
 
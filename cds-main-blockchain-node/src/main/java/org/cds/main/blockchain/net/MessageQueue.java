@@ -4,7 +4,11 @@ import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 
 import org.cds.main.blockchain.listener.EthereumListener;
+import org.cds.main.blockchain.net.eth.message.BlockBodiesMessage;
 import org.cds.main.blockchain.net.eth.message.EthMessage;
+import org.cds.main.blockchain.net.eth.message.NodeDataMessage;
+import org.cds.main.blockchain.net.eth.message.ReceiptsMessage;
+import org.cds.main.blockchain.net.eth.message.TransactionsMessage;
 import org.cds.main.blockchain.net.message.Message;
 import org.cds.main.blockchain.net.message.ReasonCode;
 import org.cds.main.blockchain.net.p2p.DisconnectMessage;
@@ -22,6 +26,7 @@ import static org.cds.main.blockchain.net.message.StaticMessages.DISCONNECT_MESS
 import java.util.Queue;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class contains the logic for sending messages in a queue
@@ -36,6 +41,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  * The following messages will not be answered:
  *      PONG, PEERS, HELLO, STATUS, TRANSACTIONS, BLOCKS
  *
+ * Messages which are not answered are sent by priority: block propagation, headers and the control
+ * messages first, then the data served to the syncing peer, then the transactions gossip.
+ * The queue is processed on the channel event loop and stops writing while the channel isn't writable,
+ * the transactions gossip which the peer doesn't keep up with is dropped starting from the oldest
+ *
  */
 @Component
 @Scope("prototype")
@@ -43,17 +53,21 @@ public class MessageQueue {
 
     private static final Logger logger = LoggerFactory.getLogger("net");
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private AtomicInteger cnt = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "MessageQueueTimer-" + cnt.getAndIncrement());
-        }
-    });
+    // max messages written on a single queue nudge
+    private static final int MAX_BATCH = 64;
+    // max transactions messages waiting to be sent, the oldest ones are dropped beyond that
+    private static final int MAX_TX_MESSAGES = 128;
+    // transactions messages waiting longer are dropped as stale
+    private static final long TX_GOSSIP_TTL = 10_000;
 
     private Queue<MessageRoundtrip> requestQueue = new ConcurrentLinkedQueue<>();
+    // messages without answer by priority
     private Queue<MessageRoundtrip> respondQueue = new ConcurrentLinkedQueue<>();
-    private ChannelHandlerContext ctx = null;
+    private Queue<MessageRoundtrip> syncQueue = new ConcurrentLinkedQueue<>();
+    private Queue<MessageRoundtrip> txQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger txQueueSize = new AtomicInteger();
+    private final AtomicLong txDropped = new AtomicLong();
+    private volatile ChannelHandlerContext ctx = null;
 
     @Autowired
     EthereumListener ethereumListener;
@@ -66,13 +80,8 @@ public class MessageQueue {
 
     public void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
-        timerTask = timer.scheduleAtFixedRate(() -> {
-            try {
-                nudgeQueue();
-            } catch (Throwable t) {
-                logger.error("Unhandled exception", t);
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        // the queue is processed by the channel event loop only
+        timerTask = ctx.executor().scheduleAtFixedRate(this::nudgeQueueSafe, 10, 10, TimeUnit.MILLISECONDS);
     }
 
     public void setChannel(Channel channel) {
@@ -90,10 +99,34 @@ public class MessageQueue {
             hasPing = true;
         }
 
-        if (msg.getAnswerMessage() != null)
+        if (msg.getAnswerMessage() != null) {
             requestQueue.add(new MessageRoundtrip(msg));
-        else
+        } else if (msg instanceof TransactionsMessage) {
+            txQueue.add(new MessageRoundtrip(msg));
+            if (txQueueSize.incrementAndGet() > MAX_TX_MESSAGES) {
+                dropTxMessage();
+            }
+        } else if (isSyncData(msg)) {
+            syncQueue.add(new MessageRoundtrip(msg));
+        } else {
             respondQueue.add(new MessageRoundtrip(msg));
+            // block propagation shouldn't wait for the next tick
+            ChannelHandlerContext ctx = this.ctx;
+            if (ctx != null) ctx.executor().execute(this::nudgeQueueSafe);
+        }
+    }
+
+    private static boolean isSyncData(Message msg) {
+        return msg instanceof BlockBodiesMessage || msg instanceof NodeDataMessage || msg instanceof ReceiptsMessage;
+    }
+
+    private void dropTxMessage() {
+        if (txQueue.poll() != null) {
+            txQueueSize.decrementAndGet();
+            if (txDropped.incrementAndGet() % 100 == 1) {
+                logger.debug("{}: peer doesn't keep up with transactions, {} messages dropped so far", channel, txDropped.get());
+            }
+        }
     }
 
     public void disconnect() {
@@ -135,15 +168,46 @@ public class MessageQueue {
             requestQueue.remove();
     }
 
+    private void nudgeQueueSafe() {
+        try {
+            nudgeQueue();
+        } catch (Throwable t) {
+            logger.error("Unhandled exception", t);
+        }
+    }
+
     private void nudgeQueue() {
         // remove last answered message on the queue
         removeAnsweredMessage(requestQueue.peek());
-        // Now send the next message
-        sendToWire(respondQueue.poll());
-        sendToWire(requestQueue.peek());
+        // Now send the next messages by priority while the peer takes them
+        boolean written = false;
+        for (int i = 0; i < MAX_BATCH && ctx.channel().isWritable(); i++) {
+            MessageRoundtrip next = respondQueue.poll();
+            if (next == null) next = syncQueue.poll();
+            if (next == null) next = pollTxMessage();
+            if (next == null) break;
+            written |= sendToWire(next);
+        }
+        written |= sendToWire(requestQueue.peek());
+        if (written) ctx.flush();
+    }
+
+    private MessageRoundtrip pollTxMessage() {
+        long now = System.currentTimeMillis();
+        MessageRoundtrip ret;
+        while ((ret = txQueue.poll()) != null) {
+            txQueueSize.decrementAndGet();
+            if (now - ret.lastTimestamp <= TX_GOSSIP_TTL) break;
+            txDropped.incrementAndGet();
+        }
+        return ret;
     }
 
-    private void sendToWire(MessageRoundtrip messageRoundtrip) {
+    /**
+     * Writes the message without flushing
+     * @return true if the message is written
+     */
+    private boolean sendToWire(MessageRoundtrip messageRoundtrip) {
 
         if (messageRoundtrip != null && messageRoundtrip.getRetryTimes() == 0) {
             // TODO: retry logic || messageRoundtrip.hasToRetry()){
@@ -152,13 +216,15 @@ public class MessageQueue {
 
             ethereumListener.onSendMessage(channel, msg);
 
-            ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+            ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
 
             if (msg.getAnswerMessage() != null) {
                 messageRoundtrip.incRetryTimes();
                 messageRoundtrip.saveTime();
             }
+            return true;
         }
+        return false;
     }
 
     public void close() {
@@ -0,0 +1,158 @@
+package org.cds.main.blockchain.net.benchmark;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+import org.cds.main.blockchain.config.SystemProperties;
+import org.cds.main.blockchain.net.server.PeerEventLoops;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Loopback benchmark of the peer transport configured in 'peer.netty'.
+ *
+ * Starts a server echoing the frames back and connects the given number of peers to it
+ * through {@link PeerEventLoops}, each peer keeps the given number of frames in flight.
+ * Logs the throughput and the round trip latency percentiles. Only the transport is measured,
+ * the frames don't pass the RLPx encryption and compression.
+ *
+ * Usage:
+ * <pre>
+ *     java -cp cds-node.jar org.cds.main.blockchain.net.benchmark.PeerTransportBenchmark [peers] [frame size] [seconds] [frames in flight]
+ * </pre>
+ */
+public class PeerTransportBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger("net");
+
+    // latency histogram resolution and range
+    private static final int BUCKET_MICROS = 10;
+    private static final int BUCKETS = 100_000;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+    private final AtomicLong frames = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int frameSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int inFlight = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        new PeerTransportBenchmark().run(new PeerEventLoops(SystemProperties.getDefault()), peers, frameSize, seconds, inFlight);
+    }
+
+    public void run(PeerEventLoops eventLoops, int peers, int frameSize, int seconds, final int inFlight) throws Exception {
+        EventLoopGroup boss = eventLoops.newBossGroup();
+        EventLoopGroup inbound = eventLoops.inboundGroup();
+        EventLoopGroup outbound = eventLoops.outboundGroup();
+        final byte[] payload = new byte[Math.max(frameSize, 8)];
+
+        try {
+            ServerBootstrap sb = eventLoops.configure(new ServerBootstrap()).group(boss, inbound);
+            sb.childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(16 * 1024 * 1024, 0, 4, 0, 4),
+                            new LengthFieldPrepender(4),
+                            new SimpleChannelInboundHandler<ByteBuf>() {
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                                    ctx.writeAndFlush(msg.retain());
+                                }
+                            });
+                }
+            });
+            Channel server = sb.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+            final long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            Bootstrap cb = eventLoops.configure(new Bootstrap()).group(outbound);
+            cb.handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(16 * 1024 * 1024, 0, 4, 0, 4),
+                            new LengthFieldPrepender(4),
+                            new SimpleChannelInboundHandler<ByteBuf>() {
+                                @Override
+                                public void channelActive(ChannelHandlerContext ctx) {
+                                    for (int i = 0; i < inFlight; i++) send(ctx);
+                                    ctx.flush();
+                                }
+
+                                @Override
+                                protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                                    long now = System.nanoTime();
+                                    record((now - msg.getLong(0)) / 1000);
+                                    if (now < deadline) {
+                                        send(ctx);
+                                        ctx.flush();
+                                    }
+                                }
+
+                                private void send(ChannelHandlerContext ctx) {
+                                    ByteBuf buf = ctx.alloc().ioBuffer(payload.length);
+                                    buf.writeBytes(payload);
+                                    buf.setLong(0, System.nanoTime());
+                                    ctx.write(buf);
+                                }
+                            });
+                }
+            });
+
+            List<Channel> clients = new ArrayList<>();
+            for (int i = 0; i < peers; i++) {
+                clients.add(cb.connect(server.localAddress()).sync().channel());
+            }
+
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L + 1000);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            for (Channel client : clients) client.close().sync();
+            server.close().sync();
+
+            long total = frames.get();
+            logger.info("{} transport, {} event loop, {} peers, {} bytes frames, {} in flight per peer",
+                    eventLoops.isEpoll() ? "epoll" : "NIO", inbound == outbound ? "shared" : "separate",
+                    peers, payload.length, inFlight);
+            logger.info(String.format("Throughput: %.0f frames/s, %.1f MB/s",
+                    total / elapsed, total * (double) payload.length / elapsed / (1 << 20)));
+            logger.info("Latency, us: p50 {}, p90 {}, p99 {}, p99.9 {}",
+                    percentile(total, 0.5), percentile(total, 0.9), percentile(total, 0.99), percentile(total, 0.999));
+        } finally {
+            eventLoops.release(outbound);
+            eventLoops.release(inbound);
+            boss.shutdownGracefully();
+            eventLoops.close();
+        }
+    }
+
+    private void record(long micros) {
+        frames.incrementAndGet();
+        latencies.incrementAndGet((int) Math.min(BUCKETS - 1, Math.max(0, micros) / BUCKET_MICROS));
+    }
+
+    private long percentile(long total, double p) {
+        long threshold = (long) Math.ceil(total * p);
+        long cnt = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cnt += latencies.get(i);
+            if (cnt >= threshold) return (i + 1) * (long) BUCKET_MICROS;
+        }
+        return BUCKETS * (long) BUCKET_MICROS;
+    }
+}
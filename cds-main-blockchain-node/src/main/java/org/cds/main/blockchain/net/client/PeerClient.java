@@ -5,12 +5,11 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 import org.cds.main.blockchain.config.SystemProperties;
 import org.cds.main.blockchain.listener.EthereumListener;
 import org.cds.main.blockchain.net.server.EthereumChannelInitializer;
+import org.cds.main.blockchain.net.server.PeerEventLoops;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,8 +18,6 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -42,16 +39,14 @@ public class PeerClient {
     @Autowired
     EthereumListener ethereumListener;
 
+    private PeerEventLoops eventLoops;
+
     private EventLoopGroup workerGroup;
 
-    public PeerClient() {
-        workerGroup = new NioEventLoopGroup(0, new ThreadFactory() {
-            AtomicInteger cnt = new AtomicInteger(0);
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "EthJClientWorker-" + cnt.getAndIncrement());
-            }
-        });
+    @Autowired
+    public PeerClient(final PeerEventLoops eventLoops) {
+        this.eventLoops = eventLoops;
+        workerGroup = eventLoops.outboundGroup();
     }
 
     public void connect(String host, int port, String remoteId) {
@@ -94,7 +89,7 @@ public class PeerClient {
 
         Bootstrap b = new Bootstrap();
         b.group(workerGroup);
-        b.channel(NioSocketChannel.class);
+        eventLoops.configure(b);
 
         b.option(ChannelOption.SO_KEEPALIVE, true);
         b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -109,7 +104,8 @@ public class PeerClient {
 
     public void close() {
         logger.info("Shutdown peerClient");
-        workerGroup.shutdownGracefully();
+        eventLoops.release(workerGroup);
+        eventLoops.close();
         workerGroup.terminationFuture().syncUninterruptibly();
     }
 }
@@ -5,14 +5,21 @@ import java.util.List;
 
 /**
  * Represents supported Eth versions
+ *
+ * {@link #V64} is not the eth/64 of the Ethereum network (the fork id in the status).
+ * It is this network's own extension of eth/63 with the compact block relay:
+ * CompactBlock, GetBlockTransactions and BlockTransactions messages.
+ * The nodes of this network only talk to each other, so the version number is reused
+ * rather than announced as a separate capability
  */
 public enum EthVersion {
 
     V62((byte) 62),
-    V63((byte) 63);
+    V63((byte) 63),
+    V64((byte) 64);
 
     public static final byte LOWER = V62.getCode();
-    public static final byte UPPER = V63.getCode();
+    public static final byte UPPER = V64.getCode();
 
     private byte code;
 
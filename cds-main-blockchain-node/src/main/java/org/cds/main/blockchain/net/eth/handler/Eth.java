@@ -7,6 +7,8 @@ import java.util.List;
 
 import org.cds.main.blockchain.core.*;
 import org.cds.main.blockchain.net.eth.EthVersion;
+import org.cds.main.blockchain.net.eth.message.CompactBlockMessage;
+import org.cds.main.blockchain.net.eth.message.EthMessage;
 import org.cds.main.blockchain.net.eth.message.EthMessageCodes;
 import org.cds.main.blockchain.sync.PeerState;
 import org.cds.main.blockchain.sync.SyncStatistics;
@@ -93,6 +95,23 @@ public interface Eth {
      */
     ListenableFuture<List<Block>> sendGetBlockBodies(List<BlockHeaderWrapper> headers);
 
+    /**
+     * Sends GET_BLOCK_BODIES message even if the previous ones are not responded yet
+     * @param maxPending max number of the requests awaiting response including this one
+     * @return null if the peer is busy with other requests or has maxPending bodies requests already
+     */
+    ListenableFuture<List<Block>> sendGetBlockBodies(List<BlockHeaderWrapper> headers, int maxPending);
+
+    /**
+     * @return true if one more GET_BLOCK_BODIES request can be sent with the given limit of the pending ones
+     */
+    boolean canRequestBlockBodies(int maxPending);
+
+    /**
+     * @return number of GET_BLOCK_BODIES requests awaiting response
+     */
+    int getPendingBlockBodiesRequests();
+
     /**
      * Sends new block to the wire
      */
@@ -103,6 +122,19 @@ public interface Eth {
      */
     void sendNewBlockHashes(Block block);
 
+    /**
+     * Sends the message built once for all the peers it is broadcast to:
+     * NEW_BLOCK, NEW_BLOCK_HASHES or TRANSACTIONS.
+     * The message is encoded and compressed only once, the encryption is still done per peer
+     */
+    void sendBroadcast(EthMessage msg);
+
+    /**
+     * Sends the shared compact block message, the peer rebuilds the block from its pending transactions
+     * and requests the missing ones. Falls back to NEW_BLOCK if the protocol version lacks compact blocks
+     */
+    void sendCompactBlock(CompactBlockMessage msg);
+
     /**
      * @return protocol version
      */
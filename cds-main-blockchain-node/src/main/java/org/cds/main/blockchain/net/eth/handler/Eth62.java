@@ -13,9 +13,11 @@ import static org.cds.main.blockchain.util.ByteUtil.toHexString;
 import static org.cds.main.blockchain.util.Utils.longToTimePeriod;
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -33,10 +35,12 @@ import org.cds.main.blockchain.core.Blockchain;
 import org.cds.main.blockchain.core.PendingState;
 import org.cds.main.blockchain.core.Transaction;
 import org.cds.main.blockchain.db.BlockStore;
+import org.cds.main.blockchain.db.ByteArrayWrapper;
 import org.cds.main.blockchain.listener.CompositeEthereumListener;
 import org.cds.main.blockchain.net.eth.EthVersion;
 import org.cds.main.blockchain.net.eth.message.BlockBodiesMessage;
 import org.cds.main.blockchain.net.eth.message.BlockHeadersMessage;
+import org.cds.main.blockchain.net.eth.message.CompactBlockMessage;
 import org.cds.main.blockchain.net.eth.message.EthMessage;
 import org.cds.main.blockchain.net.eth.message.GetBlockBodiesMessage;
 import org.cds.main.blockchain.net.eth.message.GetBlockHeadersMessage;
@@ -105,13 +109,19 @@ public class Eth62 extends EthHandler {
     private BigInteger totalDifficulty;
 
     /**
-     * Header list sent in GET_BLOCK_BODIES message,
-     * used to create blocks from headers and bodies
-     * also, is useful when returned BLOCK_BODIES msg doesn't cover all sent hashes
-     * or in case when peer is disconnected
+     * GET_BLOCK_BODIES requests pipelined to the peer, the peer responds in the order of the requests.
+     * Header list of the request is used to create blocks from headers and bodies
      */
-    protected final List<BlockHeaderWrapper> sentHeaders = Collections.synchronizedList(new ArrayList<BlockHeaderWrapper>());
-    protected SettableFuture<List<Block>> futureBlocks;
+    protected final Deque<BlockBodiesRequest> requestedBodies = new ArrayDeque<>();
+
+    protected static class BlockBodiesRequest {
+        final List<BlockHeaderWrapper> headers;
+        final SettableFuture<List<Block>> future = SettableFuture.create();
+
+        BlockBodiesRequest(List<BlockHeaderWrapper> headers) {
+            this.headers = new ArrayList<>(headers);
+        }
+    }
 
     protected final SyncStatistics syncStats = new SyncStatistics();
 
@@ -287,16 +297,20 @@ public class Eth62 extends EthHandler {
 
     @Override
     public synchronized ListenableFuture<List<Block>> sendGetBlockBodies(List<BlockHeaderWrapper> headers) {
-        if (peerState != IDLE) return null;
+        return sendGetBlockBodies(headers, 1);
+    }
 
-        peerState = BLOCK_RETRIEVING;
-        sentHeaders.clear();
-        sentHeaders.addAll(headers);
+    @Override
+    public synchronized ListenableFuture<List<Block>> sendGetBlockBodies(List<BlockHeaderWrapper> headers, int maxPending) {
+        if (!canRequestBlockBodies(maxPending)) return null;
+
+        BlockBodiesRequest request = new BlockBodiesRequest(headers);
 
         if(logger.isTraceEnabled()) logger.trace(
-                "Peer {}: send GetBlockBodies, hashes.count [{}]",
+                "Peer {}: send GetBlockBodies, hashes.count [{}], pending [{}]",
                 channel.getPeerIdShort(),
-                sentHeaders.size()
+                headers.size(),
+                requestedBodies.size()
         );
 
         List<byte[]> hashes = new ArrayList<>(headers.size());
@@ -305,22 +319,44 @@ public class Eth62 extends EthHandler {
         }
 
         GetBlockBodiesMessage msg = new GetBlockBodiesMessage(hashes);
+        requestedBodies.add(request);
 
         sendMessage(msg);
-        lastReqSentTime = System.currentTimeMillis();
+        if (peerState == IDLE) {
+            lastReqSentTime = System.currentTimeMillis();
+        }
 
-        futureBlocks = SettableFuture.create();
-        return futureBlocks;
+        peerState = BLOCK_RETRIEVING;
+        return request.future;
+    }
+
+    @Override
+    public synchronized boolean canRequestBlockBodies(int maxPending) {
+        // BLOCK_RETRIEVING with no pending requests is the peer being dropped after the failed request
+        return peerState == IDLE || (peerState == BLOCK_RETRIEVING &&
+                !requestedBodies.isEmpty() && requestedBodies.size() < maxPending);
+    }
+
+    @Override
+    public synchronized int getPendingBlockBodiesRequests() {
+        return requestedBodies.size();
     }
 
     @Override
     public synchronized void sendNewBlock(Block block) {
-        BigInteger parentTD = blockstore.getTotalDifficultyForHash(block.getParentHash());
-        byte[] td = ByteUtil.bigIntegerToBytes(parentTD.add(new BigInteger(1, block.getDifficulty())));
-        NewBlockMessage msg = new NewBlockMessage(block, td);
+        sendMessage(NewBlockMessage.create(block, blockstore));
+    }
+
+    @Override
+    public synchronized void sendBroadcast(EthMessage msg) {
         sendMessage(msg);
     }
 
+    @Override
+    public synchronized void sendCompactBlock(CompactBlockMessage msg) {
+        sendMessage(new NewBlockMessage(msg.getBlock(), msg.getDifficulty()));
+    }
+
     /*************************
      *  Message Processing   *
      *************************/
@@ -410,6 +446,13 @@ public class Eth62 extends EthHandler {
 
         List<Transaction> txSet = msg.getTransactions();
         List<Transaction> newPending = pendingState.addPendingTransactions(txSet);
+        // the accepted ones and the ones received earlier, the invalid ones are dropped
+        // so the peer can't roll the known txs out of the filter with junk
+        for (Transaction tx : txSet) {
+            if (pendingState.isTxreceived(new ByteArrayWrapper(tx.getHash()))) {
+                channel.markTxKnown(tx);
+            }
+        }
         if (!newPending.isEmpty()) {
             TransactionTask transactionTask = new TransactionTask(newPending, channel.getChannelManager(), channel);
             TransactionExecutor.instance.submitTransaction(transactionTask);
@@ -444,6 +487,7 @@ public class Eth62 extends EthHandler {
 
         if (!isValid(msg, request)) {
 
+            channel.getPeerStats().onInvalidData();
             dropConnection();
             return;
         }
@@ -484,8 +528,17 @@ public class Eth62 extends EthHandler {
                 msg.getBlockBodies().size()
         );
 
-        if (!isValid(msg)) {
+        BlockBodiesRequest request = requestedBodies.poll();
+        if (request == null) {
+            logger.debug("Peer {}: received BlockBodies when no bodies were requested, dropping", channel.getPeerIdShort());
+            dropConnection();
+            return;
+        }
 
+        if (!isValid(msg, request)) {
+
+            channel.getPeerStats().onInvalidData();
+            failBodiesRequests(request, "Invalid BLOCK_BODIES response");
             dropConnection();
             return;
         }
@@ -494,35 +547,61 @@ public class Eth62 extends EthHandler {
 
         List<Block> blocks = null;
         try {
-            blocks = validateAndMerge(msg);
+            blocks = validateAndMerge(msg, request);
         } catch (Exception e) {
             logger.info("Fatal validation error while processing block bodies from peer {}", channel.getPeerIdShort());
         }
 
         if (blocks == null) {
-            // headers will be returned by #onShutdown()
+            // the downloader returns the headers of the failed requests to the SyncQueue
+            channel.getPeerStats().onInvalidData();
+            failBodiesRequests(request, "BLOCK_BODIES response validation failed");
             dropConnection();
             return;
         }
 
-        futureBlocks.set(blocks);
-        futureBlocks = null;
+        request.future.set(blocks);
 
         processingTime += (System.currentTimeMillis() - lastReqSentTime);
-        lastReqSentTime = 0;
-        peerState = IDLE;
+        if (requestedBodies.isEmpty()) {
+            lastReqSentTime = 0;
+            peerState = IDLE;
+        } else {
+            lastReqSentTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Fails the request and the ones pipelined after it since the peer is dropped
+     */
+    private void failBodiesRequests(BlockBodiesRequest request, String err) {
+        request.future.setException(new RuntimeException(err));
+        failBodiesRequests(err);
+    }
+
+    private void failBodiesRequests(String err) {
+        for (BlockBodiesRequest pending : requestedBodies) {
+            pending.future.setException(new RuntimeException(err));
+        }
+        requestedBodies.clear();
     }
 
     protected synchronized void processNewBlock(NewBlockMessage newBlockMessage) {
-        Block newBlock = newBlockMessage.getBlock();
+        processNewBlock(newBlockMessage.getBlock(), newBlockMessage.getDifficultyAsBigInt());
+    }
+
+    protected synchronized void processNewBlock(Block newBlock, BigInteger totalDifficulty) {
+        boolean known = blockstore.isBlockExist(newBlock.getHash());
         if (!syncManager.validateAndAddNewBlock(newBlock, channel.getNodeId())) {
         	logger.info("Peer's Block {} is Bad,Drop Connection",newBlock.getShortDescr());
+            channel.getPeerStats().onInvalidData();
             dropConnection();
             return;
         }
+        if (!known) channel.getPeerStats().onUsefulBlocks(1);
         
         logger.debug("New block received: block.index [{}]", newBlock.getNumber());
-        updateTotalDifficulty(newBlockMessage.getDifficultyAsBigInt());
+        updateTotalDifficulty(totalDifficulty);
         updateBestBlock(newBlock);
     }
 
@@ -532,6 +611,8 @@ public class Eth62 extends EthHandler {
 
     @Override
     public synchronized void onShutdown() {
+        // the responses won't come, so the downloader requests the blocks from the other peers
+        failBodiesRequests("Peer disconnected");
     }
 
     @Override
@@ -593,6 +674,7 @@ public class Eth62 extends EthHandler {
                 } else {
                     logger.debug("Peer {}: wrong fork ({}). Drop the peer and reduce reputation.", channel.getPeerIdShort(), result.error);
                     channel.getNodeStatistics().wrongFork = true;
+                    channel.getPeerStats().onInvalidData();
                     dropConnection();
                 }
             }
@@ -618,7 +700,7 @@ public class Eth62 extends EthHandler {
         updateBestBlock(block.getHeader());
     }
 
-    private void updateBestBlock(BlockHeader header) {
+    protected void updateBestBlock(BlockHeader header) {
         if (bestKnownBlock == null || header.getNumber() > bestKnownBlock.getNumber()) {
             bestKnownBlock = new BlockIdentifier(header.getHash(), header.getNumber());
         }
@@ -637,7 +719,7 @@ public class Eth62 extends EthHandler {
         return bestKnownBlock;
     }
 
-    private void updateTotalDifficulty(BigInteger totalDiff) {
+    protected void updateTotalDifficulty(BigInteger totalDiff) {
         channel.getNodeStatistics().setEthTotalDifficulty(totalDiff);
         this.totalDifficulty = totalDiff;
     }
@@ -701,7 +783,7 @@ public class Eth62 extends EthHandler {
      *************************/
 
     @Nullable
-    private List<Block> validateAndMerge(BlockBodiesMessage response) {
+    private List<Block> validateAndMerge(BlockBodiesMessage response, BlockBodiesRequest request) {
         // merging received block bodies with requested headers
         // the assumption is the following:
         // - response may miss any bodies present in the request
@@ -712,10 +794,9 @@ public class Eth62 extends EthHandler {
         List<byte[]> bodyList = response.getBlockBodies();
 
         Iterator<byte[]> bodies = bodyList.iterator();
-        Iterator<BlockHeaderWrapper> wrappers = sentHeaders.iterator();
+        Iterator<BlockHeaderWrapper> wrappers = request.headers.iterator();
 
         List<Block> blocks = new ArrayList<>(bodyList.size());
-        List<BlockHeaderWrapper> coveredHeaders = new ArrayList<>(sentHeaders.size());
 
         boolean blockMerged = true;
         byte[] body = null;
@@ -736,7 +817,6 @@ public class Eth62 extends EthHandler {
             } else {
                 blockMerged = true;
 
-                coveredHeaders.add(wrapper);
                 blocks.add(b);
             }
         }
@@ -747,14 +827,11 @@ public class Eth62 extends EthHandler {
             return null;
         }
 
-        // remove headers covered by response
-        sentHeaders.removeAll(coveredHeaders);
-
         return blocks;
     }
 
-    private boolean isValid(BlockBodiesMessage response) {
-        return response.getBlockBodies().size() <= sentHeaders.size();
+    private boolean isValid(BlockBodiesMessage response, BlockBodiesRequest request) {
+        return response.getBlockBodies().size() <= request.headers.size();
     }
 
     protected boolean isValid(BlockHeadersMessage response, GetBlockHeadersMessageWrapper requestWrapper) {
@@ -882,12 +959,13 @@ public class Eth62 extends EthHandler {
         int waitResp = lastReqSentTime > 0 ? (int) (System.currentTimeMillis() - lastReqSentTime) / 1000 : 0;
         long lifeTime = System.currentTimeMillis() - connectedTime;
         return String.format(
-                "Peer %s: [ %s, %18s, ping %6s ms, rep: %s, difficulty %s, best block %s%s]: (idle %s of %s) %s",
+                "Peer %s: [ %s, %18s, ping %6s ms, rep: %s, score: %.0f, difficulty %s, best block %s%s]: (idle %s of %s) %s",
                 getVersion(),
                 channel.getPeerIdShort(),
                 peerState,
                 (int)channel.getPeerStats().getAvgLatency(),
                 channel.getNodeStatistics().getReputation(),
+                channel.getScore(),
                 getTotalDifficulty(),
                 getBestKnownBlock().getNumber(),
                 waitResp > 5 ? ", wait " + waitResp + "s" : " ",
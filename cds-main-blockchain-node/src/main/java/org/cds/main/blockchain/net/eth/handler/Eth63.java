@@ -28,7 +28,9 @@ import static org.cds.main.blockchain.crypto.HashUtil.sha3;
 import static org.cds.main.blockchain.net.eth.EthVersion.V63;
 import static org.cds.main.blockchain.util.ByteUtil.toHexString;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
 
@@ -46,16 +48,31 @@ public class Eth63 extends Eth62 {
 
     private List<byte[]> requestedReceipts;
     private SettableFuture<List<List<TransactionReceipt>>> requestReceiptsFuture;
-    private Set<byte[]> requestedNodes;
-    private SettableFuture<List<Pair<byte[], byte[]>>> requestNodesFuture;
+    // GetNodeData requests pipelined to the peer, the peer responds in the order of the requests
+    private final Deque<NodeDataRequest> requestedNodes = new ArrayDeque<>();
+
+    private static class NodeDataRequest {
+        final Set<byte[]> hashes = new ByteArraySet();
+        final SettableFuture<List<Pair<byte[], byte[]>>> future = SettableFuture.create();
+        final long sentTime = System.currentTimeMillis();
+    }
 
     public Eth63() {
         super(version);
     }
 
+    Eth63(final EthVersion version) {
+        super(version);
+    }
+
     @Autowired
     public Eth63(final SystemProperties config, final Blockchain blockchain, BlockStore blockStore,
                  final CompositeEthereumListener ethereumListener) {
+        this(version, config, blockchain, blockStore, ethereumListener);
+    }
+
+    Eth63(final EthVersion version, final SystemProperties config, final Blockchain blockchain,
+          BlockStore blockStore, final CompositeEthereumListener ethereumListener) {
         super(version, config, blockchain, blockStore, ethereumListener);
     }
 
@@ -134,18 +151,39 @@ public class Eth63 extends Eth62 {
     }
 
     public synchronized ListenableFuture<List<Pair<byte[], byte[]>>> requestTrieNodes(List<byte[]> hashes) {
-        if (peerState != PeerState.IDLE) return null;
+        return requestTrieNodes(hashes, 1);
+    }
+
+    /**
+     * Sends GetNodeData request even if the previous ones are not responded yet
+     * @param maxPending max number of the requests awaiting response including this one
+     * @return null if the peer is busy with other requests or has maxPending node requests already
+     */
+    public synchronized ListenableFuture<List<Pair<byte[], byte[]>>> requestTrieNodes(List<byte[]> hashes, int maxPending) {
+        if (!canRequestTrieNodes(maxPending)) return null;
 
         GetNodeDataMessage msg = new GetNodeDataMessage(hashes);
-        requestedNodes = new ByteArraySet();
-        requestedNodes.addAll(hashes);
+        NodeDataRequest request = new NodeDataRequest();
+        request.hashes.addAll(hashes);
+        requestedNodes.add(request);
 
-        requestNodesFuture = SettableFuture.create();
         sendMessage(msg);
-        lastReqSentTime = System.currentTimeMillis();
+        if (peerState == PeerState.IDLE) {
+            lastReqSentTime = request.sentTime;
+        }
 
         peerState = PeerState.NODE_RETRIEVING;
-        return requestNodesFuture;
+        return request.future;
+    }
+
+    public synchronized boolean canRequestTrieNodes(int maxPending) {
+        // NODE_RETRIEVING with no pending requests is the peer being dropped after the failed request
+        return peerState == PeerState.IDLE || (peerState == PeerState.NODE_RETRIEVING &&
+                !requestedNodes.isEmpty() && requestedNodes.size() < maxPending);
+    }
+
+    public synchronized int getPendingTrieNodeRequests() {
+        return requestedNodes.size();
     }
 
     public synchronized ListenableFuture<List<List<TransactionReceipt>>> requestReceipts(List<byte[]> hashes) {
@@ -163,16 +201,18 @@ public class Eth63 extends Eth62 {
     }
 
     protected synchronized void processNodeData(NodeDataMessage msg) {
-        if (requestedNodes == null) {
-            logger.debug("Received NodeDataMessage when requestedNodes == null. Dropping peer " + channel);
+        NodeDataRequest request = requestedNodes.poll();
+        if (request == null) {
+            logger.debug("Received NodeDataMessage when no nodes were requested. Dropping peer " + channel);
             dropConnection();
+            return;
         }
 
         List<Pair<byte[], byte[]>> ret = new ArrayList<>();
         if(msg.getDataList().isEmpty()) {
             String err = String.format("Received NodeDataMessage contains empty node data. Dropping peer %s", channel);
             logger.debug(err);
-            requestNodesFuture.setException(new RuntimeException(err));
+            failNodeRequests(request, err);
             // Not fatal but let us touch it later
             channel.getChannelManager().disconnect(channel, ReasonCode.TOO_MANY_PEERS);
             return;
@@ -180,20 +220,22 @@ public class Eth63 extends Eth62 {
 
         for (Value nodeVal : msg.getDataList()) {
             byte[] hash = sha3(nodeVal.asBytes());
-            if (!requestedNodes.contains(hash)) {
+            if (!request.hashes.contains(hash)) {
                 String err = "Received NodeDataMessage contains non-requested node with hash :" + toHexString(hash) + " . Dropping peer " + channel;
-                dropUselessPeer(err);
+                dropUselessPeer(request, err);
                 return;
             }
             ret.add(Pair.of(hash, nodeVal.asBytes()));
         }
-        requestNodesFuture.set(ret);
+        request.future.set(ret);
 
-        requestedNodes = null;
-        requestNodesFuture = null;
         processingTime += (System.currentTimeMillis() - lastReqSentTime);
-        lastReqSentTime = 0;
-        peerState = PeerState.IDLE;
+        if (requestedNodes.isEmpty()) {
+            lastReqSentTime = 0;
+            peerState = PeerState.IDLE;
+        } else {
+            lastReqSentTime = System.currentTimeMillis();
+        }
     }
 
     protected synchronized void processReceipts(ReceiptsMessage msg) {
@@ -221,12 +263,23 @@ public class Eth63 extends Eth62 {
     }
 
 
-    private void dropUselessPeer(String err) {
+    private void dropUselessPeer(NodeDataRequest request, String err) {
         logger.debug(err);
-        requestNodesFuture.setException(new RuntimeException(err));
+        failNodeRequests(request, err);
         dropConnection();
     }
 
+    /**
+     * Fails the request and the ones pipelined after it since the peer is dropped
+     */
+    private void failNodeRequests(NodeDataRequest request, String err) {
+        request.future.setException(new RuntimeException(err));
+        for (NodeDataRequest pending : requestedNodes) {
+            pending.future.setException(new RuntimeException(err));
+        }
+        requestedNodes.clear();
+    }
+
     @Override
     public String getSyncStats() {
         double nodesPerSec = 1000d * channel.getNodeStatistics().eth63NodesReceived.get() / channel.getNodeStatistics().eth63NodesRetrieveTime.get();
@@ -0,0 +1,267 @@
+package org.cds.main.blockchain.net.eth.handler;
+
+import com.google.common.hash.HashFunction;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.commons.collections4.map.LRUMap;
+import org.cds.main.blockchain.config.SystemProperties;
+import org.cds.main.blockchain.core.Block;
+import org.cds.main.blockchain.core.BlockHeader;
+import org.cds.main.blockchain.core.BlockIdentifier;
+import org.cds.main.blockchain.core.Blockchain;
+import org.cds.main.blockchain.core.Transaction;
+import org.cds.main.blockchain.db.BlockStore;
+import org.cds.main.blockchain.db.ByteArrayWrapper;
+import org.cds.main.blockchain.listener.CompositeEthereumListener;
+import org.cds.main.blockchain.net.eth.EthVersion;
+import org.cds.main.blockchain.net.eth.message.BlockTransactionsMessage;
+import org.cds.main.blockchain.net.eth.message.CompactBlockMessage;
+import org.cds.main.blockchain.net.eth.message.EthMessage;
+import org.cds.main.blockchain.net.eth.message.GetBlockTransactionsMessage;
+import org.cds.main.blockchain.net.eth.message.NewBlockHashesMessage;
+import org.cds.main.blockchain.util.RLP;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import static java.util.Collections.singletonList;
+import static org.cds.main.blockchain.net.eth.EthVersion.V64;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact block relay (PV64) Handler
+ *
+ * New blocks are announced with the header and the short ids of the transactions.
+ * The block is rebuilt from the pending transactions, the missing ones are requested
+ * from the announcing peer. When the rebuilt block doesn't match the header
+ * (short id collision) all the transactions are requested, when the peer can't serve them
+ * the block is fetched the regular way as if its hash was announced
+ */
+@Component("Eth64")
+@Scope("prototype")
+public class Eth64 extends Eth63 {
+
+    private static final EthVersion version = V64;
+
+    // compact blocks sent to the peer and not imported yet may be asked for the transactions
+    private static final int MAX_SENT_BLOCKS = 16;
+    private static final int MAX_PARTIAL_BLOCKS = 8;
+
+    private final Map<ByteArrayWrapper, Block> sentBlocks = new LRUMap<>(MAX_SENT_BLOCKS);
+    // blocks waiting for the requested transactions
+    private final Map<ByteArrayWrapper, PartialBlock> partialBlocks = new LRUMap<>(MAX_PARTIAL_BLOCKS);
+
+    private static class PartialBlock {
+        final BlockHeader header;
+        final byte[] unclesEncoded;
+        final BigInteger totalDifficulty;
+        final Transaction[] txs;
+        List<Integer> requested;
+
+        PartialBlock(CompactBlockMessage msg) {
+            this.header = msg.getHeader();
+            this.unclesEncoded = msg.getUnclesEncoded();
+            this.totalDifficulty = msg.getDifficultyAsBigInt();
+            this.txs = new Transaction[msg.getShortIds().length];
+        }
+
+        boolean isAllRequested() {
+            return requested.size() == txs.length;
+        }
+
+        /**
+         * @return the block or null if the transactions or uncles don't match the header
+         */
+        Block build() {
+            byte[][] encodedTxs = new byte[txs.length][];
+            for (int i = 0; i < txs.length; i++) {
+                encodedTxs[i] = txs[i].getEncoded();
+            }
+            byte[] body = RLP.encodeList(RLP.encodeList(encodedTxs), unclesEncoded);
+            return new Block.Builder().withHeader(header).withBody(body).create();
+        }
+    }
+
+    public Eth64() {
+        super(version);
+    }
+
+    @Autowired
+    public Eth64(final SystemProperties config, final Blockchain blockchain, BlockStore blockStore,
+                 final CompositeEthereumListener ethereumListener) {
+        super(version, config, blockchain, blockStore, ethereumListener);
+    }
+
+    @Override
+    public void channelRead0(final ChannelHandlerContext ctx, EthMessage msg) throws InterruptedException {
+
+        super.channelRead0(ctx, msg);
+
+        // Only commands that were added in V64, V62 and V63 are handled in parents
+        switch (msg.getCommand()) {
+            case COMPACT_BLOCK:
+                processCompactBlock((CompactBlockMessage) msg);
+                break;
+            case GET_BLOCK_TRANSACTIONS:
+                processGetBlockTransactions((GetBlockTransactionsMessage) msg);
+                break;
+            case BLOCK_TRANSACTIONS:
+                processBlockTransactions((BlockTransactionsMessage) msg);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public synchronized void sendCompactBlock(CompactBlockMessage msg) {
+        sentBlocks.put(new ByteArrayWrapper(msg.getBlock().getHash()), msg.getBlock());
+        sendMessage(msg);
+    }
+
+    protected void processCompactBlock(CompactBlockMessage msg) {
+        BlockHeader header = msg.getHeader();
+
+        if (blockstore.isBlockExist(header.getHash())) {
+            synchronized (this) {
+                updateTotalDifficulty(msg.getDifficultyAsBigInt());
+                updateBestBlock(header);
+            }
+            return;
+        }
+
+        // matched outside of the handler lock, the pending state has its own synchronization
+        long[] shortIds = msg.getShortIds();
+        PartialBlock partial = new PartialBlock(msg);
+        List<Integer> missing = new ArrayList<>();
+        if (shortIds.length > 0) {
+            Map<Long, Transaction> pool = matchPending(header.getHash(), shortIds);
+            for (int i = 0; i < shortIds.length; i++) {
+                partial.txs[i] = pool.get(shortIds[i]);
+                if (partial.txs[i] == null) missing.add(i);
+            }
+        }
+
+        synchronized (this) {
+            processCompactBlock(partial, missing);
+        }
+    }
+
+    private void processCompactBlock(PartialBlock partial, List<Integer> missing) {
+        BlockHeader header = partial.header;
+        int txCount = partial.txs.length;
+
+        if (logger.isTraceEnabled()) logger.trace(
+                "Peer {}: processing CompactBlock #{}, txs [{}], missing [{}]",
+                channel.getPeerIdShort(), header.getNumber(), txCount, missing.size()
+        );
+
+        if (missing.isEmpty()) {
+            Block block = partial.build();
+            if (block != null) {
+                processNewBlock(block, partial.totalDifficulty);
+                return;
+            }
+            logger.debug("Peer {}: compact block #{} doesn't match the header, requesting all txs",
+                    channel.getPeerIdShort(), header.getNumber());
+            missing = allIndexes(txCount);
+        }
+
+        requestTransactions(partial, missing);
+    }
+
+    protected synchronized void processGetBlockTransactions(GetBlockTransactionsMessage msg) {
+        Block block = sentBlocks.get(new ByteArrayWrapper(msg.getBlockHash()));
+        if (block == null) {
+            block = blockchain.getBlockByHash(msg.getBlockHash());
+        }
+
+        List<Transaction> txs = new ArrayList<>();
+        if (block != null) {
+            List<Transaction> blockTxs = block.getTransactionsList();
+            for (Integer index : msg.getIndexes()) {
+                if (index < 0 || index >= blockTxs.size()) {
+                    txs.clear();
+                    break;
+                }
+                txs.add(blockTxs.get(index));
+            }
+        }
+
+        sendMessage(new BlockTransactionsMessage(msg.getBlockHash(), txs));
+    }
+
+    protected synchronized void processBlockTransactions(BlockTransactionsMessage msg) {
+        PartialBlock partial = partialBlocks.remove(new ByteArrayWrapper(msg.getBlockHash()));
+        if (partial == null) return;
+
+        List<Transaction> txs = msg.getTransactions();
+        if (txs.size() != partial.requested.size()) {
+            logger.debug("Peer {}: no transactions of compact block #{}, fetching the block",
+                    channel.getPeerIdShort(), partial.header.getNumber());
+            processNewBlockHashes(new NewBlockHashesMessage(singletonList(
+                    new BlockIdentifier(partial.header.getHash(), partial.header.getNumber()))));
+            return;
+        }
+
+        for (int i = 0; i < txs.size(); i++) {
+            partial.txs[partial.requested.get(i)] = txs.get(i);
+        }
+
+        Block block = partial.build();
+        if (block != null) {
+            processNewBlock(block, partial.totalDifficulty);
+        } else if (!partial.isAllRequested()) {
+            logger.debug("Peer {}: compact block #{} doesn't match the header, requesting all txs",
+                    channel.getPeerIdShort(), partial.header.getNumber());
+            requestTransactions(partial, allIndexes(partial.txs.length));
+        } else {
+            logger.info("Peer {}: transactions of block #{} don't match its header, drop connection",
+                    channel.getPeerIdShort(), partial.header.getNumber());
+            dropConnection();
+        }
+    }
+
+    private void requestTransactions(PartialBlock partial, List<Integer> indexes) {
+        partial.requested = indexes;
+        partialBlocks.put(new ByteArrayWrapper(partial.header.getHash()), partial);
+        sendMessage(new GetBlockTransactionsMessage(partial.header.getHash(), indexes));
+    }
+
+    /**
+     * Only the pending transactions with the short ids of the block are kept,
+     * so the map is no larger than the block whatever the pool size is
+     *
+     * @return pending transactions by the short ids salted with the block hash,
+     *          ambiguous short ids are mapped to null
+     */
+    private Map<Long, Transaction> matchPending(byte[] blockHash, long[] shortIds) {
+        Set<Long> wanted = new HashSet<>(shortIds.length * 2);
+        for (long id : shortIds) wanted.add(id);
+
+        HashFunction salt = CompactBlockMessage.shortIdHash(blockHash);
+        Map<Long, Transaction> ret = new HashMap<>(shortIds.length * 2);
+        for (Transaction tx : pendingState.getPendingTransactions()) {
+            Long id = CompactBlockMessage.shortId(salt, tx.getHash());
+            if (!wanted.contains(id)) continue;
+            if (ret.containsKey(id)) {
+                ret.put(id, null);
+            } else {
+                ret.put(id, tx);
+            }
+        }
+        return ret;
+    }
+
+    private static List<Integer> allIndexes(int size) {
+        List<Integer> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) ret.add(i);
+        return ret;
+    }
+}
@@ -9,6 +9,8 @@ import java.util.List;
 
 import org.cds.main.blockchain.core.*;
 import org.cds.main.blockchain.net.eth.EthVersion;
+import org.cds.main.blockchain.net.eth.message.CompactBlockMessage;
+import org.cds.main.blockchain.net.eth.message.EthMessage;
 import org.cds.main.blockchain.sync.SyncStatistics;
 
 /**
@@ -90,6 +92,21 @@ public class EthAdapter implements Eth {
         return null;
     }
 
+    @Override
+    public ListenableFuture<List<Block>> sendGetBlockBodies(List<BlockHeaderWrapper> headers, int maxPending) {
+        return null;
+    }
+
+    @Override
+    public boolean canRequestBlockBodies(int maxPending) {
+        return false;
+    }
+
+    @Override
+    public int getPendingBlockBodiesRequests() {
+        return 0;
+    }
+
     @Override
     public void sendNewBlock(Block newBlock) {
     }
@@ -99,6 +116,14 @@ public class EthAdapter implements Eth {
 
     }
 
+    @Override
+    public void sendBroadcast(EthMessage msg) {
+    }
+
+    @Override
+    public void sendCompactBlock(CompactBlockMessage msg) {
+    }
+
     @Override
     public EthVersion getVersion() {
         return fromCode(UPPER);
@@ -21,6 +21,7 @@ public class EthHandlerFactoryImpl implements EthHandlerFactory {
         switch (version) {
             case V62:   return (EthHandler) ctx.getBean("Eth62");
             case V63:   return (EthHandler) ctx.getBean("Eth63");
+            case V64:   return (EthHandler) ctx.getBean("Eth64");
             default:    throw new IllegalArgumentException("Eth " + version + " is not supported");
         }
     }
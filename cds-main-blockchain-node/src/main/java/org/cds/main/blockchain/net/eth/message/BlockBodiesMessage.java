@@ -6,8 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.cds.main.blockchain.util.RLP;
-import org.cds.main.blockchain.util.RLPElement;
-import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPReader;
 
 /**
  * Wrapper around an Ethereum BlockBodies message on the network
@@ -30,13 +29,12 @@ public class BlockBodiesMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = RLP.unwrapList(encoded);
+        RLPReader paramsList = new RLPReader(encoded).nextList();
         this.encoded = null;
 
         blockBodies = new ArrayList<>();
-        for (int i = 0; i < paramsList.size(); ++i) {
-            RLPElement rlpData = paramsList.get(i);
-            blockBodies.add(rlpData.getRLPData());
+        while (paramsList.hasNext()) {
+            blockBodies.add(paramsList.nextEncoded());
         }
         parsed = true;
     }
@@ -8,7 +8,7 @@ import java.util.List;
 
 import org.cds.main.blockchain.core.BlockHeader;
 import org.cds.main.blockchain.util.RLP;
-import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPReader;
 
 /**
  * Wrapper around an Ethereum BlockHeaders message on the network
@@ -34,12 +34,11 @@ public class BlockHeadersMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = (RLPList) RLP.decode2(encoded).get(0);
+        RLPReader paramsList = new RLPReader(encoded).nextList();
 
         blockHeaders = new ArrayList<>();
-        for (int i = 0; i < paramsList.size(); ++i) {
-            RLPList rlpData = ((RLPList) paramsList.get(i));
-            blockHeaders.add(new BlockHeader(rlpData));
+        while (paramsList.hasNext()) {
+            blockHeaders.add(new BlockHeader(paramsList.nextList()));
         }
         parsed = true;
     }
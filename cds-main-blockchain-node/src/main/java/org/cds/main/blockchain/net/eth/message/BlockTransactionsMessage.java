@@ -0,0 +1,84 @@
+package org.cds.main.blockchain.net.eth.message;
+
+import static org.cds.main.blockchain.util.ByteUtil.toHexString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cds.main.blockchain.core.Transaction;
+import org.cds.main.blockchain.util.RLP;
+import org.cds.main.blockchain.util.RLPReader;
+
+/**
+ * Wrapper around a BlockTransactions message on the network
+ *
+ * @see EthMessageCodes#BLOCK_TRANSACTIONS
+ */
+public class BlockTransactionsMessage extends EthMessage {
+
+    private byte[] blockHash;
+    private List<Transaction> transactions;
+
+    public BlockTransactionsMessage(byte[] encoded) {
+        super(encoded);
+    }
+
+    public BlockTransactionsMessage(byte[] blockHash, List<Transaction> transactions) {
+        this.blockHash = blockHash;
+        this.transactions = transactions;
+        parsed = true;
+    }
+
+    private synchronized void parse() {
+        if (parsed) return;
+        RLPReader paramsList = new RLPReader(encoded).nextList();
+
+        blockHash = paramsList.nextBytes();
+        RLPReader txList = paramsList.nextList();
+        transactions = new ArrayList<>();
+        while (txList.hasNext()) {
+            transactions.add(new Transaction(txList.nextEncoded()));
+        }
+        parsed = true;
+    }
+
+    private void encode() {
+        byte[][] encodedTxs = new byte[transactions.size()][];
+        for (int i = 0; i < encodedTxs.length; i++) {
+            encodedTxs[i] = transactions.get(i).getEncoded();
+        }
+        this.encoded = RLP.encodeList(RLP.encodeElement(blockHash), RLP.encodeList(encodedTxs));
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (encoded == null) encode();
+        return encoded;
+    }
+
+    public byte[] getBlockHash() {
+        parse();
+        return blockHash;
+    }
+
+    public List<Transaction> getTransactions() {
+        parse();
+        return transactions;
+    }
+
+    @Override
+    public EthMessageCodes getCommand() {
+        return EthMessageCodes.BLOCK_TRANSACTIONS;
+    }
+
+    @Override
+    public Class<?> getAnswerMessage() {
+        return null;
+    }
+
+    public String toString() {
+        parse();
+        return "[" + getCommand().name() + " hash: " + toHexString(blockHash).substring(0, 6) +
+                " count( " + transactions.size() + " )]";
+    }
+}
@@ -0,0 +1,190 @@
+package org.cds.main.blockchain.net.eth.message;
+
+import static org.cds.main.blockchain.util.ByteUtil.toHexString;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import org.cds.main.blockchain.core.Block;
+import org.cds.main.blockchain.core.BlockHeader;
+import org.cds.main.blockchain.core.Transaction;
+import org.cds.main.blockchain.db.BlockStore;
+import org.cds.main.blockchain.util.ByteUtil;
+import org.cds.main.blockchain.util.RLP;
+import org.cds.main.blockchain.util.RLPReader;
+
+/**
+ * Wrapper around a CompactBlock message on the network:
+ * the new block header, the short ids of the block transactions, the uncles and the total difficulty
+ *
+ * @see EthMessageCodes#COMPACT_BLOCK
+ */
+public class CompactBlockMessage extends EthMessage {
+
+    /**
+     * Length of the transaction short id, bytes
+     */
+    public static final int SHORT_ID_LENGTH = 6;
+
+    private static final long SHORT_ID_MASK = (1L << (8 * SHORT_ID_LENGTH)) - 1;
+
+    // the announced block, known on the sending side only
+    private Block block;
+
+    private BlockHeader header;
+    private long[] shortIds;
+    private byte[] unclesEncoded;
+    private byte[] difficulty;
+
+    public CompactBlockMessage(byte[] encoded) {
+        super(encoded);
+    }
+
+    public CompactBlockMessage(Block block, byte[] difficulty) {
+        this.block = block;
+        this.header = block.getHeader();
+        this.difficulty = difficulty;
+
+        List<Transaction> txs = block.getTransactionsList();
+        HashFunction salt = shortIdHash(block.getHash());
+        this.shortIds = new long[txs.size()];
+        for (int i = 0; i < shortIds.length; i++) {
+            shortIds[i] = shortId(salt, txs.get(i).getHash());
+        }
+
+        List<BlockHeader> uncles = block.getUncleList();
+        byte[][] encodedUncles = new byte[uncles.size()][];
+        for (int i = 0; i < encodedUncles.length; i++) {
+            encodedUncles[i] = uncles.get(i).getEncoded();
+        }
+        this.unclesEncoded = RLP.encodeList(encodedUncles);
+
+        this.parsed = true;
+        encode();
+    }
+
+    /**
+     * Creates the message with the total difficulty of the block taken from the store
+     */
+    public static CompactBlockMessage create(Block block, BlockStore blockStore) {
+        BigInteger parentTD = blockStore.getTotalDifficultyForHash(block.getParentHash());
+        byte[] td = ByteUtil.bigIntegerToBytes(parentTD.add(new BigInteger(1, block.getDifficulty())));
+        return new CompactBlockMessage(block, td);
+    }
+
+    /**
+     * Short ids are SipHash of the transaction hash keyed by the block hash,
+     * so the transactions colliding in one block don't collide in the others
+     * and the collisions can't be prepared in advance of the block
+     */
+    public static HashFunction shortIdHash(byte[] blockHash) {
+        return Hashing.sipHash24(Longs.fromByteArray(blockHash), Longs.fromByteArray(Arrays.copyOfRange(blockHash, 8, 16)));
+    }
+
+    /**
+     * Short id of the transaction, a collision is resolved by the receiver
+     * since the rebuilt block doesn't match the transactions root of the header
+     */
+    public static long shortId(HashFunction salt, byte[] txHash) {
+        return salt.hashBytes(txHash).asLong() & SHORT_ID_MASK;
+    }
+
+    private void encode() {
+        byte[] ids = new byte[shortIds.length * SHORT_ID_LENGTH];
+        for (int i = 0; i < shortIds.length; i++) {
+            long id = shortIds[i];
+            for (int j = SHORT_ID_LENGTH - 1; j >= 0; j--) {
+                ids[i * SHORT_ID_LENGTH + j] = (byte) id;
+                id >>>= 8;
+            }
+        }
+
+        this.encoded = RLP.encodeList(header.getEncoded(), RLP.encodeElement(ids),
+                unclesEncoded, RLP.encodeElement(difficulty));
+    }
+
+    private synchronized void parse() {
+        if (parsed) return;
+        RLPReader paramsList = new RLPReader(encoded).nextList();
+
+        header = new BlockHeader(paramsList.nextList());
+        byte[] ids = paramsList.nextBytes();
+        if (ids == null) ids = ByteUtil.EMPTY_BYTE_ARRAY;
+        if (ids.length % SHORT_ID_LENGTH != 0) {
+            throw new RuntimeException("Invalid short ids length: " + ids.length);
+        }
+        shortIds = new long[ids.length / SHORT_ID_LENGTH];
+        for (int i = 0; i < shortIds.length; i++) {
+            long id = 0;
+            for (int j = 0; j < SHORT_ID_LENGTH; j++) {
+                id = (id << 8) | (ids[i * SHORT_ID_LENGTH + j] & 0xFF);
+            }
+            shortIds[i] = id;
+        }
+        unclesEncoded = paramsList.nextEncoded();
+        difficulty = paramsList.nextBytes();
+
+        parsed = true;
+    }
+
+    /**
+     * @return the announced block on the sending side, null on the receiving side
+     */
+    public Block getBlock() {
+        return block;
+    }
+
+    public BlockHeader getHeader() {
+        parse();
+        return header;
+    }
+
+    public long[] getShortIds() {
+        parse();
+        return shortIds;
+    }
+
+    /**
+     * @return RLP encoded list of the uncle headers
+     */
+    public byte[] getUnclesEncoded() {
+        parse();
+        return unclesEncoded;
+    }
+
+    public byte[] getDifficulty() {
+        parse();
+        return difficulty;
+    }
+
+    public BigInteger getDifficultyAsBigInt() {
+        return new BigInteger(1, getDifficulty());
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    @Override
+    public EthMessageCodes getCommand() {
+        return EthMessageCodes.COMPACT_BLOCK;
+    }
+
+    @Override
+    public Class<?> getAnswerMessage() {
+        return null;
+    }
+
+    public String toString() {
+        parse();
+
+        return "COMPACT_BLOCK [ number: " + header.getNumber() + " hash:" + toHexString(header.getHash()).substring(0, 6) +
+                " txs: " + shortIds.length + " difficulty: " + toHexString(difficulty) + " ]";
+    }
+}
@@ -0,0 +1,30 @@
+package org.cds.main.blockchain.net.eth.message;
+
+import static org.cds.main.blockchain.net.eth.EthVersion.V64;
+
+import org.cds.main.blockchain.net.message.Message;
+import org.cds.main.blockchain.net.message.MessageFactory;
+
+/**
+ * Compact block relay (PV64) message factory
+ */
+public class Eth64MessageFactory implements MessageFactory {
+
+    private final Eth63MessageFactory eth63MessageFactory = new Eth63MessageFactory();
+
+    @Override
+    public Message create(byte code, byte[] encoded) {
+
+        EthMessageCodes receivedCommand = EthMessageCodes.fromByte(code, V64);
+        switch (receivedCommand) {
+            case COMPACT_BLOCK:
+                return new CompactBlockMessage(encoded);
+            case GET_BLOCK_TRANSACTIONS:
+                return new GetBlockTransactionsMessage(encoded);
+            case BLOCK_TRANSACTIONS:
+                return new BlockTransactionsMessage(encoded);
+            default:
+                return eth63MessageFactory.create(code, encoded);
+        }
+    }
+}
@@ -145,7 +145,34 @@ public enum EthMessageCodes {
      *
      * Provide a set of receipts which correspond to previously asked in GetReceipts.
      */
-    RECEIPTS(0x10);
+    RECEIPTS(0x10),
+
+    /* Compact block relay (PV 64) */
+
+    /**
+     * {@code [+0x11, blockHeader, shortIds: B, uncleList, totalDifficulty] } <br>
+     *
+     * Announces a new block with the header and the short ids of its transactions,
+     * see {@link CompactBlockMessage#shortIdHash(byte[])}. The receiver rebuilds the block
+     * from its pending transactions and requests the missing ones with GetBlockTransactions.
+     */
+    COMPACT_BLOCK(0x11),
+
+    /**
+     * {@code [+0x12, blockHash: B_32, [index_0: P, index_1: P, ...]] } <br>
+     *
+     * Require peer to return a BlockTransactions message with the transactions
+     * of the block it has announced by CompactBlock, specified by their indexes in the block.
+     */
+    GET_BLOCK_TRANSACTIONS(0x12),
+
+    /**
+     * {@code [+0x13, blockHash: B_32, [transaction_0, transaction_1, ...]] } <br>
+     *
+     * Reply to GetBlockTransactions, the transactions in the order of the requested indexes.
+     * Empty when the peer doesn't have the block anymore.
+     */
+    BLOCK_TRANSACTIONS(0x13);
 
     private int cmd;
 
@@ -180,6 +207,24 @@ public enum EthMessageCodes {
                 RECEIPTS
         });
 
+        versionToValuesMap.put(V64, new EthMessageCodes[]{
+                STATUS,
+                NEW_BLOCK_HASHES,
+                TRANSACTIONS,
+                GET_BLOCK_HEADERS,
+                BLOCK_HEADERS,
+                GET_BLOCK_BODIES,
+                BLOCK_BODIES,
+                NEW_BLOCK,
+                GET_NODE_DATA,
+                NODE_DATA,
+                GET_RECEIPTS,
+                RECEIPTS,
+                COMPACT_BLOCK,
+                GET_BLOCK_TRANSACTIONS,
+                BLOCK_TRANSACTIONS
+        });
+
         for (EthVersion v : EthVersion.values()) {
             Map<Integer, EthMessageCodes> map = new HashMap<>();
             intToTypeMap.put(v, map);
@@ -0,0 +1,87 @@
+package org.cds.main.blockchain.net.eth.message;
+
+import static org.cds.main.blockchain.util.ByteUtil.toHexString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cds.main.blockchain.util.RLP;
+import org.cds.main.blockchain.util.RLPReader;
+
+/**
+ * Wrapper around a GetBlockTransactions message on the network
+ *
+ * @see EthMessageCodes#GET_BLOCK_TRANSACTIONS
+ */
+public class GetBlockTransactionsMessage extends EthMessage {
+
+    private byte[] blockHash;
+
+    /**
+     * Indexes of the requested transactions in the block
+     */
+    private List<Integer> indexes;
+
+    public GetBlockTransactionsMessage(byte[] encoded) {
+        super(encoded);
+    }
+
+    public GetBlockTransactionsMessage(byte[] blockHash, List<Integer> indexes) {
+        this.blockHash = blockHash;
+        this.indexes = indexes;
+        parsed = true;
+    }
+
+    private synchronized void parse() {
+        if (parsed) return;
+        RLPReader paramsList = new RLPReader(encoded).nextList();
+
+        blockHash = paramsList.nextBytes();
+        RLPReader indexList = paramsList.nextList();
+        indexes = new ArrayList<>();
+        while (indexList.hasNext()) {
+            indexes.add(indexList.nextInt());
+        }
+        parsed = true;
+    }
+
+    private void encode() {
+        byte[][] encodedIndexes = new byte[indexes.size()][];
+        for (int i = 0; i < encodedIndexes.length; i++) {
+            encodedIndexes[i] = RLP.encodeInt(indexes.get(i));
+        }
+        this.encoded = RLP.encodeList(RLP.encodeElement(blockHash), RLP.encodeList(encodedIndexes));
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        if (encoded == null) encode();
+        return encoded;
+    }
+
+    public byte[] getBlockHash() {
+        parse();
+        return blockHash;
+    }
+
+    public List<Integer> getIndexes() {
+        parse();
+        return indexes;
+    }
+
+    @Override
+    public EthMessageCodes getCommand() {
+        return EthMessageCodes.GET_BLOCK_TRANSACTIONS;
+    }
+
+    @Override
+    public Class<BlockTransactionsMessage> getAnswerMessage() {
+        return BlockTransactionsMessage.class;
+    }
+
+    public String toString() {
+        parse();
+        return "[" + getCommand().name() + " hash: " + toHexString(blockHash).substring(0, 6) +
+                " count( " + indexes.size() + " )]";
+    }
+}
@@ -5,8 +5,10 @@ import static org.cds.main.blockchain.util.ByteUtil.toHexString;
 import java.math.BigInteger;
 
 import org.cds.main.blockchain.core.Block;
+import org.cds.main.blockchain.db.BlockStore;
+import org.cds.main.blockchain.util.ByteUtil;
 import org.cds.main.blockchain.util.RLP;
-import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPReader;
 
 /**
  * Wrapper around an Ethereum Blocks message on the network
@@ -29,6 +31,15 @@ public class NewBlockMessage extends EthMessage {
         encode();
     }
 
+    /**
+     * Creates the message with the total difficulty of the block taken from the store
+     */
+    public static NewBlockMessage create(Block block, BlockStore blockStore) {
+        BigInteger parentTD = blockStore.getTotalDifficultyForHash(block.getParentHash());
+        byte[] td = ByteUtil.bigIntegerToBytes(parentTD.add(new BigInteger(1, block.getDifficulty())));
+        return new NewBlockMessage(block, td);
+    }
+
     private void encode() {
         byte[] block = this.block.getEncoded();
         byte[] diff = RLP.encodeElement(this.difficulty);
@@ -38,10 +49,10 @@ public class NewBlockMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = RLP.unwrapList(encoded);
+        RLPReader paramsList = new RLPReader(encoded).nextList();
 
-        block = new Block(paramsList.get(0).getRLPData());
-        difficulty = paramsList.get(1).getRLPData();
+        block = new Block(paramsList.nextEncoded());
+        difficulty = paramsList.nextBytes();
 
         parsed = true;
     }
@@ -5,8 +5,7 @@ import java.util.List;
 
 import org.cds.main.blockchain.core.Transaction;
 import org.cds.main.blockchain.util.RLP;
-import org.cds.main.blockchain.util.RLPElement;
-import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPReader;
 
 /**
  * Wrapper around an Ethereum Transactions message on the network
@@ -35,12 +34,11 @@ public class TransactionsMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = RLP.unwrapList(encoded);
+        RLPReader paramsList = new RLPReader(encoded).nextList();
 
         transactions = new ArrayList<>();
-        for (int i = 0; i < paramsList.size(); ++i) {
-            RLPElement rlpTxData = paramsList.get(i);
-            Transaction tx = new Transaction(rlpTxData.getRLPData());
+        while (paramsList.hasNext()) {
+            Transaction tx = new Transaction(paramsList.nextEncoded());
             transactions.add(tx);
         }
         parsed = true;
@@ -2,6 +2,9 @@ package org.cds.main.blockchain.net.message;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
 
 /**
  * Abstract message class for all messages on the Ethereum network
@@ -15,6 +18,9 @@ public abstract class Message {
     protected byte[] encoded;
     protected byte code;
 
+    // snappy compressed encoding, computed once when the message is sent to several peers
+    private volatile byte[] compressed;
+
     public Message() {
     }
 
@@ -30,6 +36,20 @@ public abstract class Message {
      */
     public abstract byte[] getEncoded();
 
+    /**
+     * Gets the snappy compressed RLP encoding, the result is cached
+     * so the message broadcast to many peers is compressed only once
+     */
+    public byte[] getCompressed() throws IOException {
+        byte[] ret = compressed;
+        if (ret == null) {
+            byte[] encoded = getEncoded();
+            ret = Snappy.rawCompress(encoded, encoded.length);
+            compressed = ret;
+        }
+        return ret;
+    }
+
     public abstract Class<?> getAnswerMessage();
 
     /**
@@ -1,9 +1,8 @@
 package org.cds.main.blockchain.net.rlpx;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
 
+import org.cds.main.blockchain.net.message.Message;
 import org.cds.main.blockchain.net.swarm.Util;
 import org.cds.main.blockchain.util.RLP;
 import org.cds.main.blockchain.util.RLPList;
@@ -23,6 +22,10 @@ import java.util.Collections;
 import java.util.List;
 
 public class FrameCodec {
+    private static final int HEADER_SIZE = 32;
+    private static final int MAC_SIZE = 16;
+    private static final byte[] PADDING = new byte[16];
+
     private final StreamCipher enc;
     private final StreamCipher dec;
     private final KeccakDigest egressMac;
@@ -34,6 +37,9 @@ public class FrameCodec {
     private int totalFrameSize = -1;
     private int protocol;
 
+    // egress encryption buffer reused across frames, frames are written by one thread at a time
+    private final byte[] encBuffer = new byte[4096];
+
     public FrameCodec(EncryptionHandshake.Secrets secrets) {
         this.mac = secrets.mac;
         BlockCipher cipher;
@@ -60,16 +66,29 @@ public class FrameCodec {
         int totalFrameSize = -1;
         int contextId = -1;
 
+        // the message if the frame carries it entirely, lets the codecs reuse its cached forms
+        Message message;
+
         public Frame(long type, int size, InputStream payload) {
             this.type = type;
             this.size = size;
             this.payload = payload;
         }
 
+        // the array holding the payload when the frame is built over an array, the codecs read it in place
+        byte[] data;
+        int offset;
+
         public Frame(int type, byte[] payload) {
+            this(type, payload, 0, payload.length);
+        }
+
+        public Frame(long type, byte[] payload, int offset, int size) {
             this.type = type;
-            this.size = payload.length;
-            this.payload = new ByteArrayInputStream(payload);
+            this.size = size;
+            this.data = payload;
+            this.offset = offset;
+            this.payload = new ByteArrayInputStream(payload, offset, size);
         }
 
         public int getSize() {
@@ -85,16 +104,78 @@ public class FrameCodec {
             return contextId >= 0;
         }
 
+        /**
+         * @return the payload as an array of the exact size, copied only if the frame
+         * doesn't span its whole backing array
+         */
+        public byte[] getPayloadArray() throws IOException {
+            if (data != null && offset == 0 && size == data.length) return data;
+            byte[] ret = new byte[size];
+            if (data != null) {
+                System.arraycopy(data, offset, ret, 0, size);
+            } else {
+                new DataInputStream(payload).readFully(ret);
+            }
+            return ret;
+        }
     }
 
-    public void writeFrame(Frame frame, ByteBuf buf) throws IOException {
-        writeFrame(frame, new ByteBufOutputStream(buf));
+    /**
+     * @return the number of bytes the frame takes on the wire
+     */
+    public int getFrameLength(Frame frame) {
+        int totalSize = frame.size + RLP.encodeInt((int) frame.type).length;
+        return HEADER_SIZE + totalSize + padding(totalSize) + MAC_SIZE;
     }
 
-    public void writeFrame(Frame frame, OutputStream out) throws IOException {
-        byte[] headBuffer = new byte[32];
+    /**
+     * Encrypts the frame directly into the buffer, the payload array is read in place
+     */
+    public void writeFrame(Frame frame, ByteBuf out) throws IOException {
         byte[] ptype = RLP.encodeInt((int) frame.type); // FIXME encodeLong
         int totalSize = frame.size + ptype.length;
+        out.ensureWritable(HEADER_SIZE + totalSize + padding(totalSize) + MAC_SIZE);
+
+        out.writeBytes(encodeHeader(frame, totalSize));
+        writeEncrypted(ptype, 0, ptype.length, out);
+        if (frame.data != null) {
+            writeEncrypted(frame.data, frame.offset, frame.size, out);
+        } else {
+            byte[] chunk = new byte[encBuffer.length];
+            int n;
+            while ((n = frame.payload.read(chunk)) > 0) {
+                writeEncrypted(chunk, 0, n, out);
+            }
+        }
+        writeEncrypted(PADDING, 0, padding(totalSize), out);
+
+        // Frame MAC
+        byte[] macBuffer = new byte[egressMac.getDigestSize()];
+        doSum(egressMac, macBuffer); // fmacseed
+        updateMac(egressMac, macBuffer, 0, macBuffer, 0, true);
+        out.writeBytes(macBuffer, 0, MAC_SIZE);
+    }
+
+    private void writeEncrypted(byte[] src, int offset, int length, ByteBuf out) {
+        while (length > 0) {
+            int n = Math.min(length, encBuffer.length);
+            enc.processBytes(src, offset, n, encBuffer, 0);
+            egressMac.update(encBuffer, 0, n);
+            out.writeBytes(encBuffer, 0, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private static int padding(int totalSize) {
+        return (16 - totalSize % 16) % 16;
+    }
+
+    /**
+     * @return encrypted frame header followed by its MAC
+     */
+    private byte[] encodeHeader(Frame frame, int totalSize) throws IOException {
+        byte[] headBuffer = new byte[HEADER_SIZE];
         headBuffer[0] = (byte)(totalSize >> 16);
         headBuffer[1] = (byte)(totalSize >> 8);
         headBuffer[2] = (byte)(totalSize);
@@ -111,6 +192,13 @@ public class FrameCodec {
 
         // Header MAC
         updateMac(egressMac, headBuffer, 0, headBuffer, 16, true);
+        return headBuffer;
+    }
+
+    public void writeFrame(Frame frame, OutputStream out) throws IOException {
+        byte[] ptype = RLP.encodeInt((int) frame.type); // FIXME encodeLong
+        int totalSize = frame.size + ptype.length;
+        byte[] headBuffer = encodeHeader(frame, totalSize);
 
         byte[] buff = new byte[256];
         out.write(headBuffer);
@@ -139,60 +227,80 @@ public class FrameCodec {
         out.write(macBuffer, 0, 16);
     }
 
+    /**
+     * Reads the frame from the buffer without intermediate streams.
+     * Nothing is consumed until the complete header or body is available
+     * @return null if the frame isn't received completely yet
+     */
     public List<Frame> readFrames(ByteBuf buf) throws IOException {
-        try (ByteBufInputStream bufInputStream = new ByteBufInputStream(buf)) {
-            return readFrames(bufInputStream);
+        if (!isHeadRead) {
+            if (buf.readableBytes() < HEADER_SIZE) return null;
+            byte[] headBuffer = new byte[HEADER_SIZE];
+            buf.readBytes(headBuffer);
+            readHeader(headBuffer);
         }
+
+        int bodyLength = totalBodySize + padding(totalBodySize) + MAC_SIZE;
+        if (buf.readableBytes() < bodyLength) return null;
+        byte[] buffer = new byte[bodyLength];
+        buf.readBytes(buffer);
+        return Collections.singletonList(readBody(buffer));
     }
 
     public List<Frame> readFrames(DataInput inp) throws IOException {
         if (!isHeadRead) {
-            byte[] headBuffer = new byte[32];
+            byte[] headBuffer = new byte[HEADER_SIZE];
             try {
                 inp.readFully(headBuffer);
             } catch (EOFException e) {
                 return null;
             }
-
-            // Header MAC
-            updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
-
-            dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
-            totalBodySize = headBuffer[0] & 0xFF;
-            totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
-            totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
-
-            RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
-
-            protocol = Util.rlpDecodeInt(rlpList.get(0));
-            contextId = -1;
-            totalFrameSize = -1;
-            if (rlpList.size() > 1) {
-                contextId = Util.rlpDecodeInt(rlpList.get(1));
-                if (rlpList.size() > 2) {
-                    totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
-                }
-            }
-
-            isHeadRead = true;
+            readHeader(headBuffer);
         }
 
-        int padding = 16 - (totalBodySize % 16);
-        if (padding == 16) padding = 0;
-        int macSize = 16;
-        byte[] buffer = new byte[totalBodySize + padding + macSize];
+        byte[] buffer = new byte[totalBodySize + padding(totalBodySize) + MAC_SIZE];
         try {
             inp.readFully(buffer);
         } catch (EOFException e) {
             return null;
         }
-        int frameSize = buffer.length - macSize;
+        return Collections.singletonList(readBody(buffer));
+    }
+
+    private void readHeader(byte[] headBuffer) throws IOException {
+        // Header MAC
+        updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
+
+        dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
+        totalBodySize = headBuffer[0] & 0xFF;
+        totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
+        totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
+
+        RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
+
+        protocol = Util.rlpDecodeInt(rlpList.get(0));
+        contextId = -1;
+        totalFrameSize = -1;
+        if (rlpList.size() > 1) {
+            contextId = Util.rlpDecodeInt(rlpList.get(1));
+            if (rlpList.size() > 2) {
+                totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
+            }
+        }
+
+        isHeadRead = true;
+    }
+
+    /**
+     * Decrypts the body in place, the frame payload refers to the same array
+     */
+    private Frame readBody(byte[] buffer) throws IOException {
+        int frameSize = buffer.length - MAC_SIZE;
         ingressMac.update(buffer, 0, frameSize);
         dec.processBytes(buffer, 0, frameSize, buffer, 0);
         int pos = 0;
         long type = RLP.decodeLong(buffer, pos);
         pos = RLP.getNextElementIndex(buffer, pos);
-        InputStream payload = new ByteArrayInputStream(buffer, pos, totalBodySize - pos);
         int size = totalBodySize - pos;
         byte[] macBuffer = new byte[ingressMac.getDigestSize()];
 
@@ -201,10 +309,10 @@ public class FrameCodec {
         updateMac(ingressMac, macBuffer, 0, buffer, frameSize, false);
 
         isHeadRead = false;
-        Frame frame = new Frame(type, size, payload);
+        Frame frame = new Frame(type, buffer, pos, size);
         frame.contextId = contextId;
         frame.totalFrameSize = totalFrameSize;
-        return Collections.singletonList(frame);
+        return frame;
     }
 
     private byte[] updateMac(KeccakDigest mac, byte[] seed, int offset, byte[] out, int outOffset, boolean egress) throws IOException {
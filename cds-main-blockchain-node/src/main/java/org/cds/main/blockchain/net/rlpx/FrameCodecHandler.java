@@ -49,6 +49,15 @@ public class FrameCodecHandler extends NettyByteToMessageCodec<FrameCodec.Frame>
         out.addAll(frames);
     }
 
+    /**
+     * Allocates the (pooled direct) buffer of the exact frame size, so it never grows while the frame is written
+     */
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, FrameCodec.Frame frame, boolean preferDirect) throws Exception {
+        int length = frameCodec.getFrameLength(frame);
+        return preferDirect ? ctx.alloc().ioBuffer(length) : ctx.alloc().heapBuffer(length);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, FrameCodec.Frame frame, ByteBuf out) throws Exception {
 
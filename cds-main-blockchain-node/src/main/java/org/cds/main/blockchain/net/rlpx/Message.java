@@ -19,6 +19,9 @@ public abstract class Message {
     byte[] type;
     byte[] data;
 
+    // recovered from the signature once
+    private byte[] nodeId;
+
     public static Message decode(byte[] wire) {
 
         if (wire.length < 98) throw new RuntimeException("Bad message");
@@ -119,7 +122,10 @@ public abstract class Message {
     }
 
     public byte[] getNodeId() {
-        return getKey().getNodeId();
+        if (nodeId == null) {
+            nodeId = getKey().getNodeId();
+        }
+        return nodeId;
     }
 
     public byte[] getPacket() {
@@ -125,10 +125,16 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
     private Message decodeMessage(ChannelHandlerContext ctx, List<Frame> frames) throws IOException {
         long frameType = frames.get(0).getType();
 
-        byte[] payload = new byte[frames.size() == 1 ? frames.get(0).getSize() : frames.get(0).totalFrameSize];
-        int pos = 0;
-        for (Frame frame : frames) {
-            pos += ByteStreams.read(frame.getStream(), payload, pos, frame.getSize());
+        byte[] payload;
+        if (frames.size() == 1) {
+            // no copy when the frame spans the whole array, e.g. uncompressed by the SnappyCodec
+            payload = frames.get(0).getPayloadArray();
+        } else {
+            payload = new byte[frames.get(0).totalFrameSize];
+            int pos = 0;
+            for (Frame frame : frames) {
+                pos += ByteStreams.read(frame.getStream(), payload, pos, frame.getSize());
+            }
         }
 
         if (loggerWire.isDebugEnabled())
@@ -185,6 +191,10 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
             curPos = newPos;
         }
 
+        if (ret.size() == 1) {
+            ret.get(0).message = msg;
+        }
+
         if (ret.size() > 1) {
             // frame has been split
             int contextId = contextIdCounter.getAndIncrement();
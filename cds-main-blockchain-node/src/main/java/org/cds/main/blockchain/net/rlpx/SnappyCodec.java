@@ -24,9 +24,15 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
 
     private final static int SNAPPY_P2P_VERSION = 5;
     private final static int MAX_SIZE = 16 * 1024 * 1024; // 16 mb
+    // larger compression buffers are not kept between the frames
+    private final static int MAX_KEPT_BUFFER = 1024 * 1024;
 
     Channel channel;
 
+    // compression output reused across the frames: the frame is encrypted by the FrameCodecHandler
+    // synchronously within the same write, before the next frame is compressed
+    private byte[] compressBuffer = new byte[0];
+
     public SnappyCodec(Channel channel) {
         this.channel = channel;
     }
@@ -45,21 +51,41 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
             return;
         }
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
+        if (msg.message != null) {
+            // the same message broadcast to many peers is compressed once
+            out.add(new FrameCodec.Frame((int) msg.type, msg.message.getCompressed()));
+            return;
+        }
 
-        byte[] compressed = Snappy.rawCompress(in, in.length);
+        byte[] in = msg.data;
+        int inOffset = msg.offset;
+        if (in == null) {
+            in = msg.getPayloadArray();
+            inOffset = 0;
+        }
 
-        out.add(new FrameCodec.Frame((int) msg.type, compressed));
+        int maxLength = Snappy.maxCompressedLength(msg.size);
+        byte[] buffer = compressBuffer;
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            if (maxLength <= MAX_KEPT_BUFFER) compressBuffer = buffer;
+        }
+        int compressedLength = Snappy.rawCompress(in, inOffset, msg.size, buffer, 0);
+
+        out.add(new FrameCodec.Frame(msg.type, buffer, 0, compressedLength));
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, FrameCodec.Frame msg, List<Object> out) throws Exception {
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
+        byte[] in = msg.data;
+        int inOffset = msg.offset;
+        if (in == null) {
+            in = msg.getPayloadArray();
+            inOffset = 0;
+        }
 
-        long uncompressedLength = Snappy.uncompressedLength(in) & 0xFFFFFFFFL;
+        long uncompressedLength = Snappy.uncompressedLength(in, inOffset, msg.size) & 0xFFFFFFFFL;
         if (uncompressedLength > MAX_SIZE) {
             logger.info("{}: uncompressed frame size exceeds the limit ({} bytes), drop the peer", channel, uncompressedLength);
             channel.disconnect(ReasonCode.BAD_PROTOCOL);
@@ -68,7 +94,7 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
 
         byte[] uncompressed = new byte[(int) uncompressedLength];
         try {
-            Snappy.rawUncompress(in, 0, in.length, uncompressed, 0);
+            Snappy.rawUncompress(in, inOffset, msg.size, uncompressed, 0);
         } catch (IOException e) {
             String detailMessage = e.getMessage();
             // 5 - error code for framed snappy
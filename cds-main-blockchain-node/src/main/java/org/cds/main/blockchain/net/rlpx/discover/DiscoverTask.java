@@ -1,85 +1,85 @@
 package org.cds.main.blockchain.net.rlpx.discover;
 
-import io.netty.buffer.Unpooled;
-import io.netty.channel.Channel;
-import io.netty.channel.socket.DatagramPacket;
-
-import org.cds.main.blockchain.crypto.ECKey;
-import org.cds.main.blockchain.net.rlpx.FindNodeMessage;
-import org.cds.main.blockchain.net.rlpx.Message;
 import org.cds.main.blockchain.net.rlpx.Node;
 import org.cds.main.blockchain.net.rlpx.discover.table.KademliaOptions;
 import org.cds.main.blockchain.net.rlpx.discover.table.NodeEntry;
-import org.cds.main.blockchain.net.rlpx.discover.table.NodeTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetSocketAddress;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterative lookup of the nodes closest to the target.
+ *
+ * Every round sends FindNode to {@link KademliaOptions#ALPHA} closest not yet asked nodes at once,
+ * the next round is scheduled after {@link KademliaOptions#LOOKUP_ROUND_DELAY} when the nodes
+ * from the Neighbours responses have answered our Pings and got into the table.
+ * No thread is blocked while waiting, so a number of lookups run concurrently on the executor
+ */
 public class DiscoverTask implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger("discover");
 
     NodeManager nodeManager;
 
+    ScheduledExecutorService executor;
+
     byte[] nodeId;
 
-    public DiscoverTask(NodeManager nodeManager) {
+    public DiscoverTask(NodeManager nodeManager, ScheduledExecutorService executor) {
         this.nodeManager = nodeManager;
+        this.executor = executor;
         nodeId = nodeManager.homeNode.getId();
     }
 
     @Override
     public void run() {
-        discover(nodeId, 0, new ArrayList<Node>());
+        discover(nodeId, 0, new HashSet<>());
     }
 
-    public synchronized void discover(byte[] nodeId, int round, List<Node> prevTried) {
+    public void discover(byte[] nodeId, int round, Set<Node> tried) {
 
         try {
-//        if (!channel.isOpen() || round == KademliaOptions.MAX_STEPS) {
-//            logger.info("{}", String.format("Nodes discovered %d ", table.getAllNodes().size()));
-//            return;
-//        }
-
             if (round == KademliaOptions.MAX_STEPS) {
                 logger.debug("Node table contains [{}] peers", nodeManager.getTable().getNodesCount());
                 logger.debug("{}", String.format("(KademliaOptions.MAX_STEPS) Terminating discover after %d rounds.", round));
-                logger.trace("{}\n{}", String.format("Nodes discovered %d ", nodeManager.getTable().getNodesCount()), dumpNodes());
+                if (logger.isTraceEnabled()) {
+                    logger.trace("{}\n{}", String.format("Nodes discovered %d ", nodeManager.getTable().getNodesCount()), dumpNodes());
+                }
                 return;
             }
 
             List<Node> closest = nodeManager.getTable().getClosestNodes(nodeId);
-            List<Node> tried = new ArrayList<>();
+            int asked = 0;
 
             for (Node n : closest) {
-                if (!tried.contains(n) && !prevTried.contains(n)) {
+                if (tried.add(n)) {
                     try {
                         nodeManager.getNodeHandler(n).sendFindNode(nodeId);
-                        tried.add(n);
-                        Thread.sleep(50);
-                    }catch (InterruptedException e) {
+                        asked++;
                     } catch (Exception ex) {
                         logger.error("Unexpected Exception " + ex, ex);
                     }
                 }
-                if (tried.size() == KademliaOptions.ALPHA) {
+                if (asked == KademliaOptions.ALPHA) {
                     break;
                 }
             }
 
-//            channel.flush();
-
-            if (tried.isEmpty()) {
+            if (asked == 0) {
                 logger.debug("{}", String.format("(tried.isEmpty()) Terminating discover after %d rounds.", round));
-                logger.trace("{}\n{}", String.format("Nodes discovered %d ", nodeManager.getTable().getNodesCount()), dumpNodes());
+                if (logger.isTraceEnabled()) {
+                    logger.trace("{}\n{}", String.format("Nodes discovered %d ", nodeManager.getTable().getNodesCount()), dumpNodes());
+                }
                 return;
             }
 
-            tried.addAll(prevTried);
-
-            discover(nodeId, round + 1, tried);
+            if (executor.isShutdown()) return;
+            executor.schedule(() -> discover(nodeId, round + 1, tried),
+                    KademliaOptions.LOOKUP_ROUND_DELAY, TimeUnit.MILLISECONDS);
         } catch (Exception ex) {
             logger.info("{}", ex);
         }
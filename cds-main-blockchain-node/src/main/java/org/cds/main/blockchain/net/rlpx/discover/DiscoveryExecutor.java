@@ -4,32 +4,81 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.cds.main.blockchain.net.rlpx.Node;
 import org.cds.main.blockchain.net.rlpx.discover.table.KademliaOptions;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the lookups and the liveness checks of the table nodes.
+ *
+ * While the table is smaller than {@link KademliaOptions#BOOTSTRAP_NODES} the lookups
+ * are started every {@link KademliaOptions#BOOTSTRAP_CYCLE}, then every {@link KademliaOptions#DISCOVER_CYCLE}.
+ * Each cycle starts the lookup of the home node and {@link KademliaOptions#LOOKUPS} - 1 lookups
+ * of the random targets which run concurrently
+ */
 public class DiscoveryExecutor {
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger("discover");
 
-    ScheduledExecutorService discoverer = Executors.newSingleThreadScheduledExecutor();
-    ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+    ScheduledExecutorService discoverer = Executors.newScheduledThreadPool(KademliaOptions.LOOKUPS,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("discovery-%d").build());
 
     NodeManager nodeManager;
 
+    private long lastDiscover = 0;
+
     public DiscoveryExecutor(NodeManager nodeManager) {
         this.nodeManager = nodeManager;
     }
 
     public void start() {
-        discoverer.scheduleWithFixedDelay(
-                new DiscoverTask(nodeManager),
-                1, KademliaOptions.DISCOVER_CYCLE, TimeUnit.SECONDS);
+        discoverer.scheduleWithFixedDelay(() -> {
+            try {
+                discover();
+            } catch (Throwable t) {
+                logger.error("Unhandled exception", t);
+            }
+        }, 1, KademliaOptions.BOOTSTRAP_CYCLE, TimeUnit.SECONDS);
 
-        refresher.scheduleWithFixedDelay(
-                new RefreshTask(nodeManager),
+        discoverer.scheduleWithFixedDelay(
+                new RefreshTask(nodeManager, discoverer),
                 1, KademliaOptions.BUCKET_REFRESH, TimeUnit.MILLISECONDS);
 
+        discoverer.scheduleWithFixedDelay(() -> {
+            try {
+                revalidate();
+            } catch (Throwable t) {
+                logger.error("Unhandled exception", t);
+            }
+        }, KademliaOptions.REVALIDATE_CYCLE, KademliaOptions.REVALIDATE_CYCLE, TimeUnit.SECONDS);
+    }
+
+    private void discover() {
+        long now = System.currentTimeMillis();
+        boolean bootstrap = nodeManager.getTable().getNodesCount() < KademliaOptions.BOOTSTRAP_NODES;
+        if (!bootstrap && now - lastDiscover < TimeUnit.SECONDS.toMillis(KademliaOptions.DISCOVER_CYCLE)) {
+            return;
+        }
+        lastDiscover = now;
+
+        new DiscoverTask(nodeManager, discoverer).run();
+        for (int i = 1; i < KademliaOptions.LOOKUPS; i++) {
+            new RefreshTask(nodeManager, discoverer).run();
+        }
+    }
+
+    /**
+     * Pings the least recently seen node of every bucket,
+     * the node which doesn't respond is dropped from the table
+     */
+    private void revalidate() {
+        for (Node node : nodeManager.getTable().getLeastRecentlySeenNodes()) {
+            nodeManager.getNodeHandler(node).revalidate();
+        }
     }
 
     public void close() {
         discoverer.shutdownNow();
-        refresher.shutdownNow();
     }
 }
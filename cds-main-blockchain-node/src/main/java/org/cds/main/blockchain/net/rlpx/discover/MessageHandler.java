@@ -4,8 +4,8 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.channel.socket.nio.NioDatagramChannel;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
@@ -20,7 +20,7 @@ public class MessageHandler extends SimpleChannelInboundHandler<DiscoveryEvent>
 
     NodeManager nodeManager;
 
-    public MessageHandler(NioDatagramChannel ch, NodeManager nodeManager) {
+    public MessageHandler(DatagramChannel ch, NodeManager nodeManager) {
         channel = ch;
         this.nodeManager = nodeManager;
     }
@@ -28,6 +28,7 @@ public class MessageHandler extends SimpleChannelInboundHandler<DiscoveryEvent>
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         nodeManager.channelActivated();
+        ctx.flush();
     }
 
     @Override
@@ -42,9 +43,13 @@ public class MessageHandler extends SimpleChannelInboundHandler<DiscoveryEvent>
     }
 
     void sendPacket(byte[] wire, InetSocketAddress address) {
-        DatagramPacket packet = new DatagramPacket(Unpooled.copiedBuffer(wire), address);
-        channel.write(packet);
-        channel.flush();
+        DatagramPacket packet = new DatagramPacket(Unpooled.wrappedBuffer(wire), address);
+        if (channel.eventLoop().inEventLoop()) {
+            // responses to the inbound packets are flushed once per batch
+            channel.write(packet);
+        } else {
+            channel.writeAndFlush(packet);
+        }
     }
 
     @Override
@@ -215,7 +215,13 @@ public class NodeHandler {
             getNodeStatistics().discoverInPong.add();
             getNodeStatistics().discoverMessageLatency.add(Util.curTime() - pingSent);
             getNodeStatistics().lastPongReplyTime.set(Util.curTime());
-            changeState(State.Alive);
+            pingTrials = 3;
+            if (state == State.Active) {
+                // liveness check passed
+                nodeManager.table.touchNode(node);
+            } else {
+                changeState(State.Alive);
+            }
         }
     }
 
@@ -252,12 +258,25 @@ public class NodeHandler {
                 changeState(State.Dead);
             } else if (state == State.EvictCandidate) {
                 changeState(State.NonActive);
+            } else if (state == State.Active) {
+                // failed the liveness check, freeing the bucket slot
+                nodeManager.table.dropNode(node);
+                changeState(State.NonActive);
             } else {
                 // TODO just influence to reputation
             }
         }
     }
 
+    /**
+     * Checks the table node is still alive, see {@link #handleTimedOut()}
+     */
+    void revalidate() {
+        if (state == State.Active && !waitForPong) {
+            sendPing();
+        }
+    }
+
     void sendPing() {
         if (waitForPong) {
             logger.trace("<=/=  [PING] (Waiting for pong) " + this);
@@ -135,20 +135,37 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         }
     }
 
+    /**
+     * Restores the nodes starting with the most reliable ones, so they are pinged
+     * and get into the table and the connection queue first
+     */
     private void dbRead() {
-        logger.info("Reading Node statistics from DB: " + peerSource.getNodes().size() + " nodes.");
+        List<Pair<Node, Integer>> nodes = new ArrayList<>();
         for (Pair<Node, Integer> nodeElement : peerSource.getNodes()) {
+            nodes.add(nodeElement);
+        }
+        logger.info("Reading Node statistics from DB: " + nodes.size() + " nodes.");
+        nodes.sort((n1, n2) -> n2.getRight().compareTo(n1.getRight()));
+        for (Pair<Node, Integer> nodeElement : CollectionUtils.truncate(nodes, MAX_NODES)) {
             getNodeHandler(nodeElement.getLeft()).getNodeStatistics().setPersistedReputation(nodeElement.getRight());
         }
     }
 
+    /**
+     * Stores up to {@link #MAX_NODES} most reliable nodes and the nodes of the table
+     */
     private void dbWrite() {
         List<Pair<Node, Integer>> batch = new ArrayList<>();
         synchronized (this) {
             for (NodeHandler handler : nodeHandlerMap.values()) {
-                batch.add(Pair.of(handler.getNode(), handler.getNodeStatistics().getPersistedReputation()));
+                int reputation = handler.getNodeStatistics().getPersistedReputation();
+                if (reputation > 0 || handler.getState() == NodeHandler.State.Active) {
+                    batch.add(Pair.of(handler.getNode(), reputation));
+                }
             }
         }
+        batch.sort((n1, n2) -> n2.getRight().compareTo(n1.getRight()));
+        batch = CollectionUtils.truncate(batch, MAX_NODES);
         peerSource.clear();
         for (Pair<Node, Integer> nodeElement : batch) {
             peerSource.getNodes().add(nodeElement);
@@ -203,6 +220,9 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
             sorted.sort((o1, o2) -> o1.getNodeStatistics().getReputation() - o2.getNodeStatistics().getReputation());
 
             for (NodeHandler handler : sorted) {
+                // table nodes stay until they fail the liveness check
+                if (handler.getState() == NodeHandler.State.Active ||
+                        handler.getState() == NodeHandler.State.EvictCandidate) continue;
                 nodeHandlerMap.remove(getKey(handler.getNode()));
                 if (nodeHandlerMap.size() <= MAX_NODES) break;
             }
@@ -294,7 +314,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
 
     /**
      * Returns limited list of nodes matching {@code predicate} criteria<br>
-     * The nodes are sorted then by their totalDifficulties
+     * The nodes are sorted then by their totalDifficulties and reputation
      *
      * @param predicate only those nodes which are satisfied to its condition are included in results
      * @param limit max size of returning list
@@ -312,8 +332,11 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
                 }
             }
         }
-        filtered.sort((o1, o2) -> o2.getNodeStatistics().getEthTotalDifficulty().compareTo(
-                o1.getNodeStatistics().getEthTotalDifficulty()));
+        filtered.sort((o1, o2) -> {
+            int cmp = o2.getNodeStatistics().getEthTotalDifficulty().compareTo(
+                    o1.getNodeStatistics().getEthTotalDifficulty());
+            return cmp != 0 ? cmp : o2.getNodeStatistics().getReputation() - o1.getNodeStatistics().getReputation();
+        });
         return CollectionUtils.truncate(filtered, limit);
     }
 
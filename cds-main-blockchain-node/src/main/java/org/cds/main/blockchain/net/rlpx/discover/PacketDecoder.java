@@ -3,30 +3,183 @@ package org.cds.main.blockchain.net.rlpx.discover;
 
 import static org.cds.main.blockchain.util.ByteUtil.toHexString;
 
-import java.util.List;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.collections4.map.LRUMap;
+import org.cds.main.blockchain.db.ByteArrayWrapper;
 import org.cds.main.blockchain.net.rlpx.Message;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramPacket;
-import io.netty.handler.codec.MessageToMessageDecoder;
 
-public class PacketDecoder extends MessageToMessageDecoder<DatagramPacket> {
+/**
+ * Decodes the discovery packets into {@link DiscoveryEvent}s.
+ *
+ * The packets are decoded and their signatures are recovered on the verifier pool,
+ * then the verified events are passed down the pipeline back on the event loop in batches
+ * with a single flush of the responses per batch. Without the verifier pool the packets
+ * are decoded on the event loop.
+ *
+ * The packets over the per IP rate are dropped on the event loop before any decoding,
+ * so a flood from a single source doesn't occupy the verifiers. The rate is generous since
+ * the source address isn't authenticated and the packets spoofing a node address shouldn't
+ * get that node throttled. The repeated Pings from the same node are dropped after the verification,
+ * they are keyed on the node id recovered from the signature
+ */
+public class PacketDecoder extends SimpleChannelInboundHandler<DatagramPacket> {
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger("discover");
 
+    private static final int MAX_TRACKED_SOURCES = 4096;
+    // Pings from the endpoint within this interval are answered once, millis
+    private static final long PING_DEDUP_INTERVAL = 1000;
+    private static final byte PING_TYPE = 1;
+
+    private final ExecutorService verifier;
+    private final int maxPacketsPerIp;
+
+    // accessed from the event loop only
+    private final Map<InetAddress, RateLimit> rates = new LRUMap<>(MAX_TRACKED_SOURCES);
+    private final Map<ByteArrayWrapper, Long> lastPings = new LRUMap<>(MAX_TRACKED_SOURCES);
+
+    private final Queue<DiscoveryEvent> verified = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private long dropped = 0;
+
+    private static class RateLimit {
+        double tokens;
+        long updated;
+
+        RateLimit(int max, long now) {
+            this.tokens = max;
+            this.updated = now;
+        }
+
+        boolean tryAcquire(int max, long now) {
+            tokens = Math.min(max, tokens + (now - updated) * max / 1000d);
+            updated = now;
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    public PacketDecoder() {
+        this(null, 0);
+    }
+
+    /**
+     * @param verifier pool decoding the packets, null to decode on the event loop
+     * @param maxPacketsPerIp packets per second accepted from a single IP, 0 for unlimited
+     */
+    public PacketDecoder(ExecutorService verifier, int maxPacketsPerIp) {
+        this.verifier = verifier;
+        this.maxPacketsPerIp = maxPacketsPerIp;
+    }
+
     @Override
-    public void decode(ChannelHandlerContext ctx, DatagramPacket packet, List<Object> out) throws Exception {
+    public void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) throws Exception {
+        InetSocketAddress sender = packet.sender();
         ByteBuf buf = packet.content();
+
+        if (!acceptSource(sender)) {
+            logDropped(sender);
+            return;
+        }
+
         byte[] encoded = new byte[buf.readableBytes()];
         buf.readBytes(encoded);
+
+        if (verifier == null) {
+            DiscoveryEvent event = decode(encoded, sender);
+            if (event != null && accept(event)) ctx.fireChannelRead(event);
+            return;
+        }
+
+        try {
+            verifier.execute(() -> {
+                DiscoveryEvent event = decode(encoded, sender);
+                if (event != null) {
+                    verified.add(event);
+                    if (drainScheduled.compareAndSet(false, true)) {
+                        ctx.executor().execute(() -> drain(ctx));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the verifier is behind or shut down
+            dropped++;
+        }
+    }
+
+    /**
+     * @return false if the packet is over the source IP rate
+     */
+    private boolean acceptSource(InetSocketAddress sender) {
+        if (maxPacketsPerIp <= 0) return true;
+        long now = System.currentTimeMillis();
+        RateLimit rate = rates.get(sender.getAddress());
+        if (rate == null) {
+            rate = new RateLimit(maxPacketsPerIp, now);
+            rates.put(sender.getAddress(), rate);
+        }
+        return rate.tryAcquire(maxPacketsPerIp, now);
+    }
+
+    /**
+     * @return false if the verified packet is a repeated Ping from the node
+     */
+    private boolean accept(DiscoveryEvent event) {
+        Message msg = event.getMessage();
+        if (msg.getType()[0] != PING_TYPE) return true;
+
+        long now = System.currentTimeMillis();
+        ByteArrayWrapper nodeId = new ByteArrayWrapper(msg.getNodeId());
+        Long lastPing = lastPings.get(nodeId);
+        if (lastPing != null && now - lastPing < PING_DEDUP_INTERVAL) {
+            logDropped(event.getAddress());
+            return false;
+        }
+        lastPings.put(nodeId, now);
+        return true;
+    }
+
+    private void logDropped(InetSocketAddress sender) {
+        if (++dropped % 10000 == 1) {
+            logger.debug("Dropped {} discovery packets over the rate or repeated Pings, last from {}", dropped, sender);
+        }
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        drainScheduled.set(false);
+        DiscoveryEvent event;
+        while ((event = verified.poll()) != null) {
+            if (accept(event)) ctx.fireChannelRead(event);
+        }
+        ctx.channel().flush();
+    }
+
+    /**
+     * @return the event with the sender node id recovered or null if the packet is invalid
+     */
+    private static DiscoveryEvent decode(byte[] encoded, InetSocketAddress sender) {
         try {
             Message msg = Message.decode(encoded);
-            DiscoveryEvent event = new DiscoveryEvent(msg, packet.sender());
-            out.add(event);
+            msg.getNodeId();
+            return new DiscoveryEvent(msg, sender);
         } catch (Exception e) {
-            throw new RuntimeException("Exception processing inbound message from " + ctx.channel().remoteAddress() + ": " + toHexString(encoded), e);
+            logger.debug("Exception processing inbound message from " + sender + ": " + toHexString(encoded), e);
+            return null;
         }
     }
 }
@@ -8,14 +8,15 @@ import org.cds.main.blockchain.net.rlpx.discover.table.NodeTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class RefreshTask extends DiscoverTask {
     private static final Logger logger = LoggerFactory.getLogger("discover");
 
-    public RefreshTask(NodeManager nodeManager) {
-        super(nodeManager);
+    public RefreshTask(NodeManager nodeManager, ScheduledExecutorService executor) {
+        super(nodeManager, executor);
     }
 //
 //    RefreshTask(Channel channel, ECKey key, NodeTable table) {
@@ -31,6 +32,6 @@ public class RefreshTask extends DiscoverTask {
 
     @Override
     public void run() {
-        discover(getNodeId(), 0, new ArrayList<Node>());
+        discover(getNodeId(), 0, new HashSet<>());
     }
 }
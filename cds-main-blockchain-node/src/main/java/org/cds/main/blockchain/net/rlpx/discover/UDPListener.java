@@ -1,14 +1,17 @@
 package org.cds.main.blockchain.net.rlpx.discover;
 
 import io.netty.bootstrap.Bootstrap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cds.main.blockchain.config.SystemProperties;
 import org.cds.main.blockchain.crypto.ECKey;
 import org.cds.main.blockchain.net.rlpx.Node;
+import org.cds.main.blockchain.net.server.PeerEventLoops;
 import org.cds.main.blockchain.net.server.WireTrafficStats;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -21,12 +24,22 @@ import java.net.BindException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @Component
 public class UDPListener {
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger("discover");
 
+    // discovery packet payload is limited to 1280 bytes
+    private static final int MAX_PACKET_SIZE = 1500;
+    // datagrams read from the socket in one go
+    private static final int MAX_PACKETS_PER_READ = 64;
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_VERIFY_QUEUE = 4096;
+
     private int port;
     private String address;
     private String[] bootPeers;
@@ -43,11 +56,14 @@ public class UDPListener {
     private Channel channel;
     private volatile boolean shutdown = false;
     private DiscoveryExecutor discoveryExecutor;
+    private PeerEventLoops eventLoops;
+    private ExecutorService verifier;
 
     @Autowired
-    public UDPListener(final SystemProperties config, final NodeManager nodeManager) {
+    public UDPListener(final SystemProperties config, final NodeManager nodeManager, final PeerEventLoops eventLoops) {
         this.config = config;
         this.nodeManager = nodeManager;
+        this.eventLoops = eventLoops;
 
         this.address = config.bindIp();
         port = config.listenPort();
@@ -87,7 +103,15 @@ public class UDPListener {
     public void start(String[] args) throws Exception {
 
         logger.info("Discovery UDPListener started");
-        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        EventLoopGroup group = eventLoops != null ? eventLoops.newDiscoveryGroup() : new NioEventLoopGroup(1);
+        int maxPacketsPerIp = config.peerDiscoveryMaxPacketsPerIp();
+        int verifyThreads = config.peerDiscoveryVerifyThreads();
+        // packets over the queue are dropped rather than delaying the rest,
+        // without the verifier threads the packets are verified on the event loop
+        verifier = verifyThreads <= 0 ? null : new ThreadPoolExecutor(verifyThreads, verifyThreads, 0L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_VERIFY_QUEUE),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("discovery-verifier-%d").build(),
+                new ThreadPoolExecutor.AbortPolicy());
 
         final List<Node> bootNodes = new ArrayList<>();
 
@@ -109,13 +133,16 @@ public class UDPListener {
             while (!shutdown) {
                 Bootstrap b = new Bootstrap();
                 b.group(group)
-                        .channel(NioDatagramChannel.class)
-                        .handler(new ChannelInitializer<NioDatagramChannel>() {
+                        .channel(eventLoops != null ? eventLoops.datagramChannelClass() : NioDatagramChannel.class)
+                        .option(ChannelOption.RCVBUF_ALLOCATOR,
+                                new FixedRecvByteBufAllocator(MAX_PACKET_SIZE).maxMessagesPerRead(MAX_PACKETS_PER_READ))
+                        .option(ChannelOption.SO_RCVBUF, RECEIVE_BUFFER_SIZE)
+                        .handler(new ChannelInitializer<DatagramChannel>() {
                             @Override
-                            public void initChannel(NioDatagramChannel ch)
+                            public void initChannel(DatagramChannel ch)
                                     throws Exception {
                                 ch.pipeline().addLast(stats.udp);
-                                ch.pipeline().addLast(new PacketDecoder());
+                                ch.pipeline().addLast(new PacketDecoder(verifier, maxPacketsPerIp));
                                 MessageHandler messageHandler = new MessageHandler(ch, nodeManager);
                                 nodeManager.setMessageSender(messageHandler);
                                 ch.pipeline().addLast(messageHandler);
@@ -140,6 +167,9 @@ public class UDPListener {
             }
         } finally {
             group.shutdownGracefully().sync();
+            if (verifier != null) {
+                verifier.shutdownNow();
+            }
         }
     }
 
@@ -9,4 +9,10 @@ public class KademliaOptions {
     public static final long REQ_TIMEOUT = 300;
     public static final long BUCKET_REFRESH = 7200;     //bucket refreshing interval in millis
     public static final long DISCOVER_CYCLE = 30;       //discovery cycle interval in seconds
+
+    public static final int LOOKUPS = 3;                //number of concurrent lookups
+    public static final long LOOKUP_ROUND_DELAY = 500;  //wait for the Neighbours and the Pongs of the round in millis
+    public static final int BOOTSTRAP_NODES = 64;       //table size below which the lookups run every BOOTSTRAP_CYCLE
+    public static final long BOOTSTRAP_CYCLE = 1;       //discovery cycle interval while bootstrapping in seconds
+    public static final long REVALIDATE_CYCLE = 5;      //interval of pinging the least recently seen node of every bucket in seconds
 }
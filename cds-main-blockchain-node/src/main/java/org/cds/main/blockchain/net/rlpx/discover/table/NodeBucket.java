@@ -20,7 +20,7 @@ public class NodeBucket {
     public synchronized NodeEntry addNode(NodeEntry e) {
         if (!nodes.contains(e)) {
             if (nodes.size() >= KademliaOptions.BUCKET_SIZE) {
-                return getLastSeen();
+                return getLeastRecentlySeen();
             } else {
                 nodes.add(e);
             }
@@ -29,10 +29,11 @@ public class NodeBucket {
         return null;
     }
 
-    private NodeEntry getLastSeen() {
-        List<NodeEntry> sorted = nodes;
-        Collections.sort(sorted, new TimeComparator());
-        return sorted.get(0);
+    /**
+     * @return the node to be challenged by a newcomer or checked for liveness, null if the bucket is empty
+     */
+    public synchronized NodeEntry getLeastRecentlySeen() {
+        return nodes.isEmpty() ? null : Collections.max(nodes, new TimeComparator());
     }
 
     public synchronized void dropNode(NodeEntry entry) {
@@ -81,6 +81,20 @@ public class NodeTable {
         }
     }
 
+    /**
+     * @return the least recently seen node of every non empty bucket
+     */
+    public synchronized List<Node> getLeastRecentlySeenNodes() {
+        List<Node> ret = new ArrayList<>();
+        for (NodeBucket b : buckets) {
+            NodeEntry e = b.getLeastRecentlySeen();
+            if (e != null && !e.getNode().equals(node)) {
+                ret.add(e.getNode());
+            }
+        }
+        return ret;
+    }
+
     public int getBucketsCount() {
         int i = 0;
         for (NodeBucket b : buckets) {
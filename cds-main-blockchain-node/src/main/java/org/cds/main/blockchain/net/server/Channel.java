@@ -17,8 +17,11 @@ import org.cds.main.blockchain.net.eth.handler.Eth;
 import org.cds.main.blockchain.net.eth.handler.EthAdapter;
 import org.cds.main.blockchain.net.eth.handler.EthHandler;
 import org.cds.main.blockchain.net.eth.handler.EthHandlerFactory;
+import org.cds.main.blockchain.net.eth.message.CompactBlockMessage;
 import org.cds.main.blockchain.net.eth.message.Eth62MessageFactory;
 import org.cds.main.blockchain.net.eth.message.Eth63MessageFactory;
+import org.cds.main.blockchain.net.eth.message.Eth64MessageFactory;
+import org.cds.main.blockchain.net.eth.message.EthMessage;
 import org.cds.main.blockchain.net.message.MessageFactory;
 import org.cds.main.blockchain.net.message.ReasonCode;
 import org.cds.main.blockchain.net.message.StaticMessages;
@@ -34,6 +37,7 @@ import org.cds.main.blockchain.net.swarm.bzz.BzzHandler;
 import org.cds.main.blockchain.net.swarm.bzz.BzzMessageFactory;
 import org.cds.main.blockchain.sync.SyncStatistics;
 import org.cds.main.blockchain.util.CollectionUtils;
+import org.cds.main.blockchain.util.RollingBloomFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,6 +47,7 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -104,6 +109,9 @@ public class Channel {
 
     public static final int MAX_SAFE_TXS = 192;
 
+    // transactions the peer sent us or we sent to it, they are not gossiped to the peer again
+    private final RollingBloomFilter knownTxs = new RollingBloomFilter(8192, 3);
+
     public void init(ChannelPipeline pipeline, String remoteId, boolean discoveryMode, ChannelManager channelManager) {
         this.channelManager = channelManager;
         this.remoteId = remoteId;
@@ -200,6 +208,7 @@ public class Channel {
         switch (version) {
             case V62:   return new Eth62MessageFactory();
             case V63:   return new Eth63MessageFactory();
+            case V64:   return new Eth64MessageFactory();
             default:    throw new IllegalArgumentException("Eth " + version + " is not supported");
         }
     }
@@ -306,6 +315,13 @@ public class Channel {
         return peerStats;
     }
 
+    /**
+     * @return the session score of the peer, zero if the node reputation is penalized (e.g. wrong fork)
+     */
+    public double getScore() {
+        return getNodeStatistics().isReputationPenalized() ? 0 : peerStats.getScore();
+    }
+
     // ETH sub protocol
 
     public void fetchBlockBodies(List<BlockHeaderWrapper> headers) {
@@ -362,7 +378,10 @@ public class Channel {
      * @param txs   Transactions
      */
     public void sendTransactions(List<Transaction> txs) {
-        eth.sendTransaction(txs);
+        List<Transaction> unknown = filterKnownTxs(txs);
+        if (!unknown.isEmpty()) {
+            eth.sendTransaction(unknown);
+        }
     }
 
     /**
@@ -371,15 +390,43 @@ public class Channel {
      * @param txs   List of txs to send
      */
     public void sendTransactionsCapped(List<Transaction> txs) {
+        List<Transaction> unknown = filterKnownTxs(txs);
+        if (unknown.isEmpty()) return;
         List<Transaction> slicedTxs;
-        if (txs.size() <= MAX_SAFE_TXS) {
-            slicedTxs = txs;
+        if (unknown.size() <= MAX_SAFE_TXS) {
+            slicedTxs = unknown;
         } else {
-            slicedTxs = CollectionUtils.truncateRand(txs, MAX_SAFE_TXS);
+            slicedTxs = CollectionUtils.truncateRand(unknown, MAX_SAFE_TXS);
         }
         eth.sendTransaction(slicedTxs);
     }
 
+    /**
+     * @return the transactions the peer doesn't know yet, they are marked known
+     */
+    private List<Transaction> filterKnownTxs(List<Transaction> txs) {
+        List<Transaction> ret = new ArrayList<>(txs.size());
+        for (Transaction tx : txs) {
+            if (!isTxKnown(tx)) {
+                markTxKnown(tx);
+                ret.add(tx);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return true if the peer has sent the transaction to us or we have sent it to the peer
+     * (rare false positives are possible)
+     */
+    public boolean isTxKnown(Transaction tx) {
+        return knownTxs.mightContain(tx.getHash());
+    }
+
+    public void markTxKnown(Transaction tx) {
+        knownTxs.add(tx.getHash());
+    }
+
     public void sendNewBlock(Block block) {
         eth.sendNewBlock(block);
     }
@@ -388,6 +435,24 @@ public class Channel {
         eth.sendNewBlockHashes(block);
     }
 
+    /**
+     * Sends the message shared by all the peers it is broadcast to, see {@link Eth#sendBroadcast(EthMessage)}
+     */
+    public void sendBroadcast(EthMessage msg) {
+        eth.sendBroadcast(msg);
+    }
+
+    /**
+     * Sends the shared compact block message, see {@link Eth#sendCompactBlock(CompactBlockMessage)}
+     */
+    public void sendCompactBlock(CompactBlockMessage msg) {
+        eth.sendCompactBlock(msg);
+    }
+
+    public boolean supportsCompactBlocks() {
+        return getEthVersion().getCode() >= EthVersion.V64.getCode();
+    }
+
     public EthVersion getEthVersion() {
         return eth.getVersion();
     }
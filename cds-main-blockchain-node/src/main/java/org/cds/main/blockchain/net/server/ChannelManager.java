@@ -1,14 +1,21 @@
 package org.cds.main.blockchain.net.server;
 
 import org.apache.commons.collections4.map.LRUMap;
+import org.apache.commons.lang3.tuple.Pair;
 import org.cds.main.blockchain.config.NodeFilter;
 import org.cds.main.blockchain.config.SystemProperties;
 import org.cds.main.blockchain.core.Block;
+import org.cds.main.blockchain.core.BlockIdentifier;
 import org.cds.main.blockchain.core.BlockWrapper;
 import org.cds.main.blockchain.core.PendingState;
 import org.cds.main.blockchain.core.Transaction;
+import org.cds.main.blockchain.db.BlockStore;
 import org.cds.main.blockchain.db.ByteArrayWrapper;
 import org.cds.main.blockchain.facade.Ethereum;
+import org.cds.main.blockchain.net.eth.message.CompactBlockMessage;
+import org.cds.main.blockchain.net.eth.message.NewBlockHashesMessage;
+import org.cds.main.blockchain.net.eth.message.NewBlockMessage;
+import org.cds.main.blockchain.net.eth.message.TransactionsMessage;
 import org.cds.main.blockchain.net.message.ReasonCode;
 import org.cds.main.blockchain.net.rlpx.Node;
 import org.cds.main.blockchain.sync.SyncManager;
@@ -18,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import static java.util.Collections.singletonList;
 import static org.cds.main.blockchain.net.message.ReasonCode.DUPLICATE_PEER;
 import static org.cds.main.blockchain.net.message.ReasonCode.TOO_MANY_PEERS;
 
@@ -38,6 +46,8 @@ public class ChannelManager {
     private List<Channel> newPeers = new CopyOnWriteArrayList<>();
     // Limiting number of new peers to avoid delays in processing
     private static final int MAX_NEW_PEERS = 128;
+    // transactions gossip is collected for that long and sent to the peers in batches [ms]
+    private static final int TX_BROADCAST_INTERVAL = 100;
     private final Map<ByteArrayWrapper, Channel> activePeers = new ConcurrentHashMap<>();
 
     private ScheduledExecutorService mainWorker = Executors.newSingleThreadScheduledExecutor();
@@ -50,6 +60,11 @@ public class ChannelManager {
      */
     private BlockingQueue<BlockWrapper> newForeignBlocks = new LinkedBlockingQueue<>();
 
+    /**
+     * Transactions to be gossiped on the next broadcast with the peers they were received from
+     */
+    private final Queue<Pair<List<Transaction>, Channel>> pendingTxBroadcasts = new ConcurrentLinkedQueue<>();
+
     /**
      * Queue with new peers used for after channel init tasks
      */
@@ -58,8 +73,6 @@ public class ChannelManager {
     private Thread blockDistributeThread;
     private Thread txDistributeThread;
 
-    Random rnd = new Random();  // Used for distributing new blocks / hashes logic
-
     @Autowired
     SyncPool syncPool;
 
@@ -69,6 +82,9 @@ public class ChannelManager {
     @Autowired
     private PendingState pendingState;
 
+    @Autowired
+    private BlockStore blockStore;
+
     private SystemProperties config;
 
     private SyncManager syncManager;
@@ -90,6 +106,13 @@ public class ChannelManager {
                 logger.error("Error", t);
             }
         }, 0, 1, TimeUnit.SECONDS);
+        mainWorker.scheduleWithFixedDelay(() -> {
+            try {
+                broadcastPendingTxs();
+            } catch (Throwable t) {
+                logger.error("Error broadcasting transactions", t);
+            }
+        }, TX_BROADCAST_INTERVAL, TX_BROADCAST_INTERVAL, TimeUnit.MILLISECONDS);
 
         if (config.listenPort() > 0) {
             new Thread(() -> peerServer.start(config.listenPort()),
@@ -139,6 +162,7 @@ public class ChannelManager {
             if (newPeers.isEmpty()) return;
 
             List<Channel> processed = new ArrayList<>();
+            Set<Channel> evicted = new HashSet<>();
             int addCnt = 0;
             for (Channel peer : newPeers) {
 
@@ -154,8 +178,17 @@ public class ChannelManager {
                                 !trustedPeers.accept(peer.getNode())) {
 
                             // restricting inbound connections unless this is a trusted peer
-
-                            noLockTasks.add(() -> disconnect(peer, TOO_MANY_PEERS));
+                            // or there is a bad scored peer to give its slot away
+                            Channel worst = getWorstEvictable(evicted);
+                            if (worst != null) {
+                                evicted.add(worst);
+                                noLockTasks.add(() -> disconnect(worst, TOO_MANY_PEERS));
+                                logger.debug("Evicting peer {} ({}) in favor of new peer", worst, worst.getPeerStats());
+                                addCnt++;
+                                process(peer);
+                            } else {
+                                noLockTasks.add(() -> disconnect(peer, TOO_MANY_PEERS));
+                            }
                         } else {
                             addCnt++;
                             process(peer);
@@ -178,6 +211,20 @@ public class ChannelManager {
         noLockTasks.forEach(Runnable::run);
     }
 
+    /**
+     * @return active peer with the lowest score which is bad enough to be replaced, or null
+     */
+    private Channel getWorstEvictable(Set<Channel> exclude) {
+        Channel worst = null;
+        for (Channel channel : activePeers.values()) {
+            if (exclude.contains(channel) || trustedPeers.accept(channel.getNode())) continue;
+            if (worst == null || channel.getScore() < worst.getScore()) {
+                worst = channel;
+            }
+        }
+        return worst != null && worst.getScore() < PeerStatistics.BAD_SCORE ? worst : null;
+    }
+
     public void disconnect(Channel peer, ReasonCode reason) {
         logger.debug("Disconnecting peer with reason " + reason + ": " + peer);
         peer.disconnect(reason);
@@ -231,13 +278,59 @@ public class ChannelManager {
      *                     the transactions were originated by this peer
      */
     public void sendTransaction(List<Transaction> txs, Channel receivedFrom) {
+        pendingTxBroadcasts.add(Pair.of(txs, receivedFrom));
+    }
+
+    /**
+     * Sends the transactions collected since the last call to every peer which doesn't know them yet.
+     * Peers missing the same transactions share the same messages
+     */
+    private void broadcastPendingTxs() {
+        List<Transaction> txs = new ArrayList<>();
+        List<Channel> receivedFrom = new ArrayList<>();
+        Set<ByteArrayWrapper> unique = new HashSet<>();
+        Pair<List<Transaction>, Channel> pending;
+        while ((pending = pendingTxBroadcasts.poll()) != null) {
+            for (Transaction tx : pending.getLeft()) {
+                if (unique.add(new ByteArrayWrapper(tx.getHash()))) {
+                    txs.add(tx);
+                    receivedFrom.add(pending.getRight());
+                }
+            }
+        }
+        if (txs.isEmpty()) return;
+
+        Map<BitSet, List<TransactionsMessage>> messages = new HashMap<>();
         for (Channel channel : activePeers.values()) {
-            if (channel != receivedFrom) {
-                channel.sendTransactionsCapped(txs);
+            BitSet toSend = new BitSet(txs.size());
+            for (int i = 0; i < txs.size(); i++) {
+                if (receivedFrom.get(i) != channel && !channel.isTxKnown(txs.get(i))) {
+                    channel.markTxKnown(txs.get(i));
+                    toSend.set(i);
+                }
+            }
+            if (toSend.isEmpty()) continue;
+            for (TransactionsMessage msg : messages.computeIfAbsent(toSend, s -> txMessages(txs, s))) {
+                channel.sendBroadcast(msg);
             }
         }
     }
 
+    private static List<TransactionsMessage> txMessages(List<Transaction> txs, BitSet selected) {
+        List<TransactionsMessage> ret = new ArrayList<>();
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            batch.add(txs.get(i));
+            if (batch.size() == Channel.MAX_SAFE_TXS || selected.nextSetBit(i + 1) < 0) {
+                TransactionsMessage msg = new TransactionsMessage(batch);
+                msg.getEncoded(); // encode before the message is shared by the peer threads
+                ret.add(msg);
+                batch = new ArrayList<>();
+            }
+        }
+        return ret;
+    }
+
     /**
      * Propagates the new block message across active peers
      * Suitable only for self-mined blocks
@@ -245,8 +338,16 @@ public class ChannelManager {
      * @param block  new Block to be sent
      */
     public void sendNewBlock(Block block) {
+        NewBlockMessage msg = null;
+        CompactBlockMessage compactMsg = null;
         for (Channel channel : activePeers.values()) {
-            channel.sendNewBlock(block);
+            if (channel.supportsCompactBlocks()) {
+                if (compactMsg == null) compactMsg = CompactBlockMessage.create(block, blockStore);
+                channel.sendCompactBlock(compactMsg);
+            } else {
+                if (msg == null) msg = NewBlockMessage.create(block, blockStore);
+                channel.sendBroadcast(msg);
+            }
         }
     }
 
@@ -308,17 +409,40 @@ public class ChannelManager {
     /**
      * Propagates the new block message across active peers with exclusion of
      * 'receivedFrom' peer.
-     * Distributes full block to 30% of peers and only its hash to remains
+     * Distributes compact block to the peers supporting it,
+     * full block to 30% of the other peers with the best score and only its hash to remains
      * @param block  new Block to be sent
      * @param receivedFrom the peer which sent original message
      */
     private void sendNewBlock(Block block, Channel receivedFrom) {
+        // the messages are built once and shared by the peers
+        CompactBlockMessage compactMsg = null;
+        NewBlockMessage blockMsg = null;
+        NewBlockHashesMessage hashesMsg = null;
+        List<Channel> others = new ArrayList<>();
         for (Channel channel : activePeers.values()) {
             if (channel == receivedFrom) continue;
-            if (rnd.nextInt(10) < 3) {  // 30%
-                channel.sendNewBlock(block);
+            if (channel.supportsCompactBlocks()) {
+                if (compactMsg == null) compactMsg = CompactBlockMessage.create(block, blockStore);
+                channel.sendCompactBlock(compactMsg);
+            } else {
+                others.add(channel);
+            }
+        }
+
+        others.sort((c1, c2) -> Double.compare(c2.getScore(), c1.getScore()));
+        int fullCount = others.isEmpty() ? 0 : Math.max(1, others.size() * 3 / 10);
+        for (int i = 0; i < others.size(); i++) {
+            Channel channel = others.get(i);
+            if (i < fullCount) {        // 30%
+                if (blockMsg == null) blockMsg = NewBlockMessage.create(block, blockStore);
+                channel.sendBroadcast(blockMsg);
             } else {                    // 70%
-                channel.sendNewBlockHashes(block);
+                if (hashesMsg == null) {
+                    hashesMsg = new NewBlockHashesMessage(singletonList(new BlockIdentifier(block.getHash(), block.getNumber())));
+                    hashesMsg.getEncoded();
+                }
+                channel.sendBroadcast(hashesMsg);
             }
         }
     }
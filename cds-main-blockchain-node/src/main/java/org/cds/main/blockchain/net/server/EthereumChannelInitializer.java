@@ -1,8 +1,9 @@
 package org.cds.main.blockchain.net.server;
 
 import io.netty.channel.*;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.socket.SocketChannel;
 
+import org.cds.main.blockchain.config.SystemProperties;
 import org.cds.main.blockchain.net.rlpx.discover.NodeManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,7 +14,7 @@ import org.springframework.stereotype.Component;
 
 @Component
 @Scope("prototype")
-public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChannel> {
+public class EthereumChannelInitializer extends ChannelInitializer<SocketChannel> {
 
     private static final Logger logger = LoggerFactory.getLogger("net");
 
@@ -26,6 +27,9 @@ public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChan
     @Autowired
     NodeManager nodeManager;
 
+    @Autowired
+    SystemProperties config;
+
     private String remoteId;
 
     private boolean peerDiscoveryMode = false;
@@ -35,7 +39,7 @@ public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChan
     }
 
     @Override
-    public void initChannel(NioSocketChannel ch) throws Exception {
+    public void initChannel(SocketChannel ch) throws Exception {
         try {
             if (!peerDiscoveryMode) {
                 logger.debug("Open {} connection, channel: {}", isInbound() ? "inbound" : "outbound", ch.toString());
@@ -56,7 +60,7 @@ public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChan
 
             // limit the size of receiving buffer to 1024
             ch.config().setRecvByteBufAllocator(new FixedRecvByteBufAllocator(256 * 1024));
-            ch.config().setOption(ChannelOption.SO_RCVBUF, 256 * 1024);
+            ch.config().setOption(ChannelOption.SO_RCVBUF, config.peerNettyReceiveBuffer());
             ch.config().setOption(ChannelOption.SO_BACKLOG, 1024);
 
             // be aware of channel closing
@@ -76,7 +80,7 @@ public class EthereumChannelInitializer extends ChannelInitializer<NioSocketChan
      * @param ch    Channel
      * @return true if we should refuse this connection, otherwise false
      */
-    private boolean notEligibleForIncomingConnection(NioSocketChannel ch) {
+    private boolean notEligibleForIncomingConnection(SocketChannel ch) {
         if(!isInbound()) return false;
         // For incoming connection drop if..
         
@@ -0,0 +1,161 @@
+package org.cds.main.blockchain.net.server;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import org.cds.main.blockchain.config.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Netty transport and event loops of the peer connections, configured in the 'peer.netty' section.
+ *
+ * The native epoll transport is used when enabled and available (Linux), NIO otherwise.
+ * By default the inbound and outbound peers are served by one shared event loop group
+ * which is shut down by {@link #close()}, the separate groups are released by their users
+ */
+@Component
+public class PeerEventLoops {
+
+    private static final Logger logger = LoggerFactory.getLogger("net");
+
+    private final SystemProperties config;
+    private final boolean epoll;
+
+    private EventLoopGroup sharedGroup;
+
+    @Autowired
+    public PeerEventLoops(final SystemProperties config) {
+        this.config = config;
+        if (config.peerNettyEpoll() && !Epoll.isAvailable()) {
+            logger.info("Native epoll transport is not available, falling back to NIO: {}", Epoll.unavailabilityCause().toString());
+        }
+        this.epoll = config.peerNettyEpoll() && Epoll.isAvailable();
+        logger.info("Peer transport: {}, {} event loop group", epoll ? "epoll" : "NIO",
+                config.peerNettySharedEventLoop() ? "shared" : "separate inbound and outbound");
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public EventLoopGroup newBossGroup() {
+        return newGroup(1, "PeerServerBoss");
+    }
+
+    /**
+     * Single thread group of the discovery UDP socket, released by its user
+     */
+    public EventLoopGroup newDiscoveryGroup() {
+        return newGroup(1, "DiscoveryUDP");
+    }
+
+    public synchronized EventLoopGroup inboundGroup() {
+        return config.peerNettySharedEventLoop() ? sharedGroup() : newGroup(config.peerNettyThreads(), "PeerServerWorker");
+    }
+
+    public synchronized EventLoopGroup outboundGroup() {
+        return config.peerNettySharedEventLoop() ? sharedGroup() : newGroup(config.peerNettyThreads(), "EthJClientWorker");
+    }
+
+    private EventLoopGroup sharedGroup() {
+        if (sharedGroup == null) {
+            sharedGroup = newGroup(config.peerNettyThreads(), "PeerWorker");
+        }
+        return sharedGroup;
+    }
+
+    /**
+     * Shuts the group down unless it is the shared one
+     */
+    public synchronized void release(EventLoopGroup group) {
+        if (group != null && group != sharedGroup) {
+            group.shutdownGracefully();
+        }
+    }
+
+    public synchronized void close() {
+        if (sharedGroup != null) {
+            logger.info("Shutting down shared peer event loop group");
+            sharedGroup.shutdownGracefully();
+            sharedGroup.terminationFuture().syncUninterruptibly();
+            sharedGroup = null;
+        }
+    }
+
+    public Class<? extends SocketChannel> socketChannelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends DatagramChannel> datagramChannelClass() {
+        return epoll ? EpollDatagramChannel.class : NioDatagramChannel.class;
+    }
+
+    /**
+     * Sets the transport and the peer socket options of the outbound connections
+     */
+    public Bootstrap configure(Bootstrap b) {
+        b.channel(socketChannelClass());
+        b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        b.option(ChannelOption.TCP_NODELAY, config.peerNettyTcpNoDelay());
+        b.option(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark());
+        if (config.peerNettySendBuffer() > 0) {
+            b.option(ChannelOption.SO_SNDBUF, config.peerNettySendBuffer());
+        }
+        return b;
+    }
+
+    /**
+     * Sets the transport and the peer socket options of the inbound connections
+     */
+    public ServerBootstrap configure(ServerBootstrap b) {
+        b.channel(serverSocketChannelClass());
+        b.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        b.childOption(ChannelOption.TCP_NODELAY, config.peerNettyTcpNoDelay());
+        b.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark());
+        if (config.peerNettySendBuffer() > 0) {
+            b.childOption(ChannelOption.SO_SNDBUF, config.peerNettySendBuffer());
+        }
+        return b;
+    }
+
+    private WriteBufferWaterMark writeBufferWaterMark() {
+        return new WriteBufferWaterMark(config.peerNettyWriteBufferLowWaterMark(), config.peerNettyWriteBufferHighWaterMark());
+    }
+
+    private EventLoopGroup newGroup(int threads, final String name) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            AtomicInteger cnt = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name + "-" + cnt.getAndIncrement());
+            }
+        };
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+}
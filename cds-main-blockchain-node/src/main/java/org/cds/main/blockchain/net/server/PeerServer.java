@@ -5,8 +5,6 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LoggingHandler;
 
 import static org.cds.main.blockchain.util.ByteUtil.toHexString;
@@ -36,6 +34,8 @@ public class PeerServer {
 
     private EthereumListener ethereumListener;
 
+    private PeerEventLoops eventLoops;
+
     public EthereumChannelInitializer ethereumChannelInitializer;
 
     private boolean listening;
@@ -46,16 +46,17 @@ public class PeerServer {
 
     @Autowired
     public PeerServer(final SystemProperties config, final ApplicationContext ctx,
-                      final EthereumListener ethereumListener) {
+                      final EthereumListener ethereumListener, final PeerEventLoops eventLoops) {
         this.ctx = ctx;
         this.config = config;
         this.ethereumListener = ethereumListener;
+        this.eventLoops = eventLoops;
     }
 
     public void start(int port) {
 
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        bossGroup = eventLoops.newBossGroup();
+        workerGroup = eventLoops.inboundGroup();
 
         ethereumChannelInitializer = ctx.getBean(EthereumChannelInitializer.class, "");
 
@@ -66,7 +67,7 @@ public class PeerServer {
             ServerBootstrap b = new ServerBootstrap();
 
             b.group(bossGroup, workerGroup);
-            b.channel(NioServerSocketChannel.class);
+            eventLoops.configure(b);
 
             b.option(ChannelOption.SO_KEEPALIVE, true);
             b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -90,7 +91,7 @@ public class PeerServer {
             logger.error("Peer server error: {} ({})", e.getMessage(), e.getClass().getName());
             throw new Error("Server Disconnected");
         } finally {
-            workerGroup.shutdownGracefully();
+            eventLoops.release(workerGroup);
             bossGroup.shutdownGracefully();
             listening = false;
         }
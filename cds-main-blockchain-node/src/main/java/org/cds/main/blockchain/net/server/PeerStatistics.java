@@ -1,16 +1,141 @@
 package org.cds.main.blockchain.net.server;
 
+import org.cds.main.blockchain.sync.AdaptiveRequestStats;
+import org.cds.main.blockchain.sync.BlockDownloader;
+
+/**
+ * Session statistics of the peer connection and the score derived from them.
+ *
+ * The score rewards the blocks the peer has delivered first and its measured
+ * sync bandwidth, and penalizes latency, overdue requests and invalid data.
+ * It starts at {@link #INITIAL_SCORE} so the new peers get their chance,
+ * see {@link Channel#getScore()} for the score combined with the node reputation.
+ * The block body responses also drive the size of the GetBlockBodies requests to the peer
+ */
 public class PeerStatistics {
 
+    public static final double INITIAL_SCORE = 100;
+    // peers below that score are neither used for sync nor kept when the slots are full
+    public static final double BAD_SCORE = 20;
+
+    // weight of the latest sample in the moving averages
+    private static final double ALPHA = 0.2;
+
+    // GetBlockBodies request sizing, see AdaptiveRequestStats
+    private static final int BODIES_MIN_BATCH = 8;
+    private static final int BODIES_INITIAL_BATCH = 64;
+    private static final int BODIES_MAX_PIPELINE = 3;
+    private static final long BODIES_TARGET_RTT = 2000;
+
+    private final AdaptiveRequestStats bodiesStats = new AdaptiveRequestStats(BODIES_MIN_BATCH,
+            BlockDownloader.MAX_IN_REQUEST, BODIES_INITIAL_BATCH, BODIES_MAX_PIPELINE, BODIES_TARGET_RTT);
+
     private double avgLatency = 0;
     private long pingCount = 0;
 
-    public void pong(long pingStamp) {
+    private double responseTime = 0;
+    private double itemsPerSecond = 0;
+    private long responses = 0;
+    private long usefulBlocks = 0;
+    private long timeouts = 0;
+    // share of the recent requests which were overdue or failed
+    private double failureRate = 0;
+    private long invalid = 0;
+
+    public synchronized void pong(long pingStamp) {
         long latency = System.currentTimeMillis() - pingStamp;
         avgLatency = ((avgLatency * pingCount) + latency) / ++pingCount;
     }
 
-    public double getAvgLatency() {
+    public synchronized double getAvgLatency() {
         return avgLatency;
     }
+
+    /**
+     * Peer has served the headers or blocks request
+     * @param items number of headers or blocks received
+     */
+    public synchronized void onResponse(int items, long rttMillis) {
+        rttMillis = Math.max(1, rttMillis);
+        double rate = items * 1000d / rttMillis;
+        if (responses++ == 0) {
+            responseTime = rttMillis;
+            itemsPerSecond = rate;
+        } else {
+            responseTime = responseTime * (1 - ALPHA) + rttMillis * ALPHA;
+            itemsPerSecond = itemsPerSecond * (1 - ALPHA) + rate * ALPHA;
+        }
+        failureRate = failureRate * (1 - ALPHA);
+    }
+
+    /**
+     * Peer has served the GetBlockBodies request
+     * @param requested number of block bodies requested
+     * @param received number of block bodies received
+     */
+    public synchronized void onBodiesResponse(int requested, int received, long rttMillis) {
+        onResponse(received, rttMillis);
+        bodiesStats.onResponse(requested, received, rttMillis);
+    }
+
+    /**
+     * Peer GetBlockBodies request is overdue or failed
+     */
+    public synchronized void onBodiesFailure() {
+        onTimeout();
+        bodiesStats.onFailure();
+    }
+
+    /**
+     * @return sizing of the GetBlockBodies requests to the peer
+     */
+    public AdaptiveRequestStats getBodiesStats() {
+        return bodiesStats;
+    }
+
+    /**
+     * Peer has delivered the blocks we didn't have yet
+     */
+    public synchronized void onUsefulBlocks(int count) {
+        usefulBlocks += count;
+    }
+
+    /**
+     * Peer request is overdue or failed
+     */
+    public synchronized void onTimeout() {
+        timeouts++;
+        failureRate = failureRate * (1 - ALPHA) + ALPHA;
+    }
+
+    /**
+     * Peer has sent the data failed validation
+     */
+    public synchronized void onInvalidData() {
+        invalid++;
+    }
+
+    public synchronized double getScore() {
+        double score = INITIAL_SCORE;
+        score += Math.min(usefulBlocks, 1000) / 10d;
+        score += Math.min(itemsPerSecond, 500) / 5;
+        score -= Math.min(Math.max(avgLatency, responseTime) / 50, 100);
+        score -= failureRate * 100;
+        score -= invalid * 50;
+        return Math.max(0, score);
+    }
+
+    public synchronized long getUsefulBlocks() {
+        return usefulBlocks;
+    }
+
+    public synchronized long getInvalid() {
+        return invalid;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("score: %.0f, useful blocks: %d, %.0f items/s, response %.0f ms, timeouts: %d, invalid: %d",
+                getScore(), usefulBlocks, itemsPerSecond, responseTime, timeouts, invalid);
+    }
 }
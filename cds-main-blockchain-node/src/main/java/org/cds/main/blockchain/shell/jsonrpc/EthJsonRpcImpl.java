@@ -39,10 +39,10 @@ import org.cds.main.blockchain.core.BlockHeader;
 import org.cds.main.blockchain.core.BlockchainImpl;
 import org.cds.main.blockchain.core.Bloom;
 import org.cds.main.blockchain.core.CallTransaction;
+import org.cds.main.blockchain.core.LocalCallExecutor;
 import org.cds.main.blockchain.core.PendingStateImpl;
 import org.cds.main.blockchain.core.Repository;
 import org.cds.main.blockchain.core.Transaction;
-import org.cds.main.blockchain.core.TransactionExecutor;
 import org.cds.main.blockchain.core.TransactionInfo;
 import org.cds.main.blockchain.core.TransactionReceipt;
 import org.cds.main.blockchain.crypto.ECKey;
@@ -176,6 +176,9 @@ public class EthJsonRpcImpl implements JsonRpc {
 	@Autowired
 	PendingStateImpl pendingState;
 
+	@Autowired
+	LocalCallExecutor localCallExecutor;
+
 	@Autowired
 	SystemProperties config;
 
@@ -588,17 +591,17 @@ public class EthJsonRpcImpl implements JsonRpc {
 	}
 
 	protected TransactionReceipt createCallTxAndExecute(CallArguments args, Block block) throws Exception {
-		Repository repository = ((Repository) worldManager.getRepository()).getSnapshotTo(block.getStateRoot())
-				.startTracking();
-
-		return createCallTxAndExecute(args, block, repository, worldManager.getBlockStore());
+		return createCallTxAndExecute(args, block, null);
 	}
 
-	protected TransactionReceipt createCallTxAndExecute(CallArguments args, Block block, Repository repository,
-			BlockStore blockStore) throws Exception {
+	/**
+	 * @param repository state to execute the call on or null for the read-only snapshot of the block state
+	 */
+	protected TransactionReceipt createCallTxAndExecute(CallArguments args, Block block, Repository repository) throws Exception {
 		BinaryCallArguments bca = new BinaryCallArguments();
 		bca.setArguments(args);
-		Transaction rawTransaction = CallTransaction.createRawTransaction(0, bca.gasPrice, bca.gasLimit, bca.toAddress,
+		long gasLimit = Math.min(bca.gasLimit, localCallExecutor.getGasLimit().longValue());
+		Transaction rawTransaction = CallTransaction.createRawTransaction(0, bca.gasPrice, gasLimit, bca.toAddress,
 				bca.value, bca.data);
 		LocalTransaction tx = new LocalTransaction(rawTransaction.getEncoded());
 
@@ -610,20 +613,7 @@ public class EthJsonRpcImpl implements JsonRpc {
 			tx.sign(ECKey.DUMMY);
 		}
 
-		try {
-			TransactionExecutor executor = new TransactionExecutor(tx, block.getCoinbase(), repository, blockStore,
-					programInvokeFactory, block, new EthereumListenerAdapter(), 0).withCommonConfig(commonConfig)
-							.setLocalCall(true);
-
-			executor.init();
-			executor.execute();
-			executor.go();
-			executor.finalization();
-
-			return executor.getReceipt();
-		} finally {
-			repository.rollback();
-		}
+		return localCallExecutor.execute(tx, block, repository).getReceipt();
 	}
 
 	public String eth_call(CallArguments args, String bnOrId) throws Exception {
@@ -631,8 +621,7 @@ public class EthJsonRpcImpl implements JsonRpc {
 		if ("pending".equals(bnOrId)) {
 			Block pendingBlock = blockchain.createNewBlock(blockchain.getBestBlock(),
 					pendingState.getPendingTransactions(), Collections.<BlockHeader> emptyList());
-			res = createCallTxAndExecute(args, pendingBlock, pendingState.getRepository(),
-					worldManager.getBlockStore());
+			res = createCallTxAndExecute(args, pendingBlock, pendingState.getRepository());
 		} else {
 			res = createCallTxAndExecute(args, getByJsonBlockId(bnOrId));
 		}
@@ -0,0 +1,123 @@
+package org.cds.main.blockchain.sync;
+
+/**
+ * Per peer measurements of the pipelined requests (GetBlockBodies, GetNodeData)
+ * which drive the size of the requests and the number of requests pipelined to the peer.
+ *
+ * The batch grows while the peer serves full batches within the target round trip,
+ * shrinks to what the peer actually returns when it serves only a part of the request
+ * and shrinks proportionally when the round trip exceeds the target.
+ * More requests are pipelined to the fast peers, a failure resets the peer to a single request
+ */
+public class AdaptiveRequestStats {
+
+    // weight of the latest sample in the moving averages
+    private static final double ALPHA = 0.3;
+
+    private final int minBatch;
+    private final int maxBatch;
+    private final int maxPipeline;
+    private final long targetRtt;
+
+    private int batchSize;
+    private int pipelineDepth = 1;
+    private double rtt;
+    private double usefulRatio = 1;
+
+    private long requested;
+    private long received;
+    private long failures;
+
+    /**
+     * @param minBatch min number of items in one request
+     * @param maxBatch max number of items in one request
+     * @param initialBatch number of items in the first request
+     * @param maxPipeline max number of requests in flight to the peer
+     * @param targetRtt round trip the batch size is adjusted to, ms
+     */
+    public AdaptiveRequestStats(int minBatch, int maxBatch, int initialBatch, int maxPipeline, long targetRtt) {
+        this.minBatch = minBatch;
+        this.maxBatch = maxBatch;
+        this.maxPipeline = maxPipeline;
+        this.targetRtt = targetRtt;
+        this.batchSize = bound(initialBatch);
+        this.rtt = targetRtt;
+    }
+
+    public synchronized void onResponse(int requestedCnt, int receivedCnt, long rttMillis) {
+        requested += requestedCnt;
+        received += receivedCnt;
+
+        double ratio = requestedCnt == 0 ? 1 : (double) receivedCnt / requestedCnt;
+        usefulRatio = usefulRatio * (1 - ALPHA) + ratio * ALPHA;
+        rtt = rtt * (1 - ALPHA) + Math.max(1, rttMillis) * ALPHA;
+
+        if (ratio < 0.5) {
+            // peer limits the response size or lacks the items, don't ask for more than it serves
+            batchSize = bound(Math.max(receivedCnt, batchSize / 2));
+        } else if (rttMillis > targetRtt) {
+            batchSize = bound((int) (batchSize * targetRtt / rttMillis));
+            pipelineDepth = Math.max(1, pipelineDepth - 1);
+        } else if (ratio >= 0.9 && requestedCnt >= batchSize / 2) {
+            // the short requests (e.g. new blocks at the chain tip) tell nothing about the larger ones
+            batchSize = bound(batchSize + batchSize / 4);
+            if (rttMillis < targetRtt / 2) {
+                pipelineDepth = Math.min(maxPipeline, pipelineDepth + 1);
+            }
+        }
+    }
+
+    /**
+     * Request failed or is overdue
+     */
+    public synchronized void onFailure() {
+        failures++;
+        batchSize = bound(batchSize / 2);
+        pipelineDepth = 1;
+        usefulRatio = usefulRatio * (1 - ALPHA);
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * @return smoothed round trip of the requests, ms
+     */
+    public synchronized long getRtt() {
+        return (long) rtt;
+    }
+
+    /**
+     * @return expected throughput of the peer, useful items per second
+     */
+    public synchronized double getItemsPerSecond() {
+        return 1000d * batchSize * pipelineDepth * usefulRatio / rtt;
+    }
+
+    public synchronized long getRequested() {
+        return requested;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    private int bound(int size) {
+        return Math.max(minBatch, Math.min(maxBatch, size));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("batch: %d, pipeline: %d, rtt: %.0f ms, useful: %.2f, received: %d/%d, failures: %d",
+                batchSize, pipelineDepth, rtt, usefulRatio, received, requested, failures);
+    }
+}
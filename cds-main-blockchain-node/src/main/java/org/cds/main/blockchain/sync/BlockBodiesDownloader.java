@@ -155,6 +155,11 @@ public class BlockBodiesDownloader extends BlockDownloader {
         return syncPool.getActivePeersCount() > 2 ? syncPool.getNotLastIdle() : syncPool.getAnyIdle();
     }
 
+    @Override
+    protected int getReservedIdlePeers() {
+        return syncPool.getActivePeersCount() > 2 ? 1 : 0;
+    }
+
     @Override
     protected void pushHeaders(List<BlockHeaderWrapper> headers) {}
 
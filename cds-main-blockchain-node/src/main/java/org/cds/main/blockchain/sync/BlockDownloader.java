@@ -5,10 +5,14 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.cds.main.blockchain.util.ByteUtil.toHexString;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -17,6 +21,8 @@ import org.cds.main.blockchain.core.BlockHeader;
 import org.cds.main.blockchain.core.BlockHeaderWrapper;
 import org.cds.main.blockchain.core.BlockWrapper;
 import org.cds.main.blockchain.core.BlockchainImpl;
+import org.cds.main.blockchain.db.ByteArrayWrapper;
+import org.cds.main.blockchain.net.eth.handler.Eth;
 import org.cds.main.blockchain.net.server.Channel;
 import org.cds.main.blockchain.validator.BlockHeaderValidator;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
@@ -39,6 +45,12 @@ public abstract class BlockDownloader {
     public static int MAX_IN_REQUEST = 192;
     private static int REQUESTS = 32;
 
+    // body requests of that many blocks at most are new blocks at the chain tip
+    private static final int HEDGE_TIP_BLOCKS = 4;
+    // min delay before an unanswered body request is duplicated to another peer
+    private static final long HEDGE_DELAY_TIP = 500;
+    private static final long HEDGE_DELAY_STRAGGLER = 5000;
+
     private BlockHeaderValidator headerValidator;
 
     private SyncPool pool;
@@ -64,6 +76,28 @@ public abstract class BlockDownloader {
     private long estimatedBlockSize = 0;
     private final CircularFifoQueue<Long> lastBlockSizes = new CircularFifoQueue<>(10 * MAX_IN_REQUEST);
 
+    // body requests awaiting response
+    private final List<BodiesRequest> bodiesRequests = new ArrayList<>();
+
+    private static class BodiesRequest {
+        final Channel peer;
+        final List<BlockHeaderWrapper> headers;
+        final long sentTime = System.currentTimeMillis();
+        // duplicated to another peer, or is the duplicate itself
+        volatile boolean hedged;
+        volatile boolean done;
+
+        BodiesRequest(Channel peer, List<BlockHeaderWrapper> headers, boolean hedged) {
+            this.peer = peer;
+            this.headers = headers;
+            this.hedged = hedged;
+        }
+
+        void finish() {
+            done = true;
+        }
+    }
+
     public BlockDownloader(BlockHeaderValidator headerValidator) {
         this.headerValidator = headerValidator;
     }
@@ -173,10 +207,13 @@ public abstract class BlockDownloader {
                                     any.getEthHandler().sendGetBlockHeaders(headersRequest.getStart(), headersRequest.getCount(), headersRequest.isReverse()) :
                                     any.getEthHandler().sendGetBlockHeaders(headersRequest.getHash(), headersRequest.getCount(), headersRequest.getStep(), headersRequest.isReverse());
                             if (futureHeaders != null) {
+                                final long sentTime = System.currentTimeMillis();
                                 Futures.addCallback(futureHeaders, new FutureCallback<List<BlockHeader>>() {
                                     @Override
                                     public void onSuccess(List<BlockHeader> result) {
+                                        any.getPeerStats().onResponse(result.size(), System.currentTimeMillis() - sentTime);
                                         if (!validateAndAddHeaders(result, any.getNodeId())) {
+                                            any.getPeerStats().onInvalidData();
                                             onFailure(new RuntimeException("Received headers validation failed"));
                                         }
                                     }
@@ -205,57 +242,33 @@ public abstract class BlockDownloader {
     }
 
     private void blockRetrieveLoop() {
-        class BlocksCallback implements FutureCallback<List<Block>> {
-            private Channel peer;
-
-            public BlocksCallback(Channel peer) {
-                this.peer = peer;
-            }
-
-            @Override
-            public void onSuccess(List<Block> result) {
-                addBlocks(result, peer.getNodeId());
-            }
-
-            @Override
-            public void onFailure(Throwable t) {
-                logger.debug("{}: Error receiving Blocks. Dropping the peer.", name, t);
-                peer.getEthHandler().dropConnection();
-            }
-        }
-
-        List<SyncQueueIfc.BlocksRequest> bReqs = emptyList();
+        Deque<BlockHeaderWrapper> headersToAsk = new ArrayDeque<>();
         while(!Thread.currentThread().isInterrupted()) {
             try {
-                if (bReqs.isEmpty()) {
-                    bReqs = syncQueue.requestBlocks(16 * 1024).split(MAX_IN_REQUEST);
+                if (headersToAsk.isEmpty()) {
+                    headersToAsk.addAll(syncQueue.requestBlocks(16 * 1024).getBlockHeaders());
                 }
 
-                if (bReqs.isEmpty() && headersDownloadComplete) {
+                if (headersToAsk.isEmpty() && headersDownloadComplete) {
                     logger.info("{}: Block download complete.", name);
                     finishDownload();
                     downloadComplete = true;
                     return;
                 }
 
+                hedgeOverdueRequests();
+
                 int blocksToAsk = getBlockQueueFreeSize();
                 if (blocksToAsk >= MAX_IN_REQUEST) {
-//                    SyncQueueIfc.BlocksRequest bReq = syncQueue.requestBlocks(maxBlocks);
 
                     boolean fewHeadersReqMode = false;
-                    if (bReqs.size() == 1 && bReqs.get(0).getBlockHeaders().size() <= 3) {
+                    if (!headersToAsk.isEmpty() && headersToAsk.size() <= 3) {
                         // new blocks are better to request from the header senders first
                         // to get more chances to receive block body promptly
-                        for (BlockHeaderWrapper blockHeaderWrapper : bReqs.get(0).getBlockHeaders()) {
+                        for (BlockHeaderWrapper blockHeaderWrapper : headersToAsk) {
                             Channel channel = pool.getByNodeId(blockHeaderWrapper.getNodeId());
-                            if (channel != null) {
-                                ListenableFuture<List<Block>> futureBlocks =
-                                        channel.getEthHandler().sendGetBlockBodies(singletonList(blockHeaderWrapper));
-                                if (futureBlocks != null) {
-                                    Futures.addCallback(futureBlocks, new BlocksCallback(channel),
-                                            MoreExecutors.directExecutor());
-                                    fewHeadersReqMode = true;
-                                }
+                            if (channel != null && requestBodies(channel, singletonList(blockHeaderWrapper), 1, false)) {
+                                fewHeadersReqMode = true;
                             }
                         }
                     }
@@ -264,37 +277,39 @@ public abstract class BlockDownloader {
                     int maxBlocks = MAX_IN_REQUEST * Math.min(maxRequests, REQUESTS);
                     int reqBlocksCounter = 0;
                     int blocksRequested = 0;
-                    Iterator<SyncQueueIfc.BlocksRequest> it = bReqs.iterator();
-                    while (it.hasNext() && blocksRequested < maxBlocks) {
-//                    for (SyncQueueIfc.BlocksRequest blocksRequest : bReq.split(MAX_IN_REQUEST)) {
-                        SyncQueueIfc.BlocksRequest blocksRequest = it.next();
-                        Channel any = getAnyPeer();
-                        if (any == null) {
+                    while (!headersToAsk.isEmpty() && blocksRequested < maxBlocks) {
+                        Channel peer = selectBodiesPeer(null);
+                        if (peer == null) {
                             logger.debug("{} blockRetrieveLoop: No IDLE peers found", name);
                             break;
-                        } else {
-                            logger.debug("{} blockRetrieveLoop: Requesting " + blocksRequest.getBlockHeaders().size() + " blocks from " + any.getNode(), name);
-                            ListenableFuture<List<Block>> futureBlocks =
-                                    any.getEthHandler().sendGetBlockBodies(blocksRequest.getBlockHeaders());
-                            blocksRequested += blocksRequest.getBlockHeaders().size();
-                            if (futureBlocks != null) {
-                                Futures.addCallback(futureBlocks, new BlocksCallback(any),
-                                        MoreExecutors.directExecutor());
-                                reqBlocksCounter++;
-                                it.remove();
+                        }
+                        AdaptiveRequestStats stats = bodiesStats(peer);
+                        List<BlockHeaderWrapper> headers = new ArrayList<>();
+                        while (headers.size() < stats.getBatchSize() && !headersToAsk.isEmpty()) {
+                            headers.add(headersToAsk.poll());
+                        }
+                        logger.debug("{} blockRetrieveLoop: Requesting " + headers.size() + " blocks from " + peer.getNode() + " (" + stats + ")", name);
+                        if (!requestBodies(peer, headers, stats.getPipelineDepth(), false)) {
+                            // peer has switched to another request in the meantime
+                            for (int i = headers.size() - 1; i >= 0; i--) {
+                                headersToAsk.addFirst(headers.get(i));
                             }
+                            break;
                         }
+                        blocksRequested += headers.size();
+                        reqBlocksCounter++;
                     }
 
                     // Case when we have requested few headers and was not able
-                    // to remove request from the list in above cycle because
+                    // to request them in above cycle because
                     // there were no idle peers or whatever
-                    if (fewHeadersReqMode && !bReqs.isEmpty()) {
-                        bReqs.clear();
+                    if (fewHeadersReqMode && !headersToAsk.isEmpty()) {
+                        syncQueue.releaseBlocks(headersToAsk);
+                        headersToAsk.clear();
                     }
 
                     receivedBlocksLatch = new CountDownLatch(max(reqBlocksCounter - 2, 1));
-                    receivedBlocksLatch.await(1000, TimeUnit.MILLISECONDS);
+                    receivedBlocksLatch.await(isSyncDone() ? HEDGE_DELAY_TIP / 2 : 1000, TimeUnit.MILLISECONDS);
                 } else {
                     logger.debug("{} blockRetrieveLoop: BlockQueue is full", name);
                     Thread.sleep(200);
@@ -307,23 +322,170 @@ public abstract class BlockDownloader {
         }
     }
 
+    /**
+     * Sends GetBlockBodies request and watches it until the response
+     * @param hedge whether the request duplicates the overdue one sent to another peer
+     * @return false if the peer can't take the request
+     */
+    private boolean requestBodies(final Channel peer, final List<BlockHeaderWrapper> headers, int maxPending, boolean hedge) {
+        ListenableFuture<List<Block>> futureBlocks = peer.getEthHandler().sendGetBlockBodies(headers, maxPending);
+        if (futureBlocks == null) return false;
+
+        final BodiesRequest request = new BodiesRequest(peer, headers, hedge);
+        synchronized (bodiesRequests) {
+            bodiesRequests.add(request);
+        }
+        Futures.addCallback(futureBlocks, new FutureCallback<List<Block>>() {
+            @Override
+            public void onSuccess(List<Block> result) {
+                request.finish();
+                long rtt = System.currentTimeMillis() - request.sentTime;
+                peer.getPeerStats().onBodiesResponse(headers.size(), result.size(), rtt);
+                peer.getPeerStats().onUsefulBlocks(addBlocks(result, peer.getNodeId()));
+                if (result.size() < headers.size()) {
+                    releaseMissing(headers, result);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                request.finish();
+                // the blocks are handed out again right away rather than after the SyncQueue request timeout
+                syncQueue.releaseBlocks(headers);
+                peer.getPeerStats().onBodiesFailure();
+                logger.debug("{}: Error receiving Blocks. Dropping the peer.", name, t);
+                peer.getEthHandler().dropConnection();
+            }
+        }, MoreExecutors.directExecutor());
+        return true;
+    }
+
+    private void releaseMissing(List<BlockHeaderWrapper> headers, List<Block> received) {
+        Set<ByteArrayWrapper> hashes = new HashSet<>();
+        for (Block block : received) {
+            hashes.add(new ByteArrayWrapper(block.getHash()));
+        }
+        List<BlockHeaderWrapper> missing = new ArrayList<>();
+        for (BlockHeaderWrapper header : headers) {
+            if (!hashes.contains(new ByteArrayWrapper(header.getHash()))) {
+                missing.add(header);
+            }
+        }
+        syncQueue.releaseBlocks(missing);
+    }
+
+    /**
+     * Duplicates the requests which are overdue to other peers, the response which comes first is used.
+     * Near the chain tip the delay is short since the block is awaited for import right away,
+     * during the long sync only the stragglers are hedged.
+     * The requests to the disconnected peers are duplicated right away
+     */
+    private void hedgeOverdueRequests() {
+        List<BodiesRequest> overdue = new ArrayList<>();
+        List<BodiesRequest> lost = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (bodiesRequests) {
+            for (Iterator<BodiesRequest> it = bodiesRequests.iterator(); it.hasNext(); ) {
+                BodiesRequest request = it.next();
+                if (request.done) {
+                    it.remove();
+                } else if (request.peer.isDisconnected()) {
+                    it.remove();
+                    if (!request.hedged) lost.add(request);
+                } else if (!request.hedged && now - request.sentTime > hedgeDelay(request)) {
+                    overdue.add(request);
+                }
+            }
+        }
+        for (BodiesRequest request : lost) {
+            Channel peer = selectBodiesPeer(request.peer);
+            if (peer != null && requestBodies(peer, request.headers, bodiesStats(peer).getPipelineDepth(), true)) {
+                logger.debug("{}: {} blocks from disconnected {} are requested from {}",
+                        name, request.headers.size(), request.peer.getNode(), peer.getNode());
+            } else {
+                syncQueue.releaseBlocks(request.headers);
+            }
+        }
+
+        for (BodiesRequest request : overdue) {
+            Channel peer = selectBodiesPeer(request.peer);
+            if (peer == null) break;
+            logger.debug("{}: {} blocks from {} are overdue, requesting them from {}",
+                    name, request.headers.size(), request.peer.getNode(), peer.getNode());
+            if (requestBodies(peer, request.headers, bodiesStats(peer).getPipelineDepth(), true)) {
+                request.hedged = true;
+                request.peer.getPeerStats().onBodiesFailure();
+            }
+        }
+    }
+
+    private long hedgeDelay(BodiesRequest request) {
+        long rtt = bodiesStats(request.peer).getRtt();
+        boolean nearTip = isSyncDone() || request.headers.size() <= HEDGE_TIP_BLOCKS;
+        return nearTip ? max(HEDGE_DELAY_TIP, 2 * rtt) : max(HEDGE_DELAY_STRAGGLER, 4 * rtt);
+    }
+
+    /**
+     * Selects the peer which can take one more GetBlockBodies request,
+     * the one with the best expected throughput goes first
+     * @param exclude peer not to be selected, may be null
+     */
+    private Channel selectBodiesPeer(Channel exclude) {
+        List<Channel> peers = pool.getActivePeers();
+        int idle = 0;
+        for (Channel peer : peers) {
+            if (peer.isIdle()) idle++;
+        }
+        boolean idleAllowed = idle > getReservedIdlePeers();
+
+        Channel ret = null;
+        double bestRate = -1;
+        for (Channel peer : peers) {
+            if (peer == exclude) continue;
+            if (peer.isIdle() && !idleAllowed) continue;
+            AdaptiveRequestStats stats = bodiesStats(peer);
+            Eth eth = peer.getEthHandler();
+            if (!eth.canRequestBlockBodies(stats.getPipelineDepth())) continue;
+            double rate = stats.getItemsPerSecond() / (1 + eth.getPendingBlockBodiesRequests());
+            if (rate > bestRate) {
+                bestRate = rate;
+                ret = peer;
+            }
+        }
+        return ret;
+    }
+
+    private AdaptiveRequestStats bodiesStats(Channel peer) {
+        return peer.getPeerStats().getBodiesStats();
+    }
+
+    /**
+     * @return number of idle peers left without body requests for the other work
+     */
+    protected int getReservedIdlePeers() {
+        return 0;
+    }
+
     /**
      * Adds a list of blocks to the queue
      *
      * @param blocks block list received from remote peer and be added to the queue
      * @param nodeId nodeId of remote peer which these blocks are received from
+     * @return number of the blocks which were new to the queue
      */
-    private void addBlocks(List<Block> blocks, byte[] nodeId) {
+    private int addBlocks(List<Block> blocks, byte[] nodeId) {
 
         if (blocks.isEmpty()) {
-            return;
+            return 0;
         }
 
+        int added;
         synchronized (this) {
             logger.debug("{}: Adding new " + blocks.size() + " blocks to sync queue: " +
                     blocks.get(0).getShortDescr() + " ... " + blocks.get(blocks.size() - 1).getShortDescr(), name);
 
             List<Block> newBlocks = syncQueue.addBlocks(blocks);
+            added = newBlocks.size();
 
             List<BlockWrapper> wrappers = new ArrayList<>();
             for (Block b : newBlocks) {
@@ -344,6 +506,7 @@ public abstract class BlockDownloader {
                 name,
                 blocks.get(blocks.size() - 1).getNumber()
         );
+        return added;
     }
 
     /**
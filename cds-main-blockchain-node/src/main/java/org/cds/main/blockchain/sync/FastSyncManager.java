@@ -13,6 +13,7 @@ import org.cds.main.blockchain.datasource.rocksdb.RocksDbDataSource;
 import org.cds.main.blockchain.db.DbFlushManager;
 import org.cds.main.blockchain.db.HeaderStore;
 import org.cds.main.blockchain.db.IndexedBlockStore;
+import org.cds.main.blockchain.db.StateSnapshotFile;
 import org.cds.main.blockchain.db.StateSource;
 import org.cds.main.blockchain.facade.SyncStatus;
 import org.cds.main.blockchain.listener.CompositeEthereumListener;
@@ -51,13 +52,19 @@ public class FastSyncManager {
     private final static Logger logger = LoggerFactory.getLogger("sync");
 
     private final static long REQUEST_TIMEOUT = 5 * 1000;
-    private final static int REQUEST_MAX_NODES = 384;
     private final static int NODE_QUEUE_BEST_SIZE = 100_000;
     private final static int MIN_PEERS_FOR_PIVOT_SELECTION = 5;
     private final static int FORCE_SYNC_TIMEOUT = 60 * 1000;
     private final static int PIVOT_DISTANCE_FROM_HEAD = 1024;
     private final static int MSX_DB_QUEUE_SIZE = 20000;
 
+    // GetNodeData request sizing, see AdaptiveRequestStats
+    private final static int NODES_MIN_BATCH = 16;
+    private final static int NODES_MAX_BATCH = 1024;
+    private final static int NODES_INITIAL_BATCH = 384;
+    private final static int NODES_MAX_PIPELINE = 4;
+    private final static long NODES_TARGET_RTT = 1000;
+
     private static final Capability ETH63_CAPABILITY = new Capability(Capability.ETH, (byte) 63);
 
     public static final byte[] FASTSYNC_DB_KEY_SYNC_STAGE = HashUtil.sha3("Key in state DB indicating fastsync stage in progress".getBytes());
@@ -322,6 +329,7 @@ public class FastSyncManager {
 
     Deque<TrieNodeRequest> nodesQueue = new LinkedBlockingDeque<>();
     ByteArrayMap<TrieNodeRequest> pendingNodes = new ByteArrayMap<>();
+    Map<Channel, AdaptiveRequestStats> peerStats = new HashMap<>();
     Long requestId = 0L;
 
     private synchronized void purgePending(byte[] hash) {
@@ -357,50 +365,88 @@ public class FastSyncManager {
         }
     }
 
-    boolean requestNextNodes(int cnt) {
-        final Channel idle = pool.getAnyIdle();
+    /**
+     * Selects the peer which can take one more GetNodeData request,
+     * the one with the best expected throughput goes first
+     */
+    private Channel selectNodesPeer() {
+        Channel ret = null;
+        double bestRate = -1;
+        for (Channel peer : pool.getActivePeers()) {
+            if (!(peer.getEthHandler() instanceof Eth63)) continue;
+            Eth63 eth = (Eth63) peer.getEthHandler();
+            AdaptiveRequestStats stats = getPeerStats(peer);
+            if (!eth.canRequestTrieNodes(stats.getPipelineDepth())) continue;
+            double rate = stats.getItemsPerSecond() / (1 + eth.getPendingTrieNodeRequests());
+            if (rate > bestRate) {
+                bestRate = rate;
+                ret = peer;
+            }
+        }
+        return ret;
+    }
+
+    private synchronized AdaptiveRequestStats getPeerStats(Channel peer) {
+        return peerStats.computeIfAbsent(peer, p -> new AdaptiveRequestStats(
+                NODES_MIN_BATCH, NODES_MAX_BATCH, NODES_INITIAL_BATCH, NODES_MAX_PIPELINE, NODES_TARGET_RTT));
+    }
+
+    boolean requestNextNodes() {
+        final Channel idle = selectNodesPeer();
 
         if (idle != null) {
+            final AdaptiveRequestStats stats = getPeerStats(idle);
             final List<byte[]> hashes = new ArrayList<>();
-            final List<TrieNodeRequest> requestsSent = new ArrayList<>();
             final Set<Long> sentRequestIds = new HashSet<>();
             synchronized (this) {
-                for (int i = 0; i < cnt && !nodesQueue.isEmpty(); i++) {
+                int cnt = stats.getBatchSize();
+                while (hashes.size() < cnt && !nodesQueue.isEmpty()) {
                     TrieNodeRequest req = nodesQueue.poll();
 
-                    hashes.add(req.nodeHash);
                     TrieNodeRequest request = pendingNodes.get(req.nodeHash);
                     if (request == null) {
                         pendingNodes.put(req.nodeHash, req);
                         request = req;
                     } else {
                         request.merge(req);
+                        // already in flight, the response will serve the merged request as well
+                        if (!request.requestSent.isEmpty()) continue;
                     }
+                    hashes.add(req.nodeHash);
                     sentRequestIds.add(requestId);
                     request.reqSent(requestId);
                     requestId++;
-                    requestsSent.add(request);
                 }
             }
             if (hashes.size() > 0) {
-                logger.trace("Requesting " + hashes.size() + " nodes from peer: " + idle);
-                ListenableFuture<List<Pair<byte[], byte[]>>> nodes = ((Eth63) idle.getEthHandler()).requestTrieNodes(hashes);
+                logger.trace("Requesting " + hashes.size() + " nodes from peer: " + idle + " (" + stats + ")");
+                ListenableFuture<List<Pair<byte[], byte[]>>> nodes = ((Eth63) idle.getEthHandler()).requestTrieNodes(hashes, stats.getPipelineDepth());
+                if (nodes == null) {
+                    // peer has switched to another request in the meantime
+                    requeueNodes(hashes, sentRequestIds);
+                    return false;
+                }
                 final long reqTime = System.currentTimeMillis();
                 Futures.addCallback(nodes, new FutureCallback<List<Pair<byte[], byte[]>>>() {
                     @Override
                     public void onSuccess(List<Pair<byte[], byte[]>> result) {
                         try {
+                            long rtt = System.currentTimeMillis() - reqTime;
+                            if (rtt > REQUEST_TIMEOUT) {
+                                stats.onFailure();
+                            } else {
+                                stats.onResponse(hashes.size(), result.size(), rtt);
+                            }
                             synchronized (FastSyncManager.this) {
                                 logger.trace("Received " + result.size() + " nodes (of " + hashes.size() + ") from peer: " + idle);
                                 idle.getNodeStatistics().eth63NodesRequested.add(hashes.size());
-                                idle.getNodeStatistics().eth63NodesRetrieveTime.add(System.currentTimeMillis() - reqTime);
+                                idle.getNodeStatistics().eth63NodesRetrieveTime.add(rtt);
                                 for (Pair<byte[], byte[]> pair : result) {
                                     TrieNodeRequest request = pendingNodes.get(pair.getKey());
                                     if (request == null) {
-                                        long t = System.currentTimeMillis();
-                                        logger.debug("Received node which was not requested: " + toHexString(pair.getKey()) + " from " + idle);
-                                        idle.disconnect(ReasonCode.TOO_MANY_PEERS); // We need better peers for this stage
-                                        return;
+                                        // late response to the request which timed out and was served by another peer
+                                        logger.trace("Received node which is not pending anymore: " + toHexString(pair.getKey()) + " from " + idle);
+                                        continue;
                                     }
                                     Set<Long> intersection = request.requestIdsSnapshot();
                                     intersection.retainAll(sentRequestIds);
@@ -424,28 +470,14 @@ public class FastSyncManager {
                     @Override
                     public void onFailure(Throwable t) {
                         logger.warn("Error with Trie Node request: " + t);
+                        stats.onFailure();
                         idle.getNodeStatistics().eth63NodesRequested.add(hashes.size());
                         idle.getNodeStatistics().eth63NodesRetrieveTime.add(System.currentTimeMillis() - reqTime);
-                        synchronized (FastSyncManager.this) {
-                            for (byte[] hash : hashes) {
-                                final TrieNodeRequest request = pendingNodes.get(hash);
-                                if (request == null) continue;
-                                Set<Long> intersection = request.requestIdsSnapshot();
-                                intersection.retainAll(sentRequestIds);
-                                if (!intersection.isEmpty()) {
-                                    Long inter = intersection.iterator().next();
-                                    request.requestSent.remove(inter);
-                                    nodesQueue.addFirst(request);
-                                    purgePending(hash);
-                                }
-                            }
-                            FastSyncManager.this.notifyAll();
-                        }
+                        requeueNodes(hashes, sentRequestIds);
                     }
                 });
                 return true;
             } else {
-//                idle.getEthHandler().setStatus(SyncState.IDLE);
                 return false;
             }
         } else {
@@ -453,13 +485,29 @@ public class FastSyncManager {
         }
     }
 
+    private synchronized void requeueNodes(List<byte[]> hashes, Set<Long> sentRequestIds) {
+        for (byte[] hash : hashes) {
+            final TrieNodeRequest request = pendingNodes.get(hash);
+            if (request == null) continue;
+            Set<Long> intersection = request.requestIdsSnapshot();
+            intersection.retainAll(sentRequestIds);
+            if (!intersection.isEmpty()) {
+                Long inter = intersection.iterator().next();
+                request.requestSent.remove(inter);
+                nodesQueue.addFirst(request);
+                purgePending(hash);
+            }
+        }
+        notifyAll();
+    }
+
     void retrieveLoop() {
         try {
             while (!nodesQueue.isEmpty() || !pendingNodes.isEmpty()) {
                 try {
                     processTimeouts();
 
-                    while (requestNextNodes(REQUEST_MAX_NODES)) ;
+                    while (requestNextNodes()) ;
 
                     synchronized (this) {
                         wait(10);
@@ -476,6 +524,9 @@ public class FastSyncManager {
             }
             waitDbQueueSizeBelow(0);
 
+            synchronized (this) {
+                peerStats.clear();
+            }
             dbWriterThread.interrupt();
         } catch (InterruptedException e) {
             logger.warn("Main fast sync loop was interrupted", e);
@@ -492,6 +543,11 @@ public class FastSyncManager {
                     + String.format(", nodes/sec: %1$.2f", 1000d * (nodesInserted - lastNodeCount) / (cur - last)));
             last = cur;
             lastNodeCount = nodesInserted;
+            if (logger.isDebugEnabled()) {
+                synchronized (this) {
+                    peerStats.forEach((peer, stats) -> logger.debug("FastSync: nodes peer " + peer + ": " + stats));
+                }
+            }
         }
     }
 
@@ -511,27 +567,36 @@ public class FastSyncManager {
 
 
     private void syncUnsecure(BlockHeader pivot) {
-        byte[] pivotStateRoot = pivot.getStateRoot();
-        TrieNodeRequest request = new TrieNodeRequest(TrieNodeType.STATE, pivotStateRoot);
-        nodesQueue.add(request);
-        logger.info("FastSync: downloading state trie at pivot block: " + pivot.getShortDescr());
+        if (isSnapshotPivot(pivot)) {
+            logger.info("FastSync: state trie at pivot block " + pivot.getShortDescr() + " is imported from the snapshot, skipping state download");
+            setSyncStage(UNSECURE);
+        } else {
+            byte[] pivotStateRoot = pivot.getStateRoot();
+            TrieNodeRequest request = new TrieNodeRequest(TrieNodeType.STATE, pivotStateRoot);
+            nodesQueue.add(request);
+            logger.info("FastSync: downloading state trie at pivot block: " + pivot.getShortDescr());
 
-        setSyncStage(UNSECURE);
+            setSyncStage(UNSECURE);
 
-        retrieveLoop();
+            retrieveLoop();
 
-        logger.info("FastSync: state trie download complete! (Nodes count: state: " + stateNodesCnt + ", storage: " +storageNodesCnt + ", code: " +codeNodesCnt + ")");
-        last = 0;
-        logStat();
+            logger.info("FastSync: state trie download complete! (Nodes count: state: " + stateNodesCnt + ", storage: " +storageNodesCnt + ", code: " +codeNodesCnt + ")");
+            last = 0;
+            logStat();
+        }
 
-        logger.info("FastSync: downloading 256 blocks prior to pivot block (" + pivot.getShortDescr() + ")");
-        FastSyncDownloader downloader = applicationContext.getBean(FastSyncDownloader.class);
-        downloader.startImporting(pivot, 260);
-        downloader.waitForStop();
+        if (isSnapshotPivot(pivot) && blockchain.getBestBlock().getNumber() >= pivot.getNumber()) {
+            logger.info("FastSync: blocks from the snapshot pivot block (" + pivot.getShortDescr() + ") were imported prior to this run");
+        } else {
+            logger.info("FastSync: downloading 256 blocks prior to pivot block (" + pivot.getShortDescr() + ")");
+            FastSyncDownloader downloader = applicationContext.getBean(FastSyncDownloader.class);
+            downloader.startImporting(pivot, 260);
+            downloader.waitForStop();
 
-        logger.info("FastSync: complete downloading 256 blocks prior to pivot block (" + pivot.getShortDescr() + ")");
+            logger.info("FastSync: complete downloading 256 blocks prior to pivot block (" + pivot.getShortDescr() + ")");
 
-        blockchain.setBestBlock(blockStore.getBlockByHash(pivot.getHash()));
+            blockchain.setBestBlock(blockStore.getBlockByHash(pivot.getHash()));
+        }
 
         logger.info("FastSync: proceeding to regular sync...");
 
@@ -552,6 +617,7 @@ public class FastSyncManager {
 //        }
 
         blockchainDB.put(FASTSYNC_DB_KEY_PIVOT, pivot.getEncoded());
+        blockchainDB.delete(StateSnapshotFile.SNAPSHOT_PIVOT_KEY);
         dbFlushManager.commit();
         dbFlushManager.flush();
 
@@ -676,9 +742,11 @@ public class FastSyncManager {
 
     public void main() {
 
-        if (blockchain.getBestBlock().getNumber() == 0 || getSyncStage() == SECURE || getSyncStage() == COMPLETE) {
+        if (blockchain.getBestBlock().getNumber() == 0 || getSyncStage() == SECURE || getSyncStage() == COMPLETE ||
+                blockchainDB.get(StateSnapshotFile.SNAPSHOT_PIVOT_KEY) != null) {
             // either no DB at all (clear sync or DB was deleted due to UNSECURE stage while initializing
             // or we have incomplete headers/blocks/receipts download
+            // or the UNSECURE stage from the imported state snapshot was interrupted
 
             fastSyncInProgress = true;
             pool.setNodesSelector(handler -> handler.getNodeStatistics().capabilities.contains(ETH63_CAPABILITY));
@@ -688,7 +756,8 @@ public class FastSyncManager {
 
                 switch (origSyncStage) {
                     case UNSECURE:
-                        pivot = getPivotBlock();
+                        pivot = getSnapshotPivot();
+                        if (pivot == null) pivot = getPivotBlock();
                         if (pivot.getNumber() == 0) {
                             logger.info("FastSync: too short blockchain, proceeding with regular sync...");
                             syncManager.initRegularSync(EthereumListener.SyncState.COMPLETE);
@@ -743,6 +812,22 @@ public class FastSyncManager {
         return fastSyncInProgress;
     }
 
+    /**
+     * @return header of the block whose state was imported by {@link StateSnapshotFile} or null
+     */
+    private BlockHeader getSnapshotPivot() {
+        byte[] encoded = blockchainDB.get(StateSnapshotFile.SNAPSHOT_PIVOT_KEY);
+        if (encoded == null) return null;
+        BlockHeader ret = new BlockHeader(encoded);
+        logger.info("FastSync: using the pivot block of the imported state snapshot: " + ret.getShortDescr());
+        return ret;
+    }
+
+    private boolean isSnapshotPivot(BlockHeader pivot) {
+        byte[] encoded = blockchainDB.get(StateSnapshotFile.SNAPSHOT_PIVOT_KEY);
+        return encoded != null && FastByteComparisons.equal(new BlockHeader(encoded).getHash(), pivot.getHash());
+    }
+
     private BlockHeader getPivotBlock() throws InterruptedException {
         byte[] pivotBlockHash = config.getFastSyncPivotBlockHash();
         long pivotBlockNumber = 0;
@@ -37,23 +37,16 @@ public class SyncManager extends BlockDownloader {
 
     private final static Logger logger = LoggerFactory.getLogger("sync");
 
-    // Transaction.getSender() is quite heavy operation so we are prefetching this value on several threads
-    // to unload the main block importing cycle
-    private ExecutorPipeline<BlockWrapper,BlockWrapper> exec1 = new ExecutorPipeline<>
-            (4, 1000, true, blockWrapper -> {
-                for (Transaction tx : blockWrapper.getBlock().getTransactionsList()) {
-                    tx.getSender();
-                }
-                return blockWrapper;
-            }, throwable -> logger.error("Unexpected exception: ", throwable));
-
-    private ExecutorPipeline<BlockWrapper, Void> exec2 = exec1.add(1, 1, new Consumer<BlockWrapper>() {
-        @Override
-        public void accept(BlockWrapper blockWrapper) {
-            blockQueue.add(blockWrapper);
-            estimateBlockSize(blockWrapper);
-        }
-    });
+    /**
+     * Import pipeline stages ahead of the block execution:
+     * the body verification (tx trie root) and Transaction.getSender() which are quite heavy
+     * operations run on several threads to unload the main block importing cycle,
+     * then the blocks are queued in the original order.
+     * Receipts of the executed block are stored while the next block is executed, see {@link BlockchainImpl}
+     */
+    private ExecutorPipeline<BlockWrapper,BlockWrapper> exec1;
+
+    private ExecutorPipeline<BlockWrapper, Void> exec2;
 
     /**
      * Queue with validated blocks to be added to the blockchain
@@ -92,6 +85,7 @@ public class SyncManager extends BlockDownloader {
 
     public SyncManager() {
         super(null);
+        initImportPipeline(4);
     }
 
     @Autowired
@@ -100,6 +94,30 @@ public class SyncManager extends BlockDownloader {
         this.config = config;
         blockBytesLimit = config.blockQueueSize();
         setHeaderQueueLimit(config.headerQueueSize() / BlockHeader.MAX_HEADER_SIZE);
+        initImportPipeline(config.syncImportVerifyThreads());
+    }
+
+    private void initImportPipeline(int verifyThreads) {
+        exec1 = new ExecutorPipeline<BlockWrapper, BlockWrapper>
+                (verifyThreads, 1000, true, blockWrapper -> {
+                    Block block = blockWrapper.getBlock();
+                    if (!block.verifyTxTrieRoot()) {
+                        logger.warn("Block's tx trie root doesn't match its transactions: {}", block.getShortDescr());
+                        return blockWrapper; // rejected by the import
+                    }
+                    for (Transaction tx : block.getTransactionsList()) {
+                        tx.getSender();
+                    }
+                    return blockWrapper;
+                }, throwable -> logger.error("Unexpected exception: ", throwable)).setThreadPoolName("BlockVerify");
+
+        exec2 = exec1.add(1, 1, new Consumer<BlockWrapper>() {
+            @Override
+            public void accept(BlockWrapper blockWrapper) {
+                blockQueue.add(blockWrapper);
+                estimateBlockSize(blockWrapper);
+            }
+        });
     }
 
     public void init(final ChannelManager channelManager, final SyncPool pool) {
@@ -9,6 +9,7 @@ import org.cds.main.blockchain.net.rlpx.discover.NodeHandler;
 import org.cds.main.blockchain.net.rlpx.discover.NodeManager;
 import org.cds.main.blockchain.net.server.Channel;
 import org.cds.main.blockchain.net.server.ChannelManager;
+import org.cds.main.blockchain.net.server.PeerStatistics;
 import org.cds.main.blockchain.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -125,6 +126,9 @@ public class SyncPool {
         return null;
     }
 
+    /**
+     * @return idle peer with the best score, active peers are ordered by score
+     */
     @Nullable
     public synchronized Channel getBestIdle() {
         for (Channel peer : activePeers) {
@@ -283,11 +287,18 @@ public class SyncPool {
             logger.trace("After filtering out with node selector, {} peers remaining", active.size());
         if (active.isEmpty()) return;
 
+        // peers with bad score are kept out of sync unless there is nobody else
+        List<Channel> good = new ArrayList<>();
+        for (Channel channel : active) {
+            if (channel.getScore() >= PeerStatistics.BAD_SCORE) good.add(channel);
+        }
+        if (!good.isEmpty()) active = good;
+
         // filtering by 20% from top difficulty
         active.sort((c1, c2) -> c2.getTotalDifficulty().compareTo(c1.getTotalDifficulty()));
 
         BigInteger highestDifficulty = active.get(0).getTotalDifficulty();
-        int thresholdIdx = min(config.syncPeerCount(), active.size()) - 1;
+        int thresholdIdx = active.size() - 1;
 
         for (int i = thresholdIdx; i >= 0; i--) {
             if (isIn20PercentRange(active.get(i).getTotalDifficulty(), highestDifficulty)) {
@@ -296,7 +307,10 @@ public class SyncPool {
             }
         }
 
-        List<Channel> filtered = active.subList(0, thresholdIdx + 1);
+        // the best scored peers among the ones on the top chain
+        List<Channel> filtered = new ArrayList<>(active.subList(0, thresholdIdx + 1));
+        filtered.sort((c1, c2) -> Double.compare(c2.getScore(), c1.getScore()));
+        filtered = filtered.subList(0, min(config.syncPeerCount(), filtered.size()));
 
         // Dropping other peers to free up slots for active
         // Act more aggressive until sync is done
@@ -307,6 +321,8 @@ public class SyncPool {
         int killCount = max(0, otherCount - cap);
         if (killCount > 0) {
             AtomicInteger dropped = new AtomicInteger(0);
+            // the worst peers go first
+            managerActive.sort(Comparator.comparingDouble(Channel::getScore));
             for (Channel channel : managerActive) {
                 if (!filtered.contains(channel)) {
                     if (channel.isIdle()) {
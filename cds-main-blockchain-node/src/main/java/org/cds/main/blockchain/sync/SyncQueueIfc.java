@@ -61,6 +61,13 @@ public interface SyncQueueIfc {
      */
     BlocksRequest requestBlocks(int maxSize);
 
+    /**
+     * Returns the blocks handed out by {@link #requestBlocks(int)} which won't be received,
+     * e.g. the request has failed or the response misses them, so they are handed out
+     * again right away instead of waiting for the request timeout
+     */
+    void releaseBlocks(Collection<BlockHeaderWrapper> headers);
+
     /**
      * Adds new received blocks to the queue
      * The blocks need to be verified but can be passed in any order and need not correspond
@@ -4,29 +4,32 @@ import static java.lang.Math.min;
 import static org.cds.main.blockchain.sync.BlockDownloader.MAX_IN_REQUEST;
 import static org.cds.main.blockchain.util.ByteUtil.toHexString;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
 
 import org.cds.main.blockchain.core.Block;
 import org.cds.main.blockchain.core.BlockHeader;
 import org.cds.main.blockchain.core.BlockHeaderWrapper;
 import org.cds.main.blockchain.core.Blockchain;
-import org.cds.main.blockchain.db.ByteArrayWrapper;
-import org.cds.main.blockchain.util.ByteArrayMap;
-import org.cds.main.blockchain.util.ByteUtil;
+import org.cds.main.blockchain.util.FastByteComparisons;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SyncQueueImpl implements SyncQueueIfc {
 	
     static int MAX_CHAIN_LEN = MAX_IN_REQUEST;
+
+    // block handed out by requestBlocks isn't handed out again for that long
+    static long BLOCK_REQUEST_TIMEOUT = 10_000;
     
     private final static Logger logger = LoggerFactory.getLogger("sync");
     
@@ -139,25 +142,29 @@ public class SyncQueueImpl implements SyncQueueIfc {
     }
 
     class HeaderElement {
-        BlockHeaderWrapper header;
-        Block block;
-        boolean exported;
+        final BlockHeaderWrapper header;
+        volatile Block block;
+        volatile boolean exported;
+        // chained to the dark zone header, guarded by the queue monitor
+        boolean connected;
+        // time the block was handed out by requestBlocks, 0 if never
+        final AtomicLong requestedAt = new AtomicLong();
 
         public HeaderElement(BlockHeaderWrapper header) {
             this.header = header;
         }
 
         public HeaderElement getParent() {
-            Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(header.getNumber() - 1);
-            if (genHeaders == null) return null;
-            return genHeaders.get(new ByteArrayWrapper(header.getHeader().getParentHash()));
+            Gen gen = headers.get(header.getNumber() - 1);
+            if (gen == null) return null;
+            return gen.find(header.getHeader().getParentHash());
         }
 
         public List<HeaderElement> getChildren() {
             List<HeaderElement> ret = new ArrayList<>();
-            Map<ByteArrayWrapper, HeaderElement> childGenHeaders = headers.get(header.getNumber() + 1);
-            if (childGenHeaders != null) {
-                for (HeaderElement child : childGenHeaders.values()) {
+            Gen childGen = headers.get(header.getNumber() + 1);
+            if (childGen != null) {
+                for (HeaderElement child : childGen.elements) {
                     if (Arrays.equals(child.header.getHeader().getParentHash(), header.getHash())) {
                         ret.add(child);
                     }
@@ -165,14 +172,106 @@ public class SyncQueueImpl implements SyncQueueIfc {
             }
             return ret;
         }
+
+        /**
+         * Claims the block for requesting, the claim expires in {@link #BLOCK_REQUEST_TIMEOUT}
+         * so the block is requested again if the response is lost
+         */
+        boolean claimRequest(long now) {
+            long requested = requestedAt.get();
+            return (requested == 0 || now - requested > BLOCK_REQUEST_TIMEOUT) &&
+                    requestedAt.compareAndSet(requested, now);
+        }
+
+        void releaseRequest() {
+            requestedAt.set(0);
+        }
+    }
+
+    /**
+     * Headers of a single block number: one for the main chain and more when there are forks.
+     * The array is replaced on change so readers need no locking
+     */
+    static final class Gen {
+        final long number;
+        volatile HeaderElement[] elements;
+
+        Gen(long number, HeaderElement... elements) {
+            this.number = number;
+            this.elements = elements;
+        }
+
+        HeaderElement find(byte[] hash) {
+            for (HeaderElement element : elements) {
+                if (FastByteComparisons.equal(element.header.getHash(), hash)) return element;
+            }
+            return null;
+        }
+
+        void add(HeaderElement element) {
+            HeaderElement[] cur = elements;
+            HeaderElement[] upd = Arrays.copyOf(cur, cur.length + 1);
+            upd[cur.length] = element;
+            elements = upd;
+        }
+
+        HeaderElement single() {
+            HeaderElement[] cur = elements;
+            assert cur.length == 1;
+            return cur[0];
+        }
+    }
+
+    /**
+     * Generations keyed by block number in a ring array which covers the [minNum, maxNum] range
+     * and is reallocated when the range outgrows it. Modified under the queue monitor, read without locking
+     */
+    static final class GenIndex {
+        private volatile AtomicReferenceArray<Gen> ring = new AtomicReferenceArray<>(1024);
+
+        Gen get(long num) {
+            AtomicReferenceArray<Gen> r = ring;
+            Gen gen = r.get(slot(r, num));
+            return gen != null && gen.number == num ? gen : null;
+        }
+
+        void put(Gen gen, long minNum, long maxNum) {
+            long lo = Math.min(minNum, gen.number);
+            long hi = Math.max(maxNum, gen.number);
+            AtomicReferenceArray<Gen> r = ring;
+            if (hi - lo >= r.length()) {
+                int size = r.length();
+                while (hi - lo >= size) size <<= 1;
+                AtomicReferenceArray<Gen> grown = new AtomicReferenceArray<>(size);
+                for (long n = Math.max(lo, maxNum - r.length() + 1); n <= maxNum; n++) {
+                    Gen old = get(n);
+                    if (old != null) grown.set(slot(grown, n), old);
+                }
+                ring = r = grown;
+            }
+            r.set(slot(r, gen.number), gen);
+        }
+
+        void remove(long num) {
+            AtomicReferenceArray<Gen> r = ring;
+            int slot = slot(r, num);
+            Gen gen = r.get(slot);
+            if (gen != null && gen.number == num) r.compareAndSet(slot, gen, null);
+        }
+
+        private static int slot(AtomicReferenceArray<Gen> r, long num) {
+            return (int) (num & (r.length() - 1));
+        }
     }
 
-    Map<Long, Map<ByteArrayWrapper, HeaderElement>> headers = new HashMap<>();
+    final GenIndex headers = new GenIndex();
 
-    long minNum = Integer.MAX_VALUE;
-    long maxNum = 0;
-    long darkZoneNum = 0;
-    Long endBlockNumber = null;
+    volatile long minNum = Integer.MAX_VALUE;
+    volatile long maxNum = 0;
+    volatile long darkZoneNum = 0;
+    // number of the last header of the longest chain started at the dark zone
+    volatile long chainEndNum = 0;
+    volatile Long endBlockNumber = null;
 
     Random rnd = new Random(); // ;)
 
@@ -203,75 +302,106 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
 
 
-    private void init(List<Block> initBlocks) {
+    private synchronized void init(List<Block> initBlocks) {
         if (initBlocks.size() < MAX_CHAIN_LEN && initBlocks.get(0).getNumber() != 0) {
             throw new RuntimeException("Queue should be initialized with a chain of at least " + MAX_CHAIN_LEN + " size or with the first genesis block");
         }
+        darkZoneNum = initBlocks.get(0).getNumber();
         for (Block block : initBlocks) {
             addHeaderPriv(new BlockHeaderWrapper(block.getHeader(), null));
             addBlock(block).exported = true;
         }
-        darkZoneNum = initBlocks.get(0).getNumber();
+        updateConnected();
+    }
+
+    private void putGen(Gen gen) {
+        headers.put(gen, minNum, maxNum);
+        minNum = min(minNum, gen.number);
+        maxNum = Math.max(maxNum, gen.number);
+    }
+
+    /**
+     * Marks the headers chained to the dark zone header from scratch
+     */
+    private void updateConnected() {
+        HeaderElement root = headers.get(darkZoneNum).single();
+        root.connected = true;
+        long end = darkZoneNum;
+        for (long num = darkZoneNum + 1; num <= maxNum; num++) {
+            Gen gen = headers.get(num);
+            if (gen == null) break;
+            boolean any = false;
+            for (HeaderElement element : gen.elements) {
+                HeaderElement parent = element.getParent();
+                element.connected = parent != null && parent.connected;
+                any |= element.connected;
+            }
+            if (!any) break;
+            end = num;
+        }
+        chainEndNum = end;
     }
 
-    private void putGenHeaders(long num, Map<ByteArrayWrapper, HeaderElement> genHeaders) {
-        minNum = min(minNum, num);
-        maxNum = Math.max(maxNum, num);
-        headers.put(num, genHeaders);
+    /**
+     * Marks the new header and its already known descendants as chained if its parent is
+     */
+    private void connect(HeaderElement element) {
+        HeaderElement parent = element.getParent();
+        if (parent == null || !parent.connected) return;
+        Deque<HeaderElement> stack = new ArrayDeque<>();
+        stack.push(element);
+        long end = chainEndNum;
+        while (!stack.isEmpty()) {
+            HeaderElement el = stack.pop();
+            el.connected = true;
+            end = Math.max(end, el.header.getNumber());
+            for (HeaderElement child : el.getChildren()) {
+                if (!child.connected) stack.push(child);
+            }
+        }
+        chainEndNum = end;
     }
 
     List<HeaderElement> getLongestChain() {
-        Map<ByteArrayWrapper, HeaderElement> lastValidatedGen = headers.get(darkZoneNum);
-        assert lastValidatedGen.size() == 1;
-        HeaderElement lastHeader = lastValidatedGen.values().iterator().next();
-
-        Map<byte[], HeaderElement> chainedParents = new ByteArrayMap<>();
-        chainedParents.put(lastHeader.header.getHash(), lastHeader);
-
-        for(long curNum = darkZoneNum + 1; ; curNum++) {
-            // keep track of blocks chained to lastHeader until no children
-            Map<byte[], HeaderElement> chainedBlocks = new ByteArrayMap<>();
-            Map<ByteArrayWrapper, HeaderElement> curLevel = headers.get(curNum);
-            if (curLevel == null) break;
-            for (HeaderElement element : curLevel.values()) {
-                if (chainedParents.containsKey(element.header.getHeader().getParentHash())) {
-                    chainedBlocks.put(element.header.getHash(), element);
-                }
+        HeaderElement lastHeader = headers.get(darkZoneNum).single();
+
+        HeaderElement end = null;
+        for (HeaderElement element : headers.get(chainEndNum).elements) {
+            if (element.connected) {
+                end = element;
+                break;
             }
-            if (chainedBlocks.isEmpty()) break;
-            chainedParents = chainedBlocks;
         }
 
         // reconstruct the chain back from the last block in the longest path
         List<HeaderElement> ret = new ArrayList<>();
-        for (HeaderElement el = chainedParents.values().iterator().next(); el != lastHeader.getParent(); el = el.getParent()) {
-            ret.add(0, el);
+        for (HeaderElement el = end; el != lastHeader.getParent(); el = el.getParent()) {
+            ret.add(el);
         }
+        Collections.reverse(ret);
         return ret;
     }
 
     private boolean hasGaps() {
-        List<HeaderElement> longestChain = getLongestChain();
-        return longestChain.get(longestChain.size() - 1).header.getNumber() < maxNum;
+        return chainEndNum < maxNum;
     }
 
     private void trimChain() {
-        List<HeaderElement> longestChain = getLongestChain();
-        if (longestChain.size() > MAX_CHAIN_LEN) {
-            long newTrimNum = getLongestChain().get(longestChain.size() - MAX_CHAIN_LEN).header.getNumber();
+        if (chainEndNum - darkZoneNum + 1 > MAX_CHAIN_LEN) {
+            List<HeaderElement> longestChain = getLongestChain();
+            long newTrimNum = longestChain.get(longestChain.size() - MAX_CHAIN_LEN).header.getNumber();
             for (int i = 0; darkZoneNum < newTrimNum; darkZoneNum++, i++) {
-                ByteArrayWrapper wHash = new ByteArrayWrapper(longestChain.get(i).header.getHash());
-                putGenHeaders(darkZoneNum, Collections.singletonMap(wHash, longestChain.get(i)));
+                putGen(new Gen(darkZoneNum, longestChain.get(i)));
             }
             darkZoneNum--;
+            // forks below the new dark zone are dropped with their descendants
+            updateConnected();
         }
     }
 
     private void trimExported() {
         for (; minNum < darkZoneNum; minNum++) {
-            Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(minNum);
-            assert genHeaders.size() == 1;
-            HeaderElement headerElement = genHeaders.values().iterator().next();
+            HeaderElement headerElement = headers.get(minNum).single();
             if (headerElement.exported) {
                 headers.remove(minNum);
             } else {
@@ -291,23 +421,24 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
     private boolean addHeaderPriv(BlockHeaderWrapper header) {
         long num = header.getNumber();
-        Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(num);
-        if (genHeaders == null) {
-            genHeaders = new HashMap<>();
-            putGenHeaders(num, genHeaders);
-        }
-        ByteArrayWrapper wHash = new ByteArrayWrapper(header.getHash());
-        HeaderElement headerElement = genHeaders.get(wHash);
-        if (headerElement != null) return false;
-
-        headerElement = new HeaderElement(header);
-        genHeaders.put(wHash, headerElement);
-        
+        Gen gen = headers.get(num);
+        HeaderElement headerElement = new HeaderElement(header);
+        if (gen == null) {
+            putGen(new Gen(num, headerElement));
+        } else {
+            if (gen.find(header.getHash()) != null) return false;
+            gen.add(headerElement);
+        }
+        connect(headerElement);
+
         return true;
     }
 
+    /**
+     * Doesn't lock the queue, reads the consistent enough snapshot of its state
+     */
     @Override
-    public synchronized List<HeadersRequest> requestHeaders(int maxSize, int maxRequests, int maxTotalHeaders) {
+    public List<HeadersRequest> requestHeaders(int maxSize, int maxRequests, int maxTotalHeaders) {
         return requestHeadersImpl(maxSize, maxRequests, maxTotalHeaders);
     }
 
@@ -316,8 +447,7 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
         long startNumber;
         if (hasGaps()) {
-            List<HeaderElement> longestChain = getLongestChain();
-            startNumber = longestChain.get(longestChain.size() - 1).header.getNumber();
+            startNumber = chainEndNum;
             boolean reverse = rnd.nextBoolean();
             ret.add(new HeadersRequestImpl(startNumber, MAX_CHAIN_LEN, reverse));
             startNumber += reverse ? 1 : MAX_CHAIN_LEN;
@@ -337,7 +467,7 @@ public class SyncQueueImpl implements SyncQueueIfc {
     }
 
     private HeadersRequestImpl getNextReq(long startFrom, int maxCount) {
-        while(headers.containsKey(startFrom)) startFrom++;
+        while(headers.get(startFrom) != null) startFrom++;
         if (endBlockNumber != null && maxCount > endBlockNumber - startFrom + 1) {
             maxCount = (int) (endBlockNumber - startFrom + 1);
         }
@@ -354,20 +484,25 @@ public class SyncQueueImpl implements SyncQueueIfc {
     }
 
     @Override
-    public synchronized int getHeadersCount() {
+    public int getHeadersCount() {
         return (int) (maxNum - minNum);
     }
 
+    /**
+     * Doesn't lock the queue, concurrent callers get distinct blocks:
+     * each block is claimed and isn't returned again until the claim expires
+     */
     @Override
-    public synchronized BlocksRequest requestBlocks(int maxSize) {
+    public BlocksRequest requestBlocks(int maxSize) {
         BlocksRequest ret = new BlocksRequestImpl();
+        long now = System.currentTimeMillis();
 
         outer:
-        for (long i = minNum; i <= maxNum; i++) {
-            Map<ByteArrayWrapper, HeaderElement> gen = headers.get(i);
+        for (long i = minNum, max = maxNum; i <= max; i++) {
+            Gen gen = headers.get(i);
             if (gen != null) {
-                for (HeaderElement element : gen.values()) {
-                    if (element.block == null) {
+                for (HeaderElement element : gen.elements) {
+                    if (element.block == null && element.claimRequest(now)) {
                         ret.getBlockHeaders().add(element.header);
                         if (ret.getBlockHeaders().size() >= maxSize) break outer;
                     }
@@ -377,10 +512,20 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return ret;
     }
 
+    @Override
+    public void releaseBlocks(Collection<BlockHeaderWrapper> headers) {
+        for (BlockHeaderWrapper header : headers) {
+            HeaderElement element = findHeaderElement(header.getHeader());
+            if (element != null && element.block == null) {
+                element.releaseRequest();
+            }
+        }
+    }
+
     HeaderElement findHeaderElement(BlockHeader bh) {
-        Map<ByteArrayWrapper, HeaderElement> genHeaders = headers.get(bh.getNumber());
-        if (genHeaders == null) return null;
-        return genHeaders.get(new ByteArrayWrapper(bh.getHash()));
+        Gen gen = headers.get(bh.getNumber());
+        if (gen == null) return null;
+        return gen.find(bh.getHash());
     }
 
     private HeaderElement addBlock(Block block) {
@@ -402,14 +547,14 @@ public class SyncQueueImpl implements SyncQueueIfc {
     private List<Block> exportBlocks() {
         List<Block> ret = new ArrayList<>();
         for (long i = minNum; i <= maxNum; i++) {
-            Map<ByteArrayWrapper, HeaderElement> gen = headers.get(i);
+            Gen gen = headers.get(i);
             if (gen == null) {
             	logger.info("gen 为空,num{}",i);
             	break;
             }
             
             boolean hasAny = false;
-            for (HeaderElement element : gen.values()) {
+            for (HeaderElement element : gen.elements) {
                 HeaderElement parent = element.getParent();
                 
                 //logger.info("num:{} element:{}",i,ByteUtil.toHexString(element.block.getHash()));
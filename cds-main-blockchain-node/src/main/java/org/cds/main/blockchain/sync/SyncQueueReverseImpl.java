@@ -135,6 +135,11 @@ public class SyncQueueReverseImpl implements SyncQueueIfc {
         return new SyncQueueImpl.BlocksRequestImpl(reqHeaders);
     }
 
+    @Override
+    public void releaseBlocks(Collection<BlockHeaderWrapper> headers) {
+        // the blocks aren't claimed, every request returns all the missing ones
+    }
+
     @Override
     public synchronized List<Block> addBlocks(Collection<Block> newBlocks) {
         for (Block block : newBlocks) {
@@ -8,6 +8,9 @@ import org.cds.main.blockchain.util.Value;
 
 public class SecureTrie extends TrieImpl {
 
+    // lookup keys are not retained by the trie, so their hashes can share a per-thread buffer
+    private static final ThreadLocal<byte[]> LOOKUP_KEY = ThreadLocal.withInitial(() -> new byte[32]);
+
     public SecureTrie(byte[] root) {
         super(root);
     }
@@ -22,7 +25,9 @@ public class SecureTrie extends TrieImpl {
 
     @Override
     public byte[] get(byte[] key) {
-        return super.get(sha3(key));
+        byte[] hash = LOOKUP_KEY.get();
+        sha3(key, 0, key.length, hash, 0);
+        return super.get(hash);
     }
 
     @Override
@@ -1,6 +1,5 @@
 package org.cds.main.blockchain.trie;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.text.StrBuilder;
 import org.cds.main.blockchain.crypto.HashUtil;
 import org.cds.main.blockchain.datasource.Source;
@@ -9,6 +8,7 @@ import org.cds.main.blockchain.datasource.inmem.HashMapDBSimple;
 import org.cds.main.blockchain.net.swarm.Key;
 import org.cds.main.blockchain.util.FastByteComparisons;
 import org.cds.main.blockchain.util.RLP;
+import org.cds.main.blockchain.util.RLPWriter;
 import org.cds.main.blockchain.util.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,27 +18,87 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 
-import static org.apache.commons.lang3.concurrent.ConcurrentUtils.constantFuture;
 import static org.cds.main.blockchain.crypto.HashUtil.EMPTY_TRIE_HASH;
-import static org.cds.main.blockchain.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.cds.main.blockchain.util.ByteUtil.toHexString;
 import static org.cds.main.blockchain.util.RLP.EMPTY_ELEMENT_RLP;
 import static org.cds.main.blockchain.util.RLP.encodeElement;
-import static org.cds.main.blockchain.util.RLP.encodeList;
 
 public class TrieImpl implements Trie<byte[]> {
     private final static Object NULL_NODE = new Object();
+    // a branch node subtrees are encoded concurrently if at least that many of them are modified
     private final static int MIN_BRANCHES_CONCURRENTLY = 3;
-    private static ExecutorService executor;
+    // stop forking when the worker has got enough queued tasks to be stolen by the others
+    private final static int MAX_SURPLUS_TASKS = 2;
+    private static ForkJoinPool forkJoinPool;
 
     private static final Logger logger = LoggerFactory.getLogger("state");
 
-    public static ExecutorService getExecutor() {
-        if (executor == null) {
-            executor = Executors.newFixedThreadPool(4,
-                    new ThreadFactoryBuilder().setNameFormat("trie-calc-thread-%d").build());
+    public static synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("trie-calc-thread-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return forkJoinPool;
+    }
+
+    private static boolean inTriePool() {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        return pool != null && pool == getForkJoinPool();
+    }
+
+    /**
+     * Node writes and deletes collected while encoding the dirty nodes,
+     * applied to the trie Source in a single pass once the encoding is complete
+     */
+    private static final class NodeWrites {
+        private final List<byte[]> keys = new ArrayList<>();
+        // null value for delete
+        private final List<byte[]> values = new ArrayList<>();
+
+        void put(byte[] hash, byte[] rlp) {
+            keys.add(hash);
+            values.add(rlp);
+        }
+
+        void delete(byte[] hash) {
+            keys.add(hash);
+            values.add(null);
+        }
+
+        void addAll(NodeWrites other) {
+            keys.addAll(other.keys);
+            values.addAll(other.values);
+        }
+
+        void applyTo(Source<byte[], byte[]> cache) {
+            for (int i = 0; i < keys.size(); i++) {
+                if (values.get(i) == null) {
+                    cache.delete(keys.get(i));
+                } else {
+                    cache.put(keys.get(i), values.get(i));
+                }
+            }
+        }
+    }
+
+    private static final class EncodeTask extends RecursiveTask<byte[]> {
+        private final Node node;
+        private final boolean forceHash;
+        private final NodeWrites writes;
+
+        EncodeTask(Node node, boolean forceHash, NodeWrites writes) {
+            this.node = node;
+            this.forceHash = forceHash;
+            this.writes = writes;
+        }
+
+        @Override
+        protected byte[] compute() {
+            return node.encode(forceHash, writes, true);
         }
-        return executor;
     }
 
     public enum NodeType {
@@ -91,6 +151,18 @@ public class TrieImpl implements Trie<byte[]> {
             return rlp != null;
         }
 
+        private boolean isResolved() {
+            return rlp != null || parsedRlp != null || hash == null;
+        }
+
+        /**
+         * @return RLP of this node as it is stored in the trie Source
+         */
+        public byte[] getRlp() {
+            resolve();
+            return rlp != null ? rlp : parsedRlp.getEncoded();
+        }
+
         private void resolve() {
             if (!resolveCheck()) {
                 logger.error("Invalid Trie state, can't resolve hash " + toHexString(hash));
@@ -99,66 +171,89 @@ public class TrieImpl implements Trie<byte[]> {
         }
 
         public byte[] encode() {
-            return encode(1, true);
+            NodeWrites writes = new NodeWrites();
+            byte[] ret;
+            boolean concurrent = async && dirty;
+            if (concurrent && !inTriePool()) {
+                ret = getForkJoinPool().invoke(new EncodeTask(this, true, writes));
+            } else {
+                ret = encode(true, writes, concurrent);
+            }
+            writes.applyTo(cache);
+            return ret;
         }
-        private byte[] encode(final int depth, boolean forceHash) {
+
+        /**
+         * Encodes the node and all its dirty descendants, the nodes to be persisted
+         * or removed are collected to the writes in the same order as serial recursive
+         * encoding would produce them.
+         * When concurrent, which is only the case within the trie fork-join pool,
+         * forks subtrees of the branch nodes which have enough modified children
+         */
+        private byte[] encode(boolean forceHash, NodeWrites writes, boolean concurrent) {
             if (!dirty) {
                 return hash != null ? encodeElement(hash) : rlp;
             } else {
                 NodeType type = getType();
                 byte[] ret;
                 if (type == NodeType.BranchNode) {
-                    if (depth == 1 && async) {
-                        // parallelize encode() on the first trie level only and if there are at least
-                        // MIN_BRANCHES_CONCURRENTLY branches are modified
-                        final Object[] encoded = new Object[17];
-                        int encodeCnt = 0;
+                    byte[][] encoded = new byte[16][];
+                    if (concurrent && dirtyChildrenCount() >= MIN_BRANCHES_CONCURRENTLY &&
+                            ForkJoinTask.getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+                        EncodeTask[] tasks = new EncodeTask[16];
+                        EncodeTask last = null;
                         for (int i = 0; i < 16; i++) {
-                            final Node child = branchNodeGetChild(i);
+                            Node child = branchNodeGetChild(i);
                             if (child == null) {
                                 encoded[i] = EMPTY_ELEMENT_RLP;
                             } else if (!child.dirty) {
-                                encoded[i] = child.encode(depth + 1, false);
+                                encoded[i] = child.encode(false, writes, false);
                             } else {
-                                encodeCnt++;
+                                if (last != null) last.fork();
+                                last = tasks[i] = new EncodeTask(child, false, new NodeWrites());
                             }
                         }
+                        // the last subtree is encoded by the current thread
+                        last.invoke();
                         for (int i = 0; i < 16; i++) {
-                            if (encoded[i] == null) {
-                                final Node child = branchNodeGetChild(i);
-                                if (encodeCnt >= MIN_BRANCHES_CONCURRENTLY) {
-                                    encoded[i] = getExecutor().submit(() -> child.encode(depth + 1, false));
-                                } else {
-                                    encoded[i] = child.encode(depth + 1, false);
-                                }
+                            if (tasks[i] != null) {
+                                encoded[i] = tasks[i].join();
+                                writes.addAll(tasks[i].writes);
                             }
                         }
-                        byte[] value = branchNodeGetValue();
-                        encoded[16] = constantFuture(encodeElement(value));
-                        try {
-                            ret = encodeRlpListFutures(encoded);
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
                     } else {
-                        byte[][] encoded = new byte[17][];
                         for (int i = 0; i < 16; i++) {
                             Node child = branchNodeGetChild(i);
-                            encoded[i] = child == null ? EMPTY_ELEMENT_RLP : child.encode(depth + 1, false);
+                            encoded[i] = child == null ? EMPTY_ELEMENT_RLP : child.encode(false, writes, concurrent);
                         }
-                        byte[] value = branchNodeGetValue();
-                        encoded[16] = encodeElement(value);
-                        ret = encodeList(encoded);
                     }
+                    byte[] value = branchNodeGetValue();
+                    int size = RLPWriter.sizeOfBytes(value);
+                    for (byte[] child : encoded) {
+                        size += child.length;
+                    }
+                    RLPWriter writer = RLPWriter.list(size);
+                    for (byte[] child : encoded) {
+                        writer.writeEncoded(child);
+                    }
+                    ret = writer.writeBytes(value).toByteArray();
                 } else if (type == NodeType.KVNodeNode) {
-                    ret = encodeList(encodeElement(kvNodeGetKey().toPacked()), kvNodeGetChildNode().encode(depth + 1, false));
+                    byte[] key = kvNodeGetKey().toPacked();
+                    byte[] child = kvNodeGetChildNode().encode(false, writes, concurrent);
+                    ret = RLPWriter.list(RLPWriter.sizeOfBytes(key) + child.length)
+                            .writeBytes(key)
+                            .writeEncoded(child)
+                            .toByteArray();
                 } else {
+                    byte[] key = kvNodeGetKey().toPacked();
                     byte[] value = kvNodeGetValue();
-                    ret = encodeList(encodeElement(kvNodeGetKey().toPacked()),
-                                    encodeElement(value == null ? EMPTY_BYTE_ARRAY : value));
+                    ret = RLPWriter.list(RLPWriter.sizeOfBytes(key) + RLPWriter.sizeOfBytes(value))
+                            .writeBytes(key)
+                            .writeBytes(value)
+                            .toByteArray();
                 }
                 if (hash != null) {
-                    deleteHash(hash);
+                    writes.delete(hash);
                 }
                 dirty = false;
                 if (ret.length < 32 && !forceHash) {
@@ -166,23 +261,19 @@ public class TrieImpl implements Trie<byte[]> {
                     return ret;
                 } else {
                     hash = HashUtil.sha3(ret);
-                    addHash(hash, ret);
+                    writes.put(hash, ret);
                     return encodeElement(hash);
                 }
             }
         }
 
-        @SafeVarargs
-        private final byte[] encodeRlpListFutures(Object... list) throws ExecutionException, InterruptedException {
-            byte[][] vals = new byte[list.length][];
-            for (int i = 0; i < list.length; i++) {
-                if (list[i] instanceof Future) {
-                    vals[i] = ((Future<byte[]>) list[i]).get();
-                } else {
-                    vals[i] = (byte[]) list[i];
-                }
+        private int dirtyChildrenCount() {
+            int ret = 0;
+            for (int i = 0; i < 16; i++) {
+                Object child = children[i];
+                if (child instanceof Node && ((Node) child).dirty) ret++;
             }
-            return encodeList(vals);
+            return ret;
         }
 
         private void parse() {
@@ -410,11 +501,38 @@ public class TrieImpl implements Trie<byte[]> {
 
     public interface ScanAction {
 
+        /**
+         * Called before the node referenced by the hash is loaded
+         * @return false to skip the node with its subtree
+         */
+        default boolean enterNode(byte[] hash) {
+            return true;
+        }
+
         void doOnNode(byte[] hash, Node node);
 
         void doOnValue(byte[] nodeHash, Node node, byte[] key, byte[] value);
     }
 
+    private final class ScanTask extends RecursiveAction {
+        private final Node node;
+        private final TrieKey key;
+        private final ScanAction scanAction;
+        private final int parallelDepth;
+
+        ScanTask(Node node, TrieKey key, ScanAction scanAction, int parallelDepth) {
+            this.node = node;
+            this.key = key;
+            this.scanAction = scanAction;
+            this.parallelDepth = parallelDepth;
+        }
+
+        @Override
+        protected void compute() {
+            scanTree(node, key, scanAction, parallelDepth);
+        }
+    }
+
     private Source<byte[], byte[]> cache;
     private Node root;
     private boolean async = true;
@@ -465,8 +583,19 @@ public class TrieImpl implements Trie<byte[]> {
     private byte[] getHash(byte[] hash) {
         return cache.get(hash);
     }
-    private void addHash(byte[] hash, byte[] ret) {
-        cache.put(hash, ret);
+    private void resolveBatch(List<Node> nodes) {
+        // a single node is resolved the regular way when accessed
+        if (nodes.size() < 2) return;
+        List<byte[]> hashes = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            hashes.add(node.hash);
+        }
+        List<byte[]> rlps = cache.getBatch(hashes);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (rlps.get(i) != null) {
+                nodes.get(i).rlp = rlps.get(i);
+            }
+        }
     }
     private void deleteHash(byte[] hash) {
         cache.delete(hash);
@@ -683,10 +812,24 @@ public class TrieImpl implements Trie<byte[]> {
     }
 
     public void scanTree(ScanAction scanAction) {
+        if (root == null || (root.hash != null && !scanAction.enterNode(root.hash))) return;
         scanTree(root, TrieKey.empty(false), scanAction);
     }
 
+    /**
+     * Scans the tree in the trie fork-join pool, the subtrees of the branch nodes
+     * down to the parallelDepth are scanned concurrently so the action should be thread safe
+     */
+    public void scanTreeParallel(ScanAction scanAction, int parallelDepth) {
+        if (root == null || (root.hash != null && !scanAction.enterNode(root.hash))) return;
+        getForkJoinPool().invoke(new ScanTask(root, TrieKey.empty(false), scanAction, parallelDepth));
+    }
+
     public void scanTree(Node node, TrieKey k, ScanAction scanAction) {
+        scanTree(node, k, scanAction, 0);
+    }
+
+    private void scanTree(Node node, TrieKey k, ScanAction scanAction, int parallelDepth) {
         if (node == null) return;
         if (node.hash != null) {
             scanAction.doOnNode(node.hash, node);
@@ -694,11 +837,34 @@ public class TrieImpl implements Trie<byte[]> {
         if (node.getType() == NodeType.BranchNode) {
             if (node.branchNodeGetValue() != null)
                 scanAction.doOnValue(node.hash, node, k.toNormal(), node.branchNodeGetValue());
+            // bulk traversal: load all the entered children with a single request
+            Node[] children = new Node[16];
+            List<Node> unresolved = new ArrayList<>();
             for (int i = 0; i < 16; i++) {
-                scanTree(node.branchNodeGetChild(i), k.concat(TrieKey.singleHex(i)), scanAction);
+                Node child = node.branchNodeGetChild(i);
+                if (child == null || (child.hash != null && !scanAction.enterNode(child.hash))) continue;
+                children[i] = child;
+                if (!child.isResolved()) unresolved.add(child);
+            }
+            resolveBatch(unresolved);
+            if (parallelDepth > 0) {
+                List<ScanTask> tasks = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    if (children[i] != null) {
+                        tasks.add(new ScanTask(children[i], k.concat(TrieKey.singleHex(i)), scanAction, parallelDepth - 1));
+                    }
+                }
+                ForkJoinTask.invokeAll(tasks);
+            } else {
+                for (int i = 0; i < 16; i++) {
+                    scanTree(children[i], k.concat(TrieKey.singleHex(i)), scanAction, 0);
+                }
             }
         } else if (node.getType() == NodeType.KVNodeNode) {
-            scanTree(node.kvNodeGetChildNode(), k.concat(node.kvNodeGetKey()), scanAction);
+            Node child = node.kvNodeGetChildNode();
+            if (child.hash == null || scanAction.enterNode(child.hash)) {
+                scanTree(child, k.concat(node.kvNodeGetKey()), scanAction, parallelDepth);
+            }
         } else {
             scanAction.doOnValue(node.hash, node, k.concat(node.kvNodeGetKey()).toNormal(), node.kvNodeGetValue());
         }
@@ -0,0 +1,245 @@
+package org.cds.main.blockchain.util;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cursor over RLP encoded data which doesn't build the tree of {@link RLPList}/{@link RLPItem}
+ * like {@link RLP#decode2(byte[])} does. Elements are read one by one in order,
+ * a nested list is read by a child reader sharing the same data, nothing is copied
+ * unless the caller asks for a byte[] of the element.
+ *
+ * Can be created over a byte[] range or a heap ByteBuffer without copying,
+ * for a Netty ByteBuf use its nioBuffer()
+ *
+ * Example:
+ * <pre>
+ *     RLPReader tx = new RLPReader(rlpEncoded).nextList();
+ *     byte[] nonce = tx.nextBytes();
+ *     long gas = tx.nextLong();
+ *     tx.skip();
+ * </pre>
+ */
+public final class RLPReader {
+
+    private static final int OFFSET_SHORT_ITEM = 0x80;
+    private static final int OFFSET_LONG_ITEM = 0xb7;
+    private static final int OFFSET_SHORT_LIST = 0xc0;
+    private static final int OFFSET_LONG_LIST = 0xf7;
+
+    private final byte[] data;
+    private final int end;
+    private int pos;
+
+    // the element at pos, valid when peeked
+    private boolean peeked;
+    private int payloadOffset;
+    private int payloadLength;
+    private boolean list;
+
+    public RLPReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Reads the elements encoded in the data[offset, offset + length)
+     */
+    public RLPReader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new RuntimeException("RLP range is out of data bounds");
+        }
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Reads the buffer remaining bytes, the buffer position isn't changed.
+     * Heap buffer is read in place, direct buffer content is copied once
+     */
+    public RLPReader(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            this.data = buf.array();
+            this.pos = buf.arrayOffset() + buf.position();
+        } else {
+            this.data = new byte[buf.remaining()];
+            buf.duplicate().get(this.data);
+            this.pos = 0;
+        }
+        this.end = this.pos + buf.remaining();
+    }
+
+    public boolean hasNext() {
+        return pos < end;
+    }
+
+    /**
+     * @return offset of the next element (its prefix) in the underlying data
+     */
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * @return true if the next element is a list
+     */
+    public boolean isList() {
+        peek();
+        return list;
+    }
+
+    /**
+     * @return offset of the next element payload in the underlying data
+     */
+    public int payloadOffset() {
+        peek();
+        return payloadOffset;
+    }
+
+    /**
+     * @return length of the next element payload
+     */
+    public int payloadLength() {
+        peek();
+        return payloadLength;
+    }
+
+    /**
+     * @return number of the elements remaining to be read, the position isn't changed
+     */
+    public int count() {
+        int ret = 0;
+        int savedPos = pos;
+        while (hasNext()) {
+            skip();
+            ret++;
+        }
+        pos = savedPos;
+        peeked = false;
+        return ret;
+    }
+
+    public void skip() {
+        peek();
+        advance();
+    }
+
+    /**
+     * @return reader of the next element which should be a list
+     */
+    public RLPReader nextList() {
+        peek();
+        if (!list) throw new RuntimeException("RLP list expected at " + pos);
+        RLPReader ret = new RLPReader(data, payloadOffset, payloadLength);
+        advance();
+        return ret;
+    }
+
+    /**
+     * Copies the payload of the next item.
+     * @return payload or null if it is empty (the same as {@link RLPItem#getRLPData()} does)
+     */
+    public byte[] nextBytes() {
+        peek();
+        if (list) throw new RuntimeException("RLP item expected at " + pos);
+        byte[] ret = payloadLength == 0 ? null : Arrays.copyOfRange(data, payloadOffset, payloadOffset + payloadLength);
+        advance();
+        return ret;
+    }
+
+    /**
+     * Copies the next element with its prefix, i.e. its complete RLP encoding
+     */
+    public byte[] nextEncoded() {
+        peek();
+        byte[] ret = Arrays.copyOfRange(data, pos, payloadOffset + payloadLength);
+        advance();
+        return ret;
+    }
+
+    /**
+     * @return read-only view of the next element payload, nothing is copied
+     */
+    public ByteBuffer nextSlice() {
+        peek();
+        ByteBuffer ret = ByteBuffer.wrap(data, payloadOffset, payloadLength).slice().asReadOnlyBuffer();
+        advance();
+        return ret;
+    }
+
+    /**
+     * Decodes the next item as an unsigned big endian number, empty item is 0.
+     * Numbers longer than 8 bytes are truncated like {@link ByteUtil#byteArrayToLong(byte[])} does
+     */
+    public long nextLong() {
+        peek();
+        if (list) throw new RuntimeException("RLP item expected at " + pos);
+        long ret = 0;
+        for (int i = payloadOffset; i < payloadOffset + payloadLength; i++) {
+            ret = (ret << 8) | (data[i] & 0xFF);
+        }
+        advance();
+        return ret;
+    }
+
+    public int nextInt() {
+        return (int) nextLong();
+    }
+
+    public BigInteger nextBigInteger() {
+        peek();
+        if (list) throw new RuntimeException("RLP item expected at " + pos);
+        BigInteger ret = payloadLength == 0 ? BigInteger.ZERO :
+                new BigInteger(1, Arrays.copyOfRange(data, payloadOffset, payloadOffset + payloadLength));
+        advance();
+        return ret;
+    }
+
+    private void advance() {
+        pos = payloadOffset + payloadLength;
+        peeked = false;
+    }
+
+    private void peek() {
+        if (peeked) return;
+        if (pos >= end) throw new RuntimeException("No more RLP elements");
+
+        int prefix = data[pos] & 0xFF;
+        if (prefix < OFFSET_SHORT_ITEM) {  // [0x00, 0x7f]
+            setElement(pos, 1, false);
+        } else if (prefix <= OFFSET_LONG_ITEM) {  // [0x80, 0xb7]
+            setElement(pos + 1, prefix - OFFSET_SHORT_ITEM, false);
+        } else if (prefix < OFFSET_SHORT_LIST) {  // [0xb8, 0xbf]
+            int lenlen = prefix - OFFSET_LONG_ITEM;
+            setElement(pos + 1 + lenlen, readLength(pos + 1, lenlen), false);
+        } else if (prefix <= OFFSET_LONG_LIST) {  // [0xc0, 0xf7]
+            setElement(pos + 1, prefix - OFFSET_SHORT_LIST, true);
+        } else {  // [0xf8, 0xff]
+            int lenlen = prefix - OFFSET_LONG_LIST;
+            setElement(pos + 1 + lenlen, readLength(pos + 1, lenlen), true);
+        }
+        peeked = true;
+    }
+
+    private void setElement(int offset, int length, boolean isList) {
+        if (offset + length > end || offset + length < offset) {
+            throw new RuntimeException("RLP element length " + length + " at " + pos + " is out of bounds");
+        }
+        this.payloadOffset = offset;
+        this.payloadLength = length;
+        this.list = isList;
+    }
+
+    private int readLength(int offset, int lenlen) {
+        if (lenlen > 4 || offset + lenlen > end) {
+            throw new RuntimeException("Invalid RLP length of length " + lenlen + " at " + pos);
+        }
+        int ret = 0;
+        for (int i = offset; i < offset + lenlen; i++) {
+            ret = (ret << 8) | (data[i] & 0xFF);
+        }
+        if (ret < 0) throw new RuntimeException("Invalid RLP length at " + pos);
+        return ret;
+    }
+}
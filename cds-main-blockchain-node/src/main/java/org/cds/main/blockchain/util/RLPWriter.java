@@ -0,0 +1,222 @@
+package org.cds.main.blockchain.util;
+
+import java.math.BigInteger;
+
+import static org.cds.main.blockchain.util.ByteUtil.isNullOrZeroArray;
+import static org.cds.main.blockchain.util.ByteUtil.isSingleZero;
+import static org.spongycastle.util.BigIntegers.asUnsignedByteArray;
+
+/**
+ * Single pass RLP encoder writing into one preallocated array.
+ *
+ * Unlike {@link RLP#encodeList(byte[]...)} which concatenates already encoded elements
+ * the caller first sums up the sizes of the elements with the sizeOf* methods,
+ * creates the writer of the exact size and then writes the elements in order.
+ * The output is byte to byte the same as of the corresponding RLP.encode* methods.
+ *
+ * Example:
+ * <pre>
+ *     int size = RLPWriter.sizeOfBytes(hash) + RLPWriter.sizeOfLong(number);
+ *     byte[] encoded = RLPWriter.list(size)
+ *             .writeBytes(hash)
+ *             .writeLong(number)
+ *             .toByteArray();
+ * </pre>
+ *
+ * The writer can also fill a range of an existing array, e.g. the backing array of a heap ByteBuf
+ */
+public final class RLPWriter {
+
+    private static final int SIZE_THRESHOLD = 56;
+    private static final int OFFSET_SHORT_ITEM = 0x80;
+    private static final int OFFSET_LONG_ITEM = 0xb7;
+    private static final int OFFSET_SHORT_LIST = 0xc0;
+    private static final int OFFSET_LONG_LIST = 0xf7;
+
+    private final byte[] buf;
+    private final int start;
+    private final int end;
+    private int pos;
+
+    public RLPWriter(int size) {
+        this(new byte[size], 0, size);
+    }
+
+    /**
+     * Writes to the buf[offset, offset + length)
+     */
+    public RLPWriter(byte[] buf, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buf.length) {
+            throw new RuntimeException("RLP writer range is out of buffer bounds");
+        }
+        this.buf = buf;
+        this.start = offset;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Creates the writer for the list with the content of the given size and writes the list prefix
+     */
+    public static RLPWriter list(int contentSize) {
+        return new RLPWriter(sizeOfList(contentSize)).writeListHeader(contentSize);
+    }
+
+    /**
+     * @return encoded size of the item, the same as of {@link RLP#encodeElement(byte[])}
+     */
+    public static int sizeOfBytes(byte[] data) {
+        if (isNullOrZeroArray(data)) return 1;
+        if (data.length == 1 && (data[0] & 0xFF) < OFFSET_SHORT_ITEM) return 1;
+        return sizeOfPrefix(data.length) + data.length;
+    }
+
+    /**
+     * @return encoded size of the non-negative number
+     */
+    public static int sizeOfLong(long val) {
+        if (val < 0) throw new RuntimeException("negative numbers are not allowed");
+        if (val < OFFSET_SHORT_ITEM) return 1;
+        return 1 + bytesCount(val);
+    }
+
+    /**
+     * @return encoded size of the number treated as unsigned, the same as of {@link RLP#encodeInt(int)}
+     */
+    public static int sizeOfInt(int val) {
+        return sizeOfLong(val & 0xFFFFFFFFL);
+    }
+
+    public static int sizeOfBigInteger(BigInteger val) {
+        if (val.signum() < 0) throw new RuntimeException("negative numbers are not allowed");
+        if (val.bitLength() < 8) return 1;
+        int len = (val.bitLength() + 7) / 8;
+        return sizeOfPrefix(len) + len;
+    }
+
+    /**
+     * @return encoded size of the list with the content of the given size
+     */
+    public static int sizeOfList(int contentSize) {
+        return sizeOfPrefix(contentSize) + contentSize;
+    }
+
+    private static int sizeOfPrefix(int length) {
+        return length < SIZE_THRESHOLD ? 1 : 1 + bytesCount(length);
+    }
+
+    private static int bytesCount(long val) {
+        int ret = 0;
+        while (val != 0) {
+            ++ret;
+            val >>>= 8;
+        }
+        return ret;
+    }
+
+    public RLPWriter writeListHeader(int contentSize) {
+        writePrefix(contentSize, OFFSET_SHORT_LIST, OFFSET_LONG_LIST);
+        return this;
+    }
+
+    public RLPWriter writeBytes(byte[] data) {
+        if (isNullOrZeroArray(data)) {
+            put((byte) OFFSET_SHORT_ITEM);
+        } else if (isSingleZero(data) || (data.length == 1 && (data[0] & 0xFF) < OFFSET_SHORT_ITEM)) {
+            put(data[0]);
+        } else {
+            writePrefix(data.length, OFFSET_SHORT_ITEM, OFFSET_LONG_ITEM);
+            writeEncoded(data);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the non-negative number in the shortest big endian form, 0 is an empty item
+     */
+    public RLPWriter writeLong(long val) {
+        if (val < 0) throw new RuntimeException("negative numbers are not allowed");
+        if (val == 0) {
+            put((byte) OFFSET_SHORT_ITEM);
+        } else if (val < OFFSET_SHORT_ITEM) {
+            put((byte) val);
+        } else {
+            int len = bytesCount(val);
+            put((byte) (OFFSET_SHORT_ITEM + len));
+            checkSpace(len);
+            for (int i = len - 1; i >= 0; i--) {
+                buf[pos++] = (byte) (val >>> (8 * i));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the number treated as unsigned, the same as {@link RLP#encodeInt(int)} does
+     */
+    public RLPWriter writeInt(int val) {
+        return writeLong(val & 0xFFFFFFFFL);
+    }
+
+    public RLPWriter writeBigInteger(BigInteger val) {
+        if (val.signum() < 0) throw new RuntimeException("negative numbers are not allowed");
+        if (val.bitLength() < 64) {
+            return writeLong(val.longValue());
+        }
+        return writeBytes(asUnsignedByteArray(val));
+    }
+
+    /**
+     * Writes already RLP encoded element as is
+     */
+    public RLPWriter writeEncoded(byte[] encoded) {
+        checkSpace(encoded.length);
+        System.arraycopy(encoded, 0, buf, pos, encoded.length);
+        pos += encoded.length;
+        return this;
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public int size() {
+        return pos - start;
+    }
+
+    /**
+     * @return the encoded data, the buffer itself when the writer was created by size
+     */
+    public byte[] toByteArray() {
+        if (pos != end) {
+            throw new RuntimeException("RLP size mismatch: " + (end - start) + " expected, " + (pos - start) + " written");
+        }
+        if (start == 0 && end == buf.length) return buf;
+        byte[] ret = new byte[end - start];
+        System.arraycopy(buf, start, ret, 0, ret.length);
+        return ret;
+    }
+
+    private void writePrefix(int length, int shortOffset, int longOffset) {
+        if (length < SIZE_THRESHOLD) {
+            put((byte) (shortOffset + length));
+        } else {
+            int lenlen = bytesCount(length);
+            put((byte) (longOffset + lenlen));
+            checkSpace(lenlen);
+            for (int i = lenlen - 1; i >= 0; i--) {
+                buf[pos++] = (byte) (length >>> (8 * i));
+            }
+        }
+    }
+
+    private void put(byte b) {
+        checkSpace(1);
+        buf[pos++] = b;
+    }
+
+    private void checkSpace(int len) {
+        if (pos + len > end) {
+            throw new RuntimeException("RLP size mismatch: writing beyond " + (end - start) + " bytes");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.cds.main.blockchain.util;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Bloom filter of the recently added hashes, compact replacement of a bounded hash set
+ * where a rare false positive is acceptable.
+ *
+ * The entries are added to the current generation, when it holds the given number
+ * of entries the oldest generation is cleared and becomes the current one.
+ * So the filter remembers at least the last (generations - 1) * capacity entries.
+ *
+ * The keys are expected to be cryptographic hashes (at least 8 bytes).
+ * The key prefix is mixed with a random per filter seed before the bit positions are taken,
+ * so the keys colliding in one filter don't collide in the others and the collisions can't be
+ * crafted without knowing the seed
+ */
+public class RollingBloomFilter {
+
+    private static final int HASHES = 6;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final long[][] generations;
+    private final int capacity;
+    private final int bitsMask;
+    private final long seed;
+
+    private int current = 0;
+    private int currentCount = 0;
+
+    /**
+     * @param capacity number of entries in a generation
+     * @param generations number of generations, at least 2
+     */
+    public RollingBloomFilter(int capacity, int generations) {
+        if (generations < 2) throw new IllegalArgumentException("At least 2 generations expected");
+        this.capacity = capacity;
+        // ~16 bits per entry, about 0.1% false positives per generation
+        int bits = Integer.highestOneBit(Math.max(64, capacity * 16 - 1)) << 1;
+        this.bitsMask = bits - 1;
+        this.generations = new long[generations][bits / 64];
+        synchronized (random) {
+            this.seed = random.nextLong();
+        }
+    }
+
+    /**
+     * Adds the entry to the current generation unless it's already there,
+     * so the entries seen again are remembered longer
+     */
+    public synchronized void add(byte[] hash) {
+        long h = prefix(hash);
+        if (contains(generations[current], h)) return;
+        if (currentCount >= capacity) {
+            current = (current + 1) % generations.length;
+            Arrays.fill(generations[current], 0);
+            currentCount = 0;
+        }
+        long[] bits = generations[current];
+        for (int i = 0; i < HASHES; i++) {
+            int bit = bit(h, i);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        currentCount++;
+    }
+
+    public synchronized boolean mightContain(byte[] hash) {
+        long h = prefix(hash);
+        for (long[] bits : generations) {
+            if (contains(bits, h)) return true;
+        }
+        return false;
+    }
+
+    private boolean contains(long[] bits, long h) {
+        for (int i = 0; i < HASHES; i++) {
+            int bit = bit(h, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // double hashing over the two halves of the key prefix
+    private int bit(long h, int i) {
+        return ((int) h + i * ((int) (h >>> 32) | 1)) & bitsMask;
+    }
+
+    private long prefix(byte[] hash) {
+        long ret = 0;
+        for (int i = 0; i < 8; i++) {
+            ret = (ret << 8) | (hash[i] & 0xFF);
+        }
+        return mix(ret ^ seed);
+    }
+
+    // MurmurHash3 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
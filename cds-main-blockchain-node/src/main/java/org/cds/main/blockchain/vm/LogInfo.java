@@ -13,6 +13,7 @@ import org.cds.main.blockchain.util.RLP;
 import org.cds.main.blockchain.util.RLPElement;
 import org.cds.main.blockchain.util.RLPItem;
 import org.cds.main.blockchain.util.RLPList;
+import org.cds.main.blockchain.util.RLPWriter;
 
 public class LogInfo {
 
@@ -59,21 +60,23 @@ public class LogInfo {
     /*  [address, [topic, topic ...] data] */
     public byte[] getEncoded() {
 
-        byte[] addressEncoded = RLP.encodeElement(this.address);
-
-        byte[][] topicsEncoded = null;
+        int topicsSize = 0;
         if (topics != null) {
-            topicsEncoded = new byte[topics.size()][];
-            int i = 0;
             for (DataWord topic : topics) {
-                byte[] topicData = topic.getData();
-                topicsEncoded[i] = RLP.encodeElement(topicData);
-                ++i;
+                topicsSize += RLPWriter.sizeOfBytes(topic.getData());
             }
         }
 
-        byte[] dataEncoded = RLP.encodeElement(data);
-        return RLP.encodeList(addressEncoded, RLP.encodeList(topicsEncoded), dataEncoded);
+        RLPWriter writer = RLPWriter.list(RLPWriter.sizeOfBytes(address) +
+                RLPWriter.sizeOfList(topicsSize) + RLPWriter.sizeOfBytes(data))
+                .writeBytes(address)
+                .writeListHeader(topicsSize);
+        if (topics != null) {
+            for (DataWord topic : topics) {
+                writer.writeBytes(topic.getData());
+            }
+        }
+        return writer.writeBytes(data).toByteArray();
     }
 
     public Bloom getBloom() {
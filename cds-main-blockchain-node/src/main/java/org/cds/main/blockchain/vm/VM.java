@@ -136,6 +136,8 @@ public class VM {
         }
 
         try {
+            program.checkDeadline();
+
             BlockchainConfig blockchainConfig = program.getBlockchainConfig();
 
             OpCode op = OpCode.code(program.getCurrentOp());
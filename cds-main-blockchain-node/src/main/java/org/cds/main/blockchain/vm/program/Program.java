@@ -78,6 +78,9 @@ public class Program {
     private byte lastOp;
     private byte previouslyExecutedOp;
     private boolean stopped;
+    // wall clock deadline (ms) for local calls, 0 if not limited
+    private long deadline;
+    private int deadlineCheckCounter;
     private ByteArraySet touchedAccounts = new ByteArraySet();
 
     private ProgramPrecompile programPrecompile;
@@ -137,6 +140,26 @@ public class Program {
         return this;
     }
 
+    /**
+     * Limits the wall clock execution time of this program and all
+     * the nested calls. Intended for local (RPC) calls only
+     * @param deadline time in millis as {@link System#currentTimeMillis()} or 0 to not limit
+     */
+    public Program withDeadline(long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Throws {@link ExecutionTimeoutException} when the deadline is passed,
+     * the clock is checked on every 1024th invocation only
+     */
+    public void checkDeadline() {
+        if (deadline > 0 && (++deadlineCheckCounter & 0x3FF) == 0 && System.currentTimeMillis() > deadline) {
+            throw Exception.executionTimeout(deadline);
+        }
+    }
+
     public int getCallDeep() {
         return invoke.getCallDeep();
     }
@@ -451,7 +474,8 @@ public class Program {
             result.setException(new BytecodeExecutionException("Trying to create a contract with existing contract address: 0x" + toHexString(newAddress)));
         } else if (isNotEmpty(programCode)) {
             VM vm = new VM(config);
-            Program program = new Program(programCode, programInvoke, internalTx, config).withCommonConfig(commonConfig);
+            Program program = new Program(programCode, programInvoke, internalTx, config).withCommonConfig(commonConfig)
+                    .withDeadline(deadline);
             vm.play(program);
             result = program.getResult();
 
@@ -582,7 +606,8 @@ public class Program {
                     msg.getType().callIsStatic() || isStaticCall(), byTestingSuite());
 
             VM vm = new VM(config);
-            Program program = new Program(getStorage().getCodeHash(codeAddress), programCode, programInvoke, internalTx, config).withCommonConfig(commonConfig);
+            Program program = new Program(getStorage().getCodeHash(codeAddress), programCode, programInvoke, internalTx, config).withCommonConfig(commonConfig)
+                    .withDeadline(deadline);
             vm.play(program);
             result = program.getResult();
 
@@ -1249,6 +1274,14 @@ public class Program {
         }
     }
 
+    @SuppressWarnings("serial")
+    public static class ExecutionTimeoutException extends BytecodeExecutionException {
+
+        public ExecutionTimeoutException(String message, Object... args) {
+            super(format(message, args));
+        }
+    }
+
 
     public static class Exception {
 
@@ -1284,6 +1317,10 @@ public class Program {
         public static StackTooSmallException tooSmallStack(int expectedSize, int actualSize) {
             return new StackTooSmallException("Expected stack size %d but actual %d;", expectedSize, actualSize);
         }
+
+        public static ExecutionTimeoutException executionTimeout(long deadline) {
+            return new ExecutionTimeoutException("Execution time limit exceeded: deadline[%d], now[%d];", deadline, System.currentTimeMillis());
+        }
     }
 
     @SuppressWarnings("serial")